@@ -1,3 +1,28 @@
 #!/bin/sh
 
-java -classpath classes com.jdavies.mix.MixAsm $*
+# With the daemon running (./mixd.sh), the source is assembled there rather than in a
+# new JVM; talking to it takes socat or a netcat that knows Unix sockets (nc -U).
+# Without either, or without the daemon, it's assembled here.
+SOCKET=${MIX_SOCKET:-/tmp/mix-$(id -un).sock}
+
+if [ -S "$SOCKET" ]; then
+	if command -v socat >/dev/null 2>&1; then
+		CONNECT="socat - UNIX-CONNECT:$SOCKET"
+	elif command -v nc >/dev/null 2>&1; then
+		CONNECT="nc -U $SOCKET"
+	fi
+fi
+
+if [ -n "$CONNECT" ]; then
+	# See MixDaemon for the protocol; 255 means the daemon never answered
+	{ printf '%s\0' MIX1 "$PWD" asm "$@"; printf '\0'; } | $CONNECT 2>/dev/null | awk '
+		/^1 / { print substr($0, 3); next }
+		/^2 / { print substr($0, 3) > "/dev/stderr"; next }
+		/^0 / { status = substr($0, 3) + 0; answered = 1 }
+		END { exit answered ? status : 255 }'
+	STATUS=$?
+	if [ $STATUS -ne 255 ]; then
+		exit $STATUS
+	fi
+fi
+exec java -classpath classes com.jdavies.mix.MixAsm "$@"
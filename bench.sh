@@ -0,0 +1,4 @@
+#!/bin/sh
+
+# Build first with: mvn -f bench/pom.xml package (add -o once dependencies are cached)
+java -jar bench/target/benchmarks.jar -prof gc $*
@@ -0,0 +1,106 @@
+package com.jdavies.mix;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * {@link MixAsm#assemble} throughput, reported in source lines per second.  The program
+ * is generated: labels, indexes, partial fields, EQU and CON, with every symbol defined
+ * before it's used.  No listing is produced.  {@link #loadImage} is the alternative: the
+ * same program loaded into a VM from the image the assembler wrote.  {@link #cached} is
+ * assembling it again with a {@link MixAsmCache} that already has it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AssembleBenchmark	{
+	private static final int LINES = 2000;
+
+	private String source;
+	private Path image;
+	private ByteBuffer bytes;
+	private Path cacheDirectory;
+	private MixAsmCache cache;
+	private MixVM vm = new MixVM();
+
+	@Setup
+	public void setUp()	{
+		StringBuilder program = new StringBuilder();
+		// Two header lines, then LINES - 2 generated ones
+		program.append("BUF      EQU  3000\n");
+		program.append("         ORIG 100\n");
+		for (int k = 8; k < LINES + 6; k++)	{
+			switch (k % 8)	{
+				case 0:	program.append("L" + k + "    LDA  BUF," + (k % 7) + "(1:5)\n"); break;
+				case 1:	program.append("         ADD  " + (2000 + k) + "\n"); break;
+				case 2:	program.append("         STA  BUF,1(0:2)\n"); break;
+				case 3:	program.append("         ENT1 " + k + "\n"); break;
+				case 4:	program.append("         CMPA L" + (k - 4) + "\n"); break;
+				case 5:	program.append("         JL   L" + (k - 5) + "\n"); break;
+				case 6:	program.append("         CON  " + k + "\n"); break;
+				default:	program.append("* comment line " + k + "\n"); break;
+			}
+		}
+		source = program.toString();
+		bytes = ByteBuffer.wrap(source.getBytes(StandardCharsets.ISO_8859_1));
+
+		MixAsm assembler = new MixAsm();
+		try	{
+			assembler.assemble(new BufferedReader(new StringReader(source)));
+			image = Files.createTempFile("assemble", ".mixi");
+			assembler.writeImage(image);
+
+			cacheDirectory = Files.createTempDirectory("cache");
+			cache = new MixAsmCache(cacheDirectory, 1 << 20);
+			assembler = new MixAsm();
+			assembler.setCache(cache);
+			assembler.assemble(bytes);
+		} catch (IOException e)	{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception	{
+		Files.deleteIfExists(image);
+		try (java.util.stream.Stream<Path> files = Files.list(cacheDirectory))	{
+			for (Path file : (Iterable<Path>) files::iterator)	{
+				Files.delete(file);
+			}
+		}
+		Files.delete(cacheDirectory);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public boolean assemble() throws Exception	{
+		MixAsm assembler = new MixAsm();
+		assembler.setListing(null);
+		return assembler.assemble(new BufferedReader(new StringReader(source)));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public int loadImage() throws Exception	{
+		return vm.loadImage(image);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public boolean cached()	{
+		MixAsm assembler = new MixAsm();
+		assembler.setCache(cache);
+		return assembler.assemble(bytes);
+	}
+}
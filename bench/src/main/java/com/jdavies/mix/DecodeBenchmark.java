@@ -0,0 +1,42 @@
+package com.jdavies.mix;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Turning a memory word into a {@link MixInst}: what the interpreter does for every
+ * instruction it executes.  The words are real instructions with legal fields, spread
+ * over all 64 opcodes, so the decoder sees the same variety a program gives it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodeBenchmark	{
+	private static final int WORDS = 1024;
+
+	private int words[] = new int[WORDS];
+	private int next;
+
+	@Setup
+	public void setUp()	{
+		Random random = new Random(1);
+		MixOpCode codes[] = MixOpCode.values();
+		for (int k = 0; k < WORDS; k++)	{
+			int L = random.nextInt(6);
+			int R = L + random.nextInt(6 - L);
+			int a = random.nextInt(4000) * (random.nextBoolean() ? 1 : -1);
+			words[k] = new MixInst(codes[random.nextInt(64)], random.nextInt(7), L, R, a).pack();
+		}
+	}
+
+	@Benchmark
+	public void decode(Blackhole bh) throws MixException	{
+		bh.consume(new MixInst(words[next++ & (WORDS - 1)]));
+	}
+}
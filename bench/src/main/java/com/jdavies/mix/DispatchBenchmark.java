@@ -0,0 +1,90 @@
+package com.jdavies.mix;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The interpreter itself.  {@link #execute} sends an already-decoded mix of loads,
+ * stores, arithmetic, comparisons, shifts and jumps through {@link MixInst#execute}, so
+ * it measures dispatch and the instructions alone; {@link #run} is the whole
+ * fetch-decode-execute loop of {@link MixVM#run} over a small counting loop.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispatchBenchmark	{
+	private static final int MIX = 64;
+	private static final int ITERATIONS = 1000;
+	// ENT1, then five instructions a time round the loop, then HLT
+	private static final int EXECUTED = 2 + 5 * ITERATIONS;
+
+	private MixInst program[] = new MixInst[MIX];
+	private MixVM vm;
+	private MixVM loop;
+
+	@Setup
+	public void setUp()	{
+		Random random = new Random(2);
+		int mem[] = new int[4000];
+		for (int loc = 2000; loc < 3000; loc++)	{
+			mem[loc] = random.nextInt();
+		}
+		vm = new MixVM(mem);
+
+		MixOpCode codes[] = {MixOpCode.LDA, MixOpCode.LDX, MixOpCode.LDAN, MixOpCode.STA,
+			MixOpCode.STX, MixOpCode.ADD, MixOpCode.SUB, MixOpCode.MUL, MixOpCode.DIV,
+			MixOpCode.CMPA, MixOpCode.CMPX, MixOpCode.INCA, MixOpCode.INCX, MixOpCode.SLA,
+			MixOpCode.JMP, MixOpCode.NOP};
+		for (int k = 0; k < MIX; k++)	{
+			MixOpCode c = codes[k % codes.length];
+			int a = 2000 + random.nextInt(1000);
+			if (c == MixOpCode.SLA)	{
+				// SLA, SRA, SLAX, SRAX, SLC, SRC
+				program[k] = new MixInst(c, 0, 0, random.nextInt(6), random.nextInt(10));
+			} else if (c == MixOpCode.INCA || c == MixOpCode.INCX)	{
+				// INC, DEC, ENT, ENN
+				program[k] = new MixInst(c, 0, 0, random.nextInt(4), random.nextInt(4000));
+			} else if (c == MixOpCode.JMP)	{
+				// JMP, JSJ, JOV, JNOV, JL, JE, JG, JGE, JNE, JLE
+				program[k] = new MixInst(c, 0, 0, random.nextInt(10), a);
+			} else	{
+				program[k] = new MixInst(c, 0, 0, 5, a);
+			}
+		}
+
+		int code[] = {
+			new MixInst(MixOpCode.INC1, 0, 0, 2, ITERATIONS).pack(),	// 1000 ENT1 ITERATIONS
+			new MixInst(MixOpCode.LDA, 0, 0, 5, 2000).pack(),		// 1001 LDA  2000
+			new MixInst(MixOpCode.ADD, 0, 0, 5, 2001).pack(),		// 1002 ADD  2001
+			new MixInst(MixOpCode.STA, 0, 0, 5, 2000).pack(),		// 1003 STA  2000
+			new MixInst(MixOpCode.INC1, 0, 0, 1, 1).pack(),		// 1004 DEC1 1
+			new MixInst(MixOpCode.J1P, 0, 0, 2, 1001).pack(),		// 1005 J1P  1001
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()			// 1006 HLT
+		};
+		loop = new MixVM();
+		loop.loadMemory(1000, code);
+		loop.loadMemory(2000, new int[] {0, 1});
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(MIX)
+	public boolean execute() throws MixException	{
+		boolean running = true;
+		for (MixInst inst : program)	{
+			running &= inst.execute(vm);
+		}
+		return running;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(EXECUTED)
+	public int run() throws MixException	{
+		loop.run(1000);
+		return loop.getMemory(2000);
+	}
+}
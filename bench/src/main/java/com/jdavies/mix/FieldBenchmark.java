@@ -0,0 +1,60 @@
+package com.jdavies.mix;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * LDA and STA for each of the 21 legal field specifications (L:R), F = 8L + R, so that
+ * a slow field width shows up on its own rather than averaged in with the rest.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FieldBenchmark	{
+	private static final int WORDS = 256;
+
+	@Param({"0", "1", "2", "3", "4", "5", "9", "10", "11", "12", "13", "18", "19", "20",
+		"21", "27", "28", "29", "36", "37", "45"})
+	public int f;
+
+	private MixVM vm;
+	private MixInst load[] = new MixInst[WORDS];
+	private MixInst store[] = new MixInst[WORDS];
+
+	@Setup
+	public void setUp()	{
+		Random random = new Random(3);
+		int mem[] = new int[4000];
+		for (int loc = 0; loc < mem.length; loc++)	{
+			mem[loc] = random.nextInt();
+		}
+		vm = new MixVM(mem);
+		for (int k = 0; k < WORDS; k++)	{
+			load[k] = new MixInst(MixOpCode.LDA, 0, f / 8, f % 8, 2000 + k);
+			store[k] = new MixInst(MixOpCode.STA, 0, f / 8, f % 8, 3000 + k);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORDS)
+	public int load() throws MixException	{
+		for (MixInst inst : load)	{
+			inst.execute(vm);
+		}
+		return vm.getRegister(0);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORDS)
+	public int store() throws MixException	{
+		for (MixInst inst : store)	{
+			inst.execute(vm);
+		}
+		return vm.getMemory(3000);
+	}
+}
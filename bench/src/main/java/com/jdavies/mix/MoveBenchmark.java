@@ -0,0 +1,55 @@
+package com.jdavies.mix;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * MOVE for a range of block sizes, with the destination placed so that each of
+ * {@link MixVM#copyWords}'s cases gets exercised: blocks that don't overlap, a
+ * destination below the source, rI1 = M + 1 (one word copied everywhere) and a
+ * destination a few words above the source (a repeating pattern).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoveBenchmark	{
+	private static final int FROM = 1000;
+
+	@Param({"1", "4", "16", "63"})
+	public int size;
+
+	@Param({"DISJOINT", "BELOW", "REPLICATE", "PERIODIC"})
+	public String overlap;
+
+	private MixVM vm;
+	private int to;
+
+	@Setup
+	public void setUp()	{
+		Random random = new Random(4);
+		int mem[] = new int[4000];
+		for (int loc = 0; loc < mem.length; loc++)	{
+			mem[loc] = random.nextInt();
+		}
+		vm = new MixVM(mem);
+		switch (overlap)	{
+			case "DISJOINT":	to = 3000; break;
+			case "BELOW":		to = FROM - 3; break;
+			case "REPLICATE":	to = FROM + 1; break;
+			case "PERIODIC":	to = FROM + 3; break;
+			default:	throw new IllegalArgumentException(overlap);
+		}
+	}
+
+	@Benchmark
+	public int move() throws MixException	{
+		vm.putRegister(1, to);
+		vm.moveWords(FROM, 0, size);
+		return vm.getRegister(1);
+	}
+}
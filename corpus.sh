@@ -0,0 +1,4 @@
+#!/bin/sh
+
+# Run the MIXAL corpus; e.g. ./corpus.sh -runs 50 -label "$(git rev-parse --short HEAD)" -o report.json
+java -classpath classes com.jdavies.mix.MixCorpus $* corpus
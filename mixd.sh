@@ -0,0 +1,4 @@
+#!/bin/sh
+
+# Keep the assembler warm for asm.sh: ./mixd.sh & to start it, ./mixd.sh -stop to stop it
+java -classpath classes com.jdavies.mix.MixDaemon "$@"
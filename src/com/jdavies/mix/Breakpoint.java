@@ -0,0 +1,61 @@
+package com.jdavies.mix;
+
+import java.util.function.Predicate;
+
+/**
+ * A breakpoint, patched into {@link MixVM}'s decoded instructions in place of the
+ * instruction at its location, so that the fetch-decode-execute loop finds it without
+ * looking for it: with no breakpoints set, the loop does no more than it ever did.
+ * Executing it stops the machine, if the condition holds, before the instruction it
+ * stands in for; otherwise that instruction is executed as usual.
+ *
+ * It's made for the word at the location when the loop reaches it, and replaced like
+ * any decoded instruction if a store changes that word, so the word isn't decoded until
+ * it has to be executed: a breakpoint on a word that isn't an instruction stops the
+ * machine before the fault.
+ */
+final class Breakpoint extends MixInst	{
+	private final int word;
+	private final Predicate<MixVM> condition;
+	// The instruction it stands in for, decoded the first time it's executed
+	private MixInst instruction;
+
+	Breakpoint(int word, Predicate<MixVM> condition)	{
+		this.word = word;
+		this.condition = condition;
+	}
+
+	int word()	{
+		return word;
+	}
+
+	/**
+	 * The instruction underneath.
+	 */
+	MixInst instruction() throws IllegalInstruction, FieldError	{
+		if (instruction == null)	{
+			instruction = new MixInst(word);
+		}
+		return instruction;
+	}
+
+	/**
+	 * Whether to stop before executing the instruction, with the registers as they are.
+	 */
+	boolean test(MixVM vm)	{
+		return condition.test(vm);
+	}
+
+	/**
+	 * The loop has counted a breakpoint as an instruction taking no time; MixVM takes it
+	 * from there.
+	 */
+	public int time()	{
+		return 0;
+	}
+
+	public boolean execute(MixVM vm) throws MemoryLocationError, IllegalInstruction,
+			NotImplemented, FieldError, DeviceError	{
+		return vm.breakpoint(this);
+	}
+}
@@ -0,0 +1,163 @@
+package com.jdavies.mix;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+public class BreakpointTest	{
+	// Program P: ST2 PRIME+L,1 stores each prime after 2 as it's found
+	private static final int START = 3000;
+	private static final int STORE = 3004;
+	private static final int HALT = 3029;
+
+	private static ByteArrayOutputStream printed;
+
+	/**
+	 * A VM with Program P loaded, printing into {@link #printed}.
+	 */
+	private static MixVM primes() throws IOException	{
+		MixAsm asm = new MixAsm();
+		asm.assemble(Paths.get("corpus", "primes.mixal"));
+		MixVM vm = new MixVM(asm.getImage());
+		printed = new ByteArrayOutputStream();
+		vm.attachDevice(CharacterDevice.LINE_PRINTER, new CharacterDevice(
+			CharacterDevice.LINE_PRINTER, null, Channels.newChannel(printed)));
+		return vm;
+	}
+
+	private static void assertPrinted() throws IOException	{
+		if (!Arrays.equals(Files.readAllBytes(Paths.get("corpus", "primes.out")), printed.toByteArray()))	{
+			System.err.println("ERROR: Program P printed something else");
+		}
+	}
+
+	/**
+	 * Stopped before each of the 499 stores, the program still prints what it always does,
+	 * in the same time.
+	 */
+	public static void testBreakpoint() throws Exception	{
+		MixVM plain = primes();
+		plain.run(START);
+		MixVMTest.assertEquals(0, plain.isStopped() ? 1 : 0);
+
+		MixVM vm = primes();
+		vm.setBreakpoint(STORE);
+		vm.run(START);
+		int stops = 0;
+		while (vm.isStopped())	{
+			MixVMTest.assertEquals(STORE, vm.getLocation());
+			stops++;
+			if (stops == 1)	{
+				// The second prime, 3, is the first one stored
+				MixVMTest.assertEquals(3, vm.getValue(2));
+			}
+			vm.resume();
+		}
+		MixVMTest.assertEquals(499, stops);
+		MixVMTest.assertEquals(HALT + 1, vm.getLocation());
+		assertPrinted();
+		MixVMTest.assertEquals((int) plain.getInstructionCount(), (int) vm.getInstructionCount());
+		MixVMTest.assertEquals((int) plain.getClock(), (int) vm.getClock());
+	}
+
+	/**
+	 * A condition on the registers: the store of the 500th prime.
+	 */
+	public static void testCondition() throws Exception	{
+		MixVM vm = primes();
+		vm.setBreakpoint(STORE, machine -> machine.getValue(1) == 0);
+		vm.run(START);
+		MixVMTest.assertEquals(1, vm.isStopped() ? 1 : 0);
+		MixVMTest.assertEquals(3571, vm.getValue(2));
+		vm.resume();
+		MixVMTest.assertEquals(0, vm.isStopped() ? 1 : 0);
+		assertPrinted();
+
+		// Once cleared, they're gone
+		MixVM plain = primes();
+		plain.run(START);
+		vm = primes();
+		vm.setBreakpoint(STORE, machine -> false);
+		vm.setBreakpoint(START + 1);
+		vm.clearBreakpoints();
+		vm.run(START);
+		MixVMTest.assertEquals(0, vm.isStopped() ? 1 : 0);
+		MixVMTest.assertEquals((int) plain.getClock(), (int) vm.getClock());
+	}
+
+	/**
+	 * Single steps and run-until, from the start to the first store.
+	 */
+	public static void testStep() throws Exception	{
+		MixVM vm = primes();
+		vm.setBreakpoint(START);
+		vm.run(START);
+		MixVMTest.assertEquals(START, vm.getLocation());
+		MixVMTest.assertEquals(0, (int) vm.getInstructionCount());
+		// IOC, LD1, LD2, INC1: over the breakpoint at START
+		for (int k = 0; k < 4; k++)	{
+			MixVMTest.assertEquals(1, vm.step() ? 1 : 0);
+		}
+		MixVMTest.assertEquals(STORE, vm.getLocation());
+		MixVMTest.assertEquals(-498, vm.getValue(1));
+		MixVMTest.assertEquals(3, vm.getValue(2));
+
+		// Around the loop to the next prime, stopping nowhere else
+		vm.runUntil(STORE);
+		MixVMTest.assertEquals(1, vm.isStopped() ? 1 : 0);
+		MixVMTest.assertEquals(STORE, vm.getLocation());
+		MixVMTest.assertEquals(5, vm.getValue(2));
+		vm.runUntil(HALT);
+		MixVMTest.assertEquals(HALT, vm.getLocation());
+		MixVMTest.assertEquals(0, vm.step() ? 1 : 0);
+		vm.flushDevices();
+		assertPrinted();
+	}
+
+	/**
+	 * A breakpoint stays put when the word under it changes, and stops the machine before
+	 * a word that isn't an instruction.
+	 */
+	public static void testChangedWord() throws Exception	{
+		int mem[] = new int[MixVM.MEMORY];
+		// ENTA 7; STA 3(4:5); JMP 3; NOP; HLT: the STA makes the NOP a MOVE 0
+		mem[0] = MixInst.pack(MixOpCode.INCA.ordinal(), 0, 2, 7);
+		mem[1] = MixInst.pack(MixOpCode.STA.ordinal(), 0, 4 * 8 + 5, 3);
+		mem[2] = MixInst.pack(MixOpCode.JMP.ordinal(), 0, 0, 3);
+		mem[3] = MixInst.pack(MixOpCode.NOP.ordinal(), 0, 0, 0);
+		mem[4] = MixInst.pack(MixOpCode.HLT.ordinal(), 0, 2, 0);
+		mem[5] = -1;
+		MixVM vm = new MixVM(mem);
+		vm.setBreakpoint(3);
+		// Stopped at the NOP, so the breakpoint has been put in for it
+		vm.run(3);
+		MixVMTest.assertEquals(1, vm.isStopped() ? 1 : 0);
+		vm.run(0);
+		MixVMTest.assertEquals(1, vm.isStopped() ? 1 : 0);
+		MixVMTest.assertEquals(3, vm.getLocation());
+		MixVMTest.assertEquals(MixOpCode.MOVE.ordinal(), vm.getMemory(3));
+		vm.resume();
+		MixVMTest.assertEquals(0, vm.isStopped() ? 1 : 0);
+		MixVMTest.assertEquals(5, vm.getLocation());
+
+		vm.setBreakpoint(5);
+		MixVMTest.assertEquals(1, vm.tryRun(5) == null ? 1 : 0);
+		MixVMTest.assertEquals(1, vm.isStopped() ? 1 : 0);
+		try	{
+			vm.resume();
+			System.err.println("ERROR: the word under the breakpoint was executed");
+		} catch (IllegalInstruction e)	{
+			MixVMTest.assertEquals(5, e.getLocation());
+		}
+	}
+
+	public static void main(String[] args) throws Exception	{
+		testBreakpoint();
+		testCondition();
+		testStep();
+		testChangedWord();
+	}
+}
@@ -0,0 +1,201 @@
+package com.jdavies.mix;
+
+/**
+ * Loads a deck in the format read by the standard card loading routine (exercise
+ * 1.3.1-26) without simulating the routine.  The deck starts with the two cards of
+ * the routine itself; the GO button reads the first into locations 0-15, the routine
+ * reads the second into 16-31 and then each following card into BUFF = 29-44:
+ *
+ * columns 1-5    ignored
+ * column 6       the number of consecutive words on the card, 1-7; 0 on the transfer card
+ * columns 7-10   the location of the first word (of the first instruction on the
+ *                transfer card)
+ * columns 11-20, 21-30, ..., 71-80  the words, in decimal.  If a word is negative, a
+ *                minus is overpunched on its last digit (codes 10-19 instead of 30-39).
+ *
+ *  BUFF   EQU  29
+ *         ORIG 0
+ *  LOC    IN   16(16)
+ *  READ   IN   BUFF(16)
+ *         LD1  0(0:0)
+ *         JBUS *(16)
+ *         LDA  BUFF+1
+ *  =1=    SLA  1
+ *         SRAX 6
+ *  =30=   NUM  30
+ *         STA  LOC
+ *         LDA  BUFF+1(1:1)
+ *         SUB  =30=(0:2)
+ *  LOOP   LD3  LOC
+ *         JAZ  0,3
+ *         STA  BUFF
+ *         LDA  LOC
+ *         ADD  =1=(0:2)
+ *         STA  LOC
+ *         LDA  BUFF+3,1(5:5)
+ *         DECA 25
+ *         STA  0,3
+ *         LDA  BUFF+2,1
+ *         LDX  BUFF+3,1
+ *         NUM
+ *         STA  0,3(1:5)
+ *         MOVE 0,1(2)
+ *         LDA  BUFF
+ *         SUB  =1=(0:2)
+ *         JAP  LOOP
+ *         JMP  READ
+ *
+ * Each card is handled with the same register and memory effects that the routine
+ * would have, so when the program starts, everything but the clock is as if the
+ * routine had run.  If the deck doesn't begin with this routine, or a card would take
+ * the routine down some other path (a count outside of 0-7, or words that would land
+ * on top of the routine or its buffer), the routine is simulated from that point on
+ * instead: load() returns the location at which to resume, with the VM in exactly the
+ * state the routine would have had there.
+ */
+class CardLoader	{
+	private static final int READ = 1;
+	private static final int BUFF = 29;
+	private static final int LOOP_EXIT = 13;	// rJ after JAZ 0,3 jumps to the program
+	private static final int REPEAT = 28;		// rJ after JAP LOOP
+	private static final int NEXT_CARD = 29;	// rJ after JMP READ
+
+	static final int LOADER[] = new int[] {
+		new MixInst(MixOpCode.IN, 0, 2, 0, 16).pack(),
+		new MixInst(MixOpCode.IN, 0, 2, 0, BUFF).pack(),
+		new MixInst(MixOpCode.LD1, 0, 0, 0, 0).pack(),
+		new MixInst(MixOpCode.JBUS, 0, 2, 0, 3).pack(),
+		new MixInst(MixOpCode.LDA, 0, 0, 5, BUFF + 1).pack(),
+		new MixInst(MixOpCode.SLA, 0, 0, 0, 1).pack(),
+		new MixInst(MixOpCode.SLA, 0, 0, 3, 6).pack(),		// SRAX
+		new MixInst(MixOpCode.HLT, 0, 0, 0, 30).pack(),		// NUM
+		new MixInst(MixOpCode.STA, 0, 0, 5, 0).pack(),
+		new MixInst(MixOpCode.LDA, 0, 1, 1, BUFF + 1).pack(),
+		new MixInst(MixOpCode.SUB, 0, 0, 2, 7).pack(),
+		new MixInst(MixOpCode.LD3, 0, 0, 5, 0).pack(),
+		new MixInst(MixOpCode.JAP, 3, 0, 1, 0).pack(),		// JAZ
+		new MixInst(MixOpCode.STA, 0, 0, 5, BUFF).pack(),
+		new MixInst(MixOpCode.LDA, 0, 0, 5, 0).pack(),
+		new MixInst(MixOpCode.ADD, 0, 0, 2, 5).pack(),
+		// Second card
+		new MixInst(MixOpCode.STA, 0, 0, 5, 0).pack(),
+		new MixInst(MixOpCode.LDA, 1, 5, 5, BUFF + 3).pack(),
+		new MixInst(MixOpCode.INCA, 0, 0, 1, 25).pack(),	// DECA
+		new MixInst(MixOpCode.STA, 3, 0, 5, 0).pack(),
+		new MixInst(MixOpCode.LDA, 1, 0, 5, BUFF + 2).pack(),
+		new MixInst(MixOpCode.LDX, 1, 0, 5, BUFF + 3).pack(),
+		new MixInst(MixOpCode.HLT, 0, 0, 0, 0).pack(),		// NUM
+		new MixInst(MixOpCode.STA, 3, 1, 5, 0).pack(),
+		new MixInst(MixOpCode.MOVE, 1, 0, 2, 0).pack(),
+		new MixInst(MixOpCode.LDA, 0, 0, 5, BUFF).pack(),
+		new MixInst(MixOpCode.SUB, 0, 0, 2, 5).pack(),
+		new MixInst(MixOpCode.JAP, 0, 0, 2, 11).pack(),
+		new MixInst(MixOpCode.JMP, 0, 0, 0, READ).pack()
+	};
+
+	private static final int SIGN = 1 << 31;
+	private static final int MAGNITUDE = 0x3FFFFFFF;
+
+	private MixVM vm;
+	// The routine's registers; rI2, rI4-6, the overflow toggle and the comparison
+	// indicator are never touched by it.
+	private int rA;
+	private int rX;
+	private int rI1;
+	private int rI3;
+	private int rJ;
+
+	private CardLoader(MixVM vm)	{
+		this.vm = vm;
+		rA = vm.getRegister(0);
+		rX = vm.getRegister(7);
+		rI1 = vm.getRegister(1);
+		rI3 = vm.getRegister(3);
+		rJ = vm.getJ();
+	}
+
+	/**
+	 * Called just after the GO button has read the first card into 0-15: load the
+	 * rest of the deck, and return the location at which the VM should continue.
+	 */
+	static int load(MixVM vm) throws MemoryLocationError, DeviceError	{
+		return new CardLoader(vm).load();
+	}
+
+	private int load() throws MemoryLocationError, DeviceError	{
+		if (!matches(0, 16))	{
+			return 0;
+		}
+		vm.input(16, 0, CharacterDevice.CARD_READER);		// LOC IN 16(16)
+		if (!matches(16, LOADER.length))	{
+			return READ;
+		}
+
+		while (true)	{
+			vm.input(BUFF, 0, CharacterDevice.CARD_READER);	// READ IN BUFF(16)
+
+			int columns6to10 = vm.getMemory(BUFF + 1);
+			int count = (columns6to10 >>> 24) - 30;
+			// SLA 1, SRAX 6 leave columns 7-10 in rX(2:5); NUM 30 makes a number of them
+			int x = (rX & SIGN) | ((columns6to10 & 0x00FFFFFF));
+			int loc = MixCharset.toNum(0, x);
+
+			if (count < 0 || count > 7 || loc >= 4000 ||
+					(count > 0 && (loc < BUFF + 16 || loc + count > 4000)))	{
+				// Pick up with the simulated routine, just after the card has been read
+				save();
+				return READ + 1;
+			}
+
+			rI1 = vm.getMemory(0) & SIGN;		// LD1 0(0:0)
+			rX = x;
+			vm.putMemory(0, loc);				// STA LOC
+			if (count == 0)	{
+				// Transfer card: rA = 0 after SUB =30=, and JAZ 0,3 jumps to LOC
+				rA = 0;
+				rI3 = loc;
+				rJ = LOOP_EXIT;
+				save();
+				return loc;
+			}
+
+			for (int remaining = count; remaining > 0; remaining--)	{
+				rI3 = loc;									// LD3 LOC
+				vm.putMemory(BUFF, remaining);	// STA BUFF
+				loc++;
+				vm.putMemory(0, loc);				// LDA LOC; ADD =1=(0:2); STA LOC
+
+				int sign = (vm.getMemory(BUFF + 3 + rI1) & 0x3F) - 25;	// LDA BUFF+3,1(5:5); DECA 25
+				rX = vm.getMemory(BUFF + 3 + rI1);											// LDX BUFF+3,1
+				int magnitude = MixCharset.toNum(vm.getMemory(BUFF + 2 + rI1), rX);	// LDA BUFF+2,1; NUM
+				vm.putMemory(rI3, ((sign < 0) ? SIGN : 0) | magnitude);		// STA 0,3; STA 0,3(1:5)
+				rI1 += 2;										// MOVE 0,1(2)
+				if (remaining > 1)	{
+					rJ = REPEAT;
+				}
+			}
+			rA = 0;
+			rJ = NEXT_CARD;
+		}
+	}
+
+	/**
+	 * Is memory from {@param start} up to {@param end} the loading routine?
+	 */
+	private boolean matches(int start, int end)	{
+		for (int loc = start; loc < end; loc++)	{
+			if (vm.getMemory(loc) != LOADER[loc])	{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void save()	{
+		vm.putRegister(0, rA);
+		vm.putRegister(1, rI1);
+		vm.putRegister(3, rI3);
+		vm.putRegister(7, rX);
+		vm.setJ(rJ);
+	}
+}
@@ -0,0 +1,99 @@
+package com.jdavies.mix;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+
+public class CardLoaderTest	{
+	/**
+	 * The two cards of the loading routine, as punched.
+	 */
+	static String loaderCards()	{
+		StringBuilder cards = new StringBuilder();
+		for (int w = 0; w < 32; w++)	{
+			int word = (w < CardLoader.LOADER.length) ? CardLoader.LOADER[w] : 0;
+			for (int shift = 24; shift >= 0; shift -= 6)	{
+				cards.append((char) MixCharset.codeToHost[(word >> shift) & 0x3F]);
+			}
+			if (w == 15 || w == 31)	{
+				cards.append('\n');
+			}
+		}
+		return cards.toString();
+	}
+
+	/**
+	 * A card of consecutive words starting at {@param loc}.
+	 */
+	static String dataCard(int loc, long... words)	{
+		StringBuilder card = new StringBuilder(String.format("PROG %d%04d", words.length, loc));
+		for (long word : words)	{
+			String digits = String.format("%010d", Math.abs(word));
+			if (word < 0)	{
+				// overpunch a minus on the last digit
+				char last = (char) MixCharset.codeToHost[10 + digits.charAt(9) - '0'];
+				digits = digits.substring(0, 9) + last;
+			}
+			card.append(digits);
+		}
+		return card.append('\n').toString();
+	}
+
+	static MixVM deckVM(String deck)	{
+		MixVM vm = new MixVM();
+		vm.attachDevice(CharacterDevice.CARD_READER, new CharacterDevice(CharacterDevice.CARD_READER,
+			Channels.newChannel(new ByteArrayInputStream(deck.getBytes())), null));
+		return vm;
+	}
+
+	public static void testLoad() throws Exception	{
+		int hlt = new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack();
+		String deck = loaderCards() +
+			dataCard(1000, 5, -12345, 999999999, 0, 1, 2, -3) +
+			dataCard(2000, hlt) +
+			"TRANS02000\n";
+		MixVM vm = deckVM(deck);
+		vm.go();
+
+		long expected[] = { 5, -12345, 999999999, 0, 1, 2, -3 };
+		for (int w = 0; w < expected.length; w++)	{
+			int word = (int) Math.abs(expected[w]) | ((expected[w] < 0) ? 1 << 31 : 0);
+			MixVMTest.assertEquals(word, vm.getMemory(1000 + w));
+		}
+		MixVMTest.assertEquals(hlt, vm.getMemory(2000));
+		MixVMTest.assertEquals(2000, vm.getMemory(0));
+		MixVMTest.assertEquals(2000, vm.getRegister(3));
+		MixVMTest.assertEquals(0, vm.getRegister(0));
+		MixVMTest.assertEquals(13, vm.getJ());
+	}
+
+	/**
+	 * Loading natively has to leave things exactly as running the routine does.
+	 */
+	public static void testSimulatedLoad() throws Exception	{
+		int hlt = new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack();
+		String deck = loaderCards() +
+			dataCard(100, -1, 2, -3) +
+			dataCard(3000, 7, 6, 5, 4, 3, 2, 1) +
+			dataCard(3500, hlt) +
+			"TRANS03500\n";
+		MixVM fast = deckVM(deck);
+		MixVM slow = deckVM(deck);
+		fast.go();
+		slow.go(true);
+
+		for (int loc = 0; loc < 4000; loc++)	{
+			if (!MixVMTest.assertEquals(slow.getMemory(loc), fast.getMemory(loc)))	{
+				System.err.println("at location " + loc);
+			}
+		}
+		for (int r = 0; r < 8; r++)	{
+			MixVMTest.assertEquals(slow.getRegister(r), fast.getRegister(r));
+		}
+		MixVMTest.assertEquals(slow.getJ(), fast.getJ());
+	}
+
+	public static void main(String[] args) throws Exception	{
+		testLoad();
+		testSimulatedLoad();
+	}
+}
@@ -0,0 +1,306 @@
+package com.jdavies.mix;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One of the character-oriented peripherals, units 16 through 20.  Each block
+ * is a single record (a card, a printed line or a line of typewriter/paper tape
+ * text) of five characters per word.  On the host side a record is a line of
+ * text terminated by a newline; input lines that are too short are padded with
+ * blanks, and input lines that are too long are truncated.
+ *
+ * Reads and writes go through fixed-size buffers that are allocated once, so
+ * a program that runs for hours never holds more than one buffer's worth of its
+ * input or output on the heap.  Output is written to the channel whenever the
+ * buffer can't hold another record, and when the VM halts.
+ *
+ * The kind of device (and so its block size and what IOC does) is given by its
+ * standard unit number, but it can be attached to any unit of the VM.  Each transfer
+ * reports {@link #setBusyTime} units of busy time, 0 unless set.
+ *
+ * Characters are converted with the {@link MixCharset} device tables, so the three
+ * Greek letters in the MIX character set are written as '~' (delta), '[' (sigma) and
+ * '#' (pi).
+ *
+ * p. 136: When character-code input is being done, the signs of all words are set
+ * to +; on output, signs are ignored.
+ */
+public class CharacterDevice implements MixDevice	{
+	public static final int CARD_READER = 16;
+	public static final int CARD_PUNCH = 17;
+	public static final int LINE_PRINTER = 18;
+	public static final int TYPEWRITER = 19;
+	public static final int PAPER_TAPE = 20;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final byte toHost[] = MixCharset.codeToHost;
+	private static final byte toCode[] = MixCharset.hostToCode;
+
+	private int unit;
+	private int blockSize;
+	private int busyTime;
+	private ReadableByteChannel in;
+	private WritableByteChannel out;
+	private ByteBuffer inBuffer;
+	private ByteBuffer outBuffer;
+	private boolean eof;
+	// One record's worth of host characters
+	private byte record[];
+
+	/**
+	 * Bind unit number {@param unit} to the given channels; either may be null
+	 * if the device is only used in one direction.
+	 */
+	public CharacterDevice(int unit, ReadableByteChannel in, WritableByteChannel out)	{
+		this.unit = unit;
+		this.blockSize = blockSize(unit);
+		this.in = in;
+		this.out = out;
+		this.record = new byte[blockSize * 5];
+
+		if (in != null)	{
+			inBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			inBuffer.flip();	// start out empty
+		}
+		if (out != null)	{
+			outBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+	}
+
+	/**
+	 * Attach an input device (card reader, typewriter or paper tape) to a file.
+	 */
+	public static CharacterDevice openInput(int unit, Path path) throws IOException	{
+		if (unit == CARD_PUNCH || unit == LINE_PRINTER)	{
+			throw new IllegalArgumentException("Unit " + unit + " is output-only");
+		}
+		return new CharacterDevice(unit, FileChannel.open(path, StandardOpenOption.READ), null);
+	}
+
+	/**
+	 * Attach an output device (card punch, line printer, typewriter or paper tape)
+	 * to a file, replacing its contents.
+	 */
+	public static CharacterDevice openOutput(int unit, Path path) throws IOException	{
+		if (unit == CARD_READER)	{
+			throw new IllegalArgumentException("Unit " + unit + " is input-only");
+		}
+		return new CharacterDevice(unit, null, FileChannel.open(path,
+			StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+			StandardOpenOption.TRUNCATE_EXISTING));
+	}
+
+	/**
+	 * The number of words transferred by a single IN or OUT on unit {@param unit}.
+	 */
+	public static int blockSize(int unit)	{
+		switch (unit)	{
+			case CARD_READER:
+			case CARD_PUNCH:
+				return 16;
+			case LINE_PRINTER:
+				return 24;
+			case TYPEWRITER:
+			case PAPER_TAPE:
+				return 14;
+			default:
+				throw new IllegalArgumentException("Unit " + unit +
+					" is not a character device; expected 16-20");
+		}
+	}
+
+	public int getBlockSize()	{
+		return blockSize;
+	}
+
+	/**
+	 * Simulated time that each transfer keeps the device busy.
+	 */
+	public void setBusyTime(int busyTime)	{
+		this.busyTime = busyTime;
+	}
+
+	/**
+	 * Read the next record into the block.
+	 */
+	public int in(IntBuffer block) throws DeviceError	{
+		if (in == null)	{
+			throw new DeviceError("Unit " + unit + " can't be used for input");
+		}
+
+		try	{
+			int length = 0;
+			boolean found = false;
+			while (!found)	{
+				if (!inBuffer.hasRemaining())	{
+					if (!fill())	{
+						if (length == 0)	{
+							throw new DeviceError("End of input on unit " + unit);
+						}
+						break;
+					}
+				}
+				while (inBuffer.hasRemaining())	{
+					byte b = inBuffer.get();
+					if (b == '\n')	{
+						found = true;
+						break;
+					}
+					if (b == '\r')	{
+						continue;
+					}
+					// Anything past the end of the record is dropped
+					if (length < record.length)	{
+						record[length] = b;
+					}
+					length++;
+				}
+			}
+			for (int c = Math.min(length, record.length); c < record.length; c++)	{
+				record[c] = ' ';
+			}
+		} catch (IOException e)	{
+			throw new DeviceError("Error reading unit " + unit + ": " + e.getMessage());
+		}
+
+		int c = 0;
+		for (int w = 0; w < blockSize; w++)	{
+			block.put(w, (toCode[record[c] & 0xFF] << 24) |
+				(toCode[record[c + 1] & 0xFF] << 18) |
+				(toCode[record[c + 2] & 0xFF] << 12) |
+				(toCode[record[c + 3] & 0xFF] << 6) |
+				toCode[record[c + 4] & 0xFF]);
+			c += 5;
+		}
+
+		return busyTime;
+	}
+
+	/**
+	 * Write the block as one record.  Trailing blanks are not written.
+	 */
+	public int out(IntBuffer block) throws DeviceError	{
+		if (out == null)	{
+			throw new DeviceError("Unit " + unit + " can't be used for output");
+		}
+
+		int c = 0;
+		for (int w = 0; w < blockSize; w++)	{
+			int word = block.get(w);
+			record[c++] = toHost[(word >> 24) & 0x3F];
+			record[c++] = toHost[(word >> 18) & 0x3F];
+			record[c++] = toHost[(word >> 12) & 0x3F];
+			record[c++] = toHost[(word >> 6) & 0x3F];
+			record[c++] = toHost[word & 0x3F];
+		}
+		while (c > 0 && record[c - 1] == ' ')	{
+			c--;
+		}
+
+		try	{
+			if (outBuffer.remaining() < c + 1)	{
+				drain();
+			}
+			outBuffer.put(record, 0, c);
+			outBuffer.put((byte) '\n');
+		} catch (IOException e)	{
+			throw new DeviceError("Error writing unit " + unit + ": " + e.getMessage());
+		}
+
+		return busyTime;
+	}
+
+	/**
+	 * IOC: the line printer skips to the top of the next page and the paper tape
+	 * is rewound.  M should be 0 for both; the other devices ignore IOC.
+	 */
+	public int control(int m) throws DeviceError	{
+		try	{
+			if (unit == LINE_PRINTER && out != null)	{
+				if (!outBuffer.hasRemaining())	{
+					drain();
+				}
+				outBuffer.put((byte) '\f');
+			} else if (unit == PAPER_TAPE && in != null)	{
+				if (!(in instanceof SeekableByteChannel))	{
+					throw new DeviceError("Unit " + unit + " can't be rewound");
+				}
+				((SeekableByteChannel) in).position(0);
+				inBuffer.clear();
+				inBuffer.flip();
+				eof = false;
+			}
+		} catch (IOException e)	{
+			throw new DeviceError("Error positioning unit " + unit + ": " + e.getMessage());
+		}
+
+		return busyTime;
+	}
+
+	/**
+	 * Push any buffered output out to the channel.
+	 */
+	public void flush() throws DeviceError	{
+		if (out == null)	{
+			return;
+		}
+		try	{
+			drain();
+		} catch (IOException e)	{
+			throw new DeviceError("Error writing unit " + unit + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Flush any pending output and close both channels.
+	 */
+	public void close() throws DeviceError	{
+		flush();
+		try	{
+			if (in != null)	{
+				in.close();
+			}
+			if (out != null)	{
+				out.close();
+			}
+		} catch (IOException e)	{
+			throw new DeviceError("Error closing unit " + unit + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Refill the input buffer; return false at end of input.
+	 */
+	private boolean fill() throws IOException	{
+		if (eof)	{
+			return false;
+		}
+		inBuffer.clear();
+		int n = 0;
+		while (n == 0)	{
+			n = in.read(inBuffer);
+		}
+		inBuffer.flip();
+		if (n < 0)	{
+			eof = true;
+			return false;
+		}
+		return true;
+	}
+
+	private void drain() throws IOException	{
+		outBuffer.flip();
+		while (outBuffer.hasRemaining())	{
+			out.write(outBuffer);
+		}
+		outBuffer.clear();
+	}
+}
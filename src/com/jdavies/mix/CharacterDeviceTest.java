@@ -0,0 +1,77 @@
+package com.jdavies.mix;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+
+public class CharacterDeviceTest	{
+	public static boolean assertEquals(String a, String b)	{
+		if (!a.equals(b))	{
+			System.err.println("ERROR: Expected '" + a + "' but got '" + b + "'");
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Copy two cards to the line printer; the second card is longer than 80 columns
+	 * and has to be truncated.
+	 */
+	public static void testCardToPrinter() throws Exception	{
+		String cards = "HELLO, WORLD\r\n" +
+			"01234567890123456789012345678901234567890123456789012345678901234567890123456789XYZ\n";
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+
+		MixVM vm = new MixVM();
+		vm.attachDevice(CharacterDevice.CARD_READER, new CharacterDevice(CharacterDevice.CARD_READER,
+			Channels.newChannel(new ByteArrayInputStream(cards.getBytes("US-ASCII"))), null));
+		vm.attachDevice(CharacterDevice.LINE_PRINTER, new CharacterDevice(CharacterDevice.LINE_PRINTER,
+			null, Channels.newChannel(printed)));
+		vm.loadMemory(3000, new int[] {
+			new MixInst(MixOpCode.IN, 0, 2, 0, 1000).pack(),		// IN 1000(16)
+			new MixInst(MixOpCode.OUT, 0, 2, 2, 1000).pack(),		// OUT 1000(18)
+			new MixInst(MixOpCode.IN, 0, 2, 0, 1000).pack(),
+			new MixInst(MixOpCode.OUT, 0, 2, 2, 1000).pack(),
+			new MixInst(MixOpCode.IOC, 0, 2, 2, 0).pack(),			// IOC 0(18)
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()});
+		vm.run(3000);
+
+		assertEquals("HELLO, WORLD\n" +
+			"01234567890123456789012345678901234567890123456789012345678901234567890123456789\n\f",
+			printed.toString("US-ASCII"));
+	}
+
+	/**
+	 * A line printed before the program faults still comes out, whether the fault is
+	 * thrown or returned.
+	 */
+	public static void testOutputBeforeFault() throws Exception	{
+		for (int k = 0; k < 2; k++)	{
+			ByteArrayOutputStream printed = new ByteArrayOutputStream();
+			MixVM vm = new MixVM();
+			vm.attachDevice(CharacterDevice.LINE_PRINTER, new CharacterDevice(CharacterDevice.LINE_PRINTER,
+				null, Channels.newChannel(printed)));
+			vm.loadMemory(1000, new int[] { MixCharset.toWord("HELLO", 0) });
+			vm.loadMemory(3000, new int[] {
+				new MixInst(MixOpCode.OUT, 0, 2, 2, 1000).pack(),		// OUT 1000(18)
+				new MixInst(MixOpCode.JMP, 0, 0, 0, 4000).pack()});		// JMP 4000
+			if (k == 0)	{
+				try	{
+					vm.run(3000);
+					System.err.println("ERROR: the jump out of memory didn't fault");
+				} catch (MemoryLocationError e)	{
+					// As it should
+				}
+			} else	{
+				MixVMTest.assertEquals(1, vm.tryRun(3000) != null ? 1 : 0);
+			}
+			assertEquals("HELLO\n", printed.toString("US-ASCII"));
+		}
+	}
+
+	public static void main(String[] args) throws Exception	{
+		testCardToPrinter();
+		testOutputBeforeFault();
+	}
+}
@@ -0,0 +1,10 @@
+package com.jdavies.mix;
+
+class DeviceError extends MixException	{
+	private String msg;
+
+	public DeviceError(String msg)	{
+		super(msg);
+		this.msg = msg;
+	}
+}
@@ -0,0 +1,76 @@
+package com.jdavies.mix;
+
+/**
+ * A partial field specification (L:R), F = 8L + R, worked out once for each of the 21
+ * legal values of F.  p. 128: (0:0) is the sign alone, (0:5) the whole word, and
+ * (L:R) with L > 0 the bytes L through R; the sign is part of the field only if L = 0.
+ *
+ * Bytes L-R of a word live in the bits selected by {@link #mask}; shifting them right
+ * by {@link #shift} brings byte R down to the right-hand end, which is how loads and
+ * arithmetic see the field.  Stores go the other way, replacing the {@link #insertMask}
+ * bits of the memory word.
+ */
+final class FieldSpec	{
+	private static final int SIGN = 1 << 31;
+	private static final FieldSpec table[] = new FieldSpec[64];
+
+	static	{
+		for (int L = 0; L <= 5; L++)	{
+			for (int R = L; R <= 5; R++)	{
+				table[8 * L + R] = new FieldSpec(L, R);
+			}
+		}
+	}
+
+	/**
+	 * The whole word, (0:5).
+	 */
+	static final FieldSpec WORD = table[5];
+
+	final int L;
+	final int R;
+	// The bytes of the field, in place
+	final int mask;
+	final int shift;
+	final boolean sign;
+	// Every bit of a memory word that a store into this field replaces
+	final int insertMask;
+
+	private FieldSpec(int L, int R)	{
+		int first = Math.max(L, 1);
+
+		this.L = L;
+		this.R = R;
+		this.shift = (5 - R) * 6;
+		this.mask = (first > R) ? 0 : (int) (((1L << ((R - first + 1) * 6)) - 1) << shift);
+		this.sign = (L == 0);
+		this.insertMask = mask | (sign ? SIGN : 0);
+	}
+
+	/**
+	 * The descriptor for {@param f}, or null if F isn't a legal field specification.
+	 */
+	static FieldSpec of(int f)	{
+		return (f >= 0 && f < table.length) ? table[f] : null;
+	}
+
+	/**
+	 * The field of {@param word}, shifted over to the right, with the sign if it's part
+	 * of the field and + otherwise.
+	 */
+	int extract(int word)	{
+		return (word & insertMask & SIGN) | ((word & mask) >>> shift);
+	}
+
+	/**
+	 * {@param word} with the field replaced by the right-hand bytes (and sign) of
+	 * {@param value}.
+	 */
+	int insert(int word, int value)	{
+		return (word & ~insertMask) | ((value << shift) & mask) | (value & insertMask & SIGN);
+	}
+
+	public String toString()	{
+		return "(" + L + ":" + R + ")";
+	}
+}
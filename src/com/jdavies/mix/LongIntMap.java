@@ -0,0 +1,144 @@
+package com.jdavies.mix;
+
+/**
+ * A map from nonzero longs to ints, by open addressing with linear probing, so that
+ * neither keys nor values are boxed.  0 marks an empty slot.  Entries can be visited
+ * by slot: for every slot below {@link #capacity()}, {@link #keyAt} is the key held
+ * there, or 0.
+ */
+final class LongIntMap	{
+	private long keys[];
+	private int values[];
+	private int size;
+	private int shift;
+
+	LongIntMap()	{
+		this(16);
+	}
+
+	/**
+	 * Room for {@param expected} entries before the table grows.
+	 */
+	LongIntMap(int expected)	{
+		int capacity = 16;
+		while (capacity < 2 * expected)	{
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity)	{
+		keys = new long[capacity];
+		values = new int[capacity];
+		shift = 64 - Integer.numberOfTrailingZeros(capacity);
+	}
+
+	private int slot(long key)	{
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+	}
+
+	/**
+	 * The value for {@param key}, or {@param missing} if there isn't one.
+	 */
+	int get(long key, int missing)	{
+		int mask = keys.length - 1;
+		for (int s = slot(key); keys[s] != 0; s = (s + 1) & mask)	{
+			if (keys[s] == key)	{
+				return values[s];
+			}
+		}
+		return missing;
+	}
+
+	boolean containsKey(long key)	{
+		int mask = keys.length - 1;
+		for (int s = slot(key); keys[s] != 0; s = (s + 1) & mask)	{
+			if (keys[s] == key)	{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Set the value for {@param key}, which must not be 0.
+	 */
+	void put(long key, int value)	{
+		if (key == 0)	{
+			throw new IllegalArgumentException("0 can't be a key");
+		}
+		int mask = keys.length - 1;
+		int s = slot(key);
+		for (; keys[s] != 0; s = (s + 1) & mask)	{
+			if (keys[s] == key)	{
+				values[s] = value;
+				return;
+			}
+		}
+		keys[s] = key;
+		values[s] = value;
+		if (++size * 2 > keys.length)	{
+			grow();
+		}
+	}
+
+	/**
+	 * Take {@param key} out of the map, if it's there.
+	 */
+	void remove(long key)	{
+		int mask = keys.length - 1;
+		int s = slot(key);
+		while (keys[s] != key)	{
+			if (keys[s] == 0)	{
+				return;
+			}
+			s = (s + 1) & mask;
+		}
+		// Close the gap: move back any later entry in the run whose home slot is at or
+		// before the hole, so that no probe stops short of it
+		int hole = s;
+		for (s = (s + 1) & mask; keys[s] != 0; s = (s + 1) & mask)	{
+			int home = slot(keys[s]);
+			if (((s - home) & mask) >= ((s - hole) & mask))	{
+				keys[hole] = keys[s];
+				values[hole] = values[s];
+				hole = s;
+			}
+		}
+		keys[hole] = 0;
+		size--;
+	}
+
+	private void grow()	{
+		long oldKeys[] = keys;
+		int oldValues[] = values;
+		allocate(keys.length * 2);
+		int mask = keys.length - 1;
+		for (int k = 0; k < oldKeys.length; k++)	{
+			if (oldKeys[k] != 0)	{
+				int s = slot(oldKeys[k]);
+				while (keys[s] != 0)	{
+					s = (s + 1) & mask;
+				}
+				keys[s] = oldKeys[k];
+				values[s] = oldValues[k];
+			}
+		}
+	}
+
+	int size()	{
+		return size;
+	}
+
+	int capacity()	{
+		return keys.length;
+	}
+
+	long keyAt(int slot)	{
+		return keys[slot];
+	}
+
+	int valueAt(int slot)	{
+		return values[slot];
+	}
+}
@@ -0,0 +1,65 @@
+package com.jdavies.mix;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongIntMapTest	{
+	/**
+	 * The same as a HashMap, through growing and with keys that collide.
+	 */
+	public static void testAgainstHashMap()	{
+		LongIntMap map = new LongIntMap();
+		Map<Long, Integer> expected = new HashMap<Long, Integer>();
+		Random random = new Random(1968);
+		for (int k = 0; k < 10000; k++)	{
+			// Small keys, so that many are put twice
+			long key = (k % 3 == 0) ? (random.nextInt(5000) + 1) : (random.nextLong() | 1);
+			map.put(key, k);
+			expected.put(key, k);
+		}
+		MixVMTest.assertEquals(expected.size(), map.size());
+		for (Map.Entry<Long, Integer> entry : expected.entrySet())	{
+			MixVMTest.assertEquals(entry.getValue(), map.get(entry.getKey(), -1));
+		}
+		MixVMTest.assertEquals(-1, map.get(5001, -1));
+
+		int found = 0;
+		for (int slot = 0; slot < map.capacity(); slot++)	{
+			if (map.keyAt(slot) != 0)	{
+				MixVMTest.assertEquals(expected.get(map.keyAt(slot)), map.valueAt(slot));
+				found++;
+			}
+		}
+		MixVMTest.assertEquals(expected.size(), found);
+	}
+
+	/**
+	 * Whatever is left after removing keys can still be found.
+	 */
+	public static void testRemove()	{
+		LongIntMap map = new LongIntMap();
+		Map<Long, Integer> expected = new HashMap<Long, Integer>();
+		Random random = new Random(1968);
+		for (int k = 0; k < 20000; k++)	{
+			long key = random.nextInt(3000) + 1;
+			if (random.nextBoolean())	{
+				map.put(key, k);
+				expected.put(key, k);
+			} else	{
+				map.remove(key);
+				expected.remove(key);
+			}
+		}
+		MixVMTest.assertEquals(expected.size(), map.size());
+		for (long key = 1; key <= 3000; key++)	{
+			Integer value = expected.get(key);
+			MixVMTest.assertEquals((value == null) ? -1 : value, map.get(key, -1));
+		}
+	}
+
+	public static void main(String[] args)	{
+		testAgainstHashMap();
+		testRemove();
+	}
+}
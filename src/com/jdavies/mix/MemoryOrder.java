@@ -0,0 +1,20 @@
+package com.jdavies.mix;
+
+/**
+ * How the CPUs of a {@link MixSMP} see each other's loads and stores; each is the
+ * {@link java.lang.invoke.VarHandle} access mode of the same name.  Every CPU fetches and
+ * stores words (including instructions) in the chosen mode, weakest first:
+ *
+ * PLAIN            no ordering at all; another CPU may never see a store
+ * OPAQUE           each location is coherent, but there's no ordering between locations
+ * ACQUIRE_RELEASE  loads are acquires and stores are releases
+ * VOLATILE         sequentially consistent, like a single shared memory bus
+ *
+ * CAS is a full (volatile) compare-and-set in every mode.
+ */
+public enum MemoryOrder	{
+	PLAIN,
+	OPAQUE,
+	ACQUIRE_RELEASE,
+	VOLATILE
+}
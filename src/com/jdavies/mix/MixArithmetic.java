@@ -0,0 +1,132 @@
+package com.jdavies.mix;
+
+/**
+ * Sign-magnitude arithmetic on MIX words, as used by ADD, SUB, MUL, DIV, INC/DEC and
+ * the shifts.  A word is held in an int with the sign in bit 31 and the five bytes in
+ * bits 0-29; rA and rX together (rAX) are handled as a single 60-bit magnitude in a
+ * long, so none of these operations has to work a byte at a time.
+ *
+ * The operations that produce two words (rA and rX) return them packed into a long,
+ * rA in the upper half: see {@link #high} and {@link #low}.
+ */
+final class MixArithmetic	{
+	static final int SIGN = 1 << 31;
+	static final int MAGNITUDE = 0x3FFFFFFF;
+	private static final long MAGNITUDE60 = (1L << 60) - 1;
+	// Set in the result of add() if the sum didn't fit
+	static final long OVERFLOW = 1L << 32;
+
+	private MixArithmetic()	{
+	}
+
+	/**
+	 * The value of a word as a (signed) Java number; -0 becomes 0.
+	 */
+	static long value(int w)	{
+		long s = w >> 31;		// -1 if negative, 0 if not
+		return ((w & MAGNITUDE) ^ s) - s;
+	}
+
+	/**
+	 * p. 131: ADD.  The sum of two words, with {@link #OVERFLOW} set if the magnitude
+	 * was too large; the remainder is then as though a 1 had been carried into another
+	 * register to the left.  If the result is zero, it takes the sign of {@param a}.
+	 */
+	static long add(int a, int v)	{
+		long sum = value(a) + value(v);
+		long s = sum >> 63;
+		long magnitude = (sum ^ s) - s;
+		long zero = (magnitude - 1) >> 63;		// -1 if the sum is 0
+		int sign = (int) (((s & ~zero) << 31) | (a & SIGN & zero));
+
+		return (sign | (int) (magnitude & MAGNITUDE)) & 0xFFFFFFFFL |
+			((magnitude >>> 30) != 0 ? OVERFLOW : 0);
+	}
+
+	/**
+	 * Change the sign of a word (-0 becomes +0 and vice versa).
+	 */
+	static int negate(int w)	{
+		return w ^ SIGN;
+	}
+
+	/**
+	 * p. 131: MUL.  The 10-byte product of two words; both halves get the algebraic
+	 * sign of the product.
+	 */
+	static long multiply(int a, int v)	{
+		long product = (long) (a & MAGNITUDE) * (v & MAGNITUDE);
+		int sign = (a ^ v) & SIGN;
+
+		return pack(sign | (int) (product >>> 30), sign | (int) (product & MAGNITUDE));
+	}
+
+	/**
+	 * DIV is undefined (and sets the overflow toggle) if V = 0 or |rA| >= |V|.
+	 */
+	static boolean divideOverflows(int a, int v)	{
+		return (a & MAGNITUDE) >= (v & MAGNITUDE);
+	}
+
+	/**
+	 * p. 131: DIV.  rAX (with the sign of rA) divided by V: the quotient, with the
+	 * algebraic sign of the result, and the remainder, with the previous sign of rA.
+	 * Only valid if !divideOverflows(a, v).
+	 */
+	static long divide(int a, int x, int v)	{
+		long dividend = ((long) (a & MAGNITUDE) << 30) | (x & MAGNITUDE);
+		long divisor = v & MAGNITUDE;
+		long quotient = dividend / divisor;
+
+		return pack(((a ^ v) & SIGN) | (int) quotient,
+			(a & SIGN) | (int) (dividend - quotient * divisor));
+	}
+
+	/**
+	 * p. 135: the shifts, M bytes (M >= 0) in the direction given by F: SLA, SRA,
+	 * SLAX, SRAX, SLC, SRC.  Signs are never affected; SLA and SRA leave rX alone.
+	 */
+	static long shift(int a, int x, int f, int m)	{
+		long ax = ((long) (a & MAGNITUDE) << 30) | (x & MAGNITUDE);
+		int bits = 6 * Math.min(m, 10);
+
+		switch (f)	{
+			case 0:	// SLA
+				ax = (((long) (a & MAGNITUDE) << Math.min(bits, 30)) & MAGNITUDE) << 30 | (x & MAGNITUDE);
+				break;
+			case 1:	// SRA
+				ax = ((long) (a & MAGNITUDE) >>> Math.min(bits, 30)) << 30 | (x & MAGNITUDE);
+				break;
+			case 2:	// SLAX
+				ax = (ax << bits) & MAGNITUDE60;
+				break;
+			case 3:	// SRAX
+				ax = ax >>> bits;
+				break;
+			case 4:	// SLC
+			case 5:	// SRC
+				bits = 6 * (m % 10);
+				if (f == 5)	{
+					bits = (60 - bits) % 60;
+				}
+				ax = ((ax << bits) | (ax >>> (60 - bits))) & MAGNITUDE60;
+				break;
+			default:
+				throw new IllegalArgumentException("Invalid shift " + f);
+		}
+
+		return pack((a & SIGN) | (int) (ax >>> 30), (x & SIGN) | (int) (ax & MAGNITUDE));
+	}
+
+	static long pack(int high, int low)	{
+		return ((long) high << 32) | (low & 0xFFFFFFFFL);
+	}
+
+	static int high(long pair)	{
+		return (int) (pair >>> 32);
+	}
+
+	static int low(long pair)	{
+		return (int) pair;
+	}
+}
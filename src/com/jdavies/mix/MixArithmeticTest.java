@@ -0,0 +1,237 @@
+package com.jdavies.mix;
+
+import java.util.Random;
+
+/**
+ * Checks MixArithmetic against a slow, byte-at-a-time version of each operation
+ * written straight from the descriptions on pp. 131-135.
+ */
+public class MixArithmeticTest	{
+	private static final int SIGN = 1 << 31;
+	private static final int TRIALS = 2000000;
+	// Words that tend to find the edge cases
+	private static final int EDGES[] = {
+		0, SIGN, 1, SIGN | 1, 63, 64, 0x3FFFFFFF, SIGN | 0x3FFFFFFF, 1 << 24, SIGN | 1 << 29,
+		0x20000000, 0x1FFFFFFF, SIGN | 0x20000000
+	};
+
+	private static Random random = new Random(1968);
+	private static int failures;
+
+	/**
+	 * A random word; a quarter of them come from EDGES or have small magnitudes.
+	 */
+	private static int randomWord()	{
+		switch (random.nextInt(8))	{
+			case 0:
+				return EDGES[random.nextInt(EDGES.length)];
+			case 1:
+				return (random.nextBoolean() ? SIGN : 0) | random.nextInt(4096);
+			default:
+				return (random.nextBoolean() ? SIGN : 0) | (random.nextInt() & 0x3FFFFFFF);
+		}
+	}
+
+	private static int[] bytes(int word)	{
+		int b[] = new int[5];
+		for (int i = 4; i >= 0; i--)	{
+			b[i] = word & 0x3F;
+			word >>>= 6;
+		}
+		return b;
+	}
+
+	private static int word(boolean negative, int b[], int from)	{
+		int w = 0;
+		for (int i = from; i < from + 5; i++)	{
+			w = w * 64 + b[i];
+		}
+		return (negative ? SIGN : 0) | w;
+	}
+
+	private static boolean negative(int w)	{
+		return (w & SIGN) != 0;
+	}
+
+	private static void check(String what, long expected, long actual, int... operands)	{
+		if (expected != actual)	{
+			StringBuilder s = new StringBuilder(what);
+			for (int operand : operands)	{
+				s.append(String.format(" %08x", operand));
+			}
+			System.err.println("ERROR: " + s + ": expected " + Long.toHexString(expected) +
+				" but got " + Long.toHexString(actual));
+			failures++;
+		}
+	}
+
+	/**
+	 * Schoolbook addition of sign-magnitude byte strings.
+	 */
+	private static long slowAdd(int a, int v)	{
+		int x[] = bytes(a);
+		int y[] = bytes(v);
+		int r[] = new int[5];
+		boolean negative;
+		boolean overflow = false;
+
+		if (negative(a) == negative(v))	{
+			int carry = 0;
+			for (int i = 4; i >= 0; i--)	{
+				int sum = x[i] + y[i] + carry;
+				r[i] = sum % 64;
+				carry = sum / 64;
+			}
+			overflow = (carry != 0);
+			negative = negative(a);
+		} else	{
+			// Subtract the smaller magnitude from the larger
+			boolean swap = (a & 0x3FFFFFFF) < (v & 0x3FFFFFFF);
+			int big[] = swap ? y : x;
+			int small[] = swap ? x : y;
+			int borrow = 0;
+			for (int i = 4; i >= 0; i--)	{
+				int diff = big[i] - small[i] - borrow;
+				borrow = (diff < 0) ? 1 : 0;
+				r[i] = diff + 64 * borrow;
+			}
+			negative = swap ? negative(v) : negative(a);
+		}
+		int result = word(negative, r, 0);
+		if ((result & 0x3FFFFFFF) == 0)	{
+			result = a & SIGN;
+		}
+		return (result & 0xFFFFFFFFL) | (overflow ? MixArithmetic.OVERFLOW : 0);
+	}
+
+	/**
+	 * Long multiplication, one byte at a time, into a ten-byte product.
+	 */
+	private static long slowMultiply(int a, int v)	{
+		int x[] = bytes(a);
+		int y[] = bytes(v);
+		int p[] = new int[10];
+		for (int i = 4; i >= 0; i--)	{
+			int carry = 0;
+			for (int j = 4; j >= 0; j--)	{
+				int t = p[i + j + 1] + x[i] * y[j] + carry;
+				p[i + j + 1] = t % 64;
+				carry = t / 64;
+			}
+			p[i] += carry;
+		}
+		boolean negative = negative(a) != negative(v);
+		return MixArithmetic.pack(word(negative, p, 0), word(negative, p, 5));
+	}
+
+	/**
+	 * Restoring binary division of the ten-byte rAX.
+	 */
+	private static long slowDivide(int a, int x, int v)	{
+		long divisor = v & 0x3FFFFFFF;
+		long remainder = 0;
+		long quotient = 0;
+		long dividend = ((long) (a & 0x3FFFFFFF) << 30) | (x & 0x3FFFFFFF);
+		for (int bit = 59; bit >= 0; bit--)	{
+			remainder = (remainder << 1) | ((dividend >>> bit) & 1);
+			quotient <<= 1;
+			if (remainder >= divisor)	{
+				remainder -= divisor;
+				quotient |= 1;
+			}
+		}
+		return MixArithmetic.pack((negative(a) != negative(v) ? SIGN : 0) | (int) quotient,
+			(a & SIGN) | (int) remainder);
+	}
+
+	/**
+	 * Moves bytes around in a ten-byte array, one position at a time.
+	 */
+	private static long slowShift(int a, int x, int f, int m)	{
+		if (f >= 4 && m >= 20)	{
+			// Every 10 circular shifts put things back where they were
+			return slowShift(a, x, f, m % 10);
+		}
+		int r[] = new int[10];
+		System.arraycopy(bytes(a), 0, r, 0, 5);
+		System.arraycopy(bytes(x), 0, r, 5, 5);
+		int length = (f < 2) ? 5 : 10;
+
+		for (int n = 0; n < m && n < 20; n++)	{
+			switch (f)	{
+				case 0: case 2:	// SLA, SLAX
+					System.arraycopy(r, 1, r, 0, length - 1);
+					r[length - 1] = 0;
+					break;
+				case 1: case 3:	// SRA, SRAX
+					System.arraycopy(r, 0, r, 1, length - 1);
+					r[0] = 0;
+					break;
+				case 4:	{	// SLC
+					int first = r[0];
+					System.arraycopy(r, 1, r, 0, 9);
+					r[9] = first;
+					break;
+				}
+				case 5:	{	// SRC
+					int last = r[9];
+					System.arraycopy(r, 0, r, 1, 9);
+					r[0] = last;
+					break;
+				}
+			}
+		}
+		return MixArithmetic.pack(word(negative(a), r, 0), word(negative(x), r, 5));
+	}
+
+	public static void testAdd()	{
+		for (int t = 0; t < TRIALS; t++)	{
+			int a = randomWord();
+			int v = randomWord();
+			check("ADD", slowAdd(a, v), MixArithmetic.add(a, v), a, v);
+		}
+	}
+
+	public static void testMultiply()	{
+		for (int t = 0; t < TRIALS; t++)	{
+			int a = randomWord();
+			int v = randomWord();
+			check("MUL", slowMultiply(a, v), MixArithmetic.multiply(a, v), a, v);
+		}
+	}
+
+	public static void testDivide()	{
+		for (int t = 0; t < TRIALS; t++)	{
+			int a = randomWord();
+			int x = randomWord();
+			int v = randomWord();
+			boolean overflows = (v & 0x3FFFFFFF) == 0 || (a & 0x3FFFFFFF) >= (v & 0x3FFFFFFF);
+			if (overflows != MixArithmetic.divideOverflows(a, v))	{
+				check("DIV overflow", overflows ? 1 : 0, overflows ? 0 : 1, a, v);
+			} else if (!overflows)	{
+				check("DIV", slowDivide(a, x, v), MixArithmetic.divide(a, x, v), a, x, v);
+			}
+		}
+	}
+
+	public static void testShift()	{
+		for (int t = 0; t < TRIALS; t++)	{
+			int a = randomWord();
+			int x = randomWord();
+			int f = random.nextInt(6);
+			int m = random.nextBoolean() ? random.nextInt(12) : random.nextInt(4096);
+			check("SHIFT " + f + "," + m, slowShift(a, x, f, m), MixArithmetic.shift(a, x, f, m),
+				a, x);
+		}
+	}
+
+	public static void main(String[] args)	{
+		testAdd();
+		testMultiply();
+		testDivide();
+		testShift();
+		if (failures > 0)	{
+			System.err.println(failures + " failures");
+		}
+	}
+}
@@ -1,39 +1,24 @@
 package com.jdavies.mix;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.FileReader;
 import java.io.BufferedReader;
-import java.util.StringTokenizer;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
-
-/**
- * A standard specification for a MIX instruction.
- */
-class MixInstSpec	{
-	private int c;
-	private int time;
-	private int L;
-	private int R;
-
-	/**
-	 * Record the standard settings for a MIX instruction, if the
-	 * operation isn't overridden.
-	 */
-	public MixInstSpec(int c, int time, int L, int R)	{
-		this.c = c;
-		this.time = time;
-		this.L = L;
-		this.R = R;
-	}
-
-	public int getC() { return c; }
-	public int getTime() { return time; }
-	public int getL() { return L; }
-	public int getR() { return R; }
-}
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Assemble a plaintext file into an executable MIX program (executable by {@link MixVM}).
@@ -115,18 +100,46 @@ class MixInstSpec	{
  * 13. Every symbol has one and only one equivalent value.  If the symbol never appears in
  * LOC a new line is effectively inserted before the END line, having OP = "CON" and
  * ADDRESS = "0" and the name of the symbol in LOC.
+ *
+ * As an extension, a program can be assembled as a relocatable module (see
+ * {@link #setModule} and {@link MixLinker}).  Its locations are then relative to an
+ * origin that the linker chooses, and two more operations are allowed:
+ * ENTRY S1,...,Sn exports the symbols, for other modules to use, and
+ * EXTRN S1,...,Sn imports them.  An imported symbol can only be the whole A-part of an
+ * instruction (rule 6c), since the words that use it are found by following its chain.
  */
 public class MixAsm	{
+	/**
+	 * Changes whenever a change to the assembler changes what some source assembles to,
+	 * so that images cached by another version are never used.
+	 */
+	static final int VERSION = 1;
+
 	/**
 	 * Static mapping of opcodes to code values; this isn't a simple list, since multiple
 	 * opcodes map onto a single value (like JAP/JP, ENTA/INCA).
 	 */
-	private static Map<String, MixInstSpec> opcodes = new HashMap<String, MixInstSpec>();
-	// Whenever a forward reference ("future expression") its location is recorded here
-	// and resolved at the very end
-	private static Map<String, List<Integer>> forwardReferences = new HashMap<String, List<Integer>>();
+	static final OpcodeHash opcodes = new OpcodeHash(opcodeTable());
+	// The codes given to the pseudo-operations in the table
+	static final int EQU = 64;
+	static final int CON = 65;
+	static final int ALF = 66;
+	static final int ORIG = 67;
+	static final int END = 68;
+	static final int EXTRN = 69;
+	static final int ENTRY = 70;
+
+	// The most that main lets the images in a cache directory take up
+	private static final long CACHE_SIZE = 64L << 20;
 
-	static	{
+	// The largest magnitude that fits in the two bytes of an address
+	private static final int MAX_ADDRESS = 4095;
+	private static final int SIGN = 1 << 31;
+	// The sign and bytes 1-2 of a word: (0:2)
+	private static final int ADDRESS = SIGN | (MAX_ADDRESS << 18);
+
+	private static Map<String, MixInstSpec> opcodeTable()	{
+		Map<String, MixInstSpec> opcodes = new HashMap<String, MixInstSpec>();
 		// C	t	 L	R
 		opcodes.put("NOP", new MixInstSpec(0, 1, 0, 0));	// 1  0  0
 		opcodes.put("ADD", new MixInstSpec(1, 2, 0, 5));	// 2  0  5
@@ -136,6 +149,7 @@ public class MixAsm	{
 		opcodes.put("NUM", new MixInstSpec(5, 10, 0, 0));	// 10	0  0
 		opcodes.put("CHAR", new MixInstSpec(5, 10, 0, 1));	// 10 0  1
 		opcodes.put("HLT", new MixInstSpec(5, 10, 0, 2));	// 10 0  2
+		opcodes.put("CAS", new MixInstSpec(5, 2, 0, 3));	// 2  0  3	(extension)
 		opcodes.put("SLA", new MixInstSpec(6, 2, 0, 0));	// 2  0  0
 		opcodes.put("SRA", new MixInstSpec(6, 2, 0, 1));	// 2  0  1
 		opcodes.put("SLAX", new MixInstSpec(6, 2, 0, 2));	// 2  0  2
@@ -167,7 +181,7 @@ public class MixAsm	{
 		opcodes.put("ST5", new MixInstSpec(29, 2, 0, 5));	// 2	0  5
 		opcodes.put("ST6", new MixInstSpec(30, 2, 0, 5));	// 2	0  5
 		opcodes.put("STX", new MixInstSpec(31, 2, 0, 5));	// 2	0  5
-		opcodes.put("STJ", new MixInstSpec(32, 2, 0, 5));	// 2  0  2
+		opcodes.put("STJ", new MixInstSpec(32, 2, 0, 2));	// 2  0  2
 		opcodes.put("STZ", new MixInstSpec(33, 2, 0, 5)); // 2  0  5
 		opcodes.put("JBUS", new MixInstSpec(34, 1, 0, 0));	// 
 		opcodes.put("IOC", new MixInstSpec(35, 1, 0, 0));		// + T (device busy)
@@ -240,7 +254,7 @@ public class MixAsm	{
 		opcodes.put("INC5", new MixInstSpec(53, 0, 0, 0));
 		opcodes.put("INC6", new MixInstSpec(54, 0, 0, 0));
 		opcodes.put("INCX", new MixInstSpec(55, 0, 0, 0));
-		opcodes.put("DECA", new MixInstSpec(48, 0, 0, 0));
+		opcodes.put("DECA", new MixInstSpec(48, 0, 0, 1));
 		opcodes.put("DEC1", new MixInstSpec(49, 0, 0, 1));
 		opcodes.put("DEC2", new MixInstSpec(50, 0, 0, 1));
 		opcodes.put("DEC3", new MixInstSpec(51, 0, 0, 1));
@@ -256,7 +270,7 @@ public class MixAsm	{
 		opcodes.put("ENT5", new MixInstSpec(53, 1, 0, 2));
 		opcodes.put("ENT6", new MixInstSpec(54, 1, 0, 2));
 		opcodes.put("ENTX", new MixInstSpec(55, 1, 0, 2));
-		opcodes.put("ENNA", new MixInstSpec(48, 1, 0, 2));
+		opcodes.put("ENNA", new MixInstSpec(48, 1, 0, 3));
 		opcodes.put("ENN1", new MixInstSpec(49, 1, 0, 3));
 		opcodes.put("ENN2", new MixInstSpec(50, 1, 0, 3));
 		opcodes.put("ENN3", new MixInstSpec(51, 1, 0, 3));
@@ -264,76 +278,283 @@ public class MixAsm	{
 		opcodes.put("ENN5", new MixInstSpec(53, 1, 0, 3));
 		opcodes.put("ENN6", new MixInstSpec(54, 1, 0, 3));
 		opcodes.put("ENNX", new MixInstSpec(55, 1, 0, 3));
-		opcodes.put("CMPA", new MixInstSpec(56, 0, 0, 0));
-		opcodes.put("CMP1", new MixInstSpec(57, 0, 0, 0));
-		opcodes.put("CMP2", new MixInstSpec(58, 0, 0, 0));
-		opcodes.put("CMP3", new MixInstSpec(59, 0, 0, 0));
-		opcodes.put("CMP4", new MixInstSpec(60, 0, 0, 0));
-		opcodes.put("CMP5", new MixInstSpec(61, 0, 0, 0));
-		opcodes.put("CMP6", new MixInstSpec(62, 0, 0, 0));
-		opcodes.put("CMPX", new MixInstSpec(63, 0, 0, 0));
+		opcodes.put("CMPA", new MixInstSpec(56, 2, 0, 5));
+		opcodes.put("CMP1", new MixInstSpec(57, 2, 0, 5));
+		opcodes.put("CMP2", new MixInstSpec(58, 2, 0, 5));
+		opcodes.put("CMP3", new MixInstSpec(59, 2, 0, 5));
+		opcodes.put("CMP4", new MixInstSpec(60, 2, 0, 5));
+		opcodes.put("CMP5", new MixInstSpec(61, 2, 0, 5));
+		opcodes.put("CMP6", new MixInstSpec(62, 2, 0, 5));
+		opcodes.put("CMPX", new MixInstSpec(63, 2, 0, 5));
 		// psuedo-operations; map these all to invalid opcode values
 		opcodes.put("EQU", new MixInstSpec(64, 0, 0, 0));
 		opcodes.put("CON", new MixInstSpec(65, 0, 0, 0));
 		opcodes.put("ALF", new MixInstSpec(66, 0, 0, 0));
 		opcodes.put("ORIG", new MixInstSpec(67, 0, 0, 0));
 		opcodes.put("END", new MixInstSpec(68, 0, 0, 0));
-	};
+		opcodes.put("EXTRN", new MixInstSpec(69, 0, 0, 0));
+		opcodes.put("ENTRY", new MixInstSpec(70, 0, 0, 0));
+		// Shared by every assembler, on any thread, so it must never change
+		return Map.copyOf(opcodes);
+	}
 
 	private int pc;
-	private Map<String, Integer> symbolTable = new HashMap<String, Integer>();
+	// Symbols, packed by MixSymbol, to their equivalents
+	private LongIntMap symbolTable = new LongIntMap();
+	// Each symbol that has been referred to but not yet defined, with the location of
+	// the last word that refers to it.  That word's address field holds the location of
+	// the reference before it, and so on back to the first, whose address is its own
+	// location: the chain is patched as soon as the symbol is defined.  A symbol that
+	// only deferred expressions are waiting for maps to -1.
+	private LongIntMap forwardReferences = new LongIntMap();
+	// Any other expression with a future reference is compiled here and kept until the
+	// end: the code for the k'th ends at deferredEnd[k] in deferredCode, and is run on
+	// the word at deferredLocation[k], from line deferredLine[k]
+	private long deferredCode[] = new long[64];
+	private int deferredLength;
+	private int deferredLocation[] = new int[16];
+	private int deferredLine[] = new int[16];
+	private int deferredEnd[] = new int[16];
+	private int deferred;
+	private MixalExpression expression = new MixalExpression();
+	// Each distinct literal constant (rule 12), keyed by its word with bit 32 set, heads a
+	// chain of the words that refer to it, like an undefined symbol; literalWords holds
+	// them in the order they first appeared, and literalReferences counts every use
+	private LongIntMap literals = new LongIntMap();
+	private int literalWords[] = new int[16];
+	private int literalFields[] = new int[16];
+	private int literalCount;
+	private int literalReferences;
+	// Set once the undefined symbols, literals and deferred expressions are all in place
+	private boolean finished;
+	// The line being assembled, counting from 1; different than program counter
+	private int line;
+	// The location given by END, where the program begins; -1 if there was no END
+	private int start = -1;
+	// Every line that didn't assemble, with the reason
+	private List<String> errors = new ArrayList<String>();
+	// What assembled, but probably not as meant
+	private List<String> warnings = new ArrayList<String>();
+	// Each line is listed here, with what it assembled to, if set
+	private PrintStream listing;
+	// Where assembled programs are looked up before assembling them, if set
+	private MixAsmCache cache;
+
+	// For a relocatable module, the symbols relative to its origin, the symbols it
+	// imports and exports, and the field of each word that the linker adjusts (plus 1,
+	// so 0 for none); all null for an absolute program
+	private LongIntMap relocatable;
+	private LongIntMap externals;
+	private LongIntMap entries;
+	private byte relocation[];
+	// Each word that refers to an imported symbol, once its chain has been taken apart
+	private long importSymbols[] = new long[0];
+	private int importLocations[] = new int[0];
+	private int importCount;
+	private boolean startRelocatable;
+	// One more than the highest location used
+	private int extent;
+	// The module, if it came from the cache
+	private MixModule module;
 
 	// Write directly into this memory area; the output routine will compress this by
 	// removing contiguous regions of zeros.
 	private int mem[] = new int[4000];
+	// The source line each word was assembled from; 0 for none
+	private int lines[] = new int[4000];
+	// The words on a chain or with a deferred expression, which mustn't be assembled over
+	private boolean waiting[] = new boolean[4000];
 
 	public MixAsm()	{
 		this.pc = 0;	// always start assembling at 0 by default, although most programs change this.
 	}
 
-	/** 
-	 * location can be:
-	 * *, indicating current location counter
-	 * simple arithmetic, including:
-	 * +,-
-	 * a numeric
-	 * a symbol (defined or a placeholder)
-	 * It must ultimately resolve to a numeric value, though.
+	/**
+	 * Send the assembly listing to {@param listing}; null for none.
 	 */
-	private int parseLocation(String location)	{
-		int ilocation = 0;
-		StringTokenizer locationParser = new StringTokenizer(location, "+-*/:", true);
+	public void setListing(PrintStream listing)	{
+		this.listing = listing;
+	}
 
-		int i = 0;
-		while (locationParser.hasMoreTokens())	{
-			String token = locationParser.nextToken();
-			if ("*".equals(token))	{
-				ilocation += this.pc;
-			} else if ("+".equals(token))	{
-				// TODO
-			}
-		}
+	/**
+	 * Look up each source in {@param cache} before assembling it, and keep what's
+	 * assembled there; null for no cache.  A listing is only made by assembling, so
+	 * there's no lookup while one is wanted.
+	 */
+	public void setCache(MixAsmCache cache)	{
+		this.cache = cache;
+	}
 
-		if ("*".equals(location))	{
-			ilocation = this.pc;
+	/**
+	 * Assemble a relocatable module, for {@link MixLinker}, rather than a program: see
+	 * {@link #getModule}.
+	 */
+	public void setModule(boolean module)	{
+		if (module)	{
+			relocatable = new LongIntMap();
+			externals = new LongIntMap();
+			entries = new LongIntMap();
+			relocation = new byte[mem.length];
 		} else	{
-			try	{
-				ilocation = Integer.parseInt(location);
-			} catch (NumberFormatException e)	{
-				if (symbolTable.get(location) != null)	{
-					ilocation = symbolTable.get(location);
-				} else	{
-					List<Integer> forwardReferenceList = forwardReferences.get(location);
-					if (forwardReferenceList == null)	{
-						forwardReferenceList = new ArrayList<Integer>();
-						forwardReferences.put(location, forwardReferenceList);
-					}
-					forwardReferenceList.add(pc);
+			relocatable = externals = entries = null;
+			relocation = null;
+		}
+		expression.setRelocatable(relocatable);
+	}
+
+	private boolean isModule()	{
+		return relocatable != null;
+	}
+
+	/**
+	 * The value to compile for *: the location itself, unless it's relocatable.
+	 */
+	private int star()	{
+		return isModule() ? MixalExpression.LOCATION : pc;
+	}
+
+	private void list(String line)	{
+		if (listing != null)	{
+			listing.println(line);
+		}
+	}
+
+	/**
+	 * Run the code just compiled against {@param word}, the word being assembled at *.
+	 * If the code depends on a future reference, and {@param deferrable}, the word is
+	 * left for the reference to be resolved: a bare symbol as the A-part of an
+	 * instruction is put on the symbol's chain (rule 6c), and anything else is kept and
+	 * run at the end.
+	 */
+	private int evaluate(int word, boolean deferrable) throws SyntaxException	{
+		long symbol = expression.future();
+		if (symbol == 0)	{
+			return expression.evaluate(expression.code(), 0, expression.length(), symbolTable, pc, word);
+		}
+		if (!deferrable)	{
+			throw new SyntaxException("Future reference '" + MixSymbol.toString(symbol) +
+				"' is not allowed here");
+		}
+		if (expression.loneFutureAddress() != 0)	{
+			// The word being assembled goes on the front of the chain, linked to the last
+			// reference or, if it's the first, to itself
+			int last = forwardReferences.get(symbol, -1);
+			forwardReferences.put(symbol, pc);
+			waiting[pc] = true;
+			return MixInst.pack(word & 0x3F, (word >> 12) & 0x3F, (word >> 6) & 0x3F,
+				(last < 0) ? pc : last);
+		}
+		defer();
+		return word;
+	}
+
+	/**
+	 * Keep the code just compiled, to be run on the word at * at the end.
+	 */
+	private void defer()	{
+		int length = expression.length();
+		if (deferredLength + length > deferredCode.length)	{
+			deferredCode = Arrays.copyOf(deferredCode, Math.max(2 * deferredCode.length,
+				deferredLength + length));
+		}
+		if (deferred == deferredLocation.length)	{
+			deferredLocation = Arrays.copyOf(deferredLocation, 2 * deferred);
+			deferredLine = Arrays.copyOf(deferredLine, 2 * deferred);
+			deferredEnd = Arrays.copyOf(deferredEnd, 2 * deferred);
+		}
+		System.arraycopy(expression.code(), 0, deferredCode, deferredLength, length);
+		deferredLength += length;
+		deferredLocation[deferred] = pc;
+		waiting[pc] = true;
+		deferredLine[deferred] = line;
+		deferredEnd[deferred] = deferredLength;
+		deferred++;
+		// Every symbol it waits for has to be defined by the end, if only by rule 13
+		MixalExpression.addFutureReferences(expression.code(), 0, length, symbolTable,
+			forwardReferences);
+	}
+
+	/**
+	 * Give {@param symbol} its equivalent, and patch every word that has been waiting
+	 * for it; in a module, the equivalent may be {@param relative} to the origin.
+	 */
+	private void define(long symbol, int value, boolean relative) throws SyntaxException	{
+		symbolTable.put(symbol, value);
+		if (relative && isModule())	{
+			relocatable.put(symbol, 1);
+		}
+		if (!forwardReferences.containsKey(symbol))	{
+			return;
+		}
+		// -1 if only deferred expressions are waiting for it
+		int location = forwardReferences.get(symbol, -1);
+		if (location >= 0 && Math.abs(value) > MAX_ADDRESS)	{
+			throw new SyntaxException("'" + MixSymbol.toString(symbol) + "' (" + value +
+				") is too large for the address of the instructions that refer to it");
+		}
+		forwardReferences.remove(symbol);
+		if (location < 0)	{
+			return;
+		}
+		if (listing != null)	{
+			list(MixSymbol.toString(symbol) + "(" + value + "): ");
+		}
+		patch(location, value, relative);
+	}
+
+	/**
+	 * Set the address of every word on the chain starting at {@param location} to
+	 * {@param value}, which may be {@param relative} to the origin of a module.
+	 */
+	private void patch(int location, int value, boolean relative)	{
+		for (;;)	{
+			int word = mem[location];
+			int next = (word >> 18) & MAX_ADDRESS;
+			// Replace the link with the value, sign and all (the sign of an instruction
+			// is the sign of its address)
+			mem[location] = (word & ~ADDRESS) | ((value < 0) ? SIGN : 0) | (Math.abs(value) << 18);
+			waiting[location] = false;
+			if (relative)	{
+				relocate(location, 2);
+			}
+			if (listing != null)	{
+				try	{
+					list(location + ": " + new MixInst(mem[location]));
+				} catch (MixException e)	{
+					list(location + ": " + e.getMessage());
 				}
 			}
+			if (next == location)	{
+				return;
+			}
+			location = next;
 		}
+	}
 
-		return ilocation;
+	/**
+	 * ALF is followed either by two blank spaces and five characters, or by a single
+	 * blank space and five characters, the first of which is nonblank.  {@param start}
+	 * is the position just past "ALF".
+	 */
+	static int parseAlf(MixalScanner scan, int start) throws SyntaxException	{
+		if (start < scan.lineEnd && scan.at(start) == '\t')	{
+			start++;
+		} else if (start + 1 < scan.lineEnd && scan.at(start + 1) == ' ')	{
+			start += 2;
+		} else	{
+			start++;
+		}
+
+		int word = 0;
+		for (int p = start; p < start + 5; p++)	{
+			int code = (p < scan.lineEnd) ? MixCharset.toCode((char) (scan.at(p) & 0xFF)) : 0;
+			if (code < 0)	{
+				throw new SyntaxException("'" + (char) (scan.at(p) & 0xFF) +
+					"' is not in the MIX character set");
+			}
+			word = (word << 6) | code;
+		}
+		return word;
 	}
 
 	/**
@@ -362,206 +583,645 @@ public class MixAsm	{
 	 * characters of alphanumeric data, or by a single blank space and give alphanumeric
 	 * characters, the first of which is nonblank.
 	 */
-	private void assembleLine(String line) throws SyntaxException	{
-		StringTokenizer tok = new StringTokenizer(line, " \t");
-		String label = null;
-		String opcode;
-		String address = null;
+	private void assembleLine(MixalScanner scan) throws SyntaxException	{
+		long label = 0;
 		int c;
-		int f;
-		int i;
 		int a;
 
-		if (line.charAt(0) != ' ' && line.charAt(0) != '\t')	{
-			label = tok.nextToken();
+		if (scan.locEnd > scan.locStart)	{
+			label = MixSymbol.pack(scan, scan.locStart, scan.locEnd);
+			if (label == 0)	{
+				throw new SyntaxException("Invalid symbol '" +
+					scan.text(scan.locStart, scan.locEnd) + "'");
+			}
 		}
-		opcode = tok.nextToken();
-		if (tok.hasMoreTokens())	{
-			address = tok.nextToken();
+		if (listing != null)	{
+			list(((label == 0) ? null : MixSymbol.toString(label)) + ":" + scan.text(scan.opStart, scan.opEnd) + ":" +
+				((scan.addressEnd > scan.addressStart) ?
+				scan.text(scan.addressStart, scan.addressEnd) : null));
 		}
-
-System.out.println(label + ":" + opcode + ":" + address);
-		if (label != null)	{
-			if (symbolTable.get(label) != null)	{
-				throw new SyntaxException("Duplicate symbol '" + label + "', first seen at location " +
-					symbolTable.get(label));
+		if (label != 0)	{
+			if (symbolTable.containsKey(label))	{
+				throw new SyntaxException("Duplicate symbol '" + MixSymbol.toString(label) +
+					"', first seen at location " + symbolTable.get(label, 0));
+			}
+			if (isModule() && externals.containsKey(label))	{
+				throw new SyntaxException("'" + MixSymbol.toString(label) +
+					"' is imported, so it can't be defined here");
 			}
-			symbolTable.put(label, pc);
 		}
-		if (opcodes.get(opcode) == null)	{
-			throw new SyntaxException("Unrecognized opcode '" + opcode + "'");
+		MixInstSpec spec = opcodes.get(scan, scan.opStart, scan.opEnd);
+		if (spec == null)	{
+			throw new SyntaxException("Unrecognized opcode '" + scan.text(scan.opStart, scan.opEnd) + "'");
 		}
-		MixInstSpec spec = opcodes.get(opcode);
 		c = spec.getC();
-		// The really hard part here is interpreting the address part of the instruction
-
-		// location[,index][(L[:R])]
-		// TODO W-Expressions
-		// TODO regexp instead?  This is awfully complex...
-		String location = null;
-		String index = null;
-		String L = null;
-		String R = null;
-		if (address != null)	{
-			StringTokenizer addrParser = new StringTokenizer(address, ",():", true);
-
-			location = addrParser.nextToken();
-			if (addrParser.hasMoreTokens())	{
-				String sep = addrParser.nextToken();
-				if (sep.equals(","))	{
-					index = addrParser.nextToken();
-					if (addrParser.hasMoreTokens())	{
-						sep = addrParser.nextToken();
-					} else	{
-						sep = null;
-					}
+		// The equivalent of a label is *, except for EQU and END
+		if (label != 0 && c != EQU && c != END)	{
+			define(label, pc, true);
+		}
+
+		if (c == ALF)	{
+			checkLocation();
+			lines[pc] = line;
+			mem[pc] = parseAlf(scan, scan.opEnd);
+			relocate(pc, -1);
+			pc++;
+			return;
+		}
+		if (c == EXTRN || c == ENTRY)	{
+			declare(scan, c);
+			return;
+		}
+		int start = scan.addressStart;
+		int end = scan.addressEnd;
+		expression.clear();
+		if (c > 63)	{
+			// Handle psuedo-operations: e.g. assembler instructions.  The ADDRESS is a
+			// W-value (rule 9), which only CON can leave until the end.
+			int word = 0;
+			if (c == CON)	{
+				checkLocation();
+			}
+			if (start < end)	{
+				expression.compileWValue(scan, start, end, symbolTable, star());
+				word = evaluate(0, c == CON);
+			}
+			if (c == ORIG)	{
+				if (isModule() && !isRelative())	{
+					throw new SyntaxException("A module can't be given an absolute location");
 				}
-System.out.println(sep);
-				if (sep != null && sep.equals("("))	{	// must be a , or a (
-					L = addrParser.nextToken();
-					if (!addrParser.hasMoreTokens())	{
-						throw new SyntaxException("Unexpected end of expression in '" +
-							address + "'");
-					}
-					sep = addrParser.nextToken();
-					if (sep.equals(":"))	{
-						R = addrParser.nextToken();
-						if (!addrParser.hasMoreTokens())	{
-							throw new SyntaxException("Unexpected end of expression in '" +
-								address + "'");
-						}
-						sep = addrParser.nextToken();
-					}
-					if (!sep.equals(")"))	{
-						throw new SyntaxException("Expected ')', got '" + sep + "'");
-					}
-				} else	{
-					if (sep != null)	{
-						throw new SyntaxException("Expected '(', got '" + sep + "'");
-					}
+				pc = MixalExpression.toInt(word);
+				extent = Math.max(extent, pc);
+			} else if (c == CON)	{
+				lines[pc] = line;
+				mem[pc] = word;
+				relocate(pc, expression.relocated());
+				pc++;
+			} else if (c == EQU && label != 0)	{
+				define(label, MixalExpression.toInt(word), isRelative());
+			} else if (c == END)	{
+				this.start = MixalExpression.toInt(word & FieldSpec.of(4 * 8 + 5).mask);
+				startRelocatable = isRelative() || expression.relocated() == 4 * 8 + 5;
+				// The words inserted before END come before its label (rule 11f)
+				finish();
+				if (label != 0)	{
+					define(label, pc, true);
 				}
 			}
+			return;
 		}
 
-		int ilocation = 0;
-		int iindex = 0;
-		int iL = spec.getL();
-		int iR = spec.getR();
-
-		if (location != null)	{
-			ilocation = parseLocation(location);
+		// Actually assemble something: an A-part (rule 6), an index part (rule 7) and an
+		// F-part (rule 8).  Only a literal constant can contain a comma or a parenthesis.
+		checkLocation();
+		int literalEnd = start;
+		if (start < end && scan.at(start) == '=')	{
+			literalEnd = start + 1;
+			while (literalEnd < end && scan.at(literalEnd) != '=')	{
+				literalEnd++;
+			}
+			if (literalEnd == end)	{
+				throw new SyntaxException("Expected '=' at the end of '" + scan.text(start, end) + "'");
+			}
+			literalEnd++;
 		}
-
-		if (index != null)	{
-			try	{
-				iindex = Integer.parseInt(index);
-			} catch (NumberFormatException e)	{
-				throw new SyntaxException("Non-numeric index '" + index + "'");
+		int field = literalEnd;
+		while (field < end && scan.at(field) != '(')	{
+			field++;
+		}
+		int comma = literalEnd;
+		while (comma < field && scan.at(comma) != ',')	{
+			comma++;
+		}
+		int index = 0;
+		int f = 8 * spec.getL() + spec.getR();
+		if (comma < field)	{
+			index = expression.constant(scan, comma + 1, field, symbolTable, pc, "index");
+			if (index < 0 || index > 63)	{
+				throw new SyntaxException("The index " + index + " is out of range");
 			}
 		}
-
-		if (L != null)	{
+		if (field < end)	{
+			if (scan.at(end - 1) != ')')	{
+				throw new SyntaxException("Expected ')' at the end of '" +
+					scan.text(start, end) + "'");
+			}
+			f = expression.constant(scan, field + 1, end - 1, symbolTable, pc, "field");
+			if (f < 0 || f > 63)	{
+				throw new SyntaxException("The field " + f + " is out of range");
+			}
+		}
+		int word = MixInst.pack(c, index, f, 0);
+		if (literalEnd > start)	{
+			expression.compileWValue(scan, start + 1, literalEnd - 1, symbolTable, star());
+			int value = evaluate(0, false);
+			word = literal(value, expression.relocated(), word);
+			expression.clear();
+		} else if (comma > start)	{
+			expression.compile(scan, start, comma, symbolTable, star());
+			expression.emitAddress();
+			word = evaluate(word, true);
+		}
+		lines[pc] = line;
+		mem[pc] = word;
+		relocate(pc, expression.relocated());
+		if (listing != null)	{
 			try	{
-				iL = Integer.parseInt(L);
-			} catch (NumberFormatException e)	{
-				throw new SyntaxException("Non-numeric L '" + L + "'");
+				list(pc + ": " + new MixInst(mem[pc]));
+			} catch (MixException e)	{
+				list(pc + ": " + e.getMessage());
 			}
+		}
+		pc++;
+	}
 
-			if (R == null)	{	// if there's only one value, it's R, not L
-				iR = iL;
-				iL = 0;
+	/**
+	 * {@param word}, an instruction at *, referring to the literal constant
+	 * {@param value}.  The instruction joins the chain for that value, to be patched
+	 * when the pool is placed; instructions with the same literal share one word.  In a
+	 * module, field {@param relocated} of the value may be relocatable (-1 for none),
+	 * which makes it a different literal from the same absolute value.
+	 */
+	private int literal(int value, int relocated, int word)	{
+		long key = literalKey(value, relocated);
+		int last = literals.get(key, -1);
+		if (last < 0)	{
+			if (literalCount == literalWords.length)	{
+				literalWords = Arrays.copyOf(literalWords, 2 * literalCount);
+				literalFields = Arrays.copyOf(literalFields, 2 * literalCount);
 			}
+			literalFields[literalCount] = relocated;
+			literalWords[literalCount++] = value;
 		}
+		literals.put(key, pc);
+		waiting[pc] = true;
+		literalReferences++;
+		return MixInst.pack(word & 0x3F, (word >> 12) & 0x3F, (word >> 6) & 0x3F,
+			(last < 0) ? pc : last);
+	}
 
-		if (R != null)	{
-			try	{
-				iR = Integer.parseInt(R);
-			} catch (NumberFormatException e)	{
-				throw new SyntaxException("Non-numeric R '" + R + "'");
+	private static long literalKey(int value, int relocated)	{
+		return (value & 0xFFFFFFFFL) | (1L << 32) | ((long) (relocated + 1) << 33);
+	}
+
+	/**
+	 * Whether the value just evaluated for EQU, ORIG or END is relative to the origin of
+	 * a module; only the whole of it can be.
+	 */
+	private boolean isRelative() throws SyntaxException	{
+		int relocated = expression.relocated();
+		if (relocated >= 0 && relocated != 5 && relocated != 4 * 8 + 5)	{
+			throw new SyntaxException("Only the whole value can be relocatable");
+		}
+		return relocated == 5;
+	}
+
+	/**
+	 * Note that field {@param field} of the word at {@param location} is relocatable, or
+	 * that nothing in it is, if -1.
+	 */
+	private void relocate(int location, int field)	{
+		if (relocation != null)	{
+			relocation[location] = (byte) (field + 1);
+		}
+	}
+
+	/**
+	 * EXTRN or ENTRY: a list of symbols, separated by commas.
+	 */
+	private void declare(MixalScanner scan, int c) throws SyntaxException	{
+		if (!isModule())	{
+			throw new SyntaxException(((c == EXTRN) ? "EXTRN" : "ENTRY") +
+				" is only allowed in a module");
+		}
+		int end = scan.addressEnd;
+		int p = scan.addressStart;
+		while (p < end)	{
+			int comma = p;
+			while (comma < end && scan.at(comma) != ',')	{
+				comma++;
 			}
+			long symbol = MixSymbol.pack(scan, p, comma);
+			if (symbol == 0)	{
+				throw new SyntaxException("Invalid symbol '" + scan.text(p, comma) + "'");
+			}
+			if (c == EXTRN)	{
+				if (symbolTable.containsKey(symbol))	{
+					throw new SyntaxException("'" + MixSymbol.toString(symbol) +
+						"' is defined here, so it can't be imported");
+				}
+				externals.put(symbol, 1);
+			} else	{
+				entries.put(symbol, 1);
+			}
+			p = comma + 1;
 		}
+	}
 
-		if (c > 63)	{
-			// Handle psuedo-operations: e.g. assembler instructions
-			if ("ORIG".equals(opcode))	{
-				pc = ilocation;
-			} else if ("CON".equals(opcode))	{
-				mem[pc] = ilocation;
-				pc++;
-			} else if ("EQU".equals(opcode))	{
-				symbolTable.put(label, ilocation);
+	/**
+	 * There has to be room at * for another word.  A word that's still waiting for a
+	 * future reference can't be replaced: its address is a link in a chain, or its
+	 * expression will be run on whatever is there at the end.
+	 */
+	private void checkLocation() throws SyntaxException	{
+		if (pc < 0 || pc >= mem.length)	{
+			throw new SyntaxException("The location " + pc + " is outside memory");
+		}
+		if (waiting[pc])	{
+			throw new SyntaxException("The word at " + pc + " is still waiting for a future reference");
+		}
+		extent = Math.max(extent, pc + 1);
+	}
+
+	/**
+	 * What END does, or the end of the source if there's no END line.  Every forward
+	 * reference to a symbol that's defined has been patched already; the symbols that
+	 * are left are never defined, so they're defined at the last minute (rule 13), each
+	 * as the location of a word of zeros.  The pool of literal constants follows, and
+	 * then the deferred expressions can all be worked out; any that fail are added to
+	 * the errors.
+	 */
+	private void finish() throws SyntaxException	{
+		if (finished)	{
+			return;
+		}
+		finished = true;
+		list("Remaining forward references:");
+		long undefined[] = new long[forwardReferences.size()];
+		int n = 0;
+		for (int slot = 0; slot < forwardReferences.capacity(); slot++)	{
+			if (forwardReferences.keyAt(slot) != 0)	{
+				undefined[n++] = forwardReferences.keyAt(slot);
 			}
-		} else	{
-			// Actually assemble something
-			// TODO correct F-spec defaults for non-load/store instructions.
+		}
+		// In a fixed order, whatever the table's layout
+		Arrays.sort(undefined);
+		for (long symbol : undefined)	{
+			if (isModule() && externals.containsKey(symbol))	{
+				importChain(symbol, forwardReferences.get(symbol, -1));
+				continue;
+			}
+			String warning = "Undefined symbol '" + MixSymbol.toString(symbol) + "'";
+			list("Warning: " + warning);
+			warnings.add(warning);
+			checkLocation();
+			lines[pc] = line;
+			mem[pc] = 0;
+			relocate(pc, -1);
+			define(symbol, pc++, true);
+		}
 
-			MixInst inst = new MixInst(MixOpCode.values()[c], iindex,
-				iL, iR, ilocation);
-System.out.println(pc + ": " + inst.toString());
-			mem[pc] = inst.pack();
+		for (int k = 0; k < literalCount; k++)	{
+			checkLocation();
+			int value = literalWords[k];
+			lines[pc] = line;
+			mem[pc] = value;
+			relocate(pc, literalFields[k]);
+			patch(literals.get(literalKey(value, literalFields[k]), -1), pc, true);
 			pc++;
 		}
+		list("Literal pool: " + literalCount + " words for " + literalReferences + " literals");
+
+		for (int k = 0; k < deferred; k++)	{
+			int location = deferredLocation[k];
+			int from = (k == 0) ? 0 : deferredEnd[k - 1];
+			try	{
+				for (int p = from; isModule() && p < deferredEnd[k]; p++)	{
+					long symbol = MixalExpression.symbolIn(deferredCode[p]);
+					if (symbol != 0 && externals.containsKey(symbol))	{
+						throw new SyntaxException("The imported symbol '" + MixSymbol.toString(symbol) +
+							"' can only be the whole A-part of an instruction");
+					}
+				}
+				mem[location] = expression.evaluate(deferredCode, from, deferredEnd[k], symbolTable,
+					location, mem[location]);
+				relocate(location, expression.relocated());
+			} catch (SyntaxException e)	{
+				String error = "At line " + deferredLine[k] + ": " + e.getMessage();
+				list(error);
+				errors.add(error);
+			}
+			if (listing != null)	{
+				list(location + ": " + mem[location]);
+			}
+		}
 	}
 
 	/**
-	 * Unresolved symbols are accumulated during the assembly process and resolved
-	 * at the end.  Any remaining unresolved symbols are defined at the last minute;
-	 * MIXAL does not permit additional arithmetic on forward references (although,
-	 * honestly, it wouldn't be hard to support here).
-	 */
-	private void resolveForwardReferences()	{
-System.out.println("Remaining forward references:");
-		for (String key : forwardReferences.keySet())	{
-			// First, see if this symbol was ultimately defined.
-			if (symbolTable.get(key) == null)	{
-				// If not, define it at the tail end of the program, just before "END".
-				System.err.println("Warning: undefined symbol '" + key + "'");
-				symbolTable.put(key, pc++);
-			}
-			int symbolValue = symbolTable.get(key);
-System.out.print(key + "(" + symbolValue + "): ");
-			List<Integer> references = forwardReferences.get(key);
-			// Update each reference to the memory location defined by the forward symbol.
-			// Forward symbols can ONLY be used to refer to memory locations, so the change
-			// is always to mem[pc](0:2).
-			for (Integer ref : references)	{
-System.out.println(ref + ", ");
-				// TODO deal with negatives
-				mem[ref] |= (symbolValue << 18);
-try	{
-	MixInst inst = new MixInst(mem[ref]);
-	System.out.println(ref + ": " + inst.toString());
-} catch (Exception e)	{
-	e.printStackTrace();
-}
+	 * Take apart the chain of the words that refer to an imported symbol, from
+	 * {@param location}, into import records: the linker puts the symbol's equivalent
+	 * in their addresses.
+	 */
+	private void importChain(long symbol, int location)	{
+		while (location >= 0)	{
+			int word = mem[location];
+			int next = (word >> 18) & MAX_ADDRESS;
+			mem[location] = word & ~ADDRESS;
+			waiting[location] = false;
+			relocate(location, -1);
+			if (importSymbols.length == importCount)	{
+				importSymbols = Arrays.copyOf(importSymbols, Math.max(16, 2 * importCount));
+				importLocations = Arrays.copyOf(importLocations, importSymbols.length);
 			}
+			importSymbols[importCount] = symbol;
+			importLocations[importCount++] = location;
+			location = (next == location) ? -1 : next;
 		}
 	}
 
 	public boolean assemble(BufferedReader in) throws IOException	{
-		int lineCounter = 0;	// different than program counter
-		String line;
-		System.out.println("label\topcode\taddress");
-		boolean succeeded = true;
-		while ((line = in.readLine()) != null)	{
-			lineCounter++;
-System.out.println();
-System.out.println(lineCounter + ": " + line);
-			if ((line.charAt(0) == '*') || line.trim().length() == 0)	{
+		ByteArrayOutputStream source = new ByteArrayOutputStream();
+		char chars[] = new char[8192];
+		int n;
+		while ((n = in.read(chars)) >= 0)	{
+			for (int k = 0; k < n; k++)	{
+				source.write((chars[k] < 256) ? chars[k] : '?');
+			}
+		}
+		return assemble(ByteBuffer.wrap(source.toByteArray()));
+	}
+
+	/**
+	 * Assemble a source file, which is mapped into memory rather than read.
+	 */
+	public boolean assemble(Path file) throws IOException	{
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))	{
+			if (channel.size() > Integer.MAX_VALUE)	{
+				throw new IOException(file + " is too large to assemble");
+			}
+			return assemble(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Assemble the source text from the position to the limit of {@param source}, one
+	 * byte per character.
+	 */
+	public boolean assemble(ByteBuffer source)	{
+		String key = null;
+		if (cache != null && listing == null)	{
+			key = MixAsmCache.key(source, isModule());
+			MixImage image = null;
+			int poolSize = 0;
+			int references = 0;
+			if (isModule())	{
+				MixAsmCache.Entry<MixModule> entry = cache.getModule(key);
+				if (entry != null)	{
+					module = entry.program;
+					image = module.getImage();
+					poolSize = entry.literalPoolSize;
+					references = entry.literalReferences;
+				}
+			} else	{
+				MixAsmCache.Entry<MixImage> entry = cache.get(key);
+				if (entry != null)	{
+					image = entry.program;
+					poolSize = entry.literalPoolSize;
+					references = entry.literalReferences;
+				}
+			}
+			if (image != null)	{
+				// Nothing with warnings is cached, so there are none to give again
+				literalCount = poolSize;
+				literalReferences = references;
+				mem = image.getMemory();
+				lines = image.getLines();
+				symbolTable = image.getSymbols();
+				start = image.getStart();
+				finished = true;
+				return true;
+			}
+		}
+
+		MixalScanner scan = new MixalScanner(source);
+		line = 0;
+		list("label\topcode\taddress");
+		while (!finished && scan.nextLine())	{
+			line++;
+			if (listing != null)	{
+				list("");
+				list(line + ": " + scan.line());
+			}
+			if (scan.isBlankOrComment())	{
 				// Skip blank or comment lines
 				continue;
 			}
 			try	{
-				assembleLine(line);
+				assembleLine(scan);
 			} catch (SyntaxException e)	{
-				System.out.print("At line " + lineCounter + ", input '" +  line + "': ");
-				e.printStackTrace();
-				succeeded = false;
+				String error = "At line " + line + ", input '" +  scan.line() + "': " +
+					e.getMessage();
+				list(error);
+				errors.add(error);
+			}
+		}
+		try	{
+			finish();
+		} catch (SyntaxException e)	{
+			list(e.getMessage());
+			errors.add(e.getMessage());
+		}
+		if (isModule())	{
+			checkEntries();
+		}
+
+		if (key != null && errors.isEmpty() && warnings.isEmpty())	{
+			if (isModule())	{
+				cache.put(key, getModule(), literalCount, literalReferences);
+			} else	{
+				cache.put(key, getProgram(), literalCount, literalReferences);
+			}
+		}
+		return errors.isEmpty();
+	}
+
+	/**
+	 * Every symbol a module exports has to be defined in it.
+	 */
+	private void checkEntries()	{
+		long exported[] = new long[entries.size()];
+		int n = 0;
+		for (int slot = 0; slot < entries.capacity(); slot++)	{
+			if (entries.keyAt(slot) != 0)	{
+				exported[n++] = entries.keyAt(slot);
+			}
+		}
+		Arrays.sort(exported);
+		for (long symbol : exported)	{
+			if (externals.containsKey(symbol))	{
+				errors.add("ENTRY '" + MixSymbol.toString(symbol) + "' is imported, not defined");
+			} else if (!symbolTable.containsKey(symbol))	{
+				errors.add("ENTRY '" + MixSymbol.toString(symbol) + "' is never defined");
+			}
+		}
+	}
+
+	/**
+	 * The assembled memory image.
+	 */
+	int[] getImage()	{
+		return mem;
+	}
+
+	/**
+	 * The starting location given by the END line, or -1 if there wasn't one.
+	 */
+	int getStart()	{
+		return start;
+	}
+
+	/**
+	 * The assembled program, with its symbol table and the source line of each word.
+	 */
+	MixImage getProgram()	{
+		return new MixImage(start, mem, symbolTable, lines);
+	}
+
+	/**
+	 * The assembled module, for {@link MixLinker}: its words from location 0, with the
+	 * symbols it exports.  Only for an assembler given {@link #setModule}.
+	 */
+	MixModule getModule()	{
+		if (module != null)	{
+			return module;
+		}
+		LongIntMap exports = new LongIntMap(entries.size());
+		LongIntMap exportsRelocatable = new LongIntMap();
+		for (int slot = 0; slot < entries.capacity(); slot++)	{
+			long symbol = entries.keyAt(slot);
+			if (symbol != 0 && symbolTable.containsKey(symbol))	{
+				exports.put(symbol, symbolTable.get(symbol, 0));
+				if (relocatable.containsKey(symbol))	{
+					exportsRelocatable.put(symbol, 1);
+				}
 			}
 		}
-		resolveForwardReferences();
+		int count = 0;
+		for (int location = 0; location < extent; location++)	{
+			if (relocation[location] > 0)	{
+				count++;
+			}
+		}
+		int relocationLocations[] = new int[count];
+		int relocationFields[] = new int[count];
+		count = 0;
+		for (int location = 0; location < extent; location++)	{
+			if (relocation[location] > 0)	{
+				relocationLocations[count] = location;
+				relocationFields[count++] = relocation[location] - 1;
+			}
+		}
+		MixImage image = new MixImage(start, mem, exports, lines);
+		module = new MixModule(image, extent, startRelocatable, relocationLocations,
+			relocationFields, Arrays.copyOf(importSymbols, importCount),
+			Arrays.copyOf(importLocations, importCount), exportsRelocatable);
+		return module;
+	}
+
+	/**
+	 * Write the assembled module to {@param file}, for {@link MixLinker}.
+	 */
+	public void writeModule(Path file) throws IOException	{
+		getModule().write(file);
+	}
+
+	/**
+	 * Write the assembled program to {@param file}, for {@link MixVM#loadImage}.
+	 */
+	public void writeImage(Path file) throws IOException	{
+		getProgram().write(file);
+	}
+
+	/**
+	 * The number of words in the pool of literal constants: one for each distinct value.
+	 */
+	public int getLiteralPoolSize()	{
+		return literalCount;
+	}
+
+	/**
+	 * The number of literal constants in the program, counting every use.
+	 */
+	public int getLiteralReferences()	{
+		return literalReferences;
+	}
+
+	/**
+	 * Every symbol, packed by {@link MixSymbol}, with its equivalent.
+	 */
+	LongIntMap getSymbols()	{
+		return symbolTable;
+	}
+
+	/**
+	 * The lines that failed to assemble, with the reasons; empty if they all did.
+	 */
+	public List<String> getErrors()	{
+		return errors;
+	}
+
+	/**
+	 * What assembled, but probably not as meant: each symbol that was never defined, and
+	 * so became a word of its own at the end.
+	 */
+	public List<String> getWarnings()	{
+		return warnings;
+	}
 
-		return succeeded;
+	/**
+	 * Assemble each of {@param files} with its own assembler, {@param threads} at a time.
+	 * The assemblers are returned in the same order as the files; each
+	 * one's {@link #getErrors} says whether it succeeded.  An I/O error reading any of
+	 * the files is thrown once they've all been tried.
+	 */
+	public static List<MixAsm> assembleAll(List<Path> files, int threads)
+			throws IOException, InterruptedException	{
+		return assembleAll(files, threads, false, null);
+	}
+
+	/**
+	 * Assemble each of {@param files} as above, as a {@param module} or a program, looking
+	 * each one up in {@param cache} unless it's null.
+	 */
+	public static List<MixAsm> assembleAll(List<Path> files, int threads, boolean module,
+			MixAsmCache cache) throws IOException, InterruptedException	{
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try	{
+			List<Callable<MixAsm>> jobs = new ArrayList<Callable<MixAsm>>();
+			for (Path file : files)	{
+				jobs.add(() -> {
+					MixAsm assembler = new MixAsm();
+					assembler.setModule(module);
+					assembler.setCache(cache);
+					assembler.assemble(file);
+					return assembler;
+				});
+			}
+
+			List<MixAsm> assemblers = new ArrayList<MixAsm>();
+			IOException failure = null;
+			for (Future<MixAsm> result : pool.invokeAll(jobs))	{
+				try	{
+					assemblers.add(result.get());
+				} catch (ExecutionException e)	{
+					if (e.getCause() instanceof IOException)	{
+						if (failure == null)	{
+							failure = (IOException) e.getCause();
+						}
+					} else if (e.getCause() instanceof RuntimeException)	{
+						throw (RuntimeException) e.getCause();
+					} else	{
+						throw new RuntimeException(e.getCause());
+					}
+				}
+			}
+			if (failure != null)	{
+				throw failure;
+			}
+			return assemblers;
+		} finally	{
+			pool.shutdown();
+		}
 	}
 
 	/**
@@ -570,28 +1230,75 @@ System.out.println(lineCounter + ": " + line);
 	 */
 	public void run() throws MixException	{
 		MixVM vm = new MixVM(this.mem);
+		vm.setTrace(System.out);
 		vm.dumpState();
 		vm.showMemory(2000,2010);
-		vm.run(symbolTable.get("START"));
+		vm.run(symbolTable.get(MixSymbol.pack("START"), 0));
 		vm.dumpState();
 		vm.showMemory(2000,2010);
 	}
 	
 	public static void main(String[] args) throws IOException	{
-		if (args.length < 1)	{
-			System.err.println("Usage: MixASM <mixal file>");
-			System.exit(0);
+		int status = command(Paths.get(""), args);
+		if (status != 0)	{
+			System.exit(status);
 		}
+	}
 
-		MixAsm assembler = new MixAsm();
-		if (assembler.assemble(new BufferedReader(new FileReader(args[0]))))	{
-			/*
-			try	{
-				assembler.run();
-			} catch (MixException e)	{
-				e.printStackTrace();
+	/**
+	 * What main does, with file names relative to {@param directory}; the exit status is
+	 * returned rather than exited with, so that {@link MixDaemon} can run it too.
+	 */
+	static int command(Path directory, String[] args) throws IOException	{
+		String image = null;
+		String source = null;
+		String cache = null;
+		boolean module = false;
+		for (int k = 0; k < args.length; k++)	{
+			if ("-o".equals(args[k]) && k + 1 < args.length)	{
+				image = args[++k];
+			} else if ("-m".equals(args[k]))	{
+				module = true;
+			} else if ("-cache".equals(args[k]) && k + 1 < args.length)	{
+				cache = args[++k];
+			} else	{
+				source = args[k];
 			}
-			*/
 		}
+		if (source == null)	{
+			System.err.println("Usage: MixASM [-m] [-o image] [-cache directory] <mixal file>");
+			return 0;
+		}
+
+		MixAsm assembler = new MixAsm();
+		assembler.setModule(module);
+		if (cache != null)	{
+			assembler.setCache(new MixAsmCache(directory.resolve(cache), CACHE_SIZE));
+		} else	{
+			assembler.setListing(System.out);
+		}
+		boolean assembled = assembler.assemble(directory.resolve(source));
+		for (String error : assembler.getErrors())	{
+			System.err.println(source + ": " + error);
+		}
+		for (String warning : assembler.getWarnings())	{
+			System.err.println("Warning: " + warning);
+		}
+		if (!assembled)	{
+			return 1;
+		}
+		if (image != null && module)	{
+			assembler.writeModule(directory.resolve(image));
+		} else if (image != null)	{
+			assembler.writeImage(directory.resolve(image));
+		}
+		/*
+		try	{
+			assembler.run();
+		} catch (MixException e)	{
+			e.printStackTrace();
+		}
+		*/
+		return 0;
 	}
 }
@@ -0,0 +1,248 @@
+package com.jdavies.mix;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A directory of assembled programs, each in a {@link MixImage} named for the SHA-256
+ * of its source and the versions of the assembler and the image format, so that
+ * assembling the same text again costs one hash and one file map.  Only programs that
+ * assembled without errors are kept.  Modules, for {@link MixLinker}, are kept the same
+ * way as {@link MixModule}s, under different names than the same text as a program.
+ * Each file ends with the size of the literal pool and the number of literals, which
+ * the image doesn't record.
+ *
+ * Any number of assemblers, in any number of processes, can share a directory.  An
+ * image is written to a temporary file and moved into place in one step, so a reader
+ * sees all of it or none of it; two processes writing the same image write the same
+ * bytes.  Each hit sets the file's modification time, and once the images take up more
+ * than the limit the least recently used go, oldest first.  An image deleted while
+ * another process is reading it stays readable until it's been read, since it's mapped.
+ *
+ * Nothing here is allowed to make an assembly fail: a file that can't be read is a
+ * miss, and one that can't be written is a warning.
+ */
+public class MixAsmCache	{
+	private static final String SUFFIX = ".mixi";
+	private static final String MODULE_SUFFIX = ".mixo";
+	private static final String TEMPORARY = ".part";
+	// The layout of the files, around the image or module
+	static final int VERSION = 2;
+	// A temporary file this old was left by a process that died writing it
+	private static final long ABANDONED = TimeUnit.HOURS.toMillis(1);
+
+	private final Path directory;
+	private final long maxBytes;
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	/**
+	 * Keep images in {@param directory}, created if need be, up to a total of
+	 * {@param maxBytes}.
+	 */
+	public MixAsmCache(Path directory, long maxBytes)	{
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * The name of the image for the source text from the position to the limit of
+	 * {@param source}, which is left as it was.
+	 */
+	static String key(ByteBuffer source)	{
+		return key(source, false);
+	}
+
+	/**
+	 * The name for the source text in {@param source}, assembled as a {@param module} or
+	 * as a program.
+	 */
+	static String key(ByteBuffer source, boolean module)	{
+		MessageDigest digest;
+		try	{
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e)	{
+			// Every Java platform has to have it
+			throw new IllegalStateException(e);
+		}
+		String header = "MIXAL " + MixAsm.VERSION + " " + MixImage.VERSION + " " + VERSION +
+			(module ? " module " + MixModule.VERSION : "") + "\n";
+		digest.update(header.getBytes(StandardCharsets.US_ASCII));
+		digest.update(source.duplicate());
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest())	{
+			key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * An assembled program or module, with the counts of its literals.
+	 */
+	static final class Entry<T>	{
+		final T program;
+		final int literalPoolSize;
+		final int literalReferences;
+
+		Entry(T program, int literalPoolSize, int literalReferences)	{
+			this.program = program;
+			this.literalPoolSize = literalPoolSize;
+			this.literalReferences = literalReferences;
+		}
+	}
+
+	/**
+	 * The image cached under {@param key}, or null.
+	 */
+	Entry<MixImage> get(String key)	{
+		return read(directory.resolve(key + SUFFIX), MixImage::read);
+	}
+
+	/**
+	 * The module cached under {@param key}, or null.
+	 */
+	Entry<MixModule> getModule(String key)	{
+		return read(directory.resolve(key + MODULE_SUFFIX), MixModule::read);
+	}
+
+	private interface Reader<T>	{
+		T read(ByteBuffer in, String file) throws IOException;
+	}
+
+	private <T> Entry<T> read(Path file, Reader<T> reader)	{
+		Entry<T> image;
+		try	{
+			ByteBuffer in = MixImage.map(file);
+			T program = reader.read(in, file.toString());
+			if (in.remaining() != 8)	{
+				throw new IOException(file + " doesn't end with the literal counts");
+			}
+			image = new Entry<T>(program, in.getInt(), in.getInt());
+		} catch (NoSuchFileException e)	{
+			misses.incrementAndGet();
+			return null;
+		} catch (IOException e)	{
+			// Not something this version wrote: it will be written again
+			misses.incrementAndGet();
+			delete(file);
+			return null;
+		}
+		hits.incrementAndGet();
+		try	{
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e)	{
+			// Evicted since it was read
+		}
+		return image;
+	}
+
+	/**
+	 * Keep {@param image}, with {@param literalPoolSize} words for
+	 * {@param literalReferences} literals, under {@param key}, and make room for it.
+	 */
+	void put(String key, MixImage image, int literalPoolSize, int literalReferences)	{
+		put(key + SUFFIX, image.toBytes(), literalPoolSize, literalReferences);
+	}
+
+	/**
+	 * The same for {@param module}.
+	 */
+	void put(String key, MixModule module, int literalPoolSize, int literalReferences)	{
+		put(key + MODULE_SUFFIX, module.toBytes(), literalPoolSize, literalReferences);
+	}
+
+	private void put(String name, byte program[], int literalPoolSize, int literalReferences)	{
+		byte bytes[] = ByteBuffer.allocate(program.length + 8).put(program)
+			.putInt(literalPoolSize).putInt(literalReferences).array();
+		Path temporary = null;
+		try	{
+			Files.createDirectories(directory);
+			temporary = Files.createTempFile(directory, name, TEMPORARY);
+			Files.write(temporary, bytes);
+			Files.move(temporary, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+			temporary = null;
+			evict();
+		} catch (IOException e)	{
+			System.err.println("Warning: couldn't write to the assembly cache in " + directory +
+				": " + e);
+		} finally	{
+			if (temporary != null)	{
+				delete(temporary);
+			}
+		}
+	}
+
+	/**
+	 * Delete the least recently used images and modules until the rest fit in the limit.
+	 */
+	void evict() throws IOException	{
+		List<Path> files = new ArrayList<Path>();
+		List<BasicFileAttributes> attributes = new ArrayList<BasicFileAttributes>();
+		long total = 0;
+		long now = System.currentTimeMillis();
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory))	{
+			for (Path file : entries)	{
+				String name = file.getFileName().toString();
+				BasicFileAttributes attribute;
+				try	{
+					attribute = Files.readAttributes(file, BasicFileAttributes.class);
+				} catch (NoSuchFileException e)	{
+					continue;
+				}
+				if (name.endsWith(SUFFIX) || name.endsWith(MODULE_SUFFIX))	{
+					files.add(file);
+					attributes.add(attribute);
+					total += attribute.size();
+				} else if (name.endsWith(TEMPORARY) &&
+						now - attribute.lastModifiedTime().toMillis() > ABANDONED)	{
+					delete(file);
+				}
+			}
+		}
+		if (total <= maxBytes)	{
+			return;
+		}
+		Integer order[] = new Integer[files.size()];
+		for (int k = 0; k < order.length; k++)	{
+			order[k] = k;
+		}
+		Arrays.sort(order, (a, b) -> attributes.get(a).lastModifiedTime()
+			.compareTo(attributes.get(b).lastModifiedTime()));
+		for (int k = 0; k < order.length && total > maxBytes; k++)	{
+			delete(files.get(order[k]));
+			total -= attributes.get(order[k]).size();
+		}
+	}
+
+	private static void delete(Path file)	{
+		try	{
+			Files.deleteIfExists(file);
+		} catch (IOException e)	{
+			// Another process has it, or has deleted it already
+		}
+	}
+
+	public int getHits()	{
+		return hits.get();
+	}
+
+	public int getMisses()	{
+		return misses.get();
+	}
+}
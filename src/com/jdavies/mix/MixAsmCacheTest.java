@@ -0,0 +1,156 @@
+package com.jdavies.mix;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class MixAsmCacheTest	{
+	private static Path primes = Paths.get("corpus", "primes.mixal");
+
+	private static long countImages(Path directory) throws IOException	{
+		try (Stream<Path> files = Files.list(directory))	{
+			return files.filter(p -> p.toString().endsWith(".mixi")).count();
+		}
+	}
+
+	private static void deleteAll(Path directory) throws IOException	{
+		try (Stream<Path> files = Files.walk(directory))	{
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	/**
+	 * The second assembly of the same text comes from the cache, and comes out the same.
+	 */
+	public static void testHit() throws IOException	{
+		Path directory = Files.createTempDirectory("cache");
+		MixAsmCache cache = new MixAsmCache(directory.resolve("images"), 1 << 20);
+
+		MixAsm first = new MixAsm();
+		first.setCache(cache);
+		MixVMTest.assertEquals(1, first.assemble(primes) ? 1 : 0);
+		MixVMTest.assertEquals(0, cache.getHits());
+		MixVMTest.assertEquals(1, cache.getMisses());
+		MixVMTest.assertEquals(1, (int) countImages(directory.resolve("images")));
+
+		MixAsm second = new MixAsm();
+		second.setCache(cache);
+		MixVMTest.assertEquals(1, second.assemble(primes) ? 1 : 0);
+		MixVMTest.assertEquals(1, cache.getHits());
+		if (!Arrays.equals(first.getImage(), second.getImage()))	{
+			System.err.println("ERROR: the cached image is different");
+		}
+		MixVMTest.assertEquals(first.getStart(), second.getStart());
+		// =1-L= and =3=
+		MixVMTest.assertEquals(2, second.getLiteralPoolSize());
+		MixVMTest.assertEquals(first.getLiteralReferences(), second.getLiteralReferences());
+		MixVMTest.assertEquals(first.getSymbols().size(), second.getSymbols().size());
+		MixVMTest.assertEquals(first.getSymbols().get(MixSymbol.pack("TITLE"), -1),
+			second.getSymbols().get(MixSymbol.pack("TITLE"), -1));
+		MixVMTest.assertEquals(45, second.getProgram().getLine(first.getSymbols().get(MixSymbol.pack("TITLE"), -1)));
+
+		// A different text, even by a blank, is a different program
+		MixAsm third = new MixAsm();
+		third.setCache(cache);
+		third.assemble(java.nio.ByteBuffer.wrap((new String(Files.readAllBytes(primes), "ISO-8859-1") + " ")
+			.getBytes("ISO-8859-1")));
+		MixVMTest.assertEquals(1, cache.getHits());
+		MixVMTest.assertEquals(2, (int) countImages(directory.resolve("images")));
+
+		// Programs with errors aren't kept
+		MixAsm bad = new MixAsm();
+		bad.setCache(cache);
+		MixVMTest.assertEquals(0, bad.assemble(java.nio.ByteBuffer.wrap(
+			"         XYZ  1\n         END  0\n".getBytes("US-ASCII"))) ? 1 : 0);
+		MixVMTest.assertEquals(2, (int) countImages(directory.resolve("images")));
+
+		// Nor are programs with warnings, so that each assembly gives them
+		for (int k = 0; k < 2; k++)	{
+			MixAsm warned = new MixAsm();
+			warned.setCache(cache);
+			MixVMTest.assertEquals(1, warned.assemble(java.nio.ByteBuffer.wrap(
+				"         JMP  NEVER\n         END  0\n".getBytes("US-ASCII"))) ? 1 : 0);
+			MixVMTest.assertEquals(1, warned.getWarnings().size());
+		}
+		MixVMTest.assertEquals(1, cache.getHits());
+		MixVMTest.assertEquals(2, (int) countImages(directory.resolve("images")));
+		deleteAll(directory);
+	}
+
+	/**
+	 * A damaged image is a miss, and is replaced.
+	 */
+	public static void testDamaged() throws IOException	{
+		Path directory = Files.createTempDirectory("cache");
+		MixAsmCache cache = new MixAsmCache(directory, 1 << 20);
+		MixAsm assembler = new MixAsm();
+		assembler.setCache(cache);
+		assembler.assemble(primes);
+
+		Path image;
+		try (Stream<Path> files = Files.list(directory))	{
+			image = files.findFirst().get();
+		}
+		byte bytes[] = Files.readAllBytes(image);
+		Files.write(image, Arrays.copyOf(bytes, bytes.length / 2));
+
+		assembler = new MixAsm();
+		assembler.setCache(cache);
+		MixVMTest.assertEquals(1, assembler.assemble(primes) ? 1 : 0);
+		MixVMTest.assertEquals(0, cache.getHits());
+		MixVMTest.assertEquals(bytes.length, (int) Files.size(image));
+
+		assembler = new MixAsm();
+		assembler.setCache(cache);
+		assembler.assemble(primes);
+		MixVMTest.assertEquals(1, cache.getHits());
+		deleteAll(directory);
+	}
+
+	/**
+	 * Once the images don't fit, the least recently used go.
+	 */
+	public static void testEviction() throws IOException	{
+		Path directory = Files.createTempDirectory("cache");
+		MixAsm assembler = new MixAsm();
+		assembler.assemble(primes);
+		int size = assembler.getProgram().toBytes().length;
+		// Room for two programs the size of primes, and a little more
+		MixAsmCache cache = new MixAsmCache(directory, 2 * size + 100);
+
+		String keys[] = new String[3];
+		for (int k = 0; k < keys.length; k++)	{
+			java.nio.ByteBuffer source = java.nio.ByteBuffer.wrap((new String(Files.readAllBytes(primes),
+				"ISO-8859-1") + "* copy " + k + "\n").getBytes("ISO-8859-1"));
+			keys[k] = MixAsmCache.key(source);
+			assembler = new MixAsm();
+			assembler.setCache(cache);
+			assembler.assemble(source);
+			// Far enough apart that the file system can tell them apart
+			Files.setLastModifiedTime(directory.resolve(keys[k] + ".mixi"),
+				FileTime.fromMillis(System.currentTimeMillis() - 60000 * (10 - k)));
+			if (k == 1)	{
+				// The first is used again, so the second is the oldest
+				if (cache.get(keys[0]) == null)	{
+					System.err.println("ERROR: the first image is missing");
+				}
+			}
+		}
+		MixVMTest.assertEquals(2, (int) countImages(directory));
+		MixVMTest.assertEquals(1, Files.exists(directory.resolve(keys[0] + ".mixi")) ? 1 : 0);
+		MixVMTest.assertEquals(0, Files.exists(directory.resolve(keys[1] + ".mixi")) ? 1 : 0);
+		MixVMTest.assertEquals(1, Files.exists(directory.resolve(keys[2] + ".mixi")) ? 1 : 0);
+		deleteAll(directory);
+	}
+
+	public static void main(String[] args) throws Exception	{
+		testHit();
+		testDamaged();
+		testEviction();
+	}
+}
@@ -3,6 +3,12 @@ package com.jdavies.mix;
 import java.io.IOException;
 import java.io.BufferedReader;
 import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class MixAsmTest	{
 	private static void assertAssembly(String in, MixInst inst) 
@@ -27,4 +33,284 @@ public class MixAsmTest	{
 		assertAssembly("	LDA -2000,4",
 			new MixInst(MixOpCode.LDA, 4, 0, 5, -2000)); // -2000, 4, 5, 8);
 	}
+
+	/**
+	 * Many assemblies at once have to come out the same as one at a time: the corpus, eight
+	 * times over, plus a file with a mistake in it.
+	 */
+	public static void testParallel() throws Exception	{
+		List<Path> files = new ArrayList<Path>();
+		for (int copy = 0; copy < 8; copy++)	{
+			try (java.util.stream.Stream<Path> corpus = Files.list(Paths.get("corpus")))	{
+				corpus.filter(p -> p.toString().endsWith(".mixal")).sorted().forEach(files::add);
+			}
+		}
+		Path bad = Files.createTempFile("bad", ".mixal");
+		Files.write(bad, "START    LDA  1000\n         XYZ  1000\n         END  START\n".getBytes("US-ASCII"));
+		files.add(bad);
+
+		List<MixAsm> parallel = MixAsm.assembleAll(files, 4);
+		MixVMTest.assertEquals(files.size(), parallel.size());
+		for (int k = 0; k < files.size(); k++)	{
+			MixAsm alone = new MixAsm();
+			try (BufferedReader in = Files.newBufferedReader(files.get(k)))	{
+				alone.assemble(in);
+			}
+			if (!Arrays.equals(alone.getImage(), parallel.get(k).getImage()) ||
+					alone.getStart() != parallel.get(k).getStart())	{
+				System.err.println("ERROR: " + files.get(k) + " assembled differently in parallel");
+			}
+			MixVMTest.assertEquals(alone.getErrors().size(), parallel.get(k).getErrors().size());
+			MixVMTest.assertEquals(alone.getWarnings().size(), parallel.get(k).getWarnings().size());
+		}
+		MixVMTest.assertEquals(1, parallel.get(files.size() - 1).getErrors().size());
+		Files.delete(bad);
+	}
+
+	/**
+	 * The fields of a line, however they're separated, and the words they make.
+	 */
+	public static void testScanning() throws Exception	{
+		MixAsm asm = new MixAsm();
+		asm.assemble(new BufferedReader(new StringReader(
+			"* A comment, then a blank line\r\n" +
+			"\r\n" +
+			"         ORIG 3000\n" +
+			"START\tLDA\t2000,2(1:3)\tremarks\n" +
+			"         LDA  -2000,4          remarks\r\n" +
+			"         IN   1000(16)\n" +
+			"         JMP  START\n" +
+			"         JMP  LATER\n" +
+			"LATER    HLT\n" +
+			"TEXT     ALF  FIRST\n" +
+			"         ALF   FIVE\n" +
+			"         CON  12345\n" +
+			"         END  START")));
+		MixVMTest.assertEquals(0, asm.getErrors().size());
+		MixVMTest.assertEquals(3000, asm.getStart());
+		int image[] = asm.getImage();
+		MixVMTest.assertEquals(new MixInst(MixOpCode.LDA, 2, 1, 3, 2000).pack(), image[3000]);
+		MixVMTest.assertEquals(new MixInst(MixOpCode.LDA, 4, 0, 5, -2000).pack(), image[3001]);
+		MixVMTest.assertEquals(new MixInst(MixOpCode.IN, 0, 2, 0, 1000).pack(), image[3002]);
+		MixVMTest.assertEquals(new MixInst(MixOpCode.JMP, 0, 0, 0, 3000).pack(), image[3003]);
+		MixVMTest.assertEquals(new MixInst(MixOpCode.JMP, 0, 0, 0, 3005).pack(), image[3004]);
+		MixVMTest.assertEquals(new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack(), image[3005]);
+		MixVMTest.assertEquals(MixCharset.toWord("FIRST", 0), image[3006]);
+		MixVMTest.assertEquals(MixCharset.toWord(" FIVE", 0), image[3007]);
+		MixVMTest.assertEquals(12345, image[3008]);
+
+		asm = new MixAsm();
+		asm.assemble(new BufferedReader(new StringReader(
+			"         LDAX 1000\n" +
+			"         LDA  1000,X\n" +
+			"         LDA  1000(1:5\n" +
+			"         LDA  1000\n")));
+		MixVMTest.assertEquals(3, asm.getErrors().size());
+	}
+
+	/**
+	 * Symbols of up to ten letters and digits, with at least one letter (rule 1).
+	 */
+	public static void testSymbols() throws Exception	{
+		MixVMTest.assertEquals(0, (int) MixSymbol.pack("12345"));
+		MixVMTest.assertEquals(0, (int) MixSymbol.pack("ABCDEFGHIJK"));
+		MixVMTest.assertEquals(0, (int) MixSymbol.pack("A+B"));
+		for (String symbol : new String[] { "A", "START", "2H", "ABCDEFGHIJ", "A123456789" })	{
+			String unpacked = MixSymbol.toString(MixSymbol.pack(symbol));
+			if (!symbol.equals(unpacked))	{
+				System.err.println("ERROR: Expected '" + symbol + "' but got '" + unpacked + "'");
+			}
+		}
+
+		StringBuilder source = new StringBuilder("         ORIG 100\n");
+		for (int k = 0; k < 1000; k++)	{
+			source.append("         JMP  L").append(k + 1).append('\n');
+			source.append('L').append(k).append("       NOP\n");
+		}
+		source.append("TENLETTERS EQU  -5\n");
+		MixAsm asm = new MixAsm();
+		asm.assemble(new BufferedReader(new StringReader(source.toString())));
+		MixVMTest.assertEquals(0, asm.getErrors().size());
+		MixVMTest.assertEquals(1002, asm.getSymbols().size());
+		MixVMTest.assertEquals(101, asm.getSymbols().get(MixSymbol.pack("L0"), -1));
+		MixVMTest.assertEquals(-5, asm.getSymbols().get(MixSymbol.pack("TENLETTERS"), 0));
+		// The one reference never defined goes at the end
+		MixVMTest.assertEquals(2100, asm.getSymbols().get(MixSymbol.pack("L1000"), -1));
+		int image[] = asm.getImage();
+		MixVMTest.assertEquals(new MixInst(MixOpCode.JMP, 0, 0, 0, 105).pack(), image[102]);
+
+		asm = new MixAsm();
+		asm.assemble(new BufferedReader(new StringReader(
+			"ELEVENCHARS NOP\n" +
+			"X        NOP\n" +
+			"X        NOP\n" +
+			"         JMP  A+\n")));
+		MixVMTest.assertEquals(3, asm.getErrors().size());
+	}
+
+	/**
+	 * Words that wait for a symbol are patched when it's defined, sign and all, whatever
+	 * the rest of the word holds.
+	 */
+	public static void testForwardReferences() throws Exception	{
+		MixAsm asm = new MixAsm();
+		asm.assemble(new BufferedReader(new StringReader(
+			"         ORIG 0\n" +
+			"         LDA  NEG,1(1:3)\n" +
+			"         STA  NEG,6(0:5)\n" +
+			"         JMP  LATER\n" +
+			"         LDX  NEG\n" +
+			"         JMP  NEVER\n" +
+			"LATER    JMP  LATER\n" +
+			"NEG      EQU  -4095\n" +
+			"         END  0")));
+		MixVMTest.assertEquals(0, asm.getErrors().size());
+		int image[] = asm.getImage();
+		MixVMTest.assertEquals(new MixInst(MixOpCode.LDA, 1, 1, 3, -4095).pack(), image[0]);
+		MixVMTest.assertEquals(new MixInst(MixOpCode.STA, 6, 0, 5, -4095).pack(), image[1]);
+		MixVMTest.assertEquals(new MixInst(MixOpCode.JMP, 0, 0, 0, 5).pack(), image[2]);
+		MixVMTest.assertEquals(new MixInst(MixOpCode.LDX, 0, 0, 5, -4095).pack(), image[3]);
+		// Never defined, so it's the word after the program
+		MixVMTest.assertEquals(new MixInst(MixOpCode.JMP, 0, 0, 0, 6).pack(), image[4]);
+		MixVMTest.assertEquals(new MixInst(MixOpCode.JMP, 0, 0, 0, 5).pack(), image[5]);
+		MixVMTest.assertEquals(0, image[6]);
+
+		asm = new MixAsm();
+		asm.assemble(new BufferedReader(new StringReader(
+			"         ORIG LATER\n" +
+			"         LDA  4096\n" +
+			"         LDA  BIG\n" +
+			"BIG      EQU  5000\n" +
+			"LATER    NOP\n")));
+		MixVMTest.assertEquals(3, asm.getErrors().size());
+	}
+
+	/**
+	 * The examples of rules 5 and 9 (p. 154-155), and expressions with future references.
+	 */
+	public static void testExpressions() throws Exception	{
+		MixAsm asm = new MixAsm();
+		asm.assemble(new BufferedReader(new StringReader(
+			"         ORIG 1000\n" +
+			"         CON  -1+5\n" +
+			"         CON  -1+5*20/6\n" +
+			"         CON  1//3\n" +
+			"         CON  1:3\n" +
+			"         CON  *-3\n" +
+			"         CON  ***\n" +
+			"         CON  1\n" +
+			"         CON  1,-1000(0:2)\n" +
+			"         CON  -1000(0:2),1\n" +
+			"TEN      EQU  2*5\n" +
+			"         LDA  TEN+1,TEN-9(TEN/5-1:TEN-5)\n" +
+			"         LDA  TABLE+TEN\n" +
+			"         CON  TABLE-*\n" +
+			"         ENTA -TABLE\n" +
+			"TABLE    ORIG *+100\n" +
+			"         END  TABLE")));
+		MixVMTest.assertEquals(0, asm.getErrors().size());
+		int image[] = asm.getImage();
+		int SIGN = 1 << 31;
+		MixVMTest.assertEquals(4, image[1000]);
+		MixVMTest.assertEquals(13, image[1001]);
+		MixVMTest.assertEquals(357913941, image[1002]);
+		MixVMTest.assertEquals(11, image[1003]);
+		MixVMTest.assertEquals(1001, image[1004]);
+		MixVMTest.assertEquals(1005 * 1005, image[1005]);
+		MixVMTest.assertEquals(1, image[1006]);
+		MixVMTest.assertEquals(SIGN | 1000 << 18 | 1, image[1007]);
+		MixVMTest.assertEquals(1, image[1008]);
+		MixVMTest.assertEquals(new MixInst(MixOpCode.LDA, 1, 1, 5, 11).pack(), image[1009]);
+		MixVMTest.assertEquals(new MixInst(MixOpCode.LDA, 0, 0, 5, 1023).pack(), image[1010]);
+		MixVMTest.assertEquals(2, image[1011]);
+		MixVMTest.assertEquals(SIGN | 1013 << 18 | 2 << 6 | 48, image[1012]);
+		MixVMTest.assertEquals(1013, asm.getStart());
+
+		asm = new MixAsm();
+		asm.assemble(new BufferedReader(new StringReader(
+			"         CON  1/0\n" +
+			"         CON  2//1\n" +
+			"         LDA  1,64\n" +
+			"         LDA  1(8:8)\n" +
+			"         LDA  1,LATER\n" +
+			"         ORIG 1(LATER)\n" +
+			"         EQU  LATER\n" +
+			"         CON  1++2\n" +
+			"LATER    CON  0\n")));
+		MixVMTest.assertEquals(8, asm.getErrors().size());
+
+		asm = new MixAsm();
+		asm.assemble(new BufferedReader(new StringReader(
+			"         LDA  BIG*2\n" +
+			"BIG      EQU  3000\n")));
+		MixVMTest.assertEquals(1, asm.getErrors().size());
+
+		// A word waiting for a future reference can't be assembled over
+		asm = new MixAsm();
+		asm.assemble(new BufferedReader(new StringReader(
+			"         JMP  LATER\n" +
+			"         CON  LATER+1\n" +
+			"         ORIG 0\n" +
+			"         NOP\n" +
+			"         NOP\n" +
+			"LATER    CON  0\n")));
+		MixVMTest.assertEquals(2, asm.getErrors().size());
+	}
+
+	/**
+	 * Literal constants (rule 12) go in a pool before END, one word for each value, and
+	 * a label on END comes after them.
+	 */
+	public static void testLiterals() throws Exception	{
+		MixAsm asm = new MixAsm();
+		asm.assemble(new BufferedReader(new StringReader(
+			"         ORIG 100\n" +
+			"START    LDA  =5=\n" +
+			"         ADD  =5=,1\n" +
+			"         CMPA =1-100=\n" +
+			"         LDX  =1,-1000(0:2)=(1:5)\n" +
+			"         JMP  NEVER\n" +
+			"         LDA  =-5=\n" +
+			"LAST     END  START\n" +
+			"         This is never assembled")));
+		MixVMTest.assertEquals(0, asm.getErrors().size());
+		MixVMTest.assertEquals(4, asm.getLiteralPoolSize());
+		MixVMTest.assertEquals(5, asm.getLiteralReferences());
+		int image[] = asm.getImage();
+		int SIGN = 1 << 31;
+		MixVMTest.assertEquals(new MixInst(MixOpCode.LDA, 0, 0, 5, 107).pack(), image[100]);
+		MixVMTest.assertEquals(new MixInst(MixOpCode.ADD, 1, 0, 5, 107).pack(), image[101]);
+		MixVMTest.assertEquals(new MixInst(MixOpCode.CMPA, 0, 0, 5, 108).pack(), image[102]);
+		MixVMTest.assertEquals(new MixInst(MixOpCode.LDX, 0, 1, 5, 109).pack(), image[103]);
+		MixVMTest.assertEquals(new MixInst(MixOpCode.JMP, 0, 0, 0, 106).pack(), image[104]);
+		MixVMTest.assertEquals(new MixInst(MixOpCode.LDA, 0, 0, 5, 110).pack(), image[105]);
+		// The undefined symbol, then the pool
+		MixVMTest.assertEquals(1, asm.getWarnings().size());
+		MixVMTest.assertEquals(0, image[106]);
+		MixVMTest.assertEquals(5, image[107]);
+		MixVMTest.assertEquals(SIGN | 99, image[108]);
+		MixVMTest.assertEquals(SIGN | 1000 << 18 | 1, image[109]);
+		MixVMTest.assertEquals(SIGN | 5, image[110]);
+		MixVMTest.assertEquals(111, asm.getSymbols().get(MixSymbol.pack("LAST"), -1));
+		MixVMTest.assertEquals(100, asm.getStart());
+
+		asm = new MixAsm();
+		asm.assemble(new BufferedReader(new StringReader(
+			"         LDA  =LATER=\n" +
+			"         LDA  =5\n" +
+			"         ORIG 3999\n" +
+			"         LDA  =6=\n" +
+			"LATER    CON  0\n")));
+		MixVMTest.assertEquals(4, asm.getErrors().size());
+	}
+
+	public static void main(String[] args) throws Exception	{
+		testAssembly();
+		testScanning();
+		testSymbols();
+		testForwardReferences();
+		testExpressions();
+		testLiterals();
+		testParallel();
+	}
 }
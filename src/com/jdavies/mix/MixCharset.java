@@ -0,0 +1,265 @@
+package com.jdavies.mix;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * The MIX character set (1.3.1, p. 140), one byte per character code:
+ *
+ * (space)ABCDEFGHI(delta)JKLMNOPQR(sigma)(pi)STUVWXYZ0123456789.,()+-*&#47;=$&lt;&gt;@;:'
+ *
+ * Codes 0-55 decode to the corresponding Unicode characters; 56-63 have no character.
+ * When encoding, '~', '[' and '#' are accepted in place of delta, sigma and pi so that
+ * plain ASCII text can be used.  Both directions go through lookup tables, a whole
+ * buffer at a time.
+ *
+ * The same tables drive the character devices and ALF, and the NUM and CHAR
+ * conversions between character codes and numbers live here as well.
+ */
+public class MixCharset extends Charset	{
+	public static final MixCharset INSTANCE = new MixCharset();
+
+	static final String CHARS =
+		" ABCDEFGHI\u0394JKLMNOPQR\u03A3\u03A0STUVWXYZ0123456789.,()+-*/=$<>@;:'";
+	// The same thing, as written by the devices
+	private static final String HOST_CHARS =
+		" ABCDEFGHI~JKLMNOPQR[#STUVWXYZ0123456789.,()+-*/=$<>@;:'";
+
+	private static final char codeToChar[] = new char[64];
+	// -1 if there's no code for the character
+	private static final byte asciiToCode[] = new byte[128];
+
+	/**
+	 * Host bytes, as read from and written to the character devices.  Input is folded
+	 * to upper case and anything unrecognized reads as a blank; codes without a
+	 * character print as '?'.
+	 */
+	static final byte hostToCode[] = new byte[256];
+	static final byte codeToHost[] = new byte[64];
+
+	// numTable[p][b] is the value of byte b of rAX at position p (0 = leftmost of rA)
+	private static final long numTable[][] = new long[10][64];
+	// Three decimal digits as three character codes, packed 6 bits apiece
+	private static final int charTable[] = new int[1000];
+
+	static	{
+		for (int i = 0; i < asciiToCode.length; i++)	{
+			asciiToCode[i] = -1;
+		}
+		for (int i = 0; i < codeToChar.length; i++)	{
+			codeToChar[i] = '\uFFFD';
+			codeToHost[i] = (byte) '?';
+		}
+		for (int i = 0; i < CHARS.length(); i++)	{
+			char host = HOST_CHARS.charAt(i);
+
+			codeToChar[i] = CHARS.charAt(i);
+			codeToHost[i] = (byte) host;
+			asciiToCode[host] = (byte) i;
+			hostToCode[host] = (byte) i;
+			hostToCode[Character.toLowerCase(host)] = (byte) i;
+		}
+
+		long weight = 1;
+		for (int p = 9; p >= 0; p--)	{
+			for (int b = 0; b < 64; b++)	{
+				numTable[p][b] = (b % 10) * weight;
+			}
+			weight *= 10;
+		}
+
+		for (int n = 0; n < 1000; n++)	{
+			charTable[n] = ((30 + n / 100) << 12) | ((30 + (n / 10) % 10) << 6) | (30 + n % 10);
+		}
+	}
+
+	private MixCharset()	{
+		super("X-MIX", new String[] { "MIX" });
+	}
+
+	/**
+	 * The character code for {@param ch}, or -1 if there isn't one.
+	 */
+	public static int toCode(char ch)	{
+		if (ch < 128)	{
+			return asciiToCode[ch];
+		}
+		switch (ch)	{
+			case '\u0394': return 10;
+			case '\u03A3': return 20;
+			case '\u03A0': return 21;
+			default: return -1;
+		}
+	}
+
+	/**
+	 * The character for code {@param code}; U+FFFD if it isn't one.
+	 */
+	static char fromCode(int code)	{
+		return codeToChar[code & 0x3F];
+	}
+
+	/**
+	 * The five characters starting at {@param start} as a word of character codes;
+	 * blanks are assumed past the end of {@param s}.
+	 */
+	public static int toWord(CharSequence s, int start) throws IllegalArgumentException	{
+		int word = 0;
+		for (int i = start; i < start + 5; i++)	{
+			int code = (i < s.length()) ? toCode(s.charAt(i)) : 0;
+			if (code < 0)	{
+				throw new IllegalArgumentException("'" + s.charAt(i) +
+					"' is not in the MIX character set");
+			}
+			word = (word << 6) | code;
+		}
+		return word;
+	}
+
+	/**
+	 * NUM: the numeric value of the ten character-code bytes of rA and rX, modulo
+	 * 64^5 (the signs are ignored).  Each byte contributes its value mod 10.
+	 */
+	static int toNum(int a, int x)	{
+		long n = numTable[0][(a >> 24) & 0x3F] + numTable[1][(a >> 18) & 0x3F] +
+			numTable[2][(a >> 12) & 0x3F] + numTable[3][(a >> 6) & 0x3F] +
+			numTable[4][a & 0x3F] +
+			numTable[5][(x >> 24) & 0x3F] + numTable[6][(x >> 18) & 0x3F] +
+			numTable[7][(x >> 12) & 0x3F] + numTable[8][(x >> 6) & 0x3F] +
+			numTable[9][x & 0x3F];
+
+		return (int) (n & 0x3FFFFFFF);
+	}
+
+	/**
+	 * CHAR: the ten decimal digits of a (non-negative, 30-bit) magnitude as character
+	 * codes; rA's five bytes are in bits 30-59 of the result and rX's in bits 0-29.
+	 */
+	static long toChar(int n)	{
+		int high = n / 1000000;		// at most 1073
+		int low = n - high * 1000000;
+		int millions = high / 1000;
+		int thousands = low / 1000;
+
+		return ((long) (30 + millions) << 54) |
+			((long) charTable[high - millions * 1000] << 36) |
+			((long) charTable[thousands] << 18) |
+			charTable[low - thousands * 1000];
+	}
+
+	public boolean contains(Charset cs)	{
+		return cs instanceof MixCharset;
+	}
+
+	public CharsetDecoder newDecoder()	{
+		return new Decoder();
+	}
+
+	public CharsetEncoder newEncoder()	{
+		return new Encoder();
+	}
+
+	private static class Decoder extends CharsetDecoder	{
+		Decoder()	{
+			super(INSTANCE, 1.0f, 1.0f);
+		}
+
+		protected CoderResult decodeLoop(ByteBuffer in, CharBuffer out)	{
+			if (in.hasArray() && out.hasArray())	{
+				return decodeArrays(in, out);
+			}
+			while (in.hasRemaining())	{
+				if (!out.hasRemaining())	{
+					return CoderResult.OVERFLOW;
+				}
+				int code = in.get(in.position());
+				if (code < 0 || code >= CHARS.length())	{
+					return CoderResult.malformedForLength(1);
+				}
+				out.put(codeToChar[code]);
+				in.position(in.position() + 1);
+			}
+			return CoderResult.UNDERFLOW;
+		}
+
+		private CoderResult decodeArrays(ByteBuffer in, CharBuffer out)	{
+			byte src[] = in.array();
+			char dst[] = out.array();
+			int sp = in.arrayOffset() + in.position();
+			int dp = out.arrayOffset() + out.position();
+			int n = Math.min(in.remaining(), out.remaining());
+			int end = sp + n;
+			CoderResult result = (n < in.remaining()) ? CoderResult.OVERFLOW : CoderResult.UNDERFLOW;
+
+			while (sp < end)	{
+				int code = src[sp];
+				if (code < 0 || code >= CHARS.length())	{
+					result = CoderResult.malformedForLength(1);
+					break;
+				}
+				dst[dp++] = codeToChar[code];
+				sp++;
+			}
+			in.position(sp - in.arrayOffset());
+			out.position(dp - out.arrayOffset());
+			return result;
+		}
+	}
+
+	private static class Encoder extends CharsetEncoder	{
+		Encoder()	{
+			// There's no '?' in MIX, so unmappable characters are replaced by blanks
+			super(INSTANCE, 1.0f, 1.0f, new byte[] { 0 });
+		}
+
+		public boolean canEncode(char c)	{
+			return toCode(c) >= 0;
+		}
+
+		protected CoderResult encodeLoop(CharBuffer in, ByteBuffer out)	{
+			if (in.hasArray() && out.hasArray())	{
+				return encodeArrays(in, out);
+			}
+			while (in.hasRemaining())	{
+				if (!out.hasRemaining())	{
+					return CoderResult.OVERFLOW;
+				}
+				int code = toCode(in.get(in.position()));
+				if (code < 0)	{
+					return CoderResult.unmappableForLength(1);
+				}
+				out.put((byte) code);
+				in.position(in.position() + 1);
+			}
+			return CoderResult.UNDERFLOW;
+		}
+
+		private CoderResult encodeArrays(CharBuffer in, ByteBuffer out)	{
+			char src[] = in.array();
+			byte dst[] = out.array();
+			int sp = in.arrayOffset() + in.position();
+			int dp = out.arrayOffset() + out.position();
+			int n = Math.min(in.remaining(), out.remaining());
+			int end = sp + n;
+			CoderResult result = (n < in.remaining()) ? CoderResult.OVERFLOW : CoderResult.UNDERFLOW;
+
+			while (sp < end)	{
+				char ch = src[sp];
+				int code = (ch < 128) ? asciiToCode[ch] : toCode(ch);
+				if (code < 0)	{
+					result = CoderResult.unmappableForLength(1);
+					break;
+				}
+				dst[dp++] = (byte) code;
+				sp++;
+			}
+			in.position(sp - in.arrayOffset());
+			out.position(dp - out.arrayOffset());
+			return result;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.jdavies.mix;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Random;
+
+public class MixCharsetTest	{
+	public static void testRoundTrip() throws Exception	{
+		String text = " ABCDEFGHI\u0394JKLMNOPQR\u03A3\u03A0STUVWXYZ0123456789.,()+-*/=$<>@;:'";
+		ByteBuffer codes = MixCharset.INSTANCE.newEncoder().encode(CharBuffer.wrap(text));
+		for (int i = 0; i < codes.limit(); i++)	{
+			MixVMTest.assertEquals(i, codes.get(i));
+		}
+		String decoded = MixCharset.INSTANCE.newDecoder().decode(codes).toString();
+		if (!text.equals(decoded))	{
+			System.err.println("ERROR: Expected '" + text + "' but got '" + decoded + "'");
+		}
+
+		// The ASCII stand-ins for the Greek letters
+		MixVMTest.assertEquals(1 << 24 | 10 << 18 | 20 << 12 | 21 << 6 | 0,
+			MixCharset.toWord("A~[#", 0));
+	}
+
+	/**
+	 * p. 135: the NUM and CHAR example.
+	 */
+	public static void testExample()	{
+		int a = 0 << 24 | 0 << 18 | 31 << 12 | 32 << 6 | 39;
+		int x = 37 << 24 | 57 << 18 | 47 << 12 | 30 << 6 | 30;
+		MixVMTest.assertEquals(12977700, MixCharset.toNum(a, x));
+
+		long digits = MixCharset.toChar(12977699);
+		MixVMTest.assertEquals(30 << 24 | 30 << 18 | 31 << 12 | 32 << 6 | 39, (int) (digits >>> 30));
+		MixVMTest.assertEquals(37 << 24 | 37 << 18 | 36 << 12 | 39 << 6 | 39, (int) (digits & 0x3FFFFFFF));
+	}
+
+	/**
+	 * Compare the tables with the obvious digit-at-a-time loops.
+	 */
+	public static void testRandom()	{
+		Random random = new Random(1);
+		for (int n = 0; n < 1000000; n++)	{
+			int a = random.nextInt() & 0x3FFFFFFF;
+			int x = random.nextInt() & 0x3FFFFFFF;
+			long expected = 0;
+			for (int shift = 54; shift >= 0; shift -= 6)	{
+				long b = (shift >= 30) ? (a >> (shift - 30)) & 0x3F : (x >> shift) & 0x3F;
+				expected = expected * 10 + b % 10;
+			}
+			if (!MixVMTest.assertEquals((int) (expected % (1 << 30)), MixCharset.toNum(a, x)))	{
+				return;
+			}
+
+			long chars = 0;
+			long value = a;
+			for (int shift = 0; shift < 60; shift += 6)	{
+				chars |= (30 + value % 10) << shift;
+				value /= 10;
+			}
+			if (chars != MixCharset.toChar(a))	{
+				System.err.println("ERROR: CHAR of " + a + " gave " + Long.toHexString(MixCharset.toChar(a)));
+				return;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception	{
+		testRoundTrip();
+		testExample();
+		testRandom();
+	}
+}
@@ -0,0 +1,257 @@
+package com.jdavies.mix;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs the bundled corpus of MIXAL programs end to end: each is assembled with
+ * {@link MixAsm}, run on a fresh {@link MixVM} a number of times, and whatever it sends
+ * to the line printer is checked against the expected output.  The report gives the
+ * simulated instructions per second of host time and the bytes allocated per run, as
+ * JSON, so that runs of different versions of the simulator can be compared.
+ *
+ * For a program NAME.mixal in the corpus directory, NAME.out holds the expected printer
+ * output and NAME.cards, if there is one, is fed to the card reader.
+ *
+ * Usage: MixCorpus [-runs N] [-label TEXT] [-o report.json] [corpus directory]
+ */
+public class MixCorpus	{
+	// Busy time of each transfer, so that the buffering examples have something to overlap
+	private static final int CARD_READER_TIME = 100;
+	private static final int LINE_PRINTER_TIME = 200;
+
+	/**
+	 * What happened to one program.
+	 */
+	static class Result	{
+		String name;
+		boolean passed;
+		String error;
+		int runs;
+		long instructions;
+		long clock;
+		long nanos;
+		long allocated;
+
+		/**
+		 * Millions of simulated instructions per host second, over all the runs.
+		 */
+		double mips()	{
+			return (nanos == 0) ? 0 : (double) instructions * runs * 1000 / nanos;
+		}
+
+		long allocatedPerRun()	{
+			return (runs == 0 || allocated < 0) ? -1 : allocated / runs;
+		}
+	}
+
+	private File directory;
+	private int runs;
+
+	public MixCorpus(File directory, int runs)	{
+		this.directory = directory;
+		this.runs = runs;
+	}
+
+	/**
+	 * Every program in the corpus, in alphabetical order.
+	 */
+	List<String> programs()	{
+		List<String> names = new ArrayList<String>();
+		String files[] = directory.list();
+		if (files != null)	{
+			for (String file : files)	{
+				if (file.endsWith(".mixal"))	{
+					names.add(file.substring(0, file.length() - ".mixal".length()));
+				}
+			}
+		}
+		names.sort(null);
+		return names;
+	}
+
+	public List<Result> runAll() throws IOException	{
+		List<Result> results = new ArrayList<Result>();
+		for (String name : programs())	{
+			results.add(run(name));
+		}
+		return results;
+	}
+
+	/**
+	 * Assemble and run one program.  The first run's output is checked; the timing and
+	 * allocation cover all of the runs, but not the assembly.
+	 */
+	Result run(String name) throws IOException	{
+		Result result = new Result();
+		result.name = name;
+
+		MixAsm assembler = new MixAsm();
+		boolean assembled = assembler.assemble(new File(directory, name + ".mixal").toPath());
+		if (!assembled || assembler.getStart() < 0)	{
+			result.error = assembled ? "No END line" : "Assembly failed";
+			return result;
+		}
+
+		byte cards[] = read(name + ".cards");
+		byte expected[] = read(name + ".out");
+		if (expected == null)	{
+			result.error = "No " + name + ".out";
+			return result;
+		}
+
+		com.sun.management.ThreadMXBean threads = threadBean();
+		ByteArrayOutputStream printed = new ByteArrayOutputStream(expected.length);
+		for (int run = 0; run < runs; run++)	{
+			printed.reset();
+			MixVM vm = new MixVM(assembler.getImage().clone());
+			CharacterDevice printer = new CharacterDevice(CharacterDevice.LINE_PRINTER, null,
+				Channels.newChannel(printed));
+			printer.setBusyTime(LINE_PRINTER_TIME);
+			vm.attachDevice(CharacterDevice.LINE_PRINTER, printer);
+			if (cards != null)	{
+				CharacterDevice reader = new CharacterDevice(CharacterDevice.CARD_READER,
+					Channels.newChannel(new ByteArrayInputStream(cards)), null);
+				reader.setBusyTime(CARD_READER_TIME);
+				vm.attachDevice(CharacterDevice.CARD_READER, reader);
+			}
+
+			long allocatedBefore = (threads == null) ? -1 : threads.getCurrentThreadAllocatedBytes();
+			long started = System.nanoTime();
+			try	{
+				vm.run(assembler.getStart());
+			} catch (MixException e)	{
+				result.error = e.toString();
+				return result;
+			}
+			result.nanos += System.nanoTime() - started;
+			if (threads != null)	{
+				result.allocated += threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+			} else	{
+				result.allocated = -1;
+			}
+			result.runs++;
+			result.instructions = vm.getInstructionCount();
+			result.clock = vm.getClock();
+
+			if (run == 0 && !Arrays.equals(expected, printed.toByteArray()))	{
+				result.error = "Printer output differs from " + name + ".out";
+				return result;
+			}
+		}
+		result.passed = true;
+		return result;
+	}
+
+	private byte[] read(String file) throws IOException	{
+		File path = new File(directory, file);
+		return path.exists() ? Files.readAllBytes(path.toPath()) : null;
+	}
+
+	/**
+	 * The HotSpot extension that can count allocated bytes, if this JVM has it.
+	 */
+	private static com.sun.management.ThreadMXBean threadBean()	{
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)	{
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+			if (threads.isThreadAllocatedMemorySupported())	{
+				threads.setThreadAllocatedMemoryEnabled(true);
+				return threads;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The results as a JSON object.
+	 */
+	static String toJSON(List<Result> results, String label, int runs)	{
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"label\": ").append(quote(label)).append(",\n");
+		json.append("  \"java\": ").append(quote(System.getProperty("java.version"))).append(",\n");
+		json.append("  \"timestamp\": ").append(System.currentTimeMillis()).append(",\n");
+		json.append("  \"runs\": ").append(runs).append(",\n");
+		json.append("  \"programs\": [");
+		for (int k = 0; k < results.size(); k++)	{
+			Result result = results.get(k);
+			json.append((k == 0) ? "\n" : ",\n");
+			json.append("    {\"name\": ").append(quote(result.name));
+			json.append(", \"passed\": ").append(result.passed);
+			if (result.error != null)	{
+				json.append(", \"error\": ").append(quote(result.error));
+			}
+			json.append(", \"instructions\": ").append(result.instructions);
+			json.append(", \"clock\": ").append(result.clock);
+			json.append(", \"nanos\": ").append(result.nanos);
+			json.append(", \"mips\": ").append(String.format(Locale.ROOT, "%.3f", result.mips()));
+			json.append(", \"allocatedPerRun\": ").append(result.allocatedPerRun());
+			json.append("}");
+		}
+		json.append("\n  ]\n}\n");
+		return json.toString();
+	}
+
+	private static String quote(String s)	{
+		StringBuilder quoted = new StringBuilder("\"");
+		for (int k = 0; k < s.length(); k++)	{
+			char c = s.charAt(k);
+			if (c == '"' || c == '\\')	{
+				quoted.append('\\').append(c);
+			} else if (c < ' ')	{
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else	{
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	public static void main(String[] args) throws IOException	{
+		int runs = 20;
+		String label = "";
+		String report = null;
+		String directory = "corpus";
+
+		for (int k = 0; k < args.length; k++)	{
+			if ("-runs".equals(args[k]) && k + 1 < args.length)	{
+				runs = Integer.parseInt(args[++k]);
+			} else if ("-label".equals(args[k]) && k + 1 < args.length)	{
+				label = args[++k];
+			} else if ("-o".equals(args[k]) && k + 1 < args.length)	{
+				report = args[++k];
+			} else	{
+				directory = args[k];
+			}
+		}
+
+		List<Result> results = new MixCorpus(new File(directory), runs).runAll();
+		boolean passed = true;
+		for (Result result : results)	{
+			System.err.println(String.format("%-12s %s %12d instructions %10.3f MIPS %12d bytes/run",
+				result.name, result.passed ? "ok  " : "FAIL", result.instructions, result.mips(),
+				result.allocatedPerRun()) + (result.passed ? "" : "  " + result.error));
+			passed &= result.passed;
+		}
+
+		String json = toJSON(results, label, runs);
+		if (report != null)	{
+			Files.write(new File(report).toPath(), json.getBytes("US-ASCII"));
+		} else	{
+			System.out.print(json);
+		}
+		if (!passed)	{
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package com.jdavies.mix;
+
+import java.io.File;
+
+/**
+ * Every program in the corpus has to assemble, run and print what it should.
+ */
+public class MixCorpusTest	{
+	public static void testCorpus() throws Exception	{
+		MixCorpus corpus = new MixCorpus(new File("corpus"), 1);
+		if (corpus.programs().isEmpty())	{
+			System.err.println("ERROR: No programs found in corpus/");
+		}
+		for (MixCorpus.Result result : corpus.runAll())	{
+			if (!result.passed)	{
+				System.err.println("ERROR: " + result.name + ": " + result.error);
+			}
+			if (result.instructions == 0 || result.clock < result.instructions)	{
+				System.err.println("ERROR: " + result.name + " ran " + result.instructions +
+					" instructions in " + result.clock + " units");
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception	{
+		testCorpus();
+	}
+}
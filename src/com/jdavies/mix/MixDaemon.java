@@ -0,0 +1,447 @@
+package com.jdavies.mix;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jdk.net.ExtendedSocketOptions;
+
+/**
+ * Keeps the assembler, linker and simulator loaded, and compiled by the JIT, in one
+ * long-lived JVM, and runs their commands for clients on a Unix domain socket, so that a
+ * script that assembles thousands of files doesn't start a JVM for each one (see
+ * asm.sh).  Each connection is one command, run on its own thread:
+ *
+ * <pre>
+ * request:  fields, each followed by a NUL: "MIX1", the client's working directory,
+ *           the command (asm, link, run or stop) and its arguments, then an empty field;
+ *           anything after that is the command's standard input
+ * response: lines, each "1 " and a line of standard output or "2 " and a line of
+ *           standard error, then "0 " and the exit status
+ * </pre>
+ *
+ * The commands are the main programs of {@link MixAsm}, {@link MixLinker} and
+ * {@link MixVM}, which write to System.out and System.err as usual: those, and
+ * System.in, are replaced while the daemon runs by streams that send each thread to the
+ * connection it's working for.  The text is line based so that a shell script can take
+ * the response apart with awk.
+ *
+ * The socket is only accessible to its owner, and a connection from anyone else is
+ * closed without reading it.
+ */
+public class MixDaemon	{
+	static final String PROTOCOL = "MIX1";
+	// The most a request's fields can take up
+	private static final int MAX_REQUEST = 64 << 10;
+	// Output is sent when this much has been written, or when it's flushed
+	private static final int BUFFER = 8192;
+
+	private static final InheritableThreadLocal<Connection> current = new InheritableThreadLocal<Connection>();
+	private static PrintStream systemOut;
+	private static PrintStream systemErr;
+	private static InputStream systemIn;
+
+	private final Path socket;
+	private final ExecutorService pool = Executors.newCachedThreadPool();
+	private ServerSocketChannel server;
+
+	/**
+	 * A daemon listening on {@param socket}, once it's been opened.
+	 */
+	public MixDaemon(Path socket)	{
+		this.socket = socket;
+	}
+
+	/**
+	 * The socket asm.sh looks for: $MIX_SOCKET, or mix-USER.sock in the temporary
+	 * directory.
+	 */
+	static Path defaultSocket()	{
+		String socket = System.getenv("MIX_SOCKET");
+		if (socket != null && !socket.isEmpty())	{
+			return Paths.get(socket);
+		}
+		return Paths.get(System.getProperty("java.io.tmpdir"), "mix-" + System.getProperty("user.name") + ".sock");
+	}
+
+	/**
+	 * Start listening; false if another daemon is listening on the socket already.  A
+	 * socket left behind by a daemon that died is replaced.
+	 */
+	public boolean open() throws IOException	{
+		if (Files.exists(socket))	{
+			try	{
+				SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+				return false;
+			} catch (IOException e)	{
+				Files.deleteIfExists(socket);
+			}
+		}
+		server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		server.bind(UnixDomainSocketAddress.of(socket));
+		try	{
+			Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+		} catch (UnsupportedOperationException e)	{
+			// Not a POSIX file system: the peer's user is still checked
+		}
+		redirect();
+		return true;
+	}
+
+	/**
+	 * Accept connections until {@link #close}.
+	 */
+	public void serve() throws IOException	{
+		for (;;)	{
+			SocketChannel channel;
+			try	{
+				channel = server.accept();
+			} catch (ClosedChannelException e)	{
+				return;
+			}
+			pool.execute(() -> handle(channel));
+		}
+	}
+
+	/**
+	 * Stop listening and remove the socket; commands already running finish.
+	 */
+	public void close() throws IOException	{
+		server.close();
+		pool.shutdown();
+		Files.deleteIfExists(socket);
+	}
+
+	/**
+	 * Point System.out, System.err and System.in at the connection each thread is working
+	 * for, if any.  Threads that a command starts inherit its connection.
+	 */
+	private static synchronized void redirect()	{
+		if (systemOut != null)	{
+			return;
+		}
+		systemOut = System.out;
+		systemErr = System.err;
+		systemIn = System.in;
+		System.setOut(new PrintStream(new OutputStream()	{
+			public void write(int b) throws IOException	{
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+			public void write(byte b[], int offset, int length) throws IOException	{
+				Connection connection = current.get();
+				if (connection == null)	{
+					systemOut.write(b, offset, length);
+				} else	{
+					connection.write('1', b, offset, length);
+				}
+			}
+			public void flush() throws IOException	{
+				Connection connection = current.get();
+				if (connection == null)	{
+					systemOut.flush();
+				} else	{
+					connection.flush();
+				}
+			}
+		}));
+		System.setErr(new PrintStream(new OutputStream()	{
+			public void write(int b) throws IOException	{
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+			public void write(byte b[], int offset, int length) throws IOException	{
+				Connection connection = current.get();
+				if (connection == null)	{
+					systemErr.write(b, offset, length);
+				} else	{
+					connection.write('2', b, offset, length);
+				}
+			}
+			public void flush() throws IOException	{
+				Connection connection = current.get();
+				if (connection == null)	{
+					systemErr.flush();
+				} else	{
+					connection.flush();
+				}
+			}
+		}));
+		System.setIn(new InputStream()	{
+			public int read() throws IOException	{
+				byte b[] = new byte[1];
+				return (read(b, 0, 1) < 0) ? -1 : b[0] & 0xFF;
+			}
+			public int read(byte b[], int offset, int length) throws IOException	{
+				Connection connection = current.get();
+				return (connection == null) ? systemIn.read(b, offset, length) :
+					connection.read(b, offset, length);
+			}
+		});
+	}
+
+	private void handle(SocketChannel channel)	{
+		try (SocketChannel client = channel)	{
+			if (!isOwner(client))	{
+				return;
+			}
+			Connection connection = new Connection(client);
+			List<String> request = connection.readRequest();
+			int status;
+			current.set(connection);
+			try	{
+				status = execute(request);
+			} catch (Exception e)	{
+				System.err.println(e);
+				status = 1;
+			} finally	{
+				current.remove();
+			}
+			connection.finish(status);
+		} catch (IOException e)	{
+			// The client went away
+		}
+	}
+
+	/**
+	 * Whether the process at the other end of {@param client} belongs to the owner of
+	 * the socket, where the platform can tell.
+	 */
+	private boolean isOwner(SocketChannel client) throws IOException	{
+		try	{
+			return client.getOption(ExtendedSocketOptions.SO_PEERCRED).user()
+				.equals(Files.getOwner(socket));
+		} catch (UnsupportedOperationException e)	{
+			return true;
+		}
+	}
+
+	/**
+	 * Run a command: the working directory, the command and its arguments.
+	 */
+	private int execute(List<String> request) throws Exception	{
+		if (request.size() < 3 || !PROTOCOL.equals(request.get(0)))	{
+			System.err.println("Not a " + PROTOCOL + " request");
+			return 2;
+		}
+		Path directory = Paths.get(request.get(1));
+		String args[] = request.subList(3, request.size()).toArray(new String[0]);
+		switch (request.get(2))	{
+		case "asm":
+			return MixAsm.command(directory, args);
+		case "link":
+			return MixLinker.command(directory, args);
+		case "run":
+			return MixVM.command(directory, args);
+		case "stop":
+			close();
+			return 0;
+		default:
+			System.err.println("Unknown command '" + request.get(2) + "': asm, link, run or stop");
+			return 2;
+		}
+	}
+
+	/**
+	 * One client: its request and standard input come in on the socket, and its output
+	 * goes back as tagged lines.
+	 */
+	private static final class Connection	{
+		private final SocketChannel channel;
+		private final ByteBuffer in = ByteBuffer.allocate(BUFFER);
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER);
+		// The unfinished last line of standard output and of standard error
+		private final ByteArrayOutputStream partial[] = {
+			new ByteArrayOutputStream(), new ByteArrayOutputStream() };
+
+		Connection(SocketChannel channel)	{
+			this.channel = channel;
+			in.flip();
+		}
+
+		/**
+		 * The fields up to the empty one.
+		 */
+		List<String> readRequest() throws IOException	{
+			List<String> fields = new ArrayList<String>();
+			ByteArrayOutputStream field = new ByteArrayOutputStream();
+			int total = 0;
+			for (;;)	{
+				byte b[] = new byte[1];
+				if (read(b, 0, 1) < 0 || ++total > MAX_REQUEST)	{
+					throw new IOException("Incomplete request");
+				}
+				if (b[0] != 0)	{
+					field.write(b[0]);
+				} else if (field.size() == 0)	{
+					return fields;
+				} else	{
+					fields.add(new String(field.toByteArray(), StandardCharsets.UTF_8));
+					field.reset();
+				}
+			}
+		}
+
+		int read(byte b[], int offset, int length) throws IOException	{
+			synchronized (in)	{
+				if (!in.hasRemaining())	{
+					in.clear();
+					int n = channel.read(in);
+					in.flip();
+					if (n < 0)	{
+						return -1;
+					}
+				}
+				length = Math.min(length, in.remaining());
+				in.get(b, offset, length);
+				return length;
+			}
+		}
+
+		/**
+		 * Standard output or error ({@param tag} '1' or '2'), a line at a time.
+		 */
+		synchronized void write(char tag, byte b[], int offset, int length) throws IOException	{
+			ByteArrayOutputStream line = partial[tag - '1'];
+			for (int k = offset; k < offset + length; k++)	{
+				line.write(b[k]);
+				if (b[k] == '\n')	{
+					out.write(tag);
+					out.write(' ');
+					line.writeTo(out);
+					line.reset();
+				}
+			}
+			if (out.size() >= BUFFER)	{
+				flush();
+			}
+		}
+
+		synchronized void flush() throws IOException	{
+			ByteBuffer bytes = ByteBuffer.wrap(out.toByteArray());
+			while (bytes.hasRemaining())	{
+				channel.write(bytes);
+			}
+			out.reset();
+		}
+
+		/**
+		 * End any unfinished lines, and send the exit status.
+		 */
+		synchronized void finish(int status) throws IOException	{
+			for (int k = 0; k < partial.length; k++)	{
+				if (partial[k].size() > 0)	{
+					write((char) ('1' + k), new byte[] { '\n' }, 0, 1);
+				}
+			}
+			out.write(("0 " + status + "\n").getBytes(StandardCharsets.US_ASCII));
+			flush();
+		}
+	}
+
+	/**
+	 * Send {@param command} to the daemon on {@param socket}, with {@param directory} as
+	 * the working directory and {@param input} as standard input (null for none), and copy
+	 * its output to {@param out} and {@param err}.  Returns the exit status.
+	 */
+	static int call(Path socket, Path directory, List<String> command, byte input[],
+			OutputStream out, OutputStream err) throws IOException	{
+		try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket)))	{
+			ByteArrayOutputStream request = new ByteArrayOutputStream();
+			List<String> fields = new ArrayList<String>(Arrays.asList(PROTOCOL,
+				directory.toAbsolutePath().toString()));
+			fields.addAll(command);
+			for (String field : fields)	{
+				request.write(field.getBytes(StandardCharsets.UTF_8));
+				request.write(0);
+			}
+			request.write(0);
+			if (input != null)	{
+				request.write(input);
+			}
+			// Sent from another thread, so that the output can't fill up and stop the input
+			ByteBuffer bytes = ByteBuffer.wrap(request.toByteArray());
+			Thread sender = new Thread(() -> {
+				try	{
+					while (bytes.hasRemaining())	{
+						channel.write(bytes);
+					}
+					channel.shutdownOutput();
+				} catch (IOException e)	{
+					// The command finished without reading all of its input
+				}
+			});
+			sender.setDaemon(true);
+			sender.start();
+
+			InputStream response = java.nio.channels.Channels.newInputStream(channel);
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			int b;
+			while ((b = response.read()) >= 0)	{
+				line.write(b);
+				if (b != '\n')	{
+					continue;
+				}
+				byte text[] = line.toByteArray();
+				line.reset();
+				if (text.length >= 2 && text[0] == '0')	{
+					return Integer.parseInt(new String(text, 2, text.length - 3, StandardCharsets.US_ASCII));
+				}
+				(text[0] == '1' ? out : err).write(text, 2, text.length - 2);
+			}
+			throw new IOException("The daemon on " + socket + " stopped without an exit status");
+		}
+	}
+
+	/**
+	 * Run the daemon in the foreground, or with -stop, stop the one that's running.
+	 */
+	public static void main(String[] args) throws IOException	{
+		Path socket = defaultSocket();
+		boolean stop = false;
+		for (int k = 0; k < args.length; k++)	{
+			if ("-socket".equals(args[k]) && k + 1 < args.length)	{
+				socket = Paths.get(args[++k]);
+			} else if ("-stop".equals(args[k]))	{
+				stop = true;
+			} else	{
+				System.err.println("Usage: MixDaemon [-socket path] [-stop]");
+				System.exit(2);
+			}
+		}
+		if (stop)	{
+			System.exit(call(socket, Paths.get(""), Arrays.asList("stop"), null, System.out, System.err));
+		}
+
+		MixDaemon daemon = new MixDaemon(socket);
+		if (!daemon.open())	{
+			System.err.println("A daemon is already listening on " + socket);
+			System.exit(1);
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try	{
+				Files.deleteIfExists(daemon.socket);
+			} catch (IOException e)	{
+				// Nothing more to be done on the way out
+			}
+		}));
+		System.err.println("Listening on " + socket);
+		daemon.serve();
+	}
+}
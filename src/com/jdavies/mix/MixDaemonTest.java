@@ -0,0 +1,164 @@
+package com.jdavies.mix;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class MixDaemonTest	{
+	private static Path directory;
+	private static Path socket;
+	private static MixDaemon daemon;
+	private static Thread server;
+
+	private static void start() throws IOException	{
+		directory = Files.createTempDirectory("daemon");
+		socket = directory.resolve("mix.sock");
+		daemon = new MixDaemon(socket);
+		MixVMTest.assertEquals(1, daemon.open() ? 1 : 0);
+		server = new Thread(() -> {
+			try	{
+				daemon.serve();
+			} catch (IOException e)	{
+				System.err.println("ERROR: " + e);
+			}
+		});
+		server.start();
+	}
+
+	private static void stop() throws Exception	{
+		MixVMTest.assertEquals(0, MixDaemon.call(socket, directory, Arrays.asList("stop"), null,
+			new ByteArrayOutputStream(), new ByteArrayOutputStream()));
+		server.join(10000);
+		MixVMTest.assertEquals(0, server.isAlive() ? 1 : 0);
+		MixVMTest.assertEquals(0, Files.exists(socket) ? 1 : 0);
+		try (Stream<Path> files = Files.walk(directory))	{
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	/**
+	 * Assembled and run by the daemon, with file names relative to the client's
+	 * directory, Program P prints what it always does.
+	 */
+	public static void testAssembleAndRun() throws Exception	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		Path corpus = Paths.get("corpus").toAbsolutePath();
+		MixVMTest.assertEquals(0, MixDaemon.call(socket, corpus,
+			Arrays.asList("asm", "-o", directory.resolve("primes.mixi").toString(), "primes.mixal"),
+			null, out, err));
+		// The listing comes back as standard output
+		if (!new String(out.toByteArray(), "ISO-8859-1").contains("TITLE"))	{
+			System.err.println("ERROR: there's no listing");
+		}
+
+		out.reset();
+		MixVMTest.assertEquals(0, MixDaemon.call(socket, directory, Arrays.asList("run", "primes.mixi"),
+			null, out, err));
+		if (!Arrays.equals(Files.readAllBytes(corpus.resolve("primes.out")), out.toByteArray()))	{
+			System.err.println("ERROR: Program P printed something else through the daemon");
+		}
+		MixVMTest.assertEquals(0, err.size());
+	}
+
+	/**
+	 * A program that reads cards gets them from the client's standard input.
+	 */
+	public static void testInput() throws Exception	{
+		Path corpus = Paths.get("corpus").toAbsolutePath();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		MixVMTest.assertEquals(0, MixDaemon.call(socket, corpus,
+			Arrays.asList("asm", "-cache", directory.resolve("cache").toString(), "-o",
+				directory.resolve("listing.mixi").toString(), "listing.mixal"), null, out, err));
+		out.reset();
+		MixVMTest.assertEquals(0, MixDaemon.call(socket, directory, Arrays.asList("run", "listing.mixi"),
+			Files.readAllBytes(corpus.resolve("listing.cards")), out, err));
+		if (!Arrays.equals(Files.readAllBytes(corpus.resolve("listing.out")), out.toByteArray()))	{
+			System.err.println("ERROR: the listing program printed something else through the daemon");
+		}
+	}
+
+	/**
+	 * Failures come back as standard error and an exit status, and the daemon carries on.
+	 */
+	public static void testErrors() throws Exception	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		MixVMTest.assertEquals(1, MixDaemon.call(socket, directory, Arrays.asList("asm", "missing.mixal"),
+			null, out, err));
+		if (!new String(err.toByteArray(), "ISO-8859-1").contains("missing.mixal"))	{
+			System.err.println("ERROR: the missing file isn't reported");
+		}
+		// Syntax errors too, with no listing to show them in
+		err.reset();
+		Files.write(directory.resolve("bad.mixal"), "         XYZ  1\n         END  0\n".getBytes("US-ASCII"));
+		MixVMTest.assertEquals(1, MixDaemon.call(socket, directory, Arrays.asList("asm", "-cache",
+			directory.resolve("cache").toString(), "bad.mixal"), null, out, err));
+		if (!new String(err.toByteArray(), "ISO-8859-1").contains("bad.mixal: At line 1"))	{
+			System.err.println("ERROR: the syntax error isn't reported");
+		}
+		err.reset();
+		MixVMTest.assertEquals(2, MixDaemon.call(socket, directory, Arrays.asList("format"),
+			null, out, err));
+		MixVMTest.assertEquals(1, err.size() > 0 ? 1 : 0);
+
+		// Another daemon can't take the socket
+		MixVMTest.assertEquals(0, new MixDaemon(socket).open() ? 1 : 0);
+	}
+
+	/**
+	 * Commands run at the same time each get their own output.
+	 */
+	public static void testConcurrent() throws Exception	{
+		Path corpus = Paths.get("corpus").toAbsolutePath();
+		String names[] = { "primes", "insertion", "selection", "shellsort", "maximum" };
+		List<Thread> threads = new ArrayList<Thread>();
+		for (String name : names)	{
+			Thread thread = new Thread(() -> {
+				try	{
+					Path image = directory.resolve(name + ".mixi");
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					ByteArrayOutputStream err = new ByteArrayOutputStream();
+					for (int k = 0; k < 5; k++)	{
+						out.reset();
+						MixDaemon.call(socket, corpus, Arrays.asList("asm", "-cache",
+							directory.resolve("cache").toString(), "-o", image.toString(), name + ".mixal"),
+							null, out, err);
+						MixDaemon.call(socket, directory, Arrays.asList("run", image.toString()),
+							null, out, err);
+						if (!Arrays.equals(Files.readAllBytes(corpus.resolve(name + ".out")), out.toByteArray()))	{
+							System.err.println("ERROR: " + name + " printed something else");
+						}
+					}
+				} catch (IOException e)	{
+					System.err.println("ERROR: " + e);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads)	{
+			thread.join();
+		}
+	}
+
+	public static void main(String[] args) throws Exception	{
+		start();
+		try	{
+			testAssembleAndRun();
+			testInput();
+			testErrors();
+			testConcurrent();
+		} finally	{
+			stop();
+		}
+	}
+}
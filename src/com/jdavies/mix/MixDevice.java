@@ -0,0 +1,52 @@
+package com.jdavies.mix;
+
+import java.nio.IntBuffer;
+
+/**
+ * A peripheral that can be attached to one of the unit numbers 0-20 of a {@link MixVM}.
+ * The VM hands each transfer a view of exactly one block of its own memory, starting
+ * at M; nothing is copied, so whatever the device writes into the view on input is
+ * immediately visible to the program, and on output it sees the words as they are.
+ * The view is only valid for the duration of the call.
+ *
+ * Every operation returns the number of time units that the device remains busy
+ * afterwards.  The VM will make IN, OUT and IOC wait out that interval, and JBUS/JRED
+ * test against it; a device that returns 0 completes its transfers instantly.
+ *
+ * Devices that can't do one of the operations can leave the default in place, which
+ * treats it as a programming error in the MIX program.
+ */
+public interface MixDevice	{
+	/**
+	 * The number of words transferred by each IN or OUT.
+	 */
+	int getBlockSize();
+
+	/**
+	 * IN: fill {@param block} (positions 0 through getBlockSize() - 1) with the next
+	 * block from the device.
+	 */
+	default int in(IntBuffer block) throws DeviceError	{
+		throw new DeviceError(getClass().getSimpleName() + " can't be used for input");
+	}
+
+	/**
+	 * OUT: transfer the words of {@param block} to the device.
+	 */
+	default int out(IntBuffer block) throws DeviceError	{
+		throw new DeviceError(getClass().getSimpleName() + " can't be used for output");
+	}
+
+	/**
+	 * IOC: a control operation, dependent on the particular device.
+	 */
+	default int control(int m) throws DeviceError	{
+		return 0;
+	}
+
+	/**
+	 * Push out anything the device is buffering; called whenever the VM halts.
+	 */
+	default void flush() throws DeviceError	{
+	}
+}
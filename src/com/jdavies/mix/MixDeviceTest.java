@@ -0,0 +1,100 @@
+package com.jdavies.mix;
+
+import java.nio.IntBuffer;
+
+public class MixDeviceTest	{
+	/**
+	 * An in-memory fixture: every IN produces the next 10 integers and keeps the
+	 * device busy for 100 units.
+	 */
+	static class CountingDevice implements MixDevice	{
+		private int next = 0;
+
+		public int getBlockSize()	{
+			return 10;
+		}
+
+		public int in(IntBuffer block)	{
+			for (int w = 0; w < block.limit(); w++)	{
+				block.put(w, next++);
+			}
+			return 100;
+		}
+	}
+
+	public static void testCustomDevice() throws Exception	{
+		MixDevice devices[] = new MixDevice[21];
+		devices[5] = new CountingDevice();
+		MixVM vm = new MixVM(new int[4000], devices);
+		vm.loadMemory(3000, new int[] {
+			new MixInst(MixOpCode.IN, 0, 0, 5, 1000).pack(),		// IN 1000(5)
+			new MixInst(MixOpCode.IN, 0, 0, 5, 1010).pack(),		// IN 1010(5)
+			new MixInst(MixOpCode.JBUS, 0, 0, 5, 3002).pack(),	// JBUS *(5)
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()});
+		vm.run(3000);
+
+		for (int loc = 1000; loc < 1020; loc++)	{
+			MixVMTest.assertEquals(loc - 1000, vm.getMemory(loc));
+		}
+		MixVMTest.assertEquals(0, vm.getMemory(1020));
+		// The second IN had to wait for the first, and JBUS waited for the second
+		if (vm.getClock() < 200)	{
+			System.err.println("ERROR: Expected the clock to pass 200 but got " + vm.getClock());
+		}
+	}
+
+	/**
+	 * JBUS and JRED index their addresses like any other jump; a JBUS that comes to
+	 * itself through the index waits for the device at once, rather than looping.
+	 */
+	public static void testIndexedDeviceJumps() throws Exception	{
+		MixDevice devices[] = new MixDevice[21];
+		devices[5] = new CountingDevice();
+		MixVM vm = new MixVM(new int[4000], devices);
+		vm.loadMemory(3000, new int[] {
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack(),		// Where unindexed jumps end up
+			new MixInst(MixOpCode.INC1, 0, 0, 2, 5).pack(),		// ENT1 5
+			new MixInst(MixOpCode.IN, 0, 0, 5, 1000).pack(),		// IN 1000(5)
+			new MixInst(MixOpCode.JBUS, 1, 0, 5, 2998).pack(),	// JBUS 2998,1(5): JBUS *
+			new MixInst(MixOpCode.JRED, 1, 0, 5, 3000).pack(),	// JRED 3000,1(5): to 3005
+			new MixInst(MixOpCode.INCA, 0, 0, 2, 1).pack(),		// ENTA 1
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()});
+		vm.run(3001);
+
+		MixVMTest.assertEquals(1, vm.getRegister(0));
+		// ENT1, IN, JBUS (busy, so it waits), JBUS again (ready), JRED, ENTA, HLT
+		MixVMTest.assertEquals(7, (int) vm.getInstructionCount());
+		if (vm.getClock() < 100)	{
+			System.err.println("ERROR: Expected JBUS to wait for the IN but the clock is " + vm.getClock());
+		}
+	}
+
+	/**
+	 * A device that can't flush, after the program has faulted: the fault is what's
+	 * thrown, with the flush failure recorded on it.
+	 */
+	public static void testFlushAfterFault() throws Exception	{
+		MixDevice devices[] = new MixDevice[21];
+		devices[5] = new CountingDevice()	{
+			public void flush() throws DeviceError	{
+				throw new DeviceError("Can't flush");
+			}
+		};
+		MixVM vm = new MixVM(new int[4000], devices);
+		vm.loadMemory(3000, new int[] {
+			new MixInst(MixOpCode.JMP, 0, 0, 0, 4000).pack()});		// JMP 4000
+		try	{
+			vm.run(3000);
+			System.err.println("ERROR: the jump out of memory didn't fault");
+		} catch (MemoryLocationError e)	{
+			MixVMTest.assertEquals(1, e.getSuppressed().length);
+			MixVMTest.assertEquals(1, e.getSuppressed()[0] instanceof DeviceError ? 1 : 0);
+		}
+	}
+
+	public static void main(String[] args) throws Exception	{
+		testCustomDevice();
+		testIndexedDeviceJumps();
+		testFlushAfterFault();
+	}
+}
@@ -1,10 +1,17 @@
 package com.jdavies.mix;
 
+/**
+ * A fault in the MIX program being run (as opposed to a bug in the simulator).  The
+ * Java stack trace says nothing about the MIX program, so none is recorded; that keeps
+ * faulting as cheap as an ordinary halt.  What matters is the location, which the VM
+ * attaches when the exception leaves run().  Suppressed exceptions are kept: a device
+ * that fails to flush after a fault is recorded with it.
+ */
 class MixException extends Exception	{
 	private int location;
 
 	public MixException(String msg)	{
-		super(msg);
+		super(msg, null, true, false);
 	}
 
 	public void attachLocation(int location)	{
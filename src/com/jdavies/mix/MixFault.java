@@ -0,0 +1,105 @@
+package com.jdavies.mix;
+
+/**
+ * What {@link MixVM#tryRun} returns when the program faults instead of halting: what
+ * went wrong, where, the instruction word at that location and the machine state at
+ * the time.  The registers are those after the faulting instruction, which never
+ * changes them.
+ */
+public final class MixFault	{
+	public enum Code	{
+		ILLEGAL_INSTRUCTION,
+		FIELD_ERROR,
+		MEMORY_LOCATION,
+		DEVICE_ERROR,
+		NOT_IMPLEMENTED
+	}
+
+	private final Code code;
+	private final String message;
+	private final int location;
+	private final int instruction;
+	private final int registers[];
+	private final int rJ;
+	private final boolean overflow;
+	private final int comparison;
+	private final long clock;
+
+	MixFault(MixException e, int instruction, int registers[], int rJ, boolean overflow,
+			int comparison, long clock)	{
+		this.code = codeOf(e);
+		this.message = e.getMessage();
+		this.location = e.getLocation();
+		this.instruction = instruction;
+		this.registers = registers;
+		this.rJ = rJ;
+		this.overflow = overflow;
+		this.comparison = comparison;
+		this.clock = clock;
+	}
+
+	static Code codeOf(MixException e)	{
+		if (e instanceof IllegalInstruction)	{
+			return Code.ILLEGAL_INSTRUCTION;
+		} else if (e instanceof FieldError)	{
+			return Code.FIELD_ERROR;
+		} else if (e instanceof MemoryLocationError)	{
+			return Code.MEMORY_LOCATION;
+		} else if (e instanceof DeviceError)	{
+			return Code.DEVICE_ERROR;
+		}
+		return Code.NOT_IMPLEMENTED;
+	}
+
+	public Code getCode()	{
+		return code;
+	}
+
+	public String getMessage()	{
+		return message;
+	}
+
+	/**
+	 * The location of the instruction that faulted.
+	 */
+	public int getLocation()	{
+		return location;
+	}
+
+	/**
+	 * The instruction word at {@link #getLocation}; 0 if that's outside of memory.
+	 */
+	public int getInstruction()	{
+		return instruction;
+	}
+
+	/**
+	 * rA, rI1-rI6 and rX, as {@link MixVM#getRegister} numbers them.
+	 */
+	public int getRegister(int r)	{
+		return registers[r];
+	}
+
+	public int getJ()	{
+		return rJ;
+	}
+
+	public boolean getOverflow()	{
+		return overflow;
+	}
+
+	/**
+	 * The comparison indicator: -1 (LESS), 0 (EQUAL) or 1 (GREATER).
+	 */
+	public int getComparison()	{
+		return comparison;
+	}
+
+	public long getClock()	{
+		return clock;
+	}
+
+	public String toString()	{
+		return code + " at " + location + ": " + message;
+	}
+}
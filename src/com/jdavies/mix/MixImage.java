@@ -0,0 +1,251 @@
+package com.jdavies.mix;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An assembled program, as written by {@link MixAsm#writeImage} and loaded by
+ * {@link MixVM#loadImage}, so that a program can be assembled once and run many times.
+ * Every number is big-endian:
+ *
+ * <pre>
+ * int   magic "MIXI"
+ * int   version (1)
+ * int   start, the location given by END, or -1
+ * int   segments, then for each: int origin, int length, length words
+ * int   symbols, then for each: long key (packed by {@link MixSymbol}), int equivalent
+ * int   lines, then for each: int location, int source line
+ * </pre>
+ *
+ * Only the nonzero parts of memory are written, as segments; a run of zeros shorter
+ * than a segment header is kept inside the segment around it.  The segments come first
+ * and are all int-aligned, so a VM can copy them straight out of the mapped file
+ * without looking at the rest.
+ */
+final class MixImage	{
+	static final int MAGIC = ('M' << 24) | ('I' << 16) | ('X' << 8) | 'I';
+	static final int VERSION = 1;
+	// Zeros that cost no more to write than to start a new segment
+	private static final int GAP = 2;
+
+	private final int start;
+	private final int memory[];
+	private final LongIntMap symbols;
+	private final int lines[];
+
+	MixImage(int start, int memory[], LongIntMap symbols, int lines[])	{
+		this.start = start;
+		this.memory = memory;
+		this.symbols = symbols;
+		this.lines = lines;
+	}
+
+	int getStart()	{
+		return start;
+	}
+
+	int[] getMemory()	{
+		return memory;
+	}
+
+	LongIntMap getSymbols()	{
+		return symbols;
+	}
+
+	/**
+	 * The source line of each word, 0 for none.
+	 */
+	int[] getLines()	{
+		return lines;
+	}
+
+	/**
+	 * The source line that the word at {@param location} was assembled from, or 0.
+	 */
+	int getLine(int location)	{
+		return lines[location];
+	}
+
+	/**
+	 * Write the program to {@param file}.
+	 */
+	void write(Path file) throws IOException	{
+		Files.write(file, toBytes());
+	}
+
+	byte[] toBytes()	{
+		int segments = 0;
+		int words = 0;
+		for (int p = nextSegment(0); p < memory.length; p = nextSegment(p))	{
+			int end = segmentEnd(p);
+			segments++;
+			words += end - p;
+			p = end;
+		}
+		int lineCount = 0;
+		for (int line : lines)	{
+			if (line != 0)	{
+				lineCount++;
+			}
+		}
+
+		ByteBuffer out = ByteBuffer.allocate(4 * (5 + 2 * segments + words) +
+			12 * symbols.size() + 4 + 8 * lineCount);
+		out.putInt(MAGIC).putInt(VERSION).putInt(start);
+		out.putInt(segments);
+		for (int p = nextSegment(0); p < memory.length; p = nextSegment(p))	{
+			int end = segmentEnd(p);
+			out.putInt(p).putInt(end - p);
+			for (; p < end; p++)	{
+				out.putInt(memory[p]);
+			}
+		}
+		out.putInt(symbols.size());
+		for (int slot = 0; slot < symbols.capacity(); slot++)	{
+			if (symbols.keyAt(slot) != 0)	{
+				out.putLong(symbols.keyAt(slot)).putInt(symbols.valueAt(slot));
+			}
+		}
+		out.putInt(lineCount);
+		for (int p = 0; p < lines.length; p++)	{
+			if (lines[p] != 0)	{
+				out.putInt(p).putInt(lines[p]);
+			}
+		}
+		return out.array();
+	}
+
+	/**
+	 * The first nonzero word at or after {@param p}.
+	 */
+	private int nextSegment(int p)	{
+		while (p < memory.length && memory[p] == 0)	{
+			p++;
+		}
+		return p;
+	}
+
+	/**
+	 * The end of the segment starting at {@param p}: the next run of more than
+	 * {@link #GAP} zeros, or the end of memory.
+	 */
+	private int segmentEnd(int p)	{
+		int end = p;
+		while (end < memory.length)	{
+			if (memory[end] != 0)	{
+				end++;
+				continue;
+			}
+			int zeros = end;
+			while (zeros < memory.length && memory[zeros] == 0 && zeros - end < GAP)	{
+				zeros++;
+			}
+			if (zeros == memory.length || memory[zeros] == 0)	{
+				break;
+			}
+			end = zeros;
+		}
+		return end;
+	}
+
+	/**
+	 * Copy the segments of the image in {@param file} into {@param memory}, and return
+	 * the starting location.  Nothing but the header and the segments is read.
+	 */
+	static int load(Path file, int memory[]) throws IOException	{
+		try	{
+			return load(map(file).asIntBuffer(), memory, file.toString());
+		} catch (BufferUnderflowException e)	{
+			throw new IOException(file + " is truncated");
+		}
+	}
+
+	/**
+	 * Check the header, copy the segments and leave {@param words} just after them.
+	 */
+	private static int load(IntBuffer words, int memory[], String file) throws IOException	{
+		if (words.remaining() < 4 || words.get() != MAGIC)	{
+			throw new IOException(file + " is not a MIX image");
+		}
+		int version = words.get();
+		if (version != VERSION)	{
+			throw new IOException(file + " is version " + version + " of the image format, not " +
+				VERSION);
+		}
+		int start = words.get();
+		int segments = words.get();
+		for (int k = 0; k < segments; k++)	{
+			int origin = words.get();
+			int length = words.get();
+			if (origin < 0 || length < 0 || length > memory.length - origin)	{
+				throw new IOException(file + ": a segment of " + length + " words at " +
+					origin + " is outside memory");
+			}
+			words.get(memory, origin, length);
+		}
+		return start;
+	}
+
+	/**
+	 * The whole image in {@param file}.
+	 */
+	static MixImage read(Path file) throws IOException	{
+		return read(map(file), file.toString());
+	}
+
+	/**
+	 * The image from the position of {@param in}, which is left after it; {@param file}
+	 * names it in messages.
+	 */
+	static MixImage read(ByteBuffer in, String file) throws IOException	{
+		int memory[] = new int[MixVM.MEMORY];
+		try	{
+			IntBuffer words = in.asIntBuffer();
+			int start = load(words, memory, file);
+			// The tables follow the segments
+			in.position(in.position() + 4 * words.position());
+
+			int count = in.getInt();
+			if (count < 0 || count > in.remaining() / 12)	{
+				throw new IOException(file + " is truncated");
+			}
+			LongIntMap symbols = new LongIntMap(count);
+			for (int k = 0; k < count; k++)	{
+				long key = in.getLong();
+				if (key == 0)	{
+					throw new IOException(file + " has an empty symbol");
+				}
+				symbols.put(key, in.getInt());
+			}
+			int lines[] = new int[MixVM.MEMORY];
+			count = in.getInt();
+			for (int k = 0; k < count; k++)	{
+				int location = in.getInt();
+				int line = in.getInt();
+				if (location < 0 || location >= lines.length)	{
+					throw new IOException(file + ": line " + line + " is at " + location +
+						", outside memory");
+				}
+				lines[location] = line;
+			}
+			return new MixImage(start, memory, symbols, lines);
+		} catch (BufferUnderflowException e)	{
+			throw new IOException(file + " is truncated");
+		}
+	}
+
+	static ByteBuffer map(Path file) throws IOException	{
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))	{
+			if (channel.size() > Integer.MAX_VALUE)	{
+				throw new IOException(file + " is too large to be a MIX image");
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package com.jdavies.mix;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+public class MixImageTest	{
+	/**
+	 * Program P, written as an image and loaded back, prints the same primes.
+	 */
+	public static void testRoundTrip() throws Exception	{
+		MixAsm asm = new MixAsm();
+		asm.assemble(Paths.get("corpus", "primes.mixal"));
+		Path file = Files.createTempFile("primes", ".mixi");
+		try	{
+			asm.writeImage(file);
+			MixImage image = MixImage.read(file);
+			MixVMTest.assertEquals(asm.getStart(), image.getStart());
+			if (!Arrays.equals(asm.getImage(), image.getMemory()))	{
+				System.err.println("ERROR: The memory read back differs from the memory written");
+			}
+			MixVMTest.assertEquals(asm.getSymbols().size(), image.getSymbols().size());
+			MixVMTest.assertEquals(3000, image.getSymbols().get(MixSymbol.pack("START"), -1));
+			// START IOC 0(PRINTER) is on line 11 and TITLE ALF FIRST on line 45
+			MixVMTest.assertEquals(11, image.getLine(3000));
+			MixVMTest.assertEquals(45, image.getLine(1995));
+			MixVMTest.assertEquals(0, image.getLine(1000));
+
+			MixVM vm = new MixVM();
+			ByteArrayOutputStream printed = new ByteArrayOutputStream();
+			vm.attachDevice(CharacterDevice.LINE_PRINTER, new CharacterDevice(
+				CharacterDevice.LINE_PRINTER, null, Channels.newChannel(printed)));
+			vm.run(vm.loadImage(file));
+			if (!Arrays.equals(Files.readAllBytes(Paths.get("corpus", "primes.out")),
+					printed.toByteArray()))	{
+				System.err.println("ERROR: Program P printed something else from its image");
+			}
+		} finally	{
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Short runs of zeros stay inside a segment; longer ones split it.
+	 */
+	public static void testSegments() throws Exception	{
+		int memory[] = new int[MixVM.MEMORY];
+		memory[0] = 1;
+		memory[3] = 2;		// two zeros between: one segment
+		memory[7] = 3;		// three zeros: a new segment
+		memory[3999] = 4;
+		MixImage image = new MixImage(7, memory, new LongIntMap(), new int[MixVM.MEMORY]);
+		byte bytes[] = image.toBytes();
+		// The header, three segments of 4 + 1 + 1 words, and two empty tables
+		MixVMTest.assertEquals(4 * (4 + 3 * 2 + 6 + 2), bytes.length);
+
+		Path file = Files.createTempFile("segments", ".mixi");
+		try	{
+			Files.write(file, bytes);
+			int loaded[] = new int[MixVM.MEMORY];
+			Arrays.fill(loaded, 9);
+			MixVMTest.assertEquals(7, MixImage.load(file, loaded));
+			MixVMTest.assertEquals(0, loaded[1]);
+			MixVMTest.assertEquals(3, loaded[7]);
+			MixVMTest.assertEquals(9, loaded[5]);
+			MixVMTest.assertEquals(4, loaded[3999]);
+		} finally	{
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Anything that isn't a whole image is refused.
+	 */
+	public static void testBadImages() throws Exception	{
+		MixAsm asm = new MixAsm();
+		asm.assemble(Paths.get("corpus", "primes.mixal"));
+		byte good[] = asm.getProgram().toBytes();
+		byte wrongMagic[] = good.clone();
+		wrongMagic[0] = 'X';
+		byte wrongVersion[] = good.clone();
+		wrongVersion[7] = 2;
+		byte outside[] = good.clone();
+		outside[16] = 0x7F;		// the first segment's origin
+
+		for (byte bad[] : new byte[][] { wrongMagic, wrongVersion, outside,
+				Arrays.copyOf(good, 40), Arrays.copyOf(good, good.length - 1), new byte[0] })	{
+			Path file = Files.createTempFile("bad", ".mixi");
+			try	{
+				Files.write(file, bad);
+				MixImage.read(file);
+				System.err.println("ERROR: A bad image of " + bad.length + " bytes was read");
+			} catch (IOException e)	{
+				// as expected
+			} finally	{
+				Files.delete(file);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception	{
+		testRoundTrip();
+		testSegments();
+		testBadImages();
+	}
+}
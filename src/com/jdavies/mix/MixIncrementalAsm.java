@@ -0,0 +1,782 @@
+package com.jdavies.mix;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An assembler for the edit-and-run loop: it keeps what each source line assembled to,
+ * and after an edit it redoes only the lines that the edit can affect.
+ *
+ * Each line is parsed once, when it's added, and its expressions compiled by
+ * {@link MixalExpression} with * left symbolic.  Assembly then has two parts.  Layout
+ * gives each line its location and each label its equivalent; it only has to evaluate
+ * EQU, ORIG and literal constants.  Evaluation runs each line's code against the finished
+ * symbol table to give the word it assembles to.  An index from each symbol to the lines
+ * that use it decides what to redo:
+ *
+ * - the edited lines are laid out, and so are the lines after them until * comes back
+ *   into step with where it was before;
+ * - a symbol whose equivalent changes sends its EQU, ORIG and literal users back to
+ *   layout, and all of its users back to evaluation;
+ * - the words inserted at END (undefined symbols, rule 13, and the literal pool) are
+ *   recomputed, and the lines that refer to any that moved are evaluated again.
+ *
+ * So an edit that doesn't move anything costs its own lines plus their dependents, and
+ * one that does costs the lines up to the next ORIG.  An edit that adds, removes or
+ * changes the END line reassembles everything.  The result is the same as
+ * {@link MixAsm} gives for the whole text, except that a line that has an error
+ * assembles nothing at all.
+ */
+public class MixIncrementalAsm	{
+	/**
+	 * One source line, and what it contributed when it was last assembled.
+	 */
+	private static class Line	{
+		final String text;
+		int pos;
+		// The operation code, or -1 for a blank line, a comment or a line that didn't parse
+		int c = -1;
+		long label;
+		// The word that the code is run on: the operation and default field, or an ALF word
+		int base;
+		// Index and F-parts, or the W-value of EQU, ORIG or END: only defined symbols
+		long immediate[];
+		// The A-part of an instruction or the W-value of CON: may have future references
+		long code[];
+		// The W-value of a literal constant, and its value
+		long literal[];
+		int literalValue;
+		String parseError;
+		String layoutError;
+		String evaluateError;
+
+		boolean laidOut;
+		// Where the line starts, and the value of * after it
+		int start;
+		int next;
+		// The equivalent of the label, if the layout gave it one
+		int value;
+		boolean defines;
+		// The location this line last wrote a word to, or -1
+		int written = -1;
+		int word;
+
+		Line(String text)	{
+			this.text = text;
+		}
+
+		boolean emitsWord()	{
+			return c >= 0 && (c < 64 || c == MixAsm.CON || c == MixAsm.ALF);
+		}
+	}
+
+	private static final LongIntMap NO_SYMBOLS = new LongIntMap();
+
+	private final List<Line> lines = new ArrayList<Line>();
+	// The first END line, if there is one; lines after it are ignored
+	private Line endLine;
+
+	private LongIntMap symbols = new LongIntMap();
+	private final Map<Long, List<Line>> definers = new HashMap<Long, List<Line>>();
+	private final Map<Long, Set<Line>> users = new HashMap<Long, Set<Line>>();
+	// Used but never defined, so given a word at END
+	private final TreeSet<Long> undefined = new TreeSet<Long>();
+	private final Set<Long> undefinedCandidates = new HashSet<Long>();
+	private final Set<Line> literalLines = new HashSet<Line>();
+	// Literal values (keyed as by MixAsm) to their locations in the pool
+	private LongIntMap pool = new LongIntMap();
+	// The value of * at END, and where the words inserted there went last time
+	private int endLocation;
+	private int insertedStart;
+	private int inserted;
+	private String finishError;
+
+	private final int mem[] = new int[MixVM.MEMORY];
+	// The line whose word is at each location, and how many lines have written there
+	private final Line owner[] = new Line[MixVM.MEMORY];
+	private final int writers[] = new int[MixVM.MEMORY];
+	private int start = -1;
+
+	// Work for the edit in progress
+	private final ArrayDeque<Long> changed = new ArrayDeque<Long>();
+	private final Set<Line> dirty = new HashSet<Line>();
+	private final Set<Line> relayout = new HashSet<Line>();
+	private final MixalExpression expression = new MixalExpression();
+	private int reassembled;
+
+	/**
+	 * Assemble {@param source}, one line per element.
+	 */
+	public MixIncrementalAsm(List<String> source)	{
+		for (String text : source)	{
+			lines.add(new Line(text));
+		}
+		rebuild();
+	}
+
+	/**
+	 * Replace {@param count} lines, starting with line {@param first} (counting from 0),
+	 * with {@param replacement}, and bring the assembly up to date.
+	 */
+	public void replace(int first, int count, List<String> replacement)	{
+		if (first < 0 || count < 0 || first + count > lines.size())	{
+			throw new IndexOutOfBoundsException("Lines " + first + " to " + (first + count) +
+				" of " + lines.size());
+		}
+		reassembled = 0;
+		List<Line> added = new ArrayList<Line>();
+		boolean end = (endLine != null && endLine.pos >= first && endLine.pos < first + count);
+		for (String text : replacement)	{
+			Line line = new Line(text);
+			parse(line);
+			end |= (line.c == MixAsm.END && (endLine == null || first <= endLine.pos));
+			added.add(line);
+		}
+
+		List<Line> range = lines.subList(first, first + count);
+		if (end)	{
+			range.clear();
+			range.addAll(added);
+			for (Line line : lines)	{
+				line.laidOut = false;
+			}
+			rebuild();
+			return;
+		}
+		if (endLine != null && first > endLine.pos)	{
+			// After END: nothing to assemble
+			range.clear();
+			range.addAll(added);
+			renumber(first);
+			return;
+		}
+
+		for (Line line : range)	{
+			unregister(line);
+		}
+		range.clear();
+		range.addAll(added);
+		renumber(first);
+		for (Line line : added)	{
+			register(line);
+		}
+		layoutFrom(first, first + added.size());
+		settle();
+	}
+
+	/**
+	 * The lines laid out or evaluated by the last edit (or the whole assembly).
+	 */
+	public int getLinesReassembled()	{
+		return reassembled;
+	}
+
+	int[] getImage()	{
+		return mem;
+	}
+
+	int getStart()	{
+		return start;
+	}
+
+	LongIntMap getSymbols()	{
+		return symbols;
+	}
+
+	/**
+	 * The lines that failed to assemble, with the reasons, in the same form as
+	 * {@link MixAsm#getErrors}.
+	 */
+	public List<String> getErrors()	{
+		List<String> errors = new ArrayList<String>();
+		for (Line line : lines)	{
+			String error = (line.parseError != null) ? line.parseError :
+				(line.layoutError != null) ? line.layoutError : line.evaluateError;
+			if (error != null && (endLine == null || line.pos <= endLine.pos))	{
+				errors.add("At line " + (line.pos + 1) + ", input '" + line.text + "': " + error);
+			}
+		}
+		if (finishError != null)	{
+			errors.add(finishError);
+		}
+		return errors;
+	}
+
+	private void rebuild()	{
+		symbols = new LongIntMap();
+		definers.clear();
+		users.clear();
+		undefined.clear();
+		undefinedCandidates.clear();
+		literalLines.clear();
+		pool = new LongIntMap();
+		inserted = 0;
+		Arrays.fill(mem, 0);
+		Arrays.fill(owner, null);
+		Arrays.fill(writers, 0);
+		endLine = null;
+		renumber(0);
+		for (Line line : lines)	{
+			line.written = -1;
+			if (endLine == null)	{
+				parse(line);
+				register(line);
+				if (line.c == MixAsm.END)	{
+					endLine = line;
+				}
+			}
+		}
+		layoutFrom(0, lines.size());
+		settle();
+	}
+
+	private void renumber(int first)	{
+		for (int k = first; k < lines.size(); k++)	{
+			lines.get(k).pos = k;
+		}
+	}
+
+	/**
+	 * Split a line into its fields and compile its expressions, as
+	 * {@link MixAsm#assembleLine} does, but without evaluating anything.
+	 */
+	private void parse(Line line)	{
+		byte bytes[] = new byte[line.text.length()];
+		for (int k = 0; k < bytes.length; k++)	{
+			char ch = line.text.charAt(k);
+			bytes[k] = (byte) ((ch < 256) ? ch : '?');
+		}
+		MixalScanner scan = new MixalScanner(ByteBuffer.wrap(bytes));
+		line.c = -1;
+		line.immediate = line.code = line.literal = null;
+		line.parseError = null;
+		if (!scan.nextLine() || scan.isBlankOrComment())	{
+			return;
+		}
+		try	{
+			long label = 0;
+			if (scan.locEnd > scan.locStart)	{
+				label = MixSymbol.pack(scan, scan.locStart, scan.locEnd);
+				if (label == 0)	{
+					throw new SyntaxException("Invalid symbol '" +
+						scan.text(scan.locStart, scan.locEnd) + "'");
+				}
+			}
+			MixInstSpec spec = MixAsm.opcodes.get(scan, scan.opStart, scan.opEnd);
+			if (spec == null)	{
+				throw new SyntaxException("Unrecognized opcode '" +
+					scan.text(scan.opStart, scan.opEnd) + "'");
+			}
+			int c = spec.getC();
+			int start = scan.addressStart;
+			int end = scan.addressEnd;
+			int base = 0;
+			long immediate[] = null;
+			long code[] = null;
+			long literal[] = null;
+
+			if (c == MixAsm.ALF)	{
+				base = MixAsm.parseAlf(scan, scan.opEnd);
+			} else if (c > 63)	{
+				if (start < end)	{
+					expression.clear();
+					expression.compileWValue(scan, start, end, NO_SYMBOLS, MixalExpression.LOCATION);
+					if (c == MixAsm.CON)	{
+						code = compiled();
+					} else	{
+						immediate = compiled();
+					}
+				}
+			} else	{
+				int literalEnd = start;
+				if (start < end && scan.at(start) == '=')	{
+					literalEnd = start + 1;
+					while (literalEnd < end && scan.at(literalEnd) != '=')	{
+						literalEnd++;
+					}
+					if (literalEnd == end)	{
+						throw new SyntaxException("Expected '=' at the end of '" +
+							scan.text(start, end) + "'");
+					}
+					literalEnd++;
+				}
+				int field = literalEnd;
+				while (field < end && scan.at(field) != '(')	{
+					field++;
+				}
+				int comma = literalEnd;
+				while (comma < field && scan.at(comma) != ',')	{
+					comma++;
+				}
+				base = MixInst.pack(c, 0, 8 * spec.getL() + spec.getR(), 0);
+				expression.clear();
+				if (comma < field)	{
+					expression.compile(scan, comma + 1, field, NO_SYMBOLS, MixalExpression.LOCATION);
+					expression.emitByte(3);
+				}
+				if (field < end)	{
+					if (scan.at(end - 1) != ')')	{
+						throw new SyntaxException("Expected ')' at the end of '" +
+							scan.text(start, end) + "'");
+					}
+					expression.compile(scan, field + 1, end - 1, NO_SYMBOLS, MixalExpression.LOCATION);
+					expression.emitByte(4);
+				}
+				immediate = compiled();
+				expression.clear();
+				if (literalEnd > start)	{
+					expression.compileWValue(scan, start + 1, literalEnd - 1, NO_SYMBOLS,
+						MixalExpression.LOCATION);
+					literal = compiled();
+				} else if (comma > start)	{
+					expression.compile(scan, start, comma, NO_SYMBOLS, MixalExpression.LOCATION);
+					expression.emitAddress();
+					code = compiled();
+				}
+			}
+			line.label = label;
+			line.base = base;
+			line.immediate = immediate;
+			line.code = code;
+			line.literal = literal;
+			line.c = c;
+		} catch (SyntaxException e)	{
+			line.parseError = e.getMessage();
+		}
+	}
+
+	private long[] compiled()	{
+		return (expression.length() == 0) ? null :
+			Arrays.copyOf(expression.code(), expression.length());
+	}
+
+	/**
+	 * Enter the line's label and the symbols it uses in the indexes.
+	 */
+	private void register(Line line)	{
+		if (line.c < 0)	{
+			return;
+		}
+		for (long code[] : new long[][] { line.immediate, line.code, line.literal })	{
+			for (int k = 0; code != null && k < code.length; k++)	{
+				long symbol = MixalExpression.symbolIn(code[k]);
+				if (symbol != 0)	{
+					users.computeIfAbsent(symbol, s -> new HashSet<Line>()).add(line);
+					undefinedCandidates.add(symbol);
+				}
+			}
+		}
+		if (line.literal != null)	{
+			literalLines.add(line);
+		}
+		if (line.label != 0)	{
+			// If it takes over the symbol, the layout gives it the new value; the line
+			// it takes over from now has a duplicate
+			Line first = definer(line.label);
+			if (first != null)	{
+				dirty.add(first);
+			}
+			definers.computeIfAbsent(line.label, s -> new ArrayList<Line>()).add(line);
+			undefinedCandidates.add(line.label);
+		}
+	}
+
+	/**
+	 * Take a line that's being removed out of the indexes, and out of memory.
+	 */
+	private void unregister(Line line)	{
+		vacate(line);
+		if (line.c < 0)	{
+			return;
+		}
+		for (long code[] : new long[][] { line.immediate, line.code, line.literal })	{
+			for (int k = 0; code != null && k < code.length; k++)	{
+				long symbol = MixalExpression.symbolIn(code[k]);
+				if (symbol != 0 && users.containsKey(symbol))	{
+					users.get(symbol).remove(line);
+					undefinedCandidates.add(symbol);
+				}
+			}
+		}
+		literalLines.remove(line);
+		if (line.label != 0)	{
+			List<Line> list = definers.get(line.label);
+			boolean effective = (definer(line.label) == line);
+			list.remove(line);
+			if (list.isEmpty())	{
+				definers.remove(line.label);
+			}
+			undefinedCandidates.add(line.label);
+			if (effective)	{
+				Line next = definer(line.label);
+				if (next != null && next.defines)	{
+					dirty.add(next);
+					setSymbol(line.label, next.value);
+				} else	{
+					symbols.remove(line.label);
+					changed.add(line.label);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The line whose definition of {@param symbol} counts: the first.
+	 */
+	private Line definer(long symbol)	{
+		List<Line> list = definers.get(symbol);
+		Line first = null;
+		if (list != null)	{
+			for (Line line : list)	{
+				if (first == null || line.pos < first.pos)	{
+					first = line;
+				}
+			}
+		}
+		return first;
+	}
+
+	private void setSymbol(long symbol, int value)	{
+		if (!symbols.containsKey(symbol) || symbols.get(symbol, 0) != value)	{
+			symbols.put(symbol, value);
+			changed.add(symbol);
+		}
+	}
+
+	/**
+	 * Lay out lines from {@param first}, with * as it was after the line before, until
+	 * * is back where it was before, at or after line {@param settled}; or until END.
+	 */
+	private void layoutFrom(int first, int settled)	{
+		int pc = (first == 0) ? 0 : lines.get(first - 1).next;
+		int last = (endLine != null) ? endLine.pos : lines.size();
+		for (int k = first; k < last; k++)	{
+			Line line = lines.get(k);
+			if (k >= settled && line.laidOut && line.start == pc)	{
+				return;
+			}
+			layout(line, pc);
+			pc = line.next;
+		}
+		if (endLine != null)	{
+			endLine.start = endLine.next = pc;
+			endLine.laidOut = true;
+			dirty.add(endLine);
+		}
+		endLocation = pc;
+	}
+
+	/**
+	 * Give one line its place, starting at {@param pc}.
+	 */
+	private void layout(Line line, int pc)	{
+		reassembled++;
+		boolean defined = line.defines;
+		line.laidOut = true;
+		line.start = line.next = pc;
+		line.layoutError = null;
+		line.defines = false;
+		dirty.add(line);
+		if (line.c >= 0 && line.c != MixAsm.END)	{
+			place(line, pc);
+		}
+		if (defined && !line.defines && definer(line.label) == line)	{
+			// Its users can't go on using the value it had
+			symbols.remove(line.label);
+			changed.add(line.label);
+		}
+	}
+
+	/**
+	 * Rules 10 and 11: the equivalent of the label, and the value of * after the line.
+	 */
+	private void place(Line line, int pc)	{
+		try	{
+			if (line.c == MixAsm.EQU)	{
+				define(line, (line.immediate == null) ? 0 :
+					MixalExpression.toInt(immediate(line, line.immediate, 0)));
+				return;
+			}
+			define(line, pc);
+			if (line.c == MixAsm.ORIG)	{
+				line.next = (line.immediate == null) ? 0 :
+					MixalExpression.toInt(immediate(line, line.immediate, 0));
+				return;
+			}
+			if (pc < 0 || pc >= mem.length)	{
+				throw new SyntaxException("The location " + pc + " is outside memory");
+			}
+			line.next = pc + 1;
+			if (line.literal != null)	{
+				line.literalValue = immediate(line, line.literal, 0);
+			}
+		} catch (SyntaxException e)	{
+			line.layoutError = e.getMessage();
+		}
+	}
+
+	private void define(Line line, int value)	{
+		if (line.label == 0)	{
+			return;
+		}
+		line.value = value;
+		line.defines = true;
+		if (definer(line.label) == line)	{
+			setSymbol(line.label, value);
+		}
+	}
+
+	/**
+	 * Run code that may only use symbols defined on earlier lines.
+	 */
+	private int immediate(Line line, long code[], int word) throws SyntaxException	{
+		for (long c : code)	{
+			long symbol = MixalExpression.symbolIn(c);
+			if (symbol != 0)	{
+				Line definer = definer(symbol);
+				if (definer == null || definer.pos >= line.pos || !definer.defines)	{
+					throw new SyntaxException("Future reference '" + MixSymbol.toString(symbol) +
+						"' is not allowed here");
+				}
+			}
+		}
+		return MixalExpression.run(code, 0, code.length, symbols, line.start, word);
+	}
+
+	/**
+	 * Follow the consequences of the changes so far until nothing else changes, then
+	 * evaluate every line that may assemble differently.
+	 */
+	private void settle()	{
+		for (;;)	{
+			while (!changed.isEmpty())	{
+				long symbol = changed.poll();
+				Set<Line> using = users.get(symbol);
+				if (using != null)	{
+					for (Line line : using)	{
+						dirty.add(line);
+						if (line.c == MixAsm.EQU || line.c == MixAsm.ORIG || line.literal != null ||
+								line.c == MixAsm.END)	{
+							relayout.add(line);
+						}
+					}
+				}
+				// The duplicates, whose errors give the value
+				List<Line> defining = definers.get(symbol);
+				if (defining != null)	{
+					dirty.addAll(defining);
+				}
+			}
+			if (!relayout.isEmpty())	{
+				List<Line> order = new ArrayList<Line>(relayout);
+				relayout.clear();
+				order.sort((a, b) -> a.pos - b.pos);
+				for (Line line : order)	{
+					if (!active(line) || line.c == MixAsm.END)	{
+						continue;
+					}
+					int next = line.next;
+					layout(line, line.start);
+					if (line.next != next)	{
+						layoutFrom(line.pos + 1, line.pos + 1);
+					}
+				}
+				continue;
+			}
+			finish();
+			if (changed.isEmpty())	{
+				break;
+			}
+		}
+
+		for (Line line : dirty)	{
+			if (active(line))	{
+				evaluate(line);
+			}
+		}
+		dirty.clear();
+	}
+
+	private boolean active(Line line)	{
+		return line.pos < lines.size() && lines.get(line.pos) == line &&
+			(endLine == null || line.pos <= endLine.pos);
+	}
+
+	/**
+	 * The words that END inserts: one for each undefined symbol, then the literal pool.
+	 */
+	private void finish()	{
+		finishError = null;
+		for (long symbol : undefinedCandidates)	{
+			Set<Line> using = users.get(symbol);
+			boolean used = (using != null && !using.isEmpty());
+			if (!used && using != null)	{
+				users.remove(symbol);
+			}
+			if (definers.containsKey(symbol))	{
+				undefined.remove(symbol);
+			} else if (used)	{
+				undefined.add(symbol);
+			} else	{
+				undefined.remove(symbol);
+				symbols.remove(symbol);
+			}
+		}
+		undefinedCandidates.clear();
+
+		// Take back the words inserted last time, before putting in the new ones
+		for (int k = insertedStart; k < insertedStart + inserted && k < mem.length; k++)	{
+			if (k >= 0)	{
+				mem[k] = (owner[k] != null) ? owner[k].word : 0;
+			}
+		}
+		insertedStart = endLocation;
+		inserted = 0;
+		int pc = insertedStart;
+		for (long symbol : undefined)	{
+			setSymbol(symbol, pc);
+			if (pc >= 0 && pc < mem.length)	{
+				mem[pc] = 0;
+			}
+			pc++;
+		}
+
+		List<Line> literals = new ArrayList<Line>();
+		for (Line line : literalLines)	{
+			if (active(line) && line.layoutError == null)	{
+				literals.add(line);
+			}
+		}
+		literals.sort((a, b) -> a.pos - b.pos);
+		LongIntMap placed = new LongIntMap(literals.size());
+		for (Line line : literals)	{
+			long key = (line.literalValue & 0xFFFFFFFFL) | (1L << 32);
+			if (!placed.containsKey(key))	{
+				placed.put(key, pc);
+				if (pc >= 0 && pc < mem.length)	{
+					mem[pc] = line.literalValue;
+				}
+				pc++;
+			}
+			if (pool.get(key, -1) != placed.get(key, -1))	{
+				dirty.add(line);
+			}
+		}
+		pool = placed;
+		inserted = pc - insertedStart;
+		if (pc > mem.length)	{
+			finishError = "The words inserted at END run past the end of memory";
+		}
+
+		start = -1;
+		if (endLine != null)	{
+			endLine.layoutError = null;
+			if (endLine.label != 0 && definer(endLine.label) == endLine)	{
+				endLine.value = pc;
+				endLine.defines = true;
+				setSymbol(endLine.label, pc);
+			}
+			try	{
+				if (endLine.immediate != null)	{
+					start = MixalExpression.toInt(immediate(endLine, endLine.immediate, 0) &
+						FieldSpec.of(4 * 8 + 5).mask);
+				}
+			} catch (SyntaxException e)	{
+				endLine.layoutError = e.getMessage();
+			}
+		}
+	}
+
+	/**
+	 * Work out the word a line assembles to, now that every symbol has its equivalent.
+	 */
+	private void evaluate(Line line)	{
+		reassembled++;
+		line.evaluateError = null;
+		if (line.c >= 0 && line.label != 0 && definer(line.label) != line)	{
+			line.evaluateError = "Duplicate symbol '" + MixSymbol.toString(line.label) +
+				"', first seen at location " + symbols.get(line.label, 0);
+		}
+		if (!line.emitsWord() || line.layoutError != null || line.evaluateError != null)	{
+			vacate(line);
+			return;
+		}
+		try	{
+			int word = line.base;
+			if (line.immediate != null)	{
+				word = immediate(line, line.immediate, word);
+			}
+			if (line.code != null)	{
+				word = MixalExpression.run(line.code, 0, line.code.length, symbols, line.start, word);
+			}
+			if (line.literal != null)	{
+				int location = pool.get((line.literalValue & 0xFFFFFFFFL) | (1L << 32), 0);
+				word = (word & ~((1 << 31) | (4095 << 18))) | (location << 18);
+			}
+			write(line, word);
+		} catch (SyntaxException e)	{
+			line.evaluateError = e.getMessage();
+			vacate(line);
+		}
+	}
+
+	private void write(Line line, int word)	{
+		if (line.written != line.start)	{
+			vacate(line);
+			writers[line.start]++;
+		}
+		line.written = line.start;
+		line.word = word;
+		Line current = owner[line.start];
+		if (current == null || current == line || current.pos < line.pos || !active(current))	{
+			owner[line.start] = line;
+			if (!isInserted(line.start))	{
+				mem[line.start] = word;
+			}
+		}
+	}
+
+	/**
+	 * Is {@param location} one of the words END inserted?  Those are written after all
+	 * of the code, so whatever the lines do underneath them doesn't show in memory.
+	 */
+	private boolean isInserted(int location)	{
+		return location >= insertedStart && location < insertedStart + inserted;
+	}
+
+	/**
+	 * Take back the word the line wrote, if it did.  If another line wrote to the same
+	 * place, which only happens with ORIG, its word goes back.
+	 */
+	private void vacate(Line line)	{
+		int location = line.written;
+		if (location < 0)	{
+			return;
+		}
+		line.written = -1;
+		writers[location]--;
+		if (owner[location] != line)	{
+			return;
+		}
+		owner[location] = null;
+		if (writers[location] > 0)	{
+			for (Line other : lines)	{
+				if (other.written == location && active(other) &&
+						(owner[location] == null || other.pos > owner[location].pos))	{
+					owner[location] = other;
+				}
+			}
+		}
+		if (!isInserted(location))	{
+			mem[location] = (owner[location] != null) ? owner[location].word : 0;
+		}
+	}
+}
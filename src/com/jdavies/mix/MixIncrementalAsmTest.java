@@ -0,0 +1,244 @@
+package com.jdavies.mix;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class MixIncrementalAsmTest	{
+	/**
+	 * The whole text put through {@link MixAsm}.
+	 */
+	private static MixAsm assembleAll(List<String> source) throws IOException	{
+		MixAsm asm = new MixAsm();
+		asm.assemble(new BufferedReader(new StringReader(String.join("\n", source) + "\n")));
+		return asm;
+	}
+
+	/**
+	 * Where MixAsm assembles the text without errors, the incremental assembler has to
+	 * come out the same.
+	 */
+	private static void assertSame(String what, List<String> source, MixIncrementalAsm incremental)
+			throws IOException	{
+		MixAsm whole = assembleAll(source);
+		if (!whole.getErrors().isEmpty())	{
+			return;
+		}
+		if (!incremental.getErrors().isEmpty())	{
+			System.err.println("ERROR: " + what + ": " + incremental.getErrors());
+		} else if (!Arrays.equals(whole.getImage(), incremental.getImage()) ||
+				whole.getStart() != incremental.getStart())	{
+			System.err.println("ERROR: " + what + " assembled differently");
+		}
+	}
+
+	private static List<String> corpus(String name) throws IOException	{
+		return Files.readAllLines(Paths.get("corpus", name + ".mixal"),
+			java.nio.charset.StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Every program in the corpus, from scratch.
+	 */
+	public static void testCorpus() throws IOException	{
+		try (java.util.stream.Stream<Path> files = Files.list(Paths.get("corpus")))	{
+			for (Path file : (Iterable<Path>) files.filter(p -> p.toString().endsWith(".mixal"))::iterator)	{
+				List<String> source = Files.readAllLines(file, java.nio.charset.StandardCharsets.ISO_8859_1);
+				MixIncrementalAsm incremental = new MixIncrementalAsm(source);
+				MixVMTest.assertEquals(0, incremental.getErrors().size());
+				assertSame(file.toString(), source, incremental);
+			}
+		}
+	}
+
+	/**
+	 * Random edits to a program, each checked against assembling the whole text and then
+	 * undone: lines deleted, copied, moved and changed, labels included, and ORIGs, direct
+	 * or through an EQU, that put code where END inserts its words.
+	 */
+	public static void testEdits() throws IOException	{
+		Random random = new Random(46);
+		for (String name : new String[] { "primes", "listing", "shellsort", "insertion" })	{
+			List<String> original = corpus(name);
+			List<String> source = new ArrayList<String>(original);
+			MixIncrementalAsm incremental = new MixIncrementalAsm(source);
+			for (int edit = 0; edit < 200; edit++)	{
+				int first = random.nextInt(source.size());
+				int count = Math.min(random.nextInt(3), source.size() - first);
+				List<String> replacement = new ArrayList<String>();
+				switch (random.nextInt(6))	{
+				case 0:
+					break;
+				case 1:
+					replacement.add(source.get(random.nextInt(source.size())));
+					break;
+				case 2:
+					replacement.add("         NOP");
+					replacement.add("         CON  " + random.nextInt(100));
+					break;
+				case 4:
+					replacement.add("         LDA  XX" + random.nextInt(5) + ",1");
+					replacement.add("         ORIG " + (3000 + random.nextInt(100)));
+					break;
+				case 5:
+					String symbol = "XX" + random.nextInt(5);
+					replacement.add(String.format("%-9sEQU  %d", symbol, 3000 + random.nextInt(100)));
+					replacement.add("         ORIG " + symbol);
+					break;
+				default:
+					String line = source.get(first);
+					replacement.add(line.replaceFirst("[0-9]+", String.valueOf(random.nextInt(50))));
+					break;
+				}
+				List<String> removed = new ArrayList<String>(source.subList(first, first + count));
+				source.subList(first, first + count).clear();
+				source.addAll(first, replacement);
+				incremental.replace(first, count, replacement);
+				assertSame(name + " edit " + edit, source, incremental);
+
+				source.subList(first, first + replacement.size()).clear();
+				source.addAll(first, removed);
+				incremental.replace(first, replacement.size(), removed);
+				assertSame(name + " undoing edit " + edit, source, incremental);
+			}
+			if (!original.equals(source))	{
+				System.err.println("ERROR: " + name + " wasn't put back as it was");
+			}
+			MixVMTest.assertEquals(0, incremental.getErrors().size());
+		}
+	}
+
+	/**
+	 * Undefined symbols, literals and END, as they come and go.
+	 */
+	public static void testInsertedWords() throws IOException	{
+		List<String> source = new ArrayList<String>(Arrays.asList(
+			"START    LDA  =5=",
+			"         STA  TEMP",
+			"         ADD  =5=",
+			"         JMP  DONE",
+			"DONE     HLT",
+			"         END  START"));
+		MixIncrementalAsm incremental = new MixIncrementalAsm(source);
+		assertSame("literals", source, incremental);
+
+		List<String> edit = Collections.singletonList("         ADD  =7=");
+		source.set(2, edit.get(0));
+		incremental.replace(2, 1, edit);
+		assertSame("a new literal", source, incremental);
+
+		edit = Collections.singletonList("TEMP     CON  0");
+		source.add(5, edit.get(0));
+		incremental.replace(5, 0, edit);
+		assertSame("defining an undefined symbol", source, incremental);
+		MixVMTest.assertEquals(0, incremental.getErrors().size());
+
+		edit = Collections.singletonList("         END  DONE");
+		source.set(6, edit.get(0));
+		incremental.replace(6, 1, edit);
+		assertSame("changing END", source, incremental);
+		MixVMTest.assertEquals(4, incremental.getStart());
+
+		edit = Collections.singletonList("         STA  LATER");
+		source.add(edit.get(0));
+		incremental.replace(7, 0, edit);
+		assertSame("a line after END", source, incremental);
+
+		edit = Collections.singletonList("TEMP     CON  1");
+		source.add(0, edit.get(0));
+		incremental.replace(0, 0, edit);
+		MixVMTest.assertEquals(1, incremental.getErrors().size());
+		source.remove(0);
+		incremental.replace(0, 1, Collections.<String>emptyList());
+		MixVMTest.assertEquals(0, incremental.getErrors().size());
+		assertSame("removing a duplicate", source, incremental);
+	}
+
+	/**
+	 * Code that ORIG puts where END inserts its words, moved away by an ORIG or an EQU:
+	 * the inserted words stay.
+	 */
+	public static void testUnderInsertedWords() throws IOException	{
+		List<String> source = new ArrayList<String>(Arrays.asList(
+			"HERE     EQU  3",
+			"         ORIG 3",
+			"         CON  5",
+			"         ORIG HERE",
+			"         CON  6",
+			"         ORIG 0",
+			"START    LDA  =7=",
+			"         LDX  NEVER",
+			"         END  START"));
+		MixIncrementalAsm incremental = new MixIncrementalAsm(source);
+		assertSame("code under the inserted words", source, incremental);
+
+		List<String> edit = Collections.singletonList("         ORIG 4");
+		source.set(1, edit.get(0));
+		incremental.replace(1, 1, edit);
+		assertSame("moving code off an undefined symbol's word", source, incremental);
+		MixVMTest.assertEquals(0, incremental.getImage()[2]);
+		MixVMTest.assertEquals(7, incremental.getImage()[3]);
+
+		edit = Collections.singletonList("HERE     EQU  5");
+		source.set(0, edit.get(0));
+		incremental.replace(0, 1, edit);
+		assertSame("moving code off the literal pool", source, incremental);
+		MixVMTest.assertEquals(7, incremental.getImage()[3]);
+		MixVMTest.assertEquals(6, incremental.getImage()[5]);
+	}
+
+	/**
+	 * In a long program, an edit costs the lines it touches and what depends on them, not
+	 * the length of the program.
+	 */
+	public static void testLocality() throws IOException	{
+		List<String> source = new ArrayList<String>();
+		for (int block = 0; block < 30; block++)	{
+			source.add("         ORIG " + (100 * block));
+			for (int k = 0; k < 90; k++)	{
+				String label = "L" + block + "X" + k;
+				source.add(String.format("%-9sLDA  L%dX%d", label, block, (k + 1) % 90));
+			}
+		}
+		source.add("         END  L0X0");
+		MixIncrementalAsm incremental = new MixIncrementalAsm(source);
+		MixVMTest.assertEquals(0, incremental.getErrors().size());
+		assertSame("the long program", source, incremental);
+
+		// A new address: the line, and the line that refers to its label
+		List<String> edit = Collections.singletonList("L15X40   LDA  L3X7");
+		source.set(15 * 91 + 41, edit.get(0));
+		incremental.replace(15 * 91 + 41, 1, edit);
+		assertSame("changing an address", source, incremental);
+		if (incremental.getLinesReassembled() > 3)	{
+			System.err.println("ERROR: " + incremental.getLinesReassembled() +
+				" lines reassembled for a new address");
+		}
+
+		// An inserted line: the rest of its block, and the lines that refer to it
+		edit = Collections.singletonList("         NOP");
+		source.add(20 * 91 + 10, edit.get(0));
+		incremental.replace(20 * 91 + 10, 0, edit);
+		assertSame("inserting a line", source, incremental);
+		if (incremental.getLinesReassembled() > 3 * 91)	{
+			System.err.println("ERROR: " + incremental.getLinesReassembled() +
+				" lines reassembled for an inserted line");
+		}
+	}
+
+	public static void main(String[] args) throws Exception	{
+		testCorpus();
+		testEdits();
+		testInsertedWords();
+		testUnderInsertedWords();
+		testLocality();
+	}
+}
@@ -5,10 +5,35 @@ package com.jdavies.mix;
  * integer): six bits per word = 30 bits, plus a single bit for the sign.
  */
 class MixInst	{
+	private static final int SIGN = 1 << 31;
+	private static final MixOpCode opcodes[] = MixOpCode.values();
+	// Execution time of each opcode, per MixOpCode; MOVE also takes two units per word
+	// and NUM and CHAR take 10 rather than 1 for HLT.  I/O instructions take 1 plus
+	// however long they wait for the device.
+	private static final int times[] = {
+		1, 2, 2, 10, 12, 1, 2, 1,		// NOP ADD SUB MUL DIV HLT SLA MOVE
+		2, 2, 2, 2, 2, 2, 2, 2,			// LDA-LDX
+		2, 2, 2, 2, 2, 2, 2, 2,			// LDAN-LDXN
+		2, 2, 2, 2, 2, 2, 2, 2,			// STA-STX
+		2, 2, 1, 1, 1, 1, 1, 1,			// STJ STZ JBUS IOC IN OUT JRED JMP
+		1, 1, 1, 1, 1, 1, 1, 1,			// JAP-JXP
+		1, 1, 1, 1, 1, 1, 1, 1,			// INCA-INCX
+		2, 2, 2, 2, 2, 2, 2, 2			// CMPA-CMPX
+	};
+
 	private int c;
 	private int i;
 	private int f;
 	private int a;
+	// The sign of the address field, kept apart from a so that -0 isn't lost
+	private int sign;
+	// f as a field specification; null if it isn't one
+	private FieldSpec field;
+	// The word this was decoded from, so that a cached copy can be checked against memory
+	private int word;
+	// No index and a nonnegative address field inside memory: M is the address field,
+	// so the check on every memory reference can be left out
+	private boolean direct;
 
 	/**
 	 * Construct a MIX instruction from pieces (e.g. from the assembler).
@@ -18,6 +43,16 @@ class MixInst	{
 		this.i = i;
 		this.f = (8 * L) + R;
 		this.a = a;
+		this.sign = (a < 0) ? SIGN : 0;
+		this.field = FieldSpec.of(f);
+		this.word = pack();
+		this.direct = (i == 0 && a >= 0 && a < MixVM.MEMORY);
+	}
+
+	/**
+	 * Nothing decoded, for a {@link Breakpoint}, which stands in for an instruction.
+	 */
+	MixInst()	{
 	}
 
 	/**
@@ -48,7 +83,14 @@ class MixInst	{
 		c = in & 0x0000003F;
 		f = (in & 0x00000FC0) >> 6;
 		i = (in & 0x0003F000) >> 12;
-		a = (in & 0x7FFC0000) >> 18;
+		sign = in & SIGN;
+		a = (in >> 18) & 0xFFF;
+		if (sign != 0)	{
+			a = -a;
+		}
+		field = FieldSpec.of(f);
+		word = in;
+		direct = (i == 0 && sign == 0 && a < MixVM.MEMORY);
 
 		if (c > 64)	{
 			throw new IllegalInstruction("Instruction " + c +
@@ -61,13 +103,51 @@ class MixInst	{
 		}
 	}
 
+	public int getC() { return c; }
+	public int getI() { return i; }
+	public int getF() { return f; }
+	public int getA() { return a; }
+
+	/**
+	 * The memory word this instruction was decoded from.
+	 */
+	int word()	{
+		return word;
+	}
+
+	/**
+	 * The number of time units this instruction takes, not counting I/O waits.
+	 */
+	public int time()	{
+		if (c == MixOpCode.MOVE.ordinal())	{
+			return 1 + 2 * f;
+		} else if (c == MixOpCode.HLT.ordinal() && f < 2)	{
+			return 10;
+		} else if (c == MixOpCode.HLT.ordinal() && f == 3)	{
+			return 2;		// CAS: a load and a store
+		}
+		return times[c];
+	}
+
 	/**
 	 * Compress an instruction back into its memory representation
 	 * (undo what the "from int" constructor does).
 	 */
 	public int pack()	{
-		// TODO deal with sign bit
-		return (a << 18) |
+		return sign |
+			(Math.abs(a) << 18) |
+			(i << 12) |
+			(f << 6) |
+			c;
+	}
+
+	/**
+	 * The memory representation of an instruction with the given parts, without making
+	 * one; a negative {@param a} gives the address field a minus sign.
+	 */
+	static int pack(int c, int i, int f, int a)	{
+		return ((a < 0) ? SIGN : 0) |
+			(Math.abs(a) << 18) |
 			(i << 12) |
 			(f << 6) |
 			c;
@@ -145,34 +225,32 @@ class MixInst	{
 	public boolean execute(MixVM vm) throws MemoryLocationError,
 																				  IllegalInstruction,
 																					NotImplemented,
-																				  FieldError	{
-		int L = f / 8;
-		int R = f % 8;
-
-		if (R > 5 && c != 39)	{	// JMP allows this
-			throw new FieldError("F-specification " + f + " yields invalid " +
-				"R-value of " + R);
-		}
+																				  FieldError,
+																					DeviceError	{
+		// The I/O instructions use F for the unit number rather than a field
+		boolean io = (c >= MixOpCode.JBUS.ordinal() && c <= MixOpCode.JRED.ordinal());
 
-		if (L > R)	{
-			throw new FieldError("F-specification " + f + " yields invalid " +
-				"L-value of: " + L + " (> " + R + ")");
+		if (io && f > 20)	{
+			throw new FieldError("Invalid unit number " + f + "; expected 0-20");
 		}
 
 		// 1.3.1, p. 127: This indexing takes place on _every_ instruction.
-		MixOpCode op = MixOpCode.values()[c];
+		MixOpCode op = opcodes[c];
 		switch (op)	{
 			case NOP:
 				break;
 			case ADD:
-				vm.add(a, i, L, R, false);
+				vm.add(location(vm), field(), false);
 				break;
 			case SUB:
-				vm.add(a, i, L, R, true);
+				vm.add(location(vm), field(), true);
 				break;
 			case MUL:
+				vm.multiply(location(vm), field());
+				break;
 			case DIV:
-				throw new NotImplemented(c);
+				vm.divide(location(vm), field());
+				break;
 			case HLT:
 				switch (f)	{
 					case 0:	// NUM
@@ -183,10 +261,14 @@ class MixInst	{
 						break;
 					case 2:	// HLT
 						return false;
+					case 3:	// CAS
+						vm.compareAndSwap(location(vm));
+						break;
 					default:
 						throw new FieldError("Invalid F-specification " + f +
-							" for instruction code " + c + "; expected 0-2");
+							" for instruction code " + c + "; expected 0-3");
 				}
+				break;
 			case SLA:
 				// SLA and SRA do not affect rX; the other shifts affect both A & X as though
 				// they were a single 10-byte register.  With SLA, SRA, SLAX and SRAX, zeros
@@ -200,11 +282,13 @@ class MixInst	{
 					case 3: // SRAX
 					case 4: // SLC
 					case 5: // SRC
-						throw new NotImplemented(c);
+						vm.shift(a, i, f);
+						break;
 					default:
 						throw new FieldError("Invalid F-specification " + f +
 							" for instruction code " + c + " (shift); expected 0-5");
 				}
+				break;
 			case MOVE:
 				vm.moveWords(a, i, f);
 				break;
@@ -216,7 +300,7 @@ class MixInst	{
 			case LD5:
 			case LD6:
 			case LDX:
-				vm.loadRegister(a, c - MixOpCode.LDA.ordinal(), i, L, R, false);
+				vm.loadRegister(location(vm), c - MixOpCode.LDA.ordinal(), field(), false);
 				break;
 			case LDAN:
 			case LD1N:
@@ -226,7 +310,7 @@ class MixInst	{
 			case LD5N:
 			case LD6N:
 			case LDXN:
-				vm.loadRegister(a, c - MixOpCode.LDAN.ordinal(), i, L, R, true);
+				vm.loadRegister(location(vm), c - MixOpCode.LDAN.ordinal(), field(), true);
 				break;
 			case STA:
 			case ST1:
@@ -236,12 +320,17 @@ class MixInst	{
 			case ST5:
 			case ST6:
 			case STX:
-				vm.storeRegister(a, c - MixOpCode.STA.ordinal(), i, L, R);
+				vm.storeRegister(location(vm), c - MixOpCode.STA.ordinal(), field());
 				break;
 			case STJ:
-				throw new NotImplemented(c);
+				vm.storeJump(location(vm), field());
+				break;
 			case STZ: 
+				vm.storeZero(location(vm), field());
+				break;
 			case JBUS: 
+				vm.deviceJump(a, i, f, true);
+				break;
 			case IOC: 
 				// Tape devices:
 				// If M = 0, the tape is rewound.  If M < 0, the tape is skipped backward
@@ -252,12 +341,19 @@ class MixInst	{
 				// or OUT operation will take less time.
 				// Line printer: M should be 0.  Skip the printer to the top of the page
 				// Paper tape: M shoudl be 0.  Rewind the tape.
+				vm.control(a, i, f);
+				break;
 			case IN: 
+				vm.input(a, i, f);
+				break;
 			case OUT: 
+				vm.output(a, i, f);
+				break;
 			case JRED: 
-				throw new NotImplemented(c);
+				vm.deviceJump(a, i, f, false);
+				break;
 			case JMP: 
-				vm.conditionalJump(f, a);
+				vm.conditionalJump(f, a, i);
 				break;
 				/*
 				// p. 134: When a jump takes place, the J-register is set to the
@@ -296,11 +392,13 @@ class MixInst	{
 					case 3: // JrNN register r nonnegative
 					case 4: // JrNZ register r nonzero
 					case 5: // JrNP register r nonpositive
-					 throw new NotImplemented(c);
+						vm.registerJump(f, a, i, c - MixOpCode.JAP.ordinal());
+						break;
 					default:
 						throw new FieldError("Invalid F-specification " + f +
 							" for instruction code " + c + " (jump); expected 0-5");
 				}
+				break;
 			case INCA: 
 			case INC1: 
 			case INC2: 
@@ -312,19 +410,19 @@ class MixInst	{
 				switch (f)	{
 					case 0:
 						// INCn
-						// XXX can INC & DEC be indexed?
-						vm.incRegister(a, c - MixOpCode.INCA.ordinal());
+						vm.incrementRegister(address(), c - MixOpCode.INCA.ordinal(), i, false);
 						break;
 					case 1:
 						// DECn
-						vm.incRegister(a * -1, c - MixOpCode.INCA.ordinal());
+						vm.incrementRegister(address(), c - MixOpCode.INCA.ordinal(), i, true);
 						break;
 					case 2:
 						// ENTA instructions
-						vm.setRegister(a, c - MixOpCode.INCA.ordinal(), i, false);
+						vm.setRegister(address(), c - MixOpCode.INCA.ordinal(), i, false);
 						break;
 					case 3:
-						vm.setRegister(a * -1, c - MixOpCode.INCA.ordinal(), i, true);
+						// ENNA
+						vm.setRegister(address(), c - MixOpCode.INCA.ordinal(), i, true);
 						break;
 					default:
 						throw new FieldError("Invalid F-specification " + f +
@@ -339,7 +437,7 @@ class MixInst	{
 			case CMP5: 
 			case CMP6: 
 			case CMPX:
-				vm.compare(a, c - MixOpCode.CMPA.ordinal(), i, L, R);
+				vm.compare(location(vm), c - MixOpCode.CMPA.ordinal(), field());
 				break;
 			default:
 				// Since MIX is self-modifying, this can happen at run time
@@ -349,6 +447,32 @@ class MixInst	{
 		return true;
 	}
 
+	/**
+	 * M, for the instructions that refer to a word of memory: checked against the size
+	 * of memory unless it was known to be inside when the instruction was decoded.
+	 */
+	private int location(MixVM vm) throws MemoryLocationError	{
+		return direct ? a : vm.location(a, i);
+	}
+
+	/**
+	 * F as a field specification, for the instructions that take one.
+	 */
+	FieldSpec field() throws FieldError	{
+		if (field == null)	{
+			throw new FieldError("F-specification " + f + " (" + (f / 8) + ":" + (f % 8) +
+				") is not a valid field for instruction code " + c);
+		}
+		return field;
+	}
+
+	/**
+	 * The address field as a MIX word (sign and two bytes).
+	 */
+	int address()	{
+		return sign | Math.abs(a);
+	}
+
 	public String toString()	{
 		return a + ", " + i + ", " + f + ", " + c;
 	}
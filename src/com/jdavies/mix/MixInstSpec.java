@@ -0,0 +1,27 @@
+package com.jdavies.mix;
+
+/**
+ * A standard specification for a MIX instruction.
+ */
+class MixInstSpec	{
+	private final int c;
+	private final int time;
+	private final int L;
+	private final int R;
+
+	/**
+	 * Record the standard settings for a MIX instruction, if the
+	 * operation isn't overridden.
+	 */
+	public MixInstSpec(int c, int time, int L, int R)	{
+		this.c = c;
+		this.time = time;
+		this.L = L;
+		this.R = R;
+	}
+
+	public int getC() { return c; }
+	public int getTime() { return time; }
+	public int getL() { return L; }
+	public int getR() { return R; }
+}
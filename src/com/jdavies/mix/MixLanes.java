@@ -0,0 +1,708 @@
+package com.jdavies.mix;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Runs one program image as K separate MIX machines ("lanes") in lockstep, e.g. over K
+ * different input decks.  As long as the lanes are at the same location, each
+ * instruction is fetched and decoded once and then carried out for every lane in a
+ * single loop.  The registers are kept as structure-of-arrays (reg[r][lane]) so that
+ * those loops run along contiguous arrays; each lane's memory is a contiguous
+ * 4000-word block of one array, so that devices still get a plain view of a lane's
+ * I/O block.
+ *
+ * When lanes stop agreeing on what comes next (a conditional jump that goes different
+ * ways, an indexed jump to different places, or code that one lane has modified), the
+ * largest group carries on in step and each of the others is handed over to an
+ * ordinary {@link MixVM} with its state, to be finished off by the scalar interpreter.
+ * A lane that hits an error (say, a short input deck) stops there, with the error
+ * available from {@link #getError}, without disturbing the rest.
+ *
+ * Timing is kept per lane, exactly as a MixVM would.
+ */
+public class MixLanes	{
+	private static final int SIGN = 1 << 31;
+	private static final int MEMORY = 4000;
+	private static final int UNITS = 21;
+	private static final int INDEX_MAGNITUDE = 0xFFF;
+	private static final MixOpCode opcodes[] = MixOpCode.values();
+
+	private int lanes;
+	// The lanes still running in step occupy positions 0 to count - 1 of every per-lane
+	// array below; lane[p] is the lane at position p, and position[l] is -1 once lane l
+	// has been handed over.
+	private int count;
+	private int lane[];
+	private int position[];
+
+	private int mem[];		// position p's word at loc is mem[p * MEMORY + loc]
+	private int reg[][];	// reg[r][p], with r as for MixVM: rA, rI1-6, rX
+	private boolean ovtog[];
+	private int compi[];
+	private long clock[];
+	private MixDevice devices[][];
+	private long busyUntil[][];
+	private int pc;
+	// The location of the instruction being carried out, for faults
+	private int current;
+	// rJ can't differ between lanes that have taken all the same jumps
+	private int rJ;
+
+	// Lanes that have left: the VM that carries on, and where it carries on from
+	private MixVM scalar[];
+	private int resume[];
+	private MixException error[];
+
+	// Per-position scratch for a single instruction
+	private int m[];
+	private boolean taken[];
+	private boolean leaving[];
+	private long key[];
+	private long sorted[];
+	private int target[];
+	private boolean setsJ[];
+
+	public MixLanes(int lanes, int[] image)	{
+		if (lanes < 1)	{
+			throw new IllegalArgumentException("Need at least one lane");
+		}
+		this.lanes = lanes;
+		this.count = lanes;
+		lane = new int[lanes];
+		position = new int[lanes];
+		mem = new int[lanes * MEMORY];
+		reg = new int[8][lanes];
+		ovtog = new boolean[lanes];
+		compi = new int[lanes];
+		clock = new long[lanes];
+		devices = new MixDevice[lanes][UNITS];
+		busyUntil = new long[lanes][UNITS];
+		scalar = new MixVM[lanes];
+		resume = new int[lanes];
+		error = new MixException[lanes];
+		m = new int[lanes];
+		taken = new boolean[lanes];
+		leaving = new boolean[lanes];
+		key = new long[lanes];
+		sorted = new long[lanes];
+		target = new int[lanes];
+		setsJ = new boolean[lanes];
+
+		for (int p = 0; p < lanes; p++)	{
+			lane[p] = p;
+			position[p] = p;
+			System.arraycopy(image, 0, mem, p * MEMORY, image.length);
+		}
+	}
+
+	/**
+	 * Connect a peripheral to unit {@param unit} of lane {@param l}.  Lanes shouldn't
+	 * share a device.
+	 */
+	public void attachDevice(int l, int unit, MixDevice device)	{
+		devices[position[l]][unit] = device;
+	}
+
+	public int getLaneCount()	{
+		return lanes;
+	}
+
+	/**
+	 * Run every lane from {@param startLocation} until it halts or fails.
+	 */
+	public void run(int startLocation)	{
+		pc = startLocation;
+		boolean halted = false;
+		while (count > 0 && !halted)	{
+			halted = step();
+		}
+
+		for (int p = 0; p < count; p++)	{
+			for (MixDevice device : devices[p])	{
+				if (device == null)	{
+					continue;
+				}
+				try	{
+					device.flush();
+				} catch (DeviceError e)	{
+					error[lane[p]] = e;
+				}
+			}
+		}
+
+		for (int l = 0; l < lanes; l++)	{
+			if (scalar[l] == null)	{
+				continue;
+			}
+			if (error[l] == null)	{
+				try	{
+					scalar[l].run(resume[l]);
+				} catch (MixException e)	{
+					error[l] = e;
+				}
+			} else	{
+				// It faulted in step with the others; what it output before that still goes
+				// out, and the fault stays the error
+				try	{
+					scalar[l].flushDevices();
+				} catch (DeviceError e)	{
+					error[l].addSuppressed(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Did lane {@param l} leave the others, either to go its own way in the scalar
+	 * interpreter or because it stopped with an error?
+	 */
+	public boolean isSplit(int l)	{
+		return position[l] < 0;
+	}
+
+	/**
+	 * The error that stopped lane {@param l}, or null if it halted normally.
+	 */
+	public MixException getError(int l)	{
+		return error[l];
+	}
+
+	public int getRegister(int l, int r)	{
+		return (position[l] >= 0) ? reg[r][position[l]] : scalar[l].getRegister(r);
+	}
+
+	public int getMemory(int l, int loc)	{
+		return (position[l] >= 0) ? mem[position[l] * MEMORY + loc] : scalar[l].getMemory(loc);
+	}
+
+	public int getJ(int l)	{
+		return (position[l] >= 0) ? rJ : scalar[l].getJ();
+	}
+
+	public long getClock(int l)	{
+		return (position[l] >= 0) ? clock[position[l]] : scalar[l].getClock();
+	}
+
+	/**
+	 * Carry out one instruction in every lane; return true on HLT.
+	 */
+	private boolean step()	{
+		current = pc;
+		if (pc < 0 || pc >= MEMORY)	{
+			stopAll(new MemoryLocationError("Location " + pc + " is outside of memory"));
+			return false;
+		}
+
+		int word = mem[pc];
+		for (int p = 1; p < count; p++)	{
+			if (mem[p * MEMORY + pc] != word)	{
+				// Some lane has modified this instruction
+				for (int q = 0; q < count; q++)	{
+					key[q] = mem[q * MEMORY + pc];
+					target[q] = pc;
+					setsJ[q] = false;
+				}
+				diverge();
+				word = mem[pc];
+				break;
+			}
+		}
+
+		try	{
+			MixInst in = new MixInst(word);
+			pc++;
+			int time = in.time();
+			for (int p = 0; p < count; p++)	{
+				clock[p] += time;
+			}
+			return execute(in);
+		} catch (MixException e)	{
+			// Something wrong with the instruction itself, so the same for every lane
+			stopAll(e);
+			return false;
+		}
+	}
+
+	private boolean execute(MixInst in) throws MixException	{
+		int c = in.getC();
+		int i = in.getI();
+		int f = in.getF();
+		int a = in.getA();
+		MixOpCode op = opcodes[c];
+
+		if (c >= MixOpCode.JBUS.ordinal() && c <= MixOpCode.JRED.ordinal() && f > 20)	{
+			throw new FieldError("Invalid unit number " + f + "; expected 0-20");
+		}
+
+		switch (op)	{
+			case NOP:
+				break;
+			case ADD:
+			case SUB:	{
+				FieldSpec field = in.field();
+				int negate = (op == MixOpCode.SUB) ? SIGN : 0;
+				memoryAddresses(a, i);
+				for (int p = 0; p < count; p++)	{
+					long sum = MixArithmetic.add(reg[0][p],
+						field.extract(mem[p * MEMORY + m[p]]) ^ negate);
+					reg[0][p] = (int) sum;
+					if ((sum & MixArithmetic.OVERFLOW) != 0)	{
+						ovtog[p] = true;
+					}
+				}
+				break;
+			}
+			case MUL:	{
+				FieldSpec field = in.field();
+				memoryAddresses(a, i);
+				for (int p = 0; p < count; p++)	{
+					long product = MixArithmetic.multiply(reg[0][p],
+						field.extract(mem[p * MEMORY + m[p]]));
+					reg[0][p] = MixArithmetic.high(product);
+					reg[7][p] = MixArithmetic.low(product);
+				}
+				break;
+			}
+			case DIV:	{
+				FieldSpec field = in.field();
+				memoryAddresses(a, i);
+				for (int p = 0; p < count; p++)	{
+					int v = field.extract(mem[p * MEMORY + m[p]]);
+					if (MixArithmetic.divideOverflows(reg[0][p], v))	{
+						ovtog[p] = true;
+					} else	{
+						long result = MixArithmetic.divide(reg[0][p], reg[7][p], v);
+						reg[0][p] = MixArithmetic.high(result);
+						reg[7][p] = MixArithmetic.low(result);
+					}
+				}
+				break;
+			}
+			case HLT:
+				switch (f)	{
+					case 0:	// NUM
+						for (int p = 0; p < count; p++)	{
+							reg[0][p] = (reg[0][p] & SIGN) | MixCharset.toNum(reg[0][p], reg[7][p]);
+						}
+						break;
+					case 1:	// CHAR
+						for (int p = 0; p < count; p++)	{
+							long digits = MixCharset.toChar(reg[0][p] & ~SIGN);
+							reg[0][p] = (reg[0][p] & SIGN) | (int) (digits >>> 30);
+							reg[7][p] = (reg[7][p] & SIGN) | (int) (digits & 0x3FFFFFFF);
+						}
+						break;
+					case 2:	// HLT
+						return true;
+					case 3:	// CAS
+						memoryAddresses(a, i);
+						for (int p = 0; p < count; p++)	{
+							int loc = p * MEMORY + m[p];
+							int word = mem[loc];
+							if (word == reg[0][p])	{
+								mem[loc] = reg[7][p];
+								compi[p] = 0;
+							} else	{
+								compi[p] = Long.signum(MixArithmetic.value(reg[0][p]) -
+									MixArithmetic.value(word));
+								reg[0][p] = word;
+							}
+						}
+						break;
+					default:
+						throw new FieldError("Invalid F-specification " + f +
+							" for instruction code " + c + "; expected 0-3");
+				}
+				break;
+			case SLA:
+				if (f > 5)	{
+					throw new FieldError("Invalid F-specification " + f +
+						" for instruction code " + c + " (shift); expected 0-5");
+				}
+				addresses(a, i);
+				for (int p = 0; p < count; p++)	{
+					if (m[p] < 0)	{
+						fail(p, new IllegalInstruction("Negative shift count " + m[p]));
+					}
+				}
+				dropFailed();
+				for (int p = 0; p < count; p++)	{
+					long shifted = MixArithmetic.shift(reg[0][p], reg[7][p], f, m[p]);
+					reg[0][p] = MixArithmetic.high(shifted);
+					reg[7][p] = MixArithmetic.low(shifted);
+				}
+				break;
+			case MOVE:
+				if (f == 0)	{
+					break;
+				}
+				addresses(a, i);
+				for (int p = 0; p < count; p++)	{
+					int to = index(1, p);
+					if (m[p] < 0 || m[p] + f > MEMORY || to < 0 || to + f > MEMORY)	{
+						fail(p, new MemoryLocationError("MOVE of " + f + " words from " + m[p] +
+							" to " + to + " is outside of memory"));
+					}
+				}
+				dropFailed();
+				for (int p = 0; p < count; p++)	{
+					int to = index(1, p);
+					MixVM.copyWords(mem, p * MEMORY + m[p], p * MEMORY + to, f);
+					reg[1][p] = to + f;
+				}
+				break;
+			case LDA: case LD1: case LD2: case LD3: case LD4: case LD5: case LD6: case LDX:
+			case LDAN: case LD1N: case LD2N: case LD3N: case LD4N: case LD5N: case LD6N: case LDXN:	{
+				FieldSpec field = in.field();
+				int r = (c - MixOpCode.LDA.ordinal()) % 8;
+				int negate = (c >= MixOpCode.LDAN.ordinal()) ? SIGN : 0;
+				int dest[] = reg[r];
+				memoryAddresses(a, i);
+				for (int p = 0; p < count; p++)	{
+					dest[p] = field.extract(mem[p * MEMORY + m[p]]) ^ negate;
+				}
+				break;
+			}
+			case STA: case ST1: case ST2: case ST3: case ST4: case ST5: case ST6: case STX:	{
+				FieldSpec field = in.field();
+				int source[] = reg[c - MixOpCode.STA.ordinal()];
+				memoryAddresses(a, i);
+				for (int p = 0; p < count; p++)	{
+					int loc = p * MEMORY + m[p];
+					mem[loc] = field.insert(mem[loc], source[p]);
+				}
+				break;
+			}
+			case STJ:
+			case STZ:	{
+				FieldSpec field = in.field();
+				int value = (op == MixOpCode.STJ) ? rJ : 0;
+				memoryAddresses(a, i);
+				for (int p = 0; p < count; p++)	{
+					int loc = p * MEMORY + m[p];
+					mem[loc] = field.insert(mem[loc], value);
+				}
+				break;
+			}
+			case JBUS:
+			case JRED:	{
+				boolean ifBusy = (op == MixOpCode.JBUS);
+				for (int p = 0; p < count; p++)	{
+					if (devices[p][f] == null)	{
+						fail(p, new DeviceError("No device attached to unit " + f));
+					}
+				}
+				dropFailed();
+				addresses(a, i);
+				for (int p = 0; p < count; p++)	{
+					boolean busy = clock[p] < busyUntil[p][f];
+					taken[p] = (busy == ifBusy);
+					// "JBUS *" just burns time until the device is ready
+					if (taken[p] && ifBusy && m[p] == pc - 1)	{
+						clock[p] = busyUntil[p][f];
+					}
+				}
+				jump(true);
+				break;
+			}
+			case IOC:
+			case IN:
+			case OUT:
+				addresses(a, i);
+				for (int p = 0; p < count; p++)	{
+					try	{
+						transfer(op, p, f);
+					} catch (MixException e)	{
+						fail(p, e);
+					}
+				}
+				dropFailed();
+				break;
+			case JMP:
+				if (f > 9)	{
+					throw new FieldError("Invalid F-specification " + f +
+						" for instruction code 39 (jump); expected 0-9");
+				}
+				addresses(a, i);
+				for (int p = 0; p < count; p++)	{
+					switch (f)	{
+						case 0: case 1: taken[p] = true; break;
+						case 2: taken[p] = ovtog[p]; ovtog[p] = false; break;
+						case 3: taken[p] = !ovtog[p]; ovtog[p] = false; break;
+						case 4: taken[p] = compi[p] < 0; break;
+						case 5: taken[p] = compi[p] == 0; break;
+						case 6: taken[p] = compi[p] > 0; break;
+						case 7: taken[p] = compi[p] >= 0; break;
+						case 8: taken[p] = compi[p] != 0; break;
+						default: taken[p] = compi[p] <= 0; break;
+					}
+				}
+				jump(f != 1);	// JSJ leaves rJ alone
+				break;
+			case JAP: case J1P: case J2P: case J3P: case J4P: case J5P: case J6P: case JXP:	{
+				if (f > 5)	{
+					throw new FieldError("Invalid F-specification " + f +
+						" for instruction code " + c + " (jump); expected 0-5");
+				}
+				int source[] = reg[c - MixOpCode.JAP.ordinal()];
+				addresses(a, i);
+				for (int p = 0; p < count; p++)	{
+					boolean zero = (source[p] & ~SIGN) == 0;
+					boolean negative = !zero && (source[p] & SIGN) != 0;
+					switch (f)	{
+						case 0: taken[p] = negative; break;
+						case 1: taken[p] = zero; break;
+						case 2: taken[p] = !zero && !negative; break;
+						case 3: taken[p] = !negative; break;
+						case 4: taken[p] = !zero; break;
+						default: taken[p] = zero || negative; break;
+					}
+				}
+				jump(true);
+				break;
+			}
+			case INCA: case INC1: case INC2: case INC3: case INC4: case INC5: case INC6: case INCX:	{
+				if (f > 3)	{
+					throw new FieldError("Invalid F-specification " + f +
+						" for instruction code " + c + "; expected 0-3");
+				}
+				int r = c - MixOpCode.INCA.ordinal();
+				int dest[] = reg[r];
+				int address = in.address();
+				int negate = (f == 1 || f == 3) ? SIGN : 0;
+				boolean wide = (r == 0 || r == 7);
+				for (int p = 0; p < count; p++)	{
+					int value = ((i == 0) ? address : (int) MixArithmetic.add(address, reg[i][p])) ^ negate;
+					int word = value;
+					if (f < 2)	{
+						long sum = MixArithmetic.add(dest[p], value);
+						word = (int) sum;
+						if (wide && (sum & MixArithmetic.OVERFLOW) != 0)	{
+							ovtog[p] = true;
+						}
+					}
+					dest[p] = wide ? word : (word & SIGN) | (word & INDEX_MAGNITUDE);
+				}
+				break;
+			}
+			case CMPA: case CMP1: case CMP2: case CMP3: case CMP4: case CMP5: case CMP6: case CMPX:	{
+				FieldSpec field = in.field();
+				int source[] = reg[c - MixOpCode.CMPA.ordinal()];
+				memoryAddresses(a, i);
+				for (int p = 0; p < count; p++)	{
+					compi[p] = Long.signum(MixArithmetic.value(field.extract(source[p])) -
+						MixArithmetic.value(field.extract(mem[p * MEMORY + m[p]])));
+				}
+				break;
+			}
+			default:
+				throw new IllegalInstruction("Illegal instruction code " + c);
+		}
+		return false;
+	}
+
+	/**
+	 * IOC, IN or OUT on unit {@param unit} for the lane at position {@param p}, M = m[p].
+	 */
+	private void transfer(MixOpCode op, int p, int unit) throws MixException	{
+		MixDevice device = devices[p][unit];
+		if (device == null)	{
+			throw new DeviceError("No device attached to unit " + unit);
+		}
+
+		IntBuffer block = null;
+		if (op != MixOpCode.IOC)	{
+			int size = device.getBlockSize();
+			if (m[p] < 0 || m[p] + size > MEMORY)	{
+				throw new MemoryLocationError("Block " + m[p] + "-" + (m[p] + size - 1) +
+					" is outside of memory");
+			}
+			block = IntBuffer.wrap(mem, p * MEMORY + m[p], size).slice();
+		}
+		if (clock[p] < busyUntil[p][unit])	{
+			clock[p] = busyUntil[p][unit];
+		}
+		int busy;
+		switch (op)	{
+			case IN: busy = device.in(block); break;
+			case OUT: busy = device.out(block); break;
+			default: busy = device.control(m[p]); break;
+		}
+		busyUntil[p][unit] = clock[p] + busy;
+	}
+
+	/**
+	 * The signed contents of index register {@param i} of position {@param p}.
+	 */
+	private int index(int i, int p)	{
+		if (i == 0)	{
+			return 0;
+		}
+		int magnitude = reg[i][p] & ~SIGN;
+		return ((reg[i][p] & SIGN) != 0) ? -magnitude : magnitude;
+	}
+
+	/**
+	 * m[p] = M for every position.
+	 */
+	private void addresses(int a, int i)	{
+		if (i == 0)	{
+			Arrays.fill(m, 0, count, a);
+		} else	{
+			for (int p = 0; p < count; p++)	{
+				m[p] = a + index(i, p);
+			}
+		}
+	}
+
+	/**
+	 * The same, for an instruction that refers to CONTENTS(M); lanes where M is outside
+	 * of memory stop.
+	 */
+	private void memoryAddresses(int a, int i)	{
+		addresses(a, i);
+		for (int p = 0; p < count; p++)	{
+			if (m[p] < 0 || m[p] >= MEMORY)	{
+				fail(p, new MemoryLocationError("Location " + m[p] + " is outside of memory"));
+			}
+		}
+		dropFailed();
+	}
+
+	/**
+	 * A jump to m[p] where taken[p].  Lanes that end up somewhere other than the
+	 * largest group are handed over.
+	 */
+	private void jump(boolean saveJ)	{
+		for (int p = 0; p < count; p++)	{
+			target[p] = taken[p] ? m[p] : pc;
+			setsJ[p] = taken[p] && saveJ;
+			key[p] = ((long) target[p] << 1) | (setsJ[p] ? 1 : 0);
+		}
+		diverge();
+		if (count > 0)	{
+			if (setsJ[0])	{
+				rJ = pc;
+			}
+			pc = target[0];
+		}
+	}
+
+	/**
+	 * Keep the most common key[p] in step, and hand over each other position to carry on
+	 * from target[p] (with rJ set to pc if setsJ[p]).
+	 */
+	private void diverge()	{
+		int same = 1;
+		while (same < count && key[same] == key[0])	{
+			same++;
+		}
+		if (same == count)	{
+			return;
+		}
+
+		// The largest group carries on; sorted, each group is a run of the same key
+		System.arraycopy(key, 0, sorted, 0, count);
+		Arrays.sort(sorted, 0, count);
+		long candidate = sorted[0];
+		int largest = 0;
+		for (int from = 0, to; from < count; from = to)	{
+			to = from + 1;
+			while (to < count && sorted[to] == sorted[from])	{
+				to++;
+			}
+			if (to - from > largest)	{
+				candidate = sorted[from];
+				largest = to - from;
+			}
+		}
+
+		for (int p = 0; p < count; p++)	{
+			if (key[p] != candidate)	{
+				handOver(p, target[p], setsJ[p] ? pc : rJ, null);
+				leaving[p] = true;
+			}
+		}
+		compact();
+	}
+
+	private void fail(int p, MixException e)	{
+		e.attachLocation(current);
+		handOver(p, pc, rJ, e);
+		leaving[p] = true;
+	}
+
+	private void dropFailed()	{
+		for (int p = 0; p < count; p++)	{
+			if (leaving[p])	{
+				compact();
+				return;
+			}
+		}
+	}
+
+	private void stopAll(MixException e)	{
+		e.attachLocation(current);
+		for (int p = 0; p < count; p++)	{
+			handOver(p, pc, rJ, e);
+		}
+		count = 0;
+	}
+
+	/**
+	 * Give the lane at position {@param p} a scalar VM of its own.
+	 */
+	private void handOver(int p, int location, int j, MixException e)	{
+		int l = lane[p];
+		MixVM vm = new MixVM(Arrays.copyOfRange(mem, p * MEMORY, (p + 1) * MEMORY), devices[p]);
+		for (int r = 0; r < 8; r++)	{
+			vm.putRegister(r, reg[r][p]);
+		}
+		vm.setJ(j);
+		vm.restore(ovtog[p], compi[p], clock[p], busyUntil[p]);
+
+		scalar[l] = vm;
+		resume[l] = location;
+		error[l] = e;
+		position[l] = -1;
+	}
+
+	/**
+	 * Close up the gaps left by positions marked as leaving.
+	 */
+	private void compact()	{
+		int to = 0;
+		for (int from = 0; from < count; from++)	{
+			if (leaving[from])	{
+				leaving[from] = false;
+				continue;
+			}
+			if (to != from)	{
+				System.arraycopy(mem, from * MEMORY, mem, to * MEMORY, MEMORY);
+				for (int r = 0; r < 8; r++)	{
+					reg[r][to] = reg[r][from];
+				}
+				ovtog[to] = ovtog[from];
+				compi[to] = compi[from];
+				clock[to] = clock[from];
+				devices[to] = devices[from];
+				busyUntil[to] = busyUntil[from];
+				lane[to] = lane[from];
+				position[lane[to]] = to;
+				m[to] = m[from];
+				taken[to] = taken[from];
+				key[to] = key[from];
+				target[to] = target[from];
+				setsJ[to] = setsJ[from];
+			}
+			to++;
+		}
+		// The arrays of the positions that were vacated are still shared with others
+		for (int p = to; p < count; p++)	{
+			devices[p] = new MixDevice[UNITS];
+			busyUntil[p] = new long[UNITS];
+		}
+		count = to;
+	}
+}
@@ -0,0 +1,238 @@
+package com.jdavies.mix;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+
+public class MixLanesTest	{
+	/**
+	 * Reads n from a card; stores n, 1 + 2 + ... + n, and n * n (n even) or 3n (n odd) in
+	 * 200-202; prints the last of those; and finally patches an ENTA n into itself and
+	 * runs it, so that lanes with different n disagree about the code.
+	 */
+	private static int[] program()	{
+		int image[] = new int[4000];
+		image[300] = 2;
+		image[301] = 3;
+		int code[] = {
+			new MixInst(MixOpCode.IN, 0, 2, 0, 100).pack(),		// 3000
+			new MixInst(MixOpCode.JBUS, 0, 2, 0, 3001).pack(),
+			new MixInst(MixOpCode.LDA, 0, 0, 5, 100).pack(),
+			new MixInst(MixOpCode.LDX, 0, 0, 5, 101).pack(),
+			new MixInst(MixOpCode.HLT, 0, 0, 0, 0).pack(),		// NUM
+			new MixInst(MixOpCode.STA, 0, 0, 5, 200).pack(),		// 3005
+			new MixInst(MixOpCode.LD1, 0, 0, 5, 200).pack(),
+			new MixInst(MixOpCode.INCA, 0, 0, 2, 0).pack(),		// ENTA 0
+			new MixInst(MixOpCode.J1P, 0, 0, 1, 3012).pack(),	// J1Z
+			new MixInst(MixOpCode.INCA, 1, 0, 0, 0).pack(),		// INCA 0,1
+			new MixInst(MixOpCode.INC1, 0, 0, 1, 1).pack(),		// 3010 DEC1 1
+			new MixInst(MixOpCode.J1P, 0, 0, 2, 3009).pack(),
+			new MixInst(MixOpCode.STA, 0, 0, 5, 201).pack(),
+			new MixInst(MixOpCode.INCA, 0, 0, 2, 0).pack(),		// ENTA 0
+			new MixInst(MixOpCode.LDX, 0, 0, 5, 200).pack(),
+			new MixInst(MixOpCode.DIV, 0, 0, 5, 300).pack(),		// 3015
+			new MixInst(MixOpCode.JXP, 0, 0, 1, 3020).pack(),	// JXZ
+			new MixInst(MixOpCode.LDA, 0, 0, 5, 200).pack(),
+			new MixInst(MixOpCode.MUL, 0, 0, 5, 301).pack(),
+			new MixInst(MixOpCode.JMP, 0, 0, 0, 3022).pack(),
+			new MixInst(MixOpCode.LDA, 0, 0, 5, 200).pack(),		// 3020
+			new MixInst(MixOpCode.MUL, 0, 0, 5, 200).pack(),
+			new MixInst(MixOpCode.STX, 0, 0, 5, 202).pack(),
+			new MixInst(MixOpCode.LDA, 0, 0, 5, 202).pack(),
+			new MixInst(MixOpCode.HLT, 0, 0, 1, 0).pack(),		// CHAR
+			new MixInst(MixOpCode.STA, 0, 0, 5, 110).pack(),		// 3025
+			new MixInst(MixOpCode.STX, 0, 0, 5, 111).pack(),
+			new MixInst(MixOpCode.OUT, 0, 2, 2, 110).pack(),
+			new MixInst(MixOpCode.LDA, 0, 0, 5, 200).pack(),
+			new MixInst(MixOpCode.STA, 0, 1, 2, 3030).pack(),
+			new MixInst(MixOpCode.INCA, 0, 0, 2, 0).pack(),		// 3030 ENTA n
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()
+		};
+		System.arraycopy(code, 0, image, 3000, code.length);
+		return image;
+	}
+
+	private static final String decks[] = {
+		"0000000007\n", "0000000010\n", "0000000000\n", "0000000007\n", "0000000001\n",
+		"0000004095\n", "0000000100\n", "", "0000000010\n", "0000000010\n", "0000000333\n",
+		"0000000010\n"
+	};
+
+	private static CharacterDevice reader(String deck)	{
+		return new CharacterDevice(CharacterDevice.CARD_READER,
+			Channels.newChannel(new ByteArrayInputStream(deck.getBytes())), null);
+	}
+
+	public static void testAgainstScalar() throws Exception	{
+		int image[] = program();
+		MixLanes lanes = new MixLanes(decks.length, image);
+		ByteArrayOutputStream printed[] = new ByteArrayOutputStream[decks.length];
+		for (int l = 0; l < decks.length; l++)	{
+			printed[l] = new ByteArrayOutputStream();
+			lanes.attachDevice(l, CharacterDevice.CARD_READER, reader(decks[l]));
+			lanes.attachDevice(l, CharacterDevice.LINE_PRINTER, new CharacterDevice(
+				CharacterDevice.LINE_PRINTER, null, Channels.newChannel(printed[l])));
+		}
+		lanes.run(3000);
+
+		for (int l = 0; l < decks.length; l++)	{
+			MixVM vm = new MixVM(image);
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			vm.attachDevice(CharacterDevice.CARD_READER, reader(decks[l]));
+			vm.attachDevice(CharacterDevice.LINE_PRINTER, new CharacterDevice(
+				CharacterDevice.LINE_PRINTER, null, Channels.newChannel(expected)));
+			boolean failed = false;
+			try	{
+				vm.run(3000);
+			} catch (MixException e)	{
+				failed = true;
+			}
+
+			boolean same = MixVMTest.assertEquals(failed ? 1 : 0, (lanes.getError(l) != null) ? 1 : 0);
+			for (int r = 0; r < 8; r++)	{
+				same &= MixVMTest.assertEquals(vm.getRegister(r), lanes.getRegister(l, r));
+			}
+			same &= MixVMTest.assertEquals(vm.getJ(), lanes.getJ(l));
+			same &= MixVMTest.assertEquals((int) vm.getClock(), (int) lanes.getClock(l));
+			for (int loc = 0; loc < 4000; loc++)	{
+				same &= MixVMTest.assertEquals(vm.getMemory(loc), lanes.getMemory(l, loc));
+			}
+			if (!expected.toString().equals(printed[l].toString()))	{
+				System.err.println("ERROR: Expected output " + expected + " but got " + printed[l]);
+				same = false;
+			}
+			if (!same)	{
+				System.err.println("in lane " + l + " (deck " + decks[l].trim() + ")");
+			}
+		}
+
+		// The four lanes with n = 10 should have stayed together to the end
+		MixVMTest.assertEquals(0, lanes.isSplit(1) ? 1 : 0);
+		MixVMTest.assertEquals(1, lanes.isSplit(7) ? 1 : 0);
+	}
+
+	/**
+	 * Lanes that jump three or more ways, none of them a majority: the largest group,
+	 * the two lanes with n = 0, carries on together.
+	 */
+	public static void testPlurality() throws Exception	{
+		int image[] = new int[4000];
+		int code[] = {
+			new MixInst(MixOpCode.IN, 0, 2, 0, 100).pack(),		// 3000
+			new MixInst(MixOpCode.JBUS, 0, 2, 0, 3001).pack(),
+			new MixInst(MixOpCode.LDA, 0, 0, 5, 100).pack(),
+			new MixInst(MixOpCode.LDX, 0, 0, 5, 101).pack(),
+			new MixInst(MixOpCode.HLT, 0, 0, 0, 0).pack(),		// NUM
+			new MixInst(MixOpCode.STA, 0, 0, 5, 200).pack(),		// 3005
+			new MixInst(MixOpCode.LD1, 0, 0, 5, 200).pack(),
+			new MixInst(MixOpCode.JMP, 1, 0, 0, 3010).pack(),	// JMP 3010,1
+			new MixInst(MixOpCode.NOP, 0, 0, 0, 0).pack(),
+			new MixInst(MixOpCode.NOP, 0, 0, 0, 0).pack(),
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack(),		// 3010
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack(),
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack(),
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()
+		};
+		System.arraycopy(code, 0, image, 3000, code.length);
+		String targets[] = { "0000000000\n", "0000000000\n", "0000000001\n", "0000000002\n",
+			"0000000003\n" };
+		MixLanes lanes = new MixLanes(targets.length, image);
+		for (int l = 0; l < targets.length; l++)	{
+			lanes.attachDevice(l, CharacterDevice.CARD_READER, reader(targets[l]));
+		}
+		lanes.run(3000);
+
+		for (int l = 0; l < targets.length; l++)	{
+			MixVMTest.assertEquals(l < 2 ? 0 : 1, lanes.isSplit(l) ? 1 : 0);
+			MixVMTest.assertEquals(0, (lanes.getError(l) != null) ? 1 : 0);
+			MixVMTest.assertEquals(Integer.parseInt(targets[l].trim()), lanes.getRegister(l, 1));
+		}
+	}
+
+	/**
+	 * JBUS and JRED with an index: JBUS 3000,1 with rI1 = 2 waits where it is, and
+	 * JRED 3010,1 goes to a different place in each lane, as it does in the scalar VM.
+	 */
+	public static void testIndexedDeviceJumps() throws Exception	{
+		int image[] = new int[4000];
+		int code[] = {
+			new MixInst(MixOpCode.IN, 0, 2, 0, 100).pack(),		// 3000
+			new MixInst(MixOpCode.INC1, 0, 0, 2, 2).pack(),		// ENT1 2
+			new MixInst(MixOpCode.JBUS, 1, 2, 0, 3000).pack(),	// JBUS 3000,1(16): JBUS *
+			new MixInst(MixOpCode.LDA, 0, 0, 5, 100).pack(),
+			new MixInst(MixOpCode.LDX, 0, 0, 5, 101).pack(),
+			new MixInst(MixOpCode.HLT, 0, 0, 0, 0).pack(),		// 3005 NUM
+			new MixInst(MixOpCode.STA, 0, 0, 5, 200).pack(),
+			new MixInst(MixOpCode.LD1, 0, 0, 5, 200).pack(),
+			new MixInst(MixOpCode.INCA, 0, 0, 2, 0).pack(),		// ENTA 0
+			new MixInst(MixOpCode.JRED, 1, 2, 0, 3010).pack(),	// JRED 3010,1(16)
+			new MixInst(MixOpCode.INCA, 0, 0, 0, 1).pack(),		// 3010 INCA 1
+			new MixInst(MixOpCode.INCA, 0, 0, 0, 1).pack(),
+			new MixInst(MixOpCode.INCA, 0, 0, 0, 1).pack(),
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()
+		};
+		System.arraycopy(code, 0, image, 3000, code.length);
+		String cards[] = { "0000000000\n", "0000000001\n", "0000000002\n", "0000000000\n" };
+		MixLanes lanes = new MixLanes(cards.length, image);
+		for (int l = 0; l < cards.length; l++)	{
+			lanes.attachDevice(l, CharacterDevice.CARD_READER, reader(cards[l]));
+		}
+		lanes.run(3000);
+
+		for (int l = 0; l < cards.length; l++)	{
+			MixVM vm = new MixVM(image);
+			vm.attachDevice(CharacterDevice.CARD_READER, reader(cards[l]));
+			vm.run(3000);
+			MixVMTest.assertEquals(3 - Integer.parseInt(cards[l].trim()), vm.getRegister(0));
+			MixVMTest.assertEquals(vm.getRegister(0), lanes.getRegister(l, 0));
+			MixVMTest.assertEquals((int) vm.getClock(), (int) lanes.getClock(l));
+		}
+	}
+
+	/**
+	 * A lane that prints a line and then faults, in step with one that doesn't: both
+	 * lines come out.
+	 */
+	public static void testOutputBeforeFault() throws Exception	{
+		int image[] = new int[4000];
+		image[300] = MixCharset.toWord("HELLO", 0);
+		int code[] = {
+			new MixInst(MixOpCode.IN, 0, 2, 0, 100).pack(),		// 3000
+			new MixInst(MixOpCode.JBUS, 0, 2, 0, 3001).pack(),
+			new MixInst(MixOpCode.LDA, 0, 0, 5, 100).pack(),
+			new MixInst(MixOpCode.LDX, 0, 0, 5, 101).pack(),
+			new MixInst(MixOpCode.HLT, 0, 0, 0, 0).pack(),		// NUM
+			new MixInst(MixOpCode.STA, 0, 0, 5, 200).pack(),		// 3005
+			new MixInst(MixOpCode.LD1, 0, 0, 5, 200).pack(),
+			new MixInst(MixOpCode.OUT, 0, 2, 2, 300).pack(),		// OUT 300(18)
+			new MixInst(MixOpCode.LDA, 1, 0, 5, 3999).pack(),	// LDA 3999,1
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()
+		};
+		System.arraycopy(code, 0, image, 3000, code.length);
+		String cards[] = { "0000000000\n", "0000000005\n" };
+		ByteArrayOutputStream printed[] = new ByteArrayOutputStream[cards.length];
+		MixLanes lanes = new MixLanes(cards.length, image);
+		for (int l = 0; l < cards.length; l++)	{
+			printed[l] = new ByteArrayOutputStream();
+			lanes.attachDevice(l, CharacterDevice.CARD_READER, reader(cards[l]));
+			lanes.attachDevice(l, CharacterDevice.LINE_PRINTER, new CharacterDevice(
+				CharacterDevice.LINE_PRINTER, null, Channels.newChannel(printed[l])));
+		}
+		lanes.run(3000);
+
+		MixVMTest.assertEquals(0, (lanes.getError(0) != null) ? 1 : 0);
+		MixVMTest.assertEquals(1, (lanes.getError(1) instanceof MemoryLocationError) ? 1 : 0);
+		for (int l = 0; l < cards.length; l++)	{
+			if (!printed[l].toString().equals("HELLO\n"))	{
+				System.err.println("ERROR: lane " + l + " printed '" + printed[l] + "'");
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception	{
+		testAgainstScalar();
+		testPlurality();
+		testIndexedDeviceJumps();
+		testOutputBeforeFault();
+	}
+}
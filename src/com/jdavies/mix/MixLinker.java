@@ -0,0 +1,229 @@
+package com.jdavies.mix;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Puts relocatable modules, as assembled by {@link MixAsm#setModule}, together into one
+ * program.  The modules go one after another from the origin, in the order they were
+ * added; each one's relocatable fields have its origin added to them, and each word
+ * that refers to an imported symbol gets that symbol's equivalent in its address.
+ *
+ * Every symbol exported (ENTRY) by any module can be imported (EXTRN) by any other, but
+ * only one module can export each symbol, and every symbol imported has to be exported
+ * by someone.  The program starts where the one module that has an END line with a
+ * location says; at most one can.
+ */
+public class MixLinker	{
+	private final List<String> names = new ArrayList<String>();
+	private final List<MixModule> modules = new ArrayList<MixModule>();
+
+	private int mem[] = new int[MixVM.MEMORY];
+	private int lines[] = new int[MixVM.MEMORY];
+	private LongIntMap symbols = new LongIntMap();
+	private int start = -1;
+	private List<String> errors = new ArrayList<String>();
+
+	/**
+	 * Add {@param module}, called {@param name} in messages, after the ones already added.
+	 */
+	void add(String name, MixModule module)	{
+		names.add(name);
+		modules.add(module);
+	}
+
+	/**
+	 * Link the modules, the first at {@param origin}; false if there were errors.
+	 */
+	public boolean link(int origin)	{
+		int base[] = new int[modules.size()];
+		int location = origin;
+		for (int m = 0; m < modules.size(); m++)	{
+			base[m] = location;
+			location += modules.get(m).getSize();
+			if (origin < 0 || location > mem.length)	{
+				errors.add(names.get(m) + " doesn't fit in memory at " + base[m]);
+				return false;
+			}
+		}
+
+		// Which module exported each symbol
+		LongIntMap exporters = new LongIntMap();
+		String starter = null;
+		for (int m = 0; m < modules.size(); m++)	{
+			MixModule module = modules.get(m);
+			MixImage image = module.getImage();
+			LongIntMap exports = image.getSymbols();
+			for (int slot = 0; slot < exports.capacity(); slot++)	{
+				long symbol = exports.keyAt(slot);
+				if (symbol == 0)	{
+					continue;
+				}
+				if (exporters.containsKey(symbol))	{
+					errors.add("'" + MixSymbol.toString(symbol) + "' is exported by both " +
+						names.get(exporters.get(symbol, 0)) + " and " + names.get(m));
+					continue;
+				}
+				exporters.put(symbol, m);
+				int value = exports.valueAt(slot);
+				symbols.put(symbol, module.isRelocatable(symbol) ? value + base[m] : value);
+			}
+
+			System.arraycopy(image.getMemory(), 0, mem, base[m], module.getSize());
+			System.arraycopy(image.getLines(), 0, lines, base[m], module.getSize());
+			if (image.getStart() >= 0)	{
+				if (starter != null)	{
+					errors.add("Both " + starter + " and " + names.get(m) + " give a starting location");
+				}
+				starter = names.get(m);
+				start = image.getStart() + (module.isStartRelocatable() ? base[m] : 0);
+			}
+		}
+
+		for (int m = 0; m < modules.size(); m++)	{
+			MixModule module = modules.get(m);
+			for (int k = 0; k < module.getRelocationCount(); k++)	{
+				relocate(names.get(m), base[m] + module.getRelocationLocation(k),
+					FieldSpec.of(module.getRelocationField(k)), base[m]);
+			}
+			for (int k = 0; k < module.getImportCount(); k++)	{
+				long symbol = module.getImportSymbol(k);
+				int at = base[m] + module.getImportLocation(k);
+				if (!symbols.containsKey(symbol))	{
+					errors.add(names.get(m) + ": '" + MixSymbol.toString(symbol) +
+						"' is imported, but no module exports it");
+					continue;
+				}
+				int value = symbols.get(symbol, 0);
+				if (Math.abs(value) > 4095)	{
+					errors.add(names.get(m) + ": '" + MixSymbol.toString(symbol) + "' (" + value +
+						") is too large for the address of the instructions that refer to it");
+					continue;
+				}
+				mem[at] = FieldSpec.of(2).insert(mem[at], (value < 0) ? (1 << 31) | -value : value);
+			}
+		}
+		return errors.isEmpty();
+	}
+
+	/**
+	 * Add {@param base} to {@param field} of the word at {@param location}, which has to
+	 * stay within the field.
+	 */
+	private void relocate(String name, int location, FieldSpec field, int base)	{
+		int bits = field.extract(mem[location]);
+		int value = (bits & ~(1 << 31)) * ((bits < 0) ? -1 : 1) + base;
+		long limit = (field.mask >>> field.shift) & 0xFFFFFFFFL;
+		if (Math.abs((long) value) > limit || (value < 0 && !field.sign))	{
+			errors.add(name + ": " + value + " doesn't fit in field " + field + " of the word at " +
+				location);
+			return;
+		}
+		mem[location] = field.insert(mem[location], (value < 0) ? (1 << 31) | -value : value);
+	}
+
+	/**
+	 * The linked program, with the symbols the modules export and each word's source line
+	 * in its own module.
+	 */
+	MixImage getImage()	{
+		return new MixImage(start, mem, symbols, lines);
+	}
+
+	/**
+	 * Write the linked program to {@param file}, for {@link MixVM#loadImage}.
+	 */
+	public void writeImage(Path file) throws IOException	{
+		getImage().write(file);
+	}
+
+	/**
+	 * The reasons the modules couldn't be linked; empty if they could.
+	 */
+	public List<String> getErrors()	{
+		return errors;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException	{
+		int status = command(Paths.get(""), args);
+		if (status != 0)	{
+			System.exit(status);
+		}
+	}
+
+	/**
+	 * Link modules, as object files (.mixo) or as source (anything else), which is
+	 * assembled as modules first, in parallel.  File names are relative to
+	 * {@param directory}, and the exit status is returned, for main or {@link MixDaemon}.
+	 */
+	static int command(Path directory, String[] args) throws IOException, InterruptedException	{
+		String image = null;
+		int origin = 0;
+		int threads = Runtime.getRuntime().availableProcessors();
+		MixAsmCache cache = null;
+		List<Path> files = new ArrayList<Path>();
+		for (int k = 0; k < args.length; k++)	{
+			if ("-o".equals(args[k]) && k + 1 < args.length)	{
+				image = args[++k];
+			} else if ("-origin".equals(args[k]) && k + 1 < args.length)	{
+				origin = Integer.parseInt(args[++k]);
+			} else if ("-threads".equals(args[k]) && k + 1 < args.length)	{
+				threads = Integer.parseInt(args[++k]);
+			} else if ("-cache".equals(args[k]) && k + 1 < args.length)	{
+				cache = new MixAsmCache(directory.resolve(args[++k]), 64L << 20);
+			} else	{
+				files.add(directory.resolve(args[k]));
+			}
+		}
+		if (files.isEmpty())	{
+			System.err.println("Usage: MixLinker [-o image] [-origin location] [-threads n] " +
+				"[-cache directory] <module or mixal file>...");
+			return 0;
+		}
+
+		List<Path> sources = new ArrayList<Path>();
+		for (Path file : files)	{
+			if (!file.toString().endsWith(".mixo"))	{
+				sources.add(file);
+			}
+		}
+		List<MixAsm> assembled = MixAsm.assembleAll(sources, threads, true, cache);
+
+		MixLinker linker = new MixLinker();
+		boolean failed = false;
+		int next = 0;
+		for (Path file : files)	{
+			if (file.toString().endsWith(".mixo"))	{
+				linker.add(file.toString(), MixModule.read(file));
+				continue;
+			}
+			MixAsm assembler = assembled.get(next++);
+			for (String warning : assembler.getWarnings())	{
+				System.err.println(file + ": Warning: " + warning);
+			}
+			for (String error : assembler.getErrors())	{
+				System.err.println(file + ": " + error);
+				failed = true;
+			}
+			if (assembler.getErrors().isEmpty())	{
+				linker.add(file.toString(), assembler.getModule());
+			}
+		}
+		if (failed)	{
+			return 1;
+		}
+		if (!linker.link(origin))	{
+			for (String error : linker.getErrors())	{
+				System.err.println(error);
+			}
+			return 1;
+		}
+		if (image != null)	{
+			linker.writeImage(directory.resolve(image));
+		}
+		return 0;
+	}
+}
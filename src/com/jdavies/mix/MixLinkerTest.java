@@ -0,0 +1,219 @@
+package com.jdavies.mix;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class MixLinkerTest	{
+	// Calls DOUBLE, in the other module, twice
+	private static final String MAIN[] = {
+		"         EXTRN DOUBLE,COUNT,TWO",
+		"START    ENTA 5",
+		"         JMP  DOUBLE",
+		"         JMP  DOUBLE",
+		"         STA  RESULT",
+		"         LD2  COUNT",
+		"         ENT3 TWO",
+		"         LDX  PTR",
+		"         HLT",
+		"RESULT   CON  0",
+		"PTR      CON  RESULT(1:2),3(3:3)",
+		"         END  START",
+	};
+	private static final String LIBRARY[] = {
+		"         ENTRY DOUBLE,COUNT,TWO",
+		"TWO      EQU  2",
+		"DOUBLE   STJ  EXIT",
+		"         STA  TEMP",
+		"         ADD  TEMP",
+		"         LD1  COUNT",
+		"         INC1 1",
+		"         ST1  COUNT",
+		"         LD4  =TWO=",
+		"EXIT     JMP  *",
+		"TEMP     CON  0",
+		"COUNT    CON  0",
+	};
+
+	private static MixAsm module(String... source)	{
+		MixAsm asm = new MixAsm();
+		asm.setModule(true);
+		asm.assemble(ByteBuffer.wrap(String.join("\n", source).concat("\n")
+			.getBytes(java.nio.charset.StandardCharsets.US_ASCII)));
+		return asm;
+	}
+
+	private static MixLinker link(int origin, MixAsm... modules)	{
+		MixLinker linker = new MixLinker();
+		for (int k = 0; k < modules.length; k++)	{
+			MixVMTest.assertEquals(0, modules[k].getErrors().size());
+			linker.add("module " + k, modules[k].getModule());
+		}
+		linker.link(origin);
+		return linker;
+	}
+
+	private static void assertError(String what, MixAsm asm)	{
+		if (asm.getErrors().size() != 1)	{
+			System.err.println("ERROR: " + what + ": " + asm.getErrors());
+		}
+	}
+
+	/**
+	 * Linked at 0, the modules are the same program as their text run together, and do
+	 * the same thing.
+	 */
+	public static void testLink() throws Exception	{
+		MixLinker linker = link(0, module(MAIN), module(LIBRARY));
+		MixVMTest.assertEquals(0, linker.getErrors().size());
+
+		StringBuilder whole = new StringBuilder();
+		for (int k = 1; k < MAIN.length - 1; k++)	{
+			whole.append(MAIN[k]).append('\n');
+		}
+		for (int k = 1; k < LIBRARY.length; k++)	{
+			whole.append(LIBRARY[k]).append('\n');
+		}
+		whole.append(MAIN[MAIN.length - 1]).append('\n');
+		MixAsm asm = new MixAsm();
+		asm.assemble(new BufferedReader(new StringReader(whole.toString())));
+		MixVMTest.assertEquals(0, asm.getErrors().size());
+		MixImage image = linker.getImage();
+		if (!Arrays.equals(asm.getImage(), image.getMemory()))	{
+			System.err.println("ERROR: the linked program is different");
+		}
+		MixVMTest.assertEquals(asm.getStart(), image.getStart());
+		// DOUBLE is the library's line 3, and the library follows the 10 words of MAIN
+		MixVMTest.assertEquals(10, image.getSymbols().get(MixSymbol.pack("DOUBLE"), -1));
+		MixVMTest.assertEquals(3, image.getLine(10));
+
+		MixVM vm = new MixVM(image.getMemory());
+		vm.run(image.getStart());
+		MixVMTest.assertEquals(20, vm.getRegister(0));
+		MixVMTest.assertEquals(2, vm.getRegister(1));
+		MixVMTest.assertEquals(2, vm.getRegister(2));
+		MixVMTest.assertEquals(2, vm.getRegister(3));
+		MixVMTest.assertEquals(2, vm.getRegister(4));
+		MixVMTest.assertEquals(8 << 18 | 3 << 12, vm.getRegister(7));
+	}
+
+	/**
+	 * Elsewhere, every relocatable field moves with the module, and nothing else does.
+	 */
+	public static void testOrigin() throws Exception	{
+		MixImage at0 = link(0, module(MAIN), module(LIBRARY)).getImage();
+		MixLinker linker = link(1000, module(MAIN), module(LIBRARY));
+		MixVMTest.assertEquals(0, linker.getErrors().size());
+		MixImage at1000 = linker.getImage();
+		MixVMTest.assertEquals(1000, at1000.getStart());
+		// ENTA 5 stays, JMP DOUBLE moves, and PTR's (1:2) moves but its (3:3) doesn't
+		MixVMTest.assertEquals(at0.getMemory()[0], at1000.getMemory()[1000]);
+		MixVMTest.assertEquals(at0.getMemory()[1] + (1000 << 18), at1000.getMemory()[1001]);
+		MixVMTest.assertEquals(1008 << 18 | 3 << 12, at1000.getMemory()[1009]);
+		MixVMTest.assertEquals(2, at1000.getSymbols().get(MixSymbol.pack("TWO"), -1));
+
+		MixVM vm = new MixVM(at1000.getMemory());
+		vm.run(at1000.getStart());
+		MixVMTest.assertEquals(20, vm.getRegister(0));
+		MixVMTest.assertEquals(2, vm.getRegister(2));
+
+		linker = link(3990, module(MAIN), module(LIBRARY));
+		MixVMTest.assertEquals(1, linker.getErrors().size());
+	}
+
+	/**
+	 * What can't be assembled as a module, or linked.
+	 */
+	public static void testErrors() throws Exception	{
+		// One for each word that refers to the library
+		MixLinker linker = link(0, module(MAIN));
+		MixVMTest.assertEquals(4, linker.getErrors().size());
+		linker = link(0, module(MAIN), module(LIBRARY), module("         ENTRY TWO", "TWO      EQU  3"));
+		MixVMTest.assertEquals(1, linker.getErrors().size());
+		linker = link(0, module(MAIN), module(LIBRARY), module("         END  0"));
+		MixVMTest.assertEquals(1, linker.getErrors().size());
+
+		assertError("an absolute ORIG", module("         ORIG 100", "         NOP"));
+		assertError("twice the origin", module("HERE     CON  HERE*2"));
+		assertError("an ENTRY never defined", module("         ENTRY NOWHERE", "         NOP"));
+		assertError("an imported symbol in an expression", module("         EXTRN FAR",
+			"         LDA  FAR+1"));
+		assertError("an imported symbol defined", module("         EXTRN FAR", "FAR      NOP"));
+		assertError("an imported symbol exported", module("         EXTRN FAR", "         ENTRY FAR",
+			"         LDA  FAR"));
+		MixVMTest.assertEquals(0, module("         ORIG *+100", "HERE     CON  HERE-*").getErrors().size());
+
+		MixAsm program = new MixAsm();
+		program.assemble(new BufferedReader(new StringReader("         EXTRN FAR\n")));
+		MixVMTest.assertEquals(1, program.getErrors().size());
+	}
+
+	/**
+	 * A module written out and read back, and one that comes from the cache, link the
+	 * same.
+	 */
+	public static void testReadBack() throws Exception	{
+		MixImage expected = link(0, module(MAIN), module(LIBRARY)).getImage();
+		Path directory = Files.createTempDirectory("modules");
+		try	{
+			Path file = directory.resolve("library.mixo");
+			module(LIBRARY).writeModule(file);
+			MixLinker linker = new MixLinker();
+			linker.add("main", module(MAIN).getModule());
+			linker.add("library", MixModule.read(file));
+			MixVMTest.assertEquals(1, linker.link(0) ? 1 : 0);
+			if (!Arrays.equals(expected.getMemory(), linker.getImage().getMemory()))	{
+				System.err.println("ERROR: the module read back links differently");
+			}
+
+			Files.write(file, Arrays.copyOf(Files.readAllBytes(file), 40));
+			try	{
+				MixModule.read(file);
+				System.err.println("ERROR: a truncated module was read");
+			} catch (IOException e)	{
+				// As it should be
+			}
+
+			MixAsmCache cache = new MixAsmCache(directory.resolve("cache"), 1 << 20);
+			byte source[] = (String.join("\n", LIBRARY) + "\n").getBytes("US-ASCII");
+			for (int k = 0; k < 2; k++)	{
+				MixAsm asm = new MixAsm();
+				asm.setModule(true);
+				asm.setCache(cache);
+				MixVMTest.assertEquals(1, asm.assemble(ByteBuffer.wrap(source)) ? 1 : 0);
+				MixVMTest.assertEquals(1, asm.getLiteralPoolSize());
+				MixVMTest.assertEquals(1, asm.getLiteralReferences());
+				linker = new MixLinker();
+				linker.add("main", module(MAIN).getModule());
+				linker.add("library", asm.getModule());
+				MixVMTest.assertEquals(1, linker.link(0) ? 1 : 0);
+				if (!Arrays.equals(expected.getMemory(), linker.getImage().getMemory()))	{
+					System.err.println("ERROR: the cached module links differently");
+				}
+			}
+			MixVMTest.assertEquals(1, cache.getHits());
+			// The same text as a program is something else
+			MixAsm asm = new MixAsm();
+			asm.setCache(cache);
+			asm.assemble(ByteBuffer.wrap(source));
+			MixVMTest.assertEquals(1, cache.getHits());
+		} finally	{
+			try (Stream<Path> files = Files.walk(directory))	{
+				files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception	{
+		testLink();
+		testOrigin();
+		testErrors();
+		testReadBack();
+	}
+}
@@ -0,0 +1,211 @@
+package com.jdavies.mix;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A relocatable object module, as {@link MixAsm} assembles it with
+ * {@link MixAsm#setModule}, for {@link MixLinker} to put together with others.  Its
+ * words are assembled as if it began at location 0; the linker moves it to where it
+ * goes, and then:
+ *
+ * - adds its origin to each relocatable field, given as a location and a field;
+ * - sets the address of each word that refers to an imported symbol (EXTRN) to that
+ *   symbol's equivalent, as exported by another module;
+ * - adds its origin to the relocatable symbols it exports (ENTRY).
+ *
+ * The file has the tables first, then the words and exports as a {@link MixImage}:
+ *
+ * <pre>
+ * int   magic "MIXO"
+ * int   version (1)
+ * int   size, the words from 0 that the module takes up
+ * int   1 if the start from END is relocatable, else 0
+ * int   relocations, then for each: int location, int field
+ * int   imports, then for each: long symbol, int location
+ * int   relocatable exports, then for each: long symbol
+ * ...   the image, whose symbols are the exports
+ * </pre>
+ */
+final class MixModule	{
+	static final int MAGIC = ('M' << 24) | ('I' << 16) | ('X' << 8) | 'O';
+	static final int VERSION = 1;
+
+	private final MixImage image;
+	private final int size;
+	private final boolean startRelocatable;
+	private final int relocationLocations[];
+	private final int relocationFields[];
+	private final long importSymbols[];
+	private final int importLocations[];
+	private final LongIntMap relocatable;
+
+	MixModule(MixImage image, int size, boolean startRelocatable, int relocationLocations[],
+			int relocationFields[], long importSymbols[], int importLocations[],
+			LongIntMap relocatable)	{
+		this.image = image;
+		this.size = size;
+		this.startRelocatable = startRelocatable;
+		this.relocationLocations = relocationLocations;
+		this.relocationFields = relocationFields;
+		this.importSymbols = importSymbols;
+		this.importLocations = importLocations;
+		this.relocatable = relocatable;
+	}
+
+	/**
+	 * The words, exports, start and source lines, relative to location 0.
+	 */
+	MixImage getImage()	{
+		return image;
+	}
+
+	int getSize()	{
+		return size;
+	}
+
+	boolean isStartRelocatable()	{
+		return startRelocatable;
+	}
+
+	int getRelocationCount()	{
+		return relocationLocations.length;
+	}
+
+	int getRelocationLocation(int k)	{
+		return relocationLocations[k];
+	}
+
+	int getRelocationField(int k)	{
+		return relocationFields[k];
+	}
+
+	int getImportCount()	{
+		return importSymbols.length;
+	}
+
+	long getImportSymbol(int k)	{
+		return importSymbols[k];
+	}
+
+	int getImportLocation(int k)	{
+		return importLocations[k];
+	}
+
+	/**
+	 * Whether the exported {@param symbol} is relative to the module's origin.
+	 */
+	boolean isRelocatable(long symbol)	{
+		return relocatable.containsKey(symbol);
+	}
+
+	void write(Path file) throws IOException	{
+		Files.write(file, toBytes());
+	}
+
+	byte[] toBytes()	{
+		byte words[] = image.toBytes();
+		ByteBuffer out = ByteBuffer.allocate(4 * 7 + 8 * relocationLocations.length +
+			12 * importSymbols.length + 8 * relocatable.size() + words.length);
+		out.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(startRelocatable ? 1 : 0);
+		out.putInt(relocationLocations.length);
+		for (int k = 0; k < relocationLocations.length; k++)	{
+			out.putInt(relocationLocations[k]).putInt(relocationFields[k]);
+		}
+		out.putInt(importSymbols.length);
+		for (int k = 0; k < importSymbols.length; k++)	{
+			out.putLong(importSymbols[k]).putInt(importLocations[k]);
+		}
+		out.putInt(relocatable.size());
+		for (int slot = 0; slot < relocatable.capacity(); slot++)	{
+			if (relocatable.keyAt(slot) != 0)	{
+				out.putLong(relocatable.keyAt(slot));
+			}
+		}
+		out.put(words);
+		return out.array();
+	}
+
+	/**
+	 * The module in {@param file}.
+	 */
+	static MixModule read(Path file) throws IOException	{
+		return read(MixImage.map(file), file.toString());
+	}
+
+	/**
+	 * The module from the position of {@param in}, which is left after it; {@param file}
+	 * names it in messages.
+	 */
+	static MixModule read(ByteBuffer in, String file) throws IOException	{
+		try	{
+			if (in.remaining() < 8 || in.getInt() != MAGIC)	{
+				throw new IOException(file + " is not a MIX object module");
+			}
+			int version = in.getInt();
+			if (version != VERSION)	{
+				throw new IOException(file + " is version " + version +
+					" of the object module format, not " + VERSION);
+			}
+			int size = in.getInt();
+			if (size < 0 || size > MixVM.MEMORY)	{
+				throw new IOException(file + " has a size of " + size + " words");
+			}
+			boolean startRelocatable = (in.getInt() != 0);
+
+			int count = count(in, 8, file);
+			int relocationLocations[] = new int[count];
+			int relocationFields[] = new int[count];
+			for (int k = 0; k < count; k++)	{
+				relocationLocations[k] = location(in.getInt(), size, file);
+				relocationFields[k] = in.getInt();
+				if (FieldSpec.of(relocationFields[k]) == null)	{
+					throw new IOException(file + " relocates field " + relocationFields[k]);
+				}
+			}
+			count = count(in, 12, file);
+			long importSymbols[] = new long[count];
+			int importLocations[] = new int[count];
+			for (int k = 0; k < count; k++)	{
+				importSymbols[k] = in.getLong();
+				importLocations[k] = location(in.getInt(), size, file);
+			}
+			count = count(in, 8, file);
+			LongIntMap relocatable = new LongIntMap(count);
+			for (int k = 0; k < count; k++)	{
+				long symbol = in.getLong();
+				if (symbol == 0)	{
+					throw new IOException(file + " has an empty symbol");
+				}
+				relocatable.put(symbol, 1);
+			}
+
+			MixImage image = MixImage.read(in, file);
+			return new MixModule(image, size, startRelocatable, relocationLocations,
+				relocationFields, importSymbols, importLocations, relocatable);
+		} catch (BufferUnderflowException e)	{
+			throw new IOException(file + " is truncated");
+		}
+	}
+
+	/**
+	 * The number of entries in a table, each of {@param bytes}.
+	 */
+	private static int count(ByteBuffer in, int bytes, String file) throws IOException	{
+		int count = in.getInt();
+		if (count < 0 || count > in.remaining() / bytes)	{
+			throw new IOException(file + " is truncated");
+		}
+		return count;
+	}
+
+	private static int location(int location, int size, String file) throws IOException	{
+		if (location < 0 || location >= size)	{
+			throw new IOException(file + " refers to location " + location + ", outside the module");
+		}
+		return location;
+	}
+}
@@ -0,0 +1,108 @@
+package com.jdavies.mix;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * An experimental multi-processor MIX: N CPUs, each on its own Java thread, running over
+ * one shared 4000-word memory.  Each CPU starts with its number (0 to N-1) in rI6 and
+ * everything else zero; they synchronize through memory, using CAS (C = 5, F = 3) for
+ * anything that needs to be atomic.
+ *
+ * Devices attached here are attached to every CPU; they aren't synchronized, so only one
+ * CPU at a time should be using any given unit.
+ */
+public class MixSMP	{
+	private int mem[] = new int[4000];
+	private SharedMixVM cpus[];
+
+	public MixSMP(int cpus, int[] image, MemoryOrder order)	{
+		if (cpus < 1)	{
+			throw new IllegalArgumentException("Need at least one CPU");
+		}
+		System.arraycopy(image, 0, mem, 0, image.length);
+		this.cpus = new SharedMixVM[cpus];
+		for (int n = 0; n < cpus; n++)	{
+			this.cpus[n] = new SharedMixVM(mem, order);
+			this.cpus[n].putRegister(6, n);
+		}
+	}
+
+	public int getCPUCount()	{
+		return cpus.length;
+	}
+
+	public SharedMixVM getCPU(int n)	{
+		return cpus[n];
+	}
+
+	/**
+	 * for testing.
+	 */
+	public int getMemory(int loc)	{
+		return mem[loc];
+	}
+
+	public void attachDevice(int unit, MixDevice device)	{
+		for (SharedMixVM cpu : cpus)	{
+			cpu.attachDevice(unit, device);
+		}
+	}
+
+	/**
+	 * Start every CPU at {@param startLocation} and wait for all of them to halt.
+	 */
+	public long run(int startLocation) throws MixException, InterruptedException	{
+		int start[] = new int[cpus.length];
+		Arrays.fill(start, startLocation);
+		return run(start);
+	}
+
+	/**
+	 * Start CPU n at {@param startLocations}[n], all at the same moment, and wait for all
+	 * of them to halt.  Returns the wall-clock time they took, in nanoseconds.  If any CPU
+	 * stops with an error, the first such error is thrown once the rest have finished.
+	 */
+	public long run(int[] startLocations) throws MixException, InterruptedException	{
+		if (startLocations.length != cpus.length)	{
+			throw new IllegalArgumentException("Expected " + cpus.length + " start locations");
+		}
+		CountDownLatch ready = new CountDownLatch(cpus.length);
+		CountDownLatch go = new CountDownLatch(1);
+		Throwable errors[] = new Throwable[cpus.length];
+		Thread threads[] = new Thread[cpus.length];
+
+		for (int n = 0; n < cpus.length; n++)	{
+			final int cpu = n;
+			threads[n] = new Thread(() -> {
+				ready.countDown();
+				try	{
+					go.await();
+					cpus[cpu].run(startLocations[cpu]);
+				} catch (Throwable e)	{
+					errors[cpu] = e;
+				}
+			}, "MIX CPU " + n);
+			threads[n].start();
+		}
+
+		ready.await();
+		long started = System.nanoTime();
+		go.countDown();
+		for (Thread thread : threads)	{
+			thread.join();
+		}
+		long elapsed = System.nanoTime() - started;
+
+		for (Throwable e : errors)	{
+			if (e instanceof MixException)	{
+				throw (MixException) e;
+			} else if (e instanceof RuntimeException)	{
+				throw (RuntimeException) e;
+			} else if (e != null)	{
+				throw new RuntimeException(e);
+			}
+		}
+		return elapsed;
+	}
+}
@@ -0,0 +1,109 @@
+package com.jdavies.mix;
+
+public class MixSMPTest	{
+	private static final int CPUS = 4;
+	private static final int COUNT = 2000;
+
+	/**
+	 * Each CPU adds 1 to the word at 1000, COUNT times, with a CAS loop:
+	 *
+	 *         ENT5 COUNT
+	 * AGAIN   LDA  1000
+	 * RETRY   STA  1001,6     rX = rA + 1, by way of a scratch word for each CPU
+	 *         LDX  1001,6
+	 *         INCX 1
+	 *         CAS  1000
+	 *         JNE  RETRY      rA has the new value of 1000
+	 *         DEC5 1
+	 *         J5P  AGAIN
+	 *         HLT
+	 */
+	private static int[] counterProgram()	{
+		int image[] = new int[4000];
+		int program[] = {
+			new MixInst(MixOpCode.INC5, 0, 0, 2, COUNT).pack(),	// ENT5
+			new MixInst(MixOpCode.LDA, 0, 0, 5, 1000).pack(),
+			new MixInst(MixOpCode.STA, 6, 0, 5, 1001).pack(),
+			new MixInst(MixOpCode.LDX, 6, 0, 5, 1001).pack(),
+			new MixInst(MixOpCode.INCX, 0, 0, 0, 1).pack(),
+			new MixInst(MixOpCode.HLT, 0, 0, 3, 1000).pack(),		// CAS
+			new MixInst(MixOpCode.JMP, 0, 1, 0, 3002).pack(),		// JNE
+			new MixInst(MixOpCode.INC5, 0, 0, 1, 1).pack(),		// DEC5
+			new MixInst(MixOpCode.J5P, 0, 0, 2, 3001).pack(),
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()
+		};
+		System.arraycopy(program, 0, image, 3000, program.length);
+		return image;
+	}
+
+	public static void testCounter() throws Exception	{
+		for (MemoryOrder order : MemoryOrder.values())	{
+			MixSMP smp = new MixSMP(CPUS, counterProgram(), order);
+			smp.run(3000);
+			if (!MixVMTest.assertEquals(CPUS * COUNT, smp.getMemory(1000)))	{
+				System.err.println("with " + order + " ordering");
+			}
+			for (int n = 0; n < CPUS; n++)	{
+				MixVMTest.assertEquals(n, smp.getCPU(n).getRegister(6));
+			}
+		}
+	}
+
+	/**
+	 * CAS on a single CPU: a match swaps in rX, a mismatch loads the word into rA.
+	 */
+	public static void testCompareAndSwap() throws Exception	{
+		MixVM vm = new MixVM();
+		vm.loadMemory(1000, new int[] {5, 5, 9});
+		vm.loadMemory(3000, new int[] {
+			new MixInst(MixOpCode.LDA, 0, 0, 5, 1001).pack(),
+			new MixInst(MixOpCode.LDX, 0, 0, 5, 1002).pack(),
+			new MixInst(MixOpCode.HLT, 0, 0, 3, 1000).pack(),		// CAS
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()});
+		vm.run(3000);
+		MixVMTest.assertEquals(9, vm.getMemory(1000));
+		MixVMTest.assertEquals(0, vm.getComparison());
+
+		vm.run(3002);
+		MixVMTest.assertEquals(9, vm.getMemory(1000));
+		MixVMTest.assertEquals(9, vm.getRegister(0));
+		MixVMTest.assertEquals(-1, vm.getComparison());
+
+		// -0 isn't the same word as +0, but it's EQUAL to it
+		vm.loadMemory(1000, new int[] {1 << 31, 0, 9});
+		vm.run(3000);
+		MixVMTest.assertEquals(1 << 31, vm.getMemory(1000));
+		MixVMTest.assertEquals(1 << 31, vm.getRegister(0));
+		MixVMTest.assertEquals(0, vm.getComparison());
+	}
+
+	/**
+	 * Two VMs sharing a memory see each other's stores; one made from it sees a copy.
+	 */
+	public static void testSharing() throws Exception	{
+		int mem[] = new int[MixVM.MEMORY];
+		MixVM writer = MixVM.sharing(mem);
+		MixVM reader = MixVM.sharing(mem);
+		MixVM copy = new MixVM(mem);
+		writer.loadMemory(3000, new int[] {
+			new MixInst(MixOpCode.INCA, 0, 0, 2, 7).pack(),		// ENTA 7
+			new MixInst(MixOpCode.STA, 0, 0, 5, 1000).pack(),
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()});
+		writer.run(3000);
+		MixVMTest.assertEquals(7, mem[1000]);
+		MixVMTest.assertEquals(7, reader.getMemory(1000));
+		MixVMTest.assertEquals(0, copy.getMemory(1000));
+		try	{
+			MixVM.sharing(new int[100]);
+			System.err.println("ERROR: a memory of 100 words was shared");
+		} catch (IllegalArgumentException e)	{
+			// As it should be
+		}
+	}
+
+	public static void main(String[] args) throws Exception	{
+		testCompareAndSwap();
+		testSharing();
+		testCounter();
+	}
+}
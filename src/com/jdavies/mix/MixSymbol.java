@@ -0,0 +1,78 @@
+package com.jdavies.mix;
+
+/**
+ * MIXAL symbols packed into longs.  A symbol is one to ten letters and/or digits, at least
+ * one of them a letter (rule 1, p. 153), and every one of those characters has a nonzero
+ * six-bit code in the MIX character set; so the ten codes fit in the low 60 bits, no
+ * two symbols share a key, and 0 is never a symbol.
+ */
+final class MixSymbol	{
+	static final int MAX_LENGTH = 10;
+
+	private MixSymbol()	{
+	}
+
+	/**
+	 * The key for the symbol from {@param start} to {@param end} of the scanner's current
+	 * line, or 0 if that isn't a symbol.
+	 */
+	static long pack(MixalScanner scan, int start, int end)	{
+		if (end - start < 1 || end - start > MAX_LENGTH)	{
+			return 0;
+		}
+		long key = 0;
+		boolean letter = false;
+		for (int p = start; p < end; p++)	{
+			int code = code(scan.at(p));
+			if (code == 0)	{
+				return 0;
+			}
+			letter |= (code < 30);
+			key = (key << 6) | code;
+		}
+		return letter ? key : 0;
+	}
+
+	/**
+	 * The key for {@param symbol}, or 0 if it isn't one.
+	 */
+	static long pack(String symbol)	{
+		if (symbol.length() < 1 || symbol.length() > MAX_LENGTH)	{
+			return 0;
+		}
+		long key = 0;
+		boolean letter = false;
+		for (int k = 0; k < symbol.length(); k++)	{
+			int code = code(symbol.charAt(k));
+			if (code == 0)	{
+				return 0;
+			}
+			letter |= (code < 30);
+			key = (key << 6) | code;
+		}
+		return letter ? key : 0;
+	}
+
+	/**
+	 * The symbol that packed to {@param key}.
+	 */
+	static String toString(long key)	{
+		char chars[] = new char[MAX_LENGTH];
+		int k = MAX_LENGTH;
+		for (; key != 0; key >>>= 6)	{
+			chars[--k] = MixCharset.fromCode((int) (key & 0x3F));
+		}
+		return new String(chars, k, MAX_LENGTH - k);
+	}
+
+	/**
+	 * The MIX code of a letter or digit, 0 for anything else.  Symbols are written in
+	 * ASCII, so the Greek letters aren't accepted here.
+	 */
+	private static int code(int ch)	{
+		if ((ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9'))	{
+			return MixCharset.toCode((char) ch);
+		}
+		return 0;
+	}
+}
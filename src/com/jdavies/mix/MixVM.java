@@ -1,5 +1,14 @@
 package com.jdavies.mix;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
  // character codes:
  // (space)ABCDEFGHI(delta)JKLMNOPQR(sigma)(pi)STUVWXYZ0123456789.,()+-*/=$<>@;:'
 
@@ -16,8 +25,13 @@ package com.jdavies.mix;
  * </table>
  */
 public class MixVM	{
+	static final int MEMORY = 4000;
 	private static final int SIGN_POS = (0x01 << 31);
-	private int clock;
+	// Index registers hold a sign and two bytes
+	private static final int INDEX_MAGNITUDE = 0xFFF;
+	private long clock;
+	// Instructions executed by run()
+	private long instructions;
 	private int pc;
 	private int reg[] = new int[8];	 // rA is r[0], r1-6 is r[1-6], rX is r[8]
 	// 1.3.1, p. 125: The J-register always holds the address of the instruction following 
@@ -26,16 +40,90 @@ public class MixVM	{
 	private boolean ovtog;
 	private int compi;
 
-	private int mem[] = new int[4000];
+	private int mem[];
+	// Units 0-20, and the clock time at which each one finishes its current operation
+	private MixDevice devices[] = new MixDevice[21];
+	private long busyUntil[] = new long[21];
+	// Each instruction is printed here before it is executed, if set
+	private PrintStream trace;
+	// The instruction last decoded at each location; it's only used while the word there
+	// is still the one it was decoded from, so stores into the program need no special care
+	private MixInst decoded[] = new MixInst[MEMORY];
+	// The condition for stopping at each location that has a breakpoint, and null where
+	// there's none; null altogether until one is set.  The breakpoints themselves are
+	// put in decoded, so the loop finds them without looking.
+	private Predicate<MixVM> breakpoints[];
+	// Whether the machine stopped at a breakpoint, rather than at a HLT
+	private boolean stopped;
 
 	public MixVM()	{
 		// TODO load a program from a file
+		this.mem = new int[MEMORY];
 	}
 
 	public MixVM(int[] mem)	{
+		this();
 		System.arraycopy(mem, 0, this.mem, 0, mem.length);
 	}
 
+	/**
+	 * A VM working directly on {@param mem}, which has to be a whole memory, rather than
+	 * on its own copy; for several CPUs sharing one memory.
+	 */
+	static MixVM sharing(int[] mem)	{
+		MixVM vm = new MixVM();
+		vm.share(mem);
+		return vm;
+	}
+
+	/**
+	 * Work directly on {@param mem} from now on, as {@link #sharing} does.
+	 */
+	void share(int[] mem)	{
+		if (mem.length != MEMORY)	{
+			throw new IllegalArgumentException("A shared memory has to be " + MEMORY + " words");
+		}
+		this.mem = mem;
+	}
+
+	/**
+	 * Start with the given memory image and devices; devices[u] is attached to
+	 * unit u, and may be null if the program doesn't use that unit.
+	 */
+	public MixVM(int[] mem, MixDevice[] devices)	{
+		this(mem);
+		if (devices.length > this.devices.length)	{
+			throw new IllegalArgumentException("Unit numbers run from 0 to " +
+				(this.devices.length - 1));
+		}
+		System.arraycopy(devices, 0, this.devices, 0, devices.length);
+	}
+
+	/**
+	 * Connect a peripheral to unit number {@param unit}, replacing any device
+	 * that was there.
+	 */
+	public void attachDevice(int unit, MixDevice device)	{
+		devices[unit] = device;
+	}
+
+	/**
+	 * Print each instruction to {@param trace} as it's executed; null to stop.
+	 */
+	public void setTrace(PrintStream trace)	{
+		this.trace = trace;
+	}
+
+	/**
+	 * Load the program image written by {@link MixAsm#writeImage} from {@param file}
+	 * into memory, and return the location it starts at (-1 if it had no END).  The file
+	 * is mapped, and its segments copied straight into memory; the rest of memory is
+	 * left alone.
+	 */
+	public int loadImage(Path file) throws IOException	{
+		return MixImage.load(file, mem);
+	}
+
 	/**
 	 * For bootstrapping a program only.
 	 */
@@ -52,40 +140,61 @@ public class MixVM	{
 	 * contents of register 1, except that -0 is changed to +0.  ENTA -0, 1 is
 	 * similar, except that +0 is changed to -0
 	 */
-	public void setRegister(int value, int r, int i, boolean negate)	{
-		reg[r] = value + reg[i];
-		
-		// Negater AFTER indexing: p. 133: "ENN3 0,3 replaces rI3 by its negative"
+	public void setRegister(int address, int r, int i, boolean negate)	{
+		int m = effectiveAddress(address, i);
+
+		// Negate AFTER indexing: p. 133: "ENN3 0,3 replaces rI3 by its negative"
 		if (negate)	{
-			reg[r] &= SIGN_POS;
+			m = MixArithmetic.negate(m);
 		}
-	}
-
-	public void incRegister(int amount, int r)	{
-		reg[r] += amount;
+		reg[r] = (r == 0 || r == 7) ? m : (m & SIGN_POS) | (m & INDEX_MAGNITUDE);
 	}
 
 	/**
 	 * p. 133: rA/rX: Overflow is possible, and it is treated just as in ADD
 	 * ri: overflow must not occur; if M + rIi doesn't fit into two bytes, the
 	 * result of this instruction is undefined.
+	 * INCr adds M to register r; DECr ({@param negate}) subtracts it.
 	 */
-	public void incrementRegister(int value, int r, int i)	{
+	public void incrementRegister(int address, int r, int i, boolean negate)	{
+		int m = effectiveAddress(address, i);
+		long sum = MixArithmetic.add(reg[r], negate ? MixArithmetic.negate(m) : m);
+		int word = (int) sum;
+
+		if (r == 0 || r == 7)	{
+			reg[r] = word;
+			if ((sum & MixArithmetic.OVERFLOW) != 0)	{
+				ovtog = true;
+			}
+		} else	{
+			reg[r] = (word & SIGN_POS) | (word & INDEX_MAGNITUDE);
+		}
 	}
 
 	/**
-	 * Extract a partial field specification from a value.  It will not
-	 * be shifted right; the caller must take care of that.
+	 * p. 127: M, the address field plus the contents of the index register, as a
+	 * signed word.  If M is zero, it has the sign of the address field ({@param address}
+	 * is the address field as a word: sign and two bytes).
 	 */
-	private int getField(int val, int L, int R)	{
-		int mask = (~(0x0) << (5 - R) * 6) & ~(~(0x0) << (5 - L + 1) * 6);
+	private int effectiveAddress(int address, int i)	{
+		return (i == 0) ? address : (int) MixArithmetic.add(address, reg[i]);
+	}
 
-		return val & mask;
+	/**
+	 * M as a location in memory, for the instructions that refer to one.  A negative M
+	 * is a huge number unsigned, so one comparison catches both ends.
+	 */
+	int location(int a, int i) throws MemoryLocationError	{
+		int m = a + index(i);
+		if (Integer.compareUnsigned(m, MEMORY) >= 0)	{
+			throw new MemoryLocationError("Location " + m + " is outside of memory");
+		}
+		return m;
 	}
 
 	/**
-	 * Copy the contents of the memory cell in a (offset by optional
-	 * register i) into register r.  Only store the bytes indicated
+	 * Copy the contents of the memory cell at loc (M, already indexed and checked) into
+	 * register r.  Only store the bytes indicated
 	 * by f: 8L + R.
 	 * 1.3.1, p. 129: The specified field of CONTENTS(M) replaces the previous contents of
 	 * register A.  In all operations where a partial field is used as an input, the sign
@@ -108,34 +217,10 @@ public class MixVM	{
 	 * 5    5     5   0
 	 * (& (0xCF << (L * 6) - 1)) >> R
 	 */
-	public void loadRegister(int a, int r, int i, int L, int R, boolean negate)
-			throws MemoryLocationError, FieldError	{
-		reg[r] = 0x0;
+	public void loadRegister(int loc, int r, FieldSpec field, boolean negate)	{
+		int word = field.extract(fetch(loc));
 
-		// Now, copy the contents of memory location a, bytes L-R, into
-		// r (right shifted all the way to the edge).
-		int loc = a + this.reg[i + 1];	// only registers 1-6 can be used for indexing
-		// TODO have to treat 0's specially
-		if (L == 0)	{
-			// 0 is the sign "byte", which I represent as a single bit here.
-			reg[r] |= mem[loc] & SIGN_POS;
-			L++;
-		}
-
-		if (L <= R)	{		// if it was (0:0), all done.  Otherwise copy bytes.
-			reg[r] |= getField(mem[loc], L, R) >> ((5 - R) * 6);
-		}
-
-System.out.println("reg " + r + " = " + reg[r] + ", m[" + loc + "] = " + mem[loc]);
-
-		// 0 0  0
-		// 1 0  1
-		// 0 1  1
-		// 1 1  0
-
-		if (negate)	{
-			reg[r] ^= SIGN_POS;
-		}
+		reg[r] = negate ? MixArithmetic.negate(word) : word;
 	}
 
 	/**
@@ -145,42 +230,70 @@ System.out.println("reg " + r + " = " + reg[r] + ", m[" + loc + "] = " + mem[loc
 	 * sign is not altered unless it is part of the field.  The contents of the register are
 	 * not affected.
 	 */
-	public void storeRegister(int a, int r, int i, int L, int R)
-			throws MemoryLocationError, FieldError	{
-		int loc = a + ((i > 0) ? this.reg[i + 1] : 0);	// only registers 1-6 can be used for indexing
+	public void storeRegister(int loc, int r, FieldSpec field)	{
+		store(loc, reg[r], field);
+	}
 
-System.out.println("Storing into location " + a);
+	/**
+	 * STJ: the same as STi, but with rJ, which is always positive.  F is normally (0:2).
+	 */
+	public void storeJump(int loc, FieldSpec field)	{
+		store(loc, rJ, field);
+	}
 
-		// x y +
-		// 0 0 0
-		// 0 1 1
-		// 1 0 1
-		// 1 1 0
+	/**
+	 * STZ: the same as STA, but with zero (+0).
+	 */
+	public void storeZero(int loc, FieldSpec field)	{
+		store(loc, 0, field);
+	}
 
-		// set sign bit
-		if (L == 0)	{
-			if ((reg[r] & SIGN_POS) == 0)	{
-				mem[loc] &= ~SIGN_POS;
-			} else	{
-				mem[loc] |= SIGN_POS;
-			}
-			L++;
+	private void store(int loc, int word, FieldSpec field)	{
+		if (field == FieldSpec.WORD)	{
+			write(loc, word);
+		} else	{
+			write(loc, field.insert(fetch(loc), word));
 		}
+	}
 
-System.out.println("L = " + L + ", R = " + R);
+	/**
+	 * Every word that an instruction reads from memory or writes to it goes through
+	 * these two.  MOVE and I/O work on the memory array directly.
+	 */
+	int fetch(int loc)	{
+		return mem[loc];
+	}
+
+	void write(int loc, int word)	{
+		mem[loc] = word;
+	}
 
-		if (L <= R)	{
-			int width = (R - L + 1) * 6;
-		  int mask = ~(~0x0 << width);
-			int zero_mask = ~(~(0x0) << (5 - R) * 6) & ~(~(0x0) << (5 - L + 1) * 6);
-System.out.println("width = " + width);
-System.out.printf("mask = %08x\n", mask);
-System.out.printf("zero_mask = %08x\n", zero_mask);
-System.out.println("masked = " + (reg[r] & mask));
-			// zero out just the target area (e.g. L-R)
-			mem[loc] &= zero_mask;
-			// insert the right-most bytes in the correct position
-			mem[loc] |= (reg[r] & mask) << ((5 - R) * 6);
+	/**
+	 * Set location {@param loc} to {@param update} if it holds exactly {@param expect};
+	 * return the word that it held, so that it did if that's {@param expect}.
+	 */
+	int compareAndExchange(int loc, int expect, int update)	{
+		int word = mem[loc];
+		if (word == expect)	{
+			mem[loc] = update;
+		}
+		return word;
+	}
+
+	/**
+	 * CAS (C = 5, F = 3), an extension for multi-processor configurations: if
+	 * CONTENTS(M) is the same word as rA, it is replaced by rX and the comparison
+	 * indicator is set to EQUAL.  Otherwise CONTENTS(M) is loaded into rA and the
+	 * indicator is set as though rA had been compared with it, so +0 and -0 are EQUAL.
+	 * The test and the replacement are a single atomic step.
+	 */
+	public void compareAndSwap(int loc)	{
+		int word = compareAndExchange(loc, reg[0], reg[7]);
+		if (word == reg[0])	{
+			compi = 0;
+		} else	{
+			compi = Long.signum(MixArithmetic.value(reg[0]) - MixArithmetic.value(word));
+			reg[0] = word;
 		}
 	}
 
@@ -192,11 +305,14 @@ System.out.println("masked = " + (reg[r] & mask));
 	 * setting of the overflow toggle is unchanged).  If the result is zero, the sign
 	 * of rA is unchanged.
 	 */
-	public void add(int loc, int i, int L, int R, boolean negate)	{
-		loc += (i > 0) ? reg[i + 1] : 0;
-		reg[0] += getField(mem[loc], L, R) >> ((5 - R) * 6);
-		// TODO subtraction
-		// TODO overflow handling
+	public void add(int loc, FieldSpec field, boolean negate)	{
+		int v = field.extract(fetch(loc));
+		long sum = MixArithmetic.add(reg[0], negate ? MixArithmetic.negate(v) : v);
+
+		reg[0] = (int) sum;
+		if ((sum & MixArithmetic.OVERFLOW) != 0)	{
+			ovtog = true;
+		}
 	}
 
 	/** 
@@ -204,7 +320,11 @@ System.out.println("masked = " + (reg[r] & mask));
 	 * signs of rA and rX are both set to the algebraic sign of the product (namely,
 	 * + if the signs are the same, - if different).
 	 */
-	public void multiply(int loc, int i, int L, int R)	{
+	public void multiply(int loc, FieldSpec field)	{
+		long product = MixArithmetic.multiply(reg[0], field.extract(fetch(loc)));
+
+		reg[0] = MixArithmetic.high(product);
+		reg[7] = MixArithmetic.low(product);
 	}
 
 	/**
@@ -216,12 +336,37 @@ System.out.println("masked = " + (reg[r] & mask));
 	 * of rA afterwards is the algebraic sign of the quotient.
 	 * The sign of rX afterwards is the previous sign of rA.
 	 */
-	public void divide(int loc, int i, int L, int R)	{
+	public void divide(int loc, FieldSpec field)	{
+		int v = field.extract(fetch(loc));
+
+		if (MixArithmetic.divideOverflows(reg[0], v))	{
+			// rA and rX are left as they were
+			ovtog = true;
+			return;
+		}
+		long result = MixArithmetic.divide(reg[0], reg[7], v);
+		reg[0] = MixArithmetic.high(result);
+		reg[7] = MixArithmetic.low(result);
+	}
+
+	/**
+	 * p. 135: SLA, SRA, SLAX, SRAX, SLC and SRC (F = 0-5) shift rA, or rA and rX
+	 * together, by M bytes.  M should be nonnegative.
+	 */
+	public void shift(int a, int i, int f) throws IllegalInstruction	{
+		int m = a + index(i);
+
+		if (m < 0)	{
+			throw new IllegalInstruction("Negative shift count " + m);
+		}
+		long shifted = MixArithmetic.shift(reg[0], reg[7], f, m);
+		reg[0] = MixArithmetic.high(shifted);
+		reg[7] = MixArithmetic.low(shifted);
 	}
 
 	/**
 	 * Compare the contents of register r with the memory at location loc
-	 * (offset by r[i]) as specified by the field specification.  Set the
+	 * (M, already indexed and checked) as specified by the field specification.  Set the
 	 * comparison indicator based on the comparison to -1, 0 or 1:
    * if reg[r] < mem[loc], cmpi = -1
 	 * if reg[r] = mem[loc], cmpi = 0
@@ -233,16 +378,11 @@ System.out.println("masked = " + (reg[r] & mask));
 	 * CMPi: bytes 1, 2, and 3 of the index register are treated as 0 in the comparison
 	 * (thus if F=(1:2), the result can not be greater).
 	 */
-	public void compare(int loc, int r, int i, int L, int R)	{
-		loc += (i > 0) ? reg[i + 1] : 0;
-		// TODO partial field comparisons
-		if (mem[loc] < reg[r])	{
-			compi = -1;
-		} else if (mem[loc] > reg[r])	{
-			compi = 1;
-		} else	{
-			compi = 0;
-		}
+	public void compare(int loc, int r, FieldSpec field)	{
+		long difference = MixArithmetic.value(field.extract(reg[r])) -
+			MixArithmetic.value(field.extract(fetch(loc)));
+
+		compi = Long.signum(difference);
 	}
 
 	/**
@@ -254,14 +394,39 @@ System.out.println("masked = " + (reg[r] & mask));
 	 * If rI1 = 1001, 1000->1001, 1001->1002, 1002->1003; the same word contents(1000) into
 	 * three places.
 	 */
-	public void moveWords(int loc, int i, int f)	{
-		loc += (i > 0) ? reg[i + 1] : 0;
-		// Can't use arraycopy here, since that doesn't preserve the original
-		// MIX specification.  Have to copy one word at a time.
-		while (f-- > 0)	{
-			mem[reg[1]] = mem[loc];
-			loc++;
-			reg[1]++;
+	public void moveWords(int loc, int i, int f) throws MemoryLocationError	{
+		if (f == 0)	{
+			return;
+		}
+		int from = loc + index(i);
+		int to = index(1);
+		if (from < 0 || from + f > mem.length || to < 0 || to + f > mem.length)	{
+			throw new MemoryLocationError("MOVE of " + f + " words from " + from + " to " +
+				to + " is outside of memory");
+		}
+
+		copyWords(mem, from, to, f);
+		reg[1] = to + f;
+	}
+
+	/**
+	 * MOVE's copy, for {@param f} > 0 words that are known to be in {@param mem}.
+	 */
+	static void copyWords(int mem[], int from, int to, int f)	{
+		// Copying one word at a time, a destination that starts inside the source
+		// picks up words that have already been moved, so the first (to - from) words
+		// repeat all the way along.  Otherwise, the result is the same as a plain copy.
+		int distance = to - from;
+		if (distance <= 0 || distance >= f)	{
+			System.arraycopy(mem, from, mem, to, f);
+		} else if (distance == 1)	{
+			Arrays.fill(mem, to, to + f, mem[from]);
+		} else	{
+			System.arraycopy(mem, from, mem, to, distance);
+			// Double the copied run each time; it stays a whole number of periods
+			for (int done = distance; done < f; done *= 2)	{
+				System.arraycopy(mem, to, mem, to + done, Math.min(done, f - done));
+			}
 		}
 	}
 
@@ -271,8 +436,97 @@ System.out.println("masked = " + (reg[r] & mask));
 	 * on every in, out or ioc instruction, the 100-word block is specified by the current
 	 * contents of rX.
 	 * The machine will wait at this point if a preceding operation is not yet complete.
+	 * The device gets a view of the block itself, not a copy of it.
+	 */
+	public void input(int loc, int i, int unit) throws MemoryLocationError, DeviceError	{
+		MixDevice device = getDevice(unit);
+		loc += index(i);
+		IntBuffer block = getBlock(loc, device.getBlockSize());
+		waitFor(unit);
+		busyUntil[unit] = clock + device.in(block);
+	}
+
+	/**
+	 * OUT: the block starting at M is written to unit F.
+	 */
+	public void output(int loc, int i, int unit) throws MemoryLocationError, DeviceError	{
+		MixDevice device = getDevice(unit);
+		loc += index(i);
+		IntBuffer block = getBlock(loc, device.getBlockSize());
+		waitFor(unit);
+		busyUntil[unit] = clock + device.out(block);
+	}
+
+	/**
+	 * IOC: a control operation, dependent on the particular device, is performed.
 	 */
-	public void input()	{
+	public void control(int loc, int i, int unit) throws DeviceError	{
+		MixDevice device = getDevice(unit);
+		loc += index(i);
+		waitFor(unit);
+		busyUntil[unit] = clock + device.control(loc);
+	}
+
+	/**
+	 * JBUS: jump if unit F is busy.  JRED: jump if unit F is ready.
+	 */
+	public void deviceJump(int loc, int i, int unit, boolean ifBusy) throws DeviceError	{
+		getDevice(unit);
+		loc += index(i);
+		boolean busy = clock < busyUntil[unit];
+		if (busy == ifBusy)	{
+			// "JBUS *" just burns time until the device is ready; skip straight there
+			if (ifBusy && loc == this.pc - 1)	{
+				clock = busyUntil[unit];
+			}
+			jumpTo(loc);
+		}
+	}
+
+	/**
+	 * Push any output that the attached devices are still holding.
+	 */
+	public void flushDevices() throws DeviceError	{
+		for (MixDevice device : devices)	{
+			if (device != null)	{
+				device.flush();
+			}
+		}
+	}
+
+	/**
+	 * Simulated time units elapsed so far.
+	 */
+	public long getClock()	{
+		return clock;
+	}
+
+	/**
+	 * Instructions executed so far.
+	 */
+	public long getInstructionCount()	{
+		return instructions;
+	}
+
+	private void waitFor(int unit)	{
+		if (clock < busyUntil[unit])	{
+			clock = busyUntil[unit];
+		}
+	}
+
+	private MixDevice getDevice(int unit) throws DeviceError	{
+		if (unit < 0 || unit >= devices.length || devices[unit] == null)	{
+			throw new DeviceError("No device attached to unit " + unit);
+		}
+		return devices[unit];
+	}
+
+	private IntBuffer getBlock(int loc, int size) throws MemoryLocationError	{
+		if (loc < 0 || loc + size > mem.length)	{
+			throw new MemoryLocationError("Block " + loc + "-" + (loc + size - 1) +
+				" is outside of memory");
+		}
+		return IntBuffer.wrap(mem, loc, size).slice();
 	}
 
 	/**
@@ -283,6 +537,7 @@ System.out.println("masked = " + (reg[r] & mask));
 	 * the remainder mod 64^5 is retained.
 	 */
 	public void convertToNum()	{
+		reg[0] = (reg[0] & SIGN_POS) | MixCharset.toNum(reg[0], reg[7]);
 	}
 
 	/**
@@ -290,6 +545,10 @@ System.out.println("masked = " + (reg[r] & mask));
 	 * A and X in character code.  The signs of rA and rX are ignored.
 	 */
 	public void convertToChar()	{
+		long digits = MixCharset.toChar(reg[0] & ~SIGN_POS);
+
+		reg[0] = (reg[0] & SIGN_POS) | (int) (digits >>> 30);
+		reg[7] = (reg[7] & SIGN_POS) | (int) (digits & 0x3FFFFFFF);
 	}
 
 	/**
@@ -299,60 +558,109 @@ System.out.println("masked = " + (reg[r] & mask));
 		return reg[r];
 	}
 
+	/**
+	 * The value in rA (0), rI1-rI6 (1-6), rX (7) or rJ (8) as a signed number, for
+	 * the conditions of breakpoints.
+	 */
+	public int getValue(int r)	{
+		return (r == 8) ? rJ : (int) MixArithmetic.value(reg[r]);
+	}
+
+	/**
+	 * for testing.
+	 */
+	public int getMemory(int loc)	{
+		return mem[loc];
+	}
+
+	int getComparison()	{
+		return compi;
+	}
+
+	boolean getOverflow()	{
+		return ovtog;
+	}
+
+	/**
+	 * Pick up where some other engine (see {@link MixLanes}) left off.
+	 */
+	void restore(boolean ovtog, int compi, long clock, long busyUntil[])	{
+		this.ovtog = ovtog;
+		this.compi = compi;
+		this.clock = clock;
+		System.arraycopy(busyUntil, 0, this.busyUntil, 0, this.busyUntil.length);
+	}
+
+	int getJ()	{
+		return rJ;
+	}
+
+	void setJ(int rJ)	{
+		this.rJ = rJ;
+	}
+
+	void putRegister(int r, int word)	{
+		reg[r] = word;
+	}
+
+	void putMemory(int loc, int word)	{
+		mem[loc] = word;
+	}
+
 	/**
 	 * p. 134: When a jump takes place, the J-register is set to the
 	 * address of the next instruction (the address of the instruction that
 	 * would have been next if we hadn't jumped).
 	 */
-	public void conditionalJump(int f, int loc) throws FieldError	{
-		if (f != 1)	{
-			rJ = this.pc + 1;
-		}
+	public void conditionalJump(int f, int loc, int i) throws FieldError	{
+		loc += index(i);
 		switch (f)	{
 			case 0: // JMP: unconditional
+				jumpTo(loc);
+				break;
 			case 1: // JSJ: jump, save J; doen't update rJ
 				this.pc = loc;
 				break;
 			case 2: // JOV: if overflow toggle is on, it is turned off and a jump occurs; otherwise nothing happens
 				if (ovtog)	{
 					this.ovtog = false;
-					this.pc = loc;
+					jumpTo(loc);
 				}
 				break;
 			case 3: // JNOV: if the overflow toggle is off, a JMP occurs; otherwise it is turned off
 				if (!ovtog)	{
-					this.pc = loc;
+					jumpTo(loc);
 				}
 				this.ovtog = false;
 				break;
 			case 4:	// JL
 				if (compi < 0)	{
-					this.pc = loc;
+					jumpTo(loc);
 				}
 				break;
 			case 5: // JE
 				if (compi == 0)	{
-					this.pc = loc;
+					jumpTo(loc);
 				}
 				break;
 			case 6: // JG
 				if (compi > 0)	{
-					this.pc = loc;
+					jumpTo(loc);
 				}
 				break;
 			case 7: // JGE
 				if (compi >= 0)	{
-					this.pc = loc;
+					jumpTo(loc);
 				}
 				break;
 			case 8: // JNE
 				if (compi != 0)	{
-					this.pc = loc;
+					jumpTo(loc);
 				}
 				break;
 			case 9: // JLE: Jump if the comparison indicator is set.  The comparison indicator is not changed by these instructions.
 				if (compi <= 0)	{
-					this.pc = loc;
+					jumpTo(loc);
 				}
 				break;
 			default:
@@ -361,33 +669,318 @@ System.out.println("masked = " + (reg[r] & mask));
 		}
 	}
 
+	/**
+	 * p. 135: JrN, JrZ, JrP, JrNN, JrNZ, JrNP jump if register r is negative, zero,
+	 * positive, nonnegative, nonzero or nonpositive, respectively.  Minus zero counts
+	 * as zero.
+	 */
+	public void registerJump(int f, int loc, int i, int r) throws FieldError	{
+		boolean zero = (reg[r] & ~SIGN_POS) == 0;
+		boolean negative = !zero && (reg[r] & SIGN_POS) != 0;
+		boolean jump;
+
+		switch (f)	{
+			case 0: jump = negative; break;
+			case 1: jump = zero; break;
+			case 2: jump = !zero && !negative; break;
+			case 3: jump = !negative; break;
+			case 4: jump = !zero; break;
+			case 5: jump = zero || negative; break;
+			default:
+				throw new FieldError("Invalid F-specification " + f +
+					" for register jump; expected 0-5");
+		}
+		if (jump)	{
+			jumpTo(loc + index(i));
+		}
+	}
+
+	private void jumpTo(int loc)	{
+		rJ = this.pc;
+		this.pc = loc;
+	}
+
+	/**
+	 * The signed contents of index register {@param i} (0 for no indexing).
+	 */
+	private int index(int i)	{
+		if (i == 0)	{
+			return 0;
+		}
+		int magnitude = reg[i] & ~SIGN_POS;
+		return ((reg[i] & SIGN_POS) != 0) ? -magnitude : magnitude;
+	}
+
 	/**
 	 * Start running the MIX program located at {@param pc} and keep
-	 * running until the HLT (0) instruction is encountered.
+	 * running until the HLT (0) instruction is encountered.  Whatever the
+	 * program output before a fault is still flushed to the devices.
 	 */
 	public void run(int startLocation)	throws IllegalInstruction, 
 																 MemoryLocationError,
 																 NotImplemented,
-																 FieldError	{
+																 FieldError,
+																 DeviceError	{
+		try	{
+			execute(startLocation);
+		} catch (MixException e)	{
+			flushAfter(e);
+			throw e;
+		}
+		flushDevices();
+	}
+
+	/**
+	 * Flush the devices after the program has faulted with {@param fault}, which a
+	 * failure to flush mustn't hide.
+	 */
+	private void flushAfter(MixException fault)	{
+		try	{
+			flushDevices();
+		} catch (DeviceError e)	{
+			fault.addSuppressed(e);
+		}
+	}
+
+	/**
+	 * The same as {@link #run}, but a fault in the program is returned rather than thrown:
+	 * null means that it halted normally.
+	 */
+	public MixFault tryRun(int startLocation)	{
+		try	{
+			run(startLocation);
+			return null;
+		} catch (MixException e)	{
+			int loc = e.getLocation();
+			return new MixFault(e, (loc >= 0 && loc < mem.length) ? fetch(loc) : 0, reg.clone(),
+				rJ, ovtog, compi, clock);
+		}
+	}
+
+	/**
+	 * The fetch-decode-execute loop.  Whatever goes wrong is given the location of the
+	 * instruction at fault on the way out; the loop itself has no exception handling.
+	 */
+	private void execute(int startLocation) throws IllegalInstruction, MemoryLocationError,
+			NotImplemented, FieldError, DeviceError	{
+		int location = startLocation;
 		pc = startLocation;
-		while (true)	{
-			try	{
-System.out.println(pc + ": " + showWord(5, mem[pc]));
-				MixInst in = new MixInst(mem[pc]);
+		stopped = false;
+		try	{
+			while (true)	{
+				location = pc;
+				if (Integer.compareUnsigned(pc, MEMORY) >= 0)	{
+					throw new MemoryLocationError("Location " + pc + " is outside of memory");
+				}
+				int word = fetch(pc);
+				if (trace != null)	{
+					trace.println(pc + ": " + showWord(5, word));
+				}
+				MixInst in = decoded[pc];
+				if (in == null || in.word() != word)	{
+					in = decode(pc, word);
+				}
 				pc++;	// if in is a jump instruction, pc will be modified by it
+				clock += in.time();
+				instructions++;
 				if (!in.execute(this))	{
 					break;
 				}
-			} catch (IllegalInstruction e)	{
-				e.attachLocation(pc);
-				throw e;
-			} catch (MemoryLocationError e)	{
-				e.attachLocation(pc);
-				throw e;
 			}
+		} catch (MixException e)	{
+			e.attachLocation(location);
+			throw e;
+		}
+	}
+
+	/**
+	 * Decode {@param word}, fetched from {@param location}, and keep it for the next time
+	 * it's executed; where there's a breakpoint, the breakpoint stands in for it.
+	 */
+	private MixInst decode(int location, int word) throws IllegalInstruction, FieldError	{
+		MixInst in;
+		if (breakpoints != null && breakpoints[location] != null)	{
+			in = new Breakpoint(word, breakpoints[location]);
+		} else	{
+			in = new MixInst(word);
+		}
+		decoded[location] = in;
+		return in;
+	}
+
+	/**
+	 * Reached {@param breakpoint}: stop before the instruction it stands in for, if its
+	 * condition holds, and otherwise execute that instruction instead.  The loop has
+	 * already counted the breakpoint as an instruction, so that's taken back first.
+	 */
+	boolean breakpoint(Breakpoint breakpoint) throws MemoryLocationError, IllegalInstruction,
+			NotImplemented, FieldError, DeviceError	{
+		pc--;
+		instructions--;
+		if (breakpoint.test(this))	{
+			stopped = true;
+			return false;
+		}
+		MixInst in = breakpoint.instruction();
+		pc++;
+		clock += in.time();
+		instructions++;
+		return in.execute(this);
+	}
+
+	/**
+	 * Stop the machine whenever it reaches {@param location}, before the instruction
+	 * there is executed.
+	 */
+	public void setBreakpoint(int location)	{
+		setBreakpoint(location, vm -> true);
+	}
+
+	/**
+	 * Stop the machine at {@param location} if {@param condition} holds then, e.g.
+	 * {@code vm -> vm.getValue(1) == 10}; it's only tested there.  This replaces any
+	 * breakpoint already at the location.
+	 */
+	@SuppressWarnings("unchecked")
+	public void setBreakpoint(int location, Predicate<MixVM> condition)	{
+		if (breakpoints == null)	{
+			breakpoints = (Predicate<MixVM>[]) new Predicate<?>[MEMORY];
+		}
+		breakpoints[location] = condition;
+		// The next fetch from the location decodes it again, as a breakpoint
+		decoded[location] = null;
+	}
+
+	public void clearBreakpoint(int location)	{
+		if (breakpoints != null && breakpoints[location] != null)	{
+			breakpoints[location] = null;
+			decoded[location] = null;
+		}
+	}
+
+	public void clearBreakpoints()	{
+		if (breakpoints != null)	{
+			for (int location = 0; location < MEMORY; location++)	{
+				clearBreakpoint(location);
+			}
+			breakpoints = null;
+		}
+	}
+
+	/**
+	 * Whether the machine stopped at a breakpoint, rather than at a HLT, the last time it
+	 * ran; {@link #getLocation} is then the breakpoint's.
+	 */
+	public boolean isStopped()	{
+		return stopped;
+	}
+
+	/**
+	 * The location of the next instruction to be executed.
+	 */
+	public int getLocation()	{
+		return pc;
+	}
+
+	/**
+	 * Execute the one instruction at {@link #getLocation}, whether or not there's a
+	 * breakpoint there, and return false if it was a HLT.
+	 */
+	public boolean step() throws IllegalInstruction, MemoryLocationError, NotImplemented,
+			FieldError, DeviceError	{
+		int location = pc;
+		stopped = false;
+		try	{
+			if (Integer.compareUnsigned(pc, MEMORY) >= 0)	{
+				throw new MemoryLocationError("Location " + pc + " is outside of memory");
+			}
+			int word = fetch(pc);
+			if (trace != null)	{
+				trace.println(pc + ": " + showWord(5, word));
+			}
+			MixInst in = decoded[pc];
+			if (in == null || in.word() != word)	{
+				in = decode(pc, word);
+			}
+			if (in instanceof Breakpoint)	{
+				in = ((Breakpoint) in).instruction();
+			}
+			pc++;
+			clock += in.time();
+			instructions++;
+			return in.execute(this);
+		} catch (MixException e)	{
+			e.attachLocation(location);
+			throw e;
 		}
 	}
 
+	/**
+	 * Carry on from {@link #getLocation} after stopping, until a HLT or the next
+	 * breakpoint; a breakpoint at the location itself is stepped over.
+	 */
+	public void resume() throws IllegalInstruction, MemoryLocationError, NotImplemented,
+			FieldError, DeviceError	{
+		boolean running;
+		try	{
+			running = step();
+		} catch (MixException e)	{
+			flushAfter(e);
+			throw e;
+		}
+		if (running)	{
+			run(pc);
+		} else	{
+			flushDevices();
+		}
+	}
+
+	/**
+	 * Carry on from {@link #getLocation} until the machine reaches {@param location}, or
+	 * stops for some other reason; see {@link #isStopped} and {@link #getLocation}.
+	 */
+	public void runUntil(int location) throws IllegalInstruction, MemoryLocationError,
+			NotImplemented, FieldError, DeviceError	{
+		Predicate<MixVM> kept = (breakpoints == null) ? null : breakpoints[location];
+		setBreakpoint(location);
+		try	{
+			resume();
+		} finally	{
+			if (kept != null)	{
+				setBreakpoint(location, kept);
+			} else	{
+				clearBreakpoint(location);
+			}
+		}
+	}
+
+	/**
+	 * Exercise 1.3.1-26: the GO button reads a single card into locations 0-15; when the
+	 * card has been completely read and the card reader is no longer busy, a JMP to
+	 * location 0 is made.  The J-register is also set to zero, and the overflow toggle
+	 * is cleared.
+	 *
+	 * The standard loading routine punched on the first two cards of a deck isn't
+	 * simulated; {@link CardLoader} does its work directly.
+	 */
+	public void go() throws IllegalInstruction, MemoryLocationError, NotImplemented,
+			FieldError, DeviceError	{
+		go(false);
+	}
+
+	/**
+	 * The GO button; if {@param simulateLoader} is set, the loading routine is always
+	 * run as MIX code.
+	 */
+	public void go(boolean simulateLoader) throws IllegalInstruction, MemoryLocationError,
+			NotImplemented, FieldError, DeviceError	{
+		input(0, 0, CharacterDevice.CARD_READER);
+		waitFor(CharacterDevice.CARD_READER);
+		rJ = 0;
+		ovtog = false;
+		run(simulateLoader ? 0 : CardLoader.load(this));
+	}
+
 	/**
 	 * Convert a 32-bit integer into a 5- or 2-byte mix word for
 	 * printing.
@@ -423,9 +1016,46 @@ System.out.println(pc + ": " + showWord(5, mem[pc]));
 		}
 	}
 
-	public static void main(String[] args) {
+	/**
+	 * Run the image {@param args}[0], relative to {@param directory}, with the card reader
+	 * on standard input and the line printer on standard output; the exit status is
+	 * returned, for main or {@link MixDaemon}.
+	 */
+	static int command(Path directory, String[] args) throws IOException	{
+		if (args.length == 0)	{
+			System.err.println("Usage: MixVM <image>");
+			return 0;
+		}
+		MixVM vm = new MixVM();
+		int start = vm.loadImage(directory.resolve(args[0]));
+		vm.attachDevice(CharacterDevice.CARD_READER, new CharacterDevice(
+			CharacterDevice.CARD_READER, Channels.newChannel(System.in), null));
+		vm.attachDevice(CharacterDevice.LINE_PRINTER, new CharacterDevice(
+			CharacterDevice.LINE_PRINTER, null, Channels.newChannel(System.out)));
+		MixFault fault = vm.tryRun(Math.max(start, 0));
+		System.out.flush();
+		if (fault != null)	{
+			System.err.println(fault);
+			return 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * With an argument, run the program image it names, with the card reader on standard
+	 * input and the line printer on standard output.
+	 */
+	public static void main(String[] args) throws IOException	{
+		if (args.length > 0)	{
+			int status = command(Paths.get(""), args);
+			if (status != 0)	{
+				System.exit(status);
+			}
+			return;
+		}
 		try	{
 			MixVM vm = new MixVM();
+			vm.setTrace(System.out);
 			vm.mem[2000] = (1 << 24) |
 						 (2 << 18) |
 						 (3 << 12) |
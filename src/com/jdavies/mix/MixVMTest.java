@@ -68,17 +68,23 @@ public class MixVMTest	{
 			}
 		}
 
-		// Some specific examples from TAOCP 1.3.1
-		/*
-		vm.loadMemory(2000, new int[] {-80 << 24 | 3 << 12 | 5 << 6 | 4});
-		assertValue(new MixInst(MixOpCode.LDA, 0, 0, 5, 2000), {-80 << 24 | 3 << 12 | 5 << 6 | 4});
-		assertValue(new MixInst(MixOpCode.LDA, 0, 1, 5, 2000), {80 << 24 | 3 << 12 | 5 << 6 | 4});
-		assertValue(new MixInst(MixOpCode.LDA, 0, 3, 5, 2000), {3 << 12 | 5 << 6 | 4});
-		assertValue(new MixInst(MixOpCode.LDA, 0, 0, 3, 2000), {-80 << 12 | 3});
-		assertValue(new MixInst(MixOpCode.LDA, 0, 4, 4, 2000), {5});
-		assertValue(new MixInst(MixOpCode.LDA, 0, 0, 0, 2000), {-0});
-		assertValue(new MixInst(MixOpCode.LDA, 0, 1, 1, 2000), {1});	// "unknown", but I know
-		*/
+		// Some specific examples from TAOCP 1.3.1, p. 129
+		int minus = 1 << 31;
+		int v = minus | 80 << 18 | 3 << 12 | 5 << 6 | 4;
+		assertLoad(v, 0, 5, minus | 80 << 18 | 3 << 12 | 5 << 6 | 4);
+		assertLoad(v, 1, 5, 80 << 18 | 3 << 12 | 5 << 6 | 4);
+		assertLoad(v, 3, 5, 3 << 12 | 5 << 6 | 4);
+		assertLoad(v, 0, 3, minus | 80 << 6 | 3);
+		assertLoad(v, 4, 4, 5);
+		assertLoad(v, 0, 0, minus);
+		assertLoad(v, 1, 1, 1);	// "unknown", but I know
+	}
+
+	private static void assertLoad(int v, int L, int R, int expected) throws Exception	{
+		MixVM vm = runWith(0, 0, v, new MixInst(MixOpCode.LDA, 0, L, R, 1000));
+		if (!assertEquals(expected, vm.getRegister(0)))	{
+			System.err.println("LDA 1000(" + L + ":" + R + ")");
+		}
 	}
 
 	public static void testStoring() throws Exception	{
@@ -92,19 +98,75 @@ public class MixVMTest	{
 		vm.showMemory(2000,2000);
 
 		// From TAOCP, p. 130
-		/*
-		vm.loadMemory(2000, new int[] {-1 << 24 | 2 << 18 | 3 << 12 | 4 << 6 | 5});
-		vm.loadRegister(0, new int[] {6 << 24 | 7 << 18 | 8 << 12 | 9 << 6 | 0});
-		assertMemory(new MixInst(MixOpCode.STA, 0, 0, 5, 2000), {6 << 24 | 7 << 18 | 8 << 12 | 9 << 6 | 0});
-		assertMemory(new MixInst(MixOpCode.STA, 0, 1, 5, 2000), {-6 << 24 | 7 << 18 | 8 << 12 | 9 << 6 | 0});
-		assertMemory(new MixInst(MixOpCode.STA, 0, 5, 5, 2000), {-1 << 24 | 2 << 18 | 3 << 12 | 4 << 6 | 0});
-		assertMemory(new MixInst(MixOpCode.STA, 0, 2, 2, 2000), {-1 << 24 | 0 << 18 | 3 << 12 | 4 << 6 | 5});
-		assertMemory(new MixInst(MixOpCode.STA, 0, 2, 3, 2000), {-1 << 24 | 9 << 18 | 0 << 12 | 4 << 6 | 5});
-		assertMemory(new MixInst(MixOpCode.STA, 0, 0, 1, 2000), {0 << 24 | 2 << 18 | 3 << 12 | 4 << 6 | 5});
-		*/
-	}
-
-	public static void testAdd()	{
+		int minus = 1 << 31;
+		int v = minus | 1 << 24 | 2 << 18 | 3 << 12 | 4 << 6 | 5;
+		int a = 6 << 24 | 7 << 18 | 8 << 12 | 9 << 6 | 0;
+		assertStore(v, a, 0, 5, 6 << 24 | 7 << 18 | 8 << 12 | 9 << 6 | 0);
+		assertStore(v, a, 1, 5, minus | 6 << 24 | 7 << 18 | 8 << 12 | 9 << 6 | 0);
+		assertStore(v, a, 5, 5, minus | 1 << 24 | 2 << 18 | 3 << 12 | 4 << 6 | 0);
+		assertStore(v, a, 2, 2, minus | 1 << 24 | 0 << 18 | 3 << 12 | 4 << 6 | 5);
+		assertStore(v, a, 2, 3, minus | 1 << 24 | 9 << 18 | 0 << 12 | 4 << 6 | 5);
+		assertStore(v, a, 0, 1, 0 << 24 | 2 << 18 | 3 << 12 | 4 << 6 | 5);
+
+		// STZ clears just the field; STJ stores rJ, + and two bytes
+		MixVM vm2 = runWith(0, 0, v, new MixInst(MixOpCode.STZ, 0, 0, 2, 1000));
+		assertEquals(3 << 12 | 4 << 6 | 5, vm2.getMemory(1000));
+		vm2 = new MixVM();
+		vm2.loadMemory(1000, new int[] {v});
+		vm2.loadMemory(3000, new int[] {
+			new MixInst(MixOpCode.JMP, 0, 0, 0, 3001).pack(),
+			new MixInst(MixOpCode.STJ, 0, 0, 2, 1000).pack(),
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()});
+		vm2.run(3000);
+		assertEquals(3001 << 18 | 3 << 12 | 4 << 6 | 5, vm2.getMemory(1000));
+	}
+
+	private static void assertStore(int v, int a, int L, int R, int expected) throws Exception	{
+		MixVM vm = runWith(a, 0, v, new MixInst(MixOpCode.STA, 0, L, R, 1000));
+		if (!assertEquals(expected, vm.getMemory(1000)))	{
+			System.err.println("STA 1000(" + L + ":" + R + ")");
+		}
+	}
+
+	/**
+	 * p. 134: only the field is compared, -0 = +0, and the sign counts only if it's part
+	 * of the field.
+	 */
+	public static void testComparing() throws Exception	{
+		int minus = 1 << 31;
+		assertCompare(5, 7, 0, 5, -1);
+		assertCompare(minus | 5, 3, 0, 5, -1);
+		assertCompare(minus | 5, 3, 1, 5, 1);
+		assertCompare(minus, 0, 0, 5, 0);
+		assertCompare(minus | 9, 9, 0, 0, 0);		// (0:0): both are zero
+		assertCompare(1 << 24 | 2, 1 << 24 | 3, 1, 4, 0);
+		assertCompare(1 << 24 | 2, 1 << 24 | 3, 5, 5, -1);
+		assertCompare(2 << 18, 1 << 18 | 63 << 12, 2, 2, 1);
+	}
+
+	private static void assertCompare(int a, int v, int L, int R, int expected) throws Exception	{
+		MixVM vm = runWith(a, 0, v, new MixInst(MixOpCode.CMPA, 0, L, R, 1000));
+		if (!assertEquals(expected, vm.getComparison()))	{
+			System.err.println("CMPA 1000(" + L + ":" + R + ")");
+		}
+	}
+
+	/**
+	 * Run a single instruction with rA, rX and location 1000 set up beforehand.
+	 */
+	private static MixVM runWith(int a, int x, int v, MixInst inst) throws Exception	{
+		MixVM vm = new MixVM();
+		vm.loadMemory(1000, new int[] {v, a, x});
+		vm.loadMemory(3000, new int[] {
+			new MixInst(MixOpCode.LDA, 0, 0, 5, 1001).pack(),
+			new MixInst(MixOpCode.LDX, 0, 0, 5, 1002).pack(),
+			inst.pack(),
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()});
+		vm.run(3000);
+		return vm;
+	}
+
+	public static void testAdd() throws Exception	{
 		// p. 131
 		// Compute the sum of the five bytes of register A
 		// STA 2000
@@ -113,38 +175,72 @@ public class MixVMTest	{
 		// ADD 2000(3:3)
 		// ADD 2000(2:2)
 		// ADD 2000(1:1)
+		MixVM vm = new MixVM();
+		vm.loadMemory(1000, new int[] {1 << 24 | 2 << 18 | 3 << 12 | 4 << 6 | 5});
+		vm.loadMemory(3000, new int[] {
+			new MixInst(MixOpCode.LDA, 0, 0, 5, 1000).pack(),
+			new MixInst(MixOpCode.STA, 0, 0, 5, 2000).pack(),
+			new MixInst(MixOpCode.LDA, 0, 5, 5, 2000).pack(),
+			new MixInst(MixOpCode.ADD, 0, 4, 4, 2000).pack(),
+			new MixInst(MixOpCode.ADD, 0, 3, 3, 2000).pack(),
+			new MixInst(MixOpCode.ADD, 0, 2, 2, 2000).pack(),
+			new MixInst(MixOpCode.ADD, 0, 1, 1, 2000).pack(),
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()});
+		vm.run(3000);
+		assertEquals(15, vm.getRegister(0));
 	}
 
-	public static void testArithmetic()	{
+	public static void testArithmetic() throws Exception	{
+		int minus = 1 << 31;
+		MixVM vm;
+
 		// p. 132
 		// reg		0		1		2		3		4		5
 		// rA     + 1234      1    150
 		// 1000   +  100      5     50
 		// ADD 1000
 		// rA     + 1334      6    200
+		vm = runWith(1234 << 18 | 1 << 12 | 150, 0, 100 << 18 | 5 << 12 | 50,
+			new MixInst(MixOpCode.ADD, 0, 0, 5, 1000));
+		assertEquals(1334 << 18 | 6 << 12 | 200, vm.getRegister(0));
 
 		// rA     - 1234      0   0   9
 		// 1000   - 2000       150    0
 		// SUB 1000
 		// rA     +  766       149    ?
+		vm = runWith(minus | 1234 << 18 | 9, 0, minus | 2000 << 18 | 150 << 6,
+			new MixInst(MixOpCode.SUB, 0, 0, 5, 1000));
+		assertEquals(766 << 18 | 149 << 6 | 55, vm.getRegister(0));
 
 		// rA     +   1   1   1   1   1
 		// 1000   +   1   1   1   1   1
 		// MUL 1000
 		// rA     +   0   1   2   3   4
 		// rX     +   5   4   3   2   1
+		int ones = 1 << 24 | 1 << 18 | 1 << 12 | 1 << 6 | 1;
+		vm = runWith(ones, 0, ones, new MixInst(MixOpCode.MUL, 0, 0, 5, 1000));
+		assertEquals(1 << 18 | 2 << 12 | 3 << 6 | 4, vm.getRegister(0));
+		assertEquals(5 << 24 | 4 << 18 | 3 << 12 | 2 << 6 | 1, vm.getRegister(7));
 
 		// rA	    -               112
 		// 1000   ?   2   ?   ?   ?   ?
 		// MUL 1000(1:1)
 		// rA     -                   0
 		// rX     -                 224
+		vm = runWith(minus | 112, 0, minus | 2 << 24 | 63 << 18 | 9,
+			new MixInst(MixOpCode.MUL, 0, 1, 1, 1000));
+		assertEquals(minus, vm.getRegister(0));
+		assertEquals(minus | 224, vm.getRegister(7));
 
 		// rA     -  50   0    112    4
 		// 1000   -   2   0   0   0   0
 		// MUL 1000
 		// rA     +   100     0    224
 		// rX     +   8   0   0   0   0
+		vm = runWith(minus | 50 << 24 | 112 << 6 | 4, 0, minus | 2 << 24,
+			new MixInst(MixOpCode.MUL, 0, 0, 5, 1000));
+		assertEquals(100 << 18 | 224, vm.getRegister(0));
+		assertEquals(8 << 24, vm.getRegister(7));
 
 		// rA     +                   0
 		// rX     ?                  17
@@ -152,16 +248,46 @@ public class MixVMTest	{
 		// DIV 1000
 		// rA     +                   5
 		// rX     +                   2
+		vm = runWith(0, minus | 17, 3, new MixInst(MixOpCode.DIV, 0, 0, 5, 1000));
+		assertEquals(5, vm.getRegister(0));
+		assertEquals(2, vm.getRegister(7));
 
 		// rA     -                   0
 		// rX     +  1235     0   3   1
-		// 1000   -   0   0   0   0   0
+		// 1000   -   0   0   0   2   0
 		// DIV 1000
 		// rA     +   0    617    ?   ?
 		// rX     -   0   0   0   ?   1
+		vm = runWith(minus, 1235 << 18 | 3 << 6 | 1, minus | 2 << 6,
+			new MixInst(MixOpCode.DIV, 0, 0, 5, 1000));
+		assertEquals(617 << 12 | 32 << 6 | 1, vm.getRegister(0));
+		assertEquals(minus | 1 << 6 | 1, vm.getRegister(7));
+
+		// Overflow: rA and rX are left alone and the toggle is set (JOV 3005 is taken)
+		vm = new MixVM();
+		vm.loadMemory(1000, new int[] {3, 3});
+		vm.loadMemory(3000, new int[] {
+			new MixInst(MixOpCode.LDA, 0, 0, 5, 1000).pack(),
+			new MixInst(MixOpCode.DIV, 0, 0, 5, 1001).pack(),
+			new MixInst(MixOpCode.JMP, 0, 0, 2, 3004).pack(),	// JOV
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack(),
+			new MixInst(MixOpCode.INCA, 0, 0, 2, 77).pack(),	// ENTA
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()});
+		vm.run(3000);
+		assertEquals(77, vm.getRegister(0));
+
+		// INCA past the end of rA wraps around; ENNA 0 gives -0; a zero sum keeps the sign of rA
+		vm = runWith(0x3FFFFFFF, 0, 0, new MixInst(MixOpCode.INCA, 0, 0, 0, 2));
+		assertEquals(1, vm.getRegister(0));
+		vm = runWith(5, 0, 0, new MixInst(MixOpCode.INCA, 0, 0, 3, 0));
+		assertEquals(minus, vm.getRegister(0));
+		vm = runWith(5, 0, 0, new MixInst(MixOpCode.INCA, 0, 0, 1, 5));
+		assertEquals(0, vm.getRegister(0));
 	}
 
-	public static void testShifting()	{
+	public static void testShifting() throws Exception	{
+		int minus = 1 << 31;
+
 		//           rA						 rX
 		// 		       + 1 2 3 4 5    - 6 7 8 9 10
 		// SRAX 1    + 0 1 2 3 4    - 5 6 7 8 9
@@ -169,18 +295,133 @@ public class MixVMTest	{
 		// SRC 4     + 6 7 8 9 2    - 3 4 0 0 5
 		// SRA 2     + 0 0 6 7 8    - 3 4 0 0 5
 		// SLC 501   + 0 6 7 8 3    - 4 0 0 5 0
+		MixVM vm = new MixVM();
+		vm.loadMemory(1000, new int[] {
+			1 << 24 | 2 << 18 | 3 << 12 | 4 << 6 | 5,
+			minus | 6 << 24 | 7 << 18 | 8 << 12 | 9 << 6 | 10});
+		vm.loadMemory(3000, new int[] {
+			new MixInst(MixOpCode.LDA, 0, 0, 5, 1000).pack(),
+			new MixInst(MixOpCode.LDX, 0, 0, 5, 1001).pack(),
+			new MixInst(MixOpCode.SLA, 0, 0, 3, 1).pack(),		// SRAX
+			new MixInst(MixOpCode.SLA, 0, 0, 0, 2).pack(),		// SLA
+			new MixInst(MixOpCode.SLA, 0, 0, 5, 4).pack(),		// SRC
+			new MixInst(MixOpCode.SLA, 0, 0, 1, 2).pack(),		// SRA
+			new MixInst(MixOpCode.SLA, 0, 0, 4, 501).pack(),	// SLC
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()});
+		vm.run(3000);
+		assertEquals(6 << 18 | 7 << 12 | 8 << 6 | 3, vm.getRegister(0));
+		assertEquals(minus | 4 << 24 | 5 << 6, vm.getRegister(7));
 	}
 
-	public static void testConversions()	{
+	public static void testConversions() throws Exception	{
 		//			   rA             	rX
 		//         - 00 00 31 32 39 + 37 57 47 30 30
 		// NUM 0   -       12977700 + 37 57 47 30 30
 		// INCA 1  -       12977699 + 37 57 47 30 30
 		// CHAR 0  - 30 30 31 32 39 + 37 37 36 39 39
+		MixVM vm = new MixVM();
+		vm.loadMemory(2000, new int[] {
+			1 << 31 | 0 << 24 | 0 << 18 | 31 << 12 | 32 << 6 | 39,
+			37 << 24 | 57 << 18 | 47 << 12 | 30 << 6 | 30,
+			1 << 31 | 12977699});
+		vm.loadMemory(3000, new int[] {
+			new MixInst(MixOpCode.LDA, 0, 0, 5, 2000).pack(),
+			new MixInst(MixOpCode.LDX, 0, 0, 5, 2001).pack(),
+			new MixInst(MixOpCode.HLT, 0, 0, 0, 0).pack(),	// NUM
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()});
+		vm.run(3000);
+		assertEquals(1 << 31 | 12977700, vm.getRegister(0));
+
+		vm.loadMemory(3000, new int[] {
+			new MixInst(MixOpCode.LDA, 0, 0, 5, 2002).pack(),
+			new MixInst(MixOpCode.HLT, 0, 0, 1, 0).pack(),	// CHAR
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()});
+		vm.run(3000);
+		assertEquals(1 << 31 | 30 << 24 | 30 << 18 | 31 << 12 | 32 << 6 | 39, vm.getRegister(0));
+		assertEquals(37 << 24 | 37 << 18 | 36 << 12 | 39 << 6 | 39, vm.getRegister(7));
+	}
+
+	/**
+	 * A program that faults on its second instruction, after putting 5 in rA.
+	 */
+	private static MixVM faulting(MixInst second)	{
+		MixVM vm = new MixVM();
+		vm.loadMemory(3000, new int[] {
+			new MixInst(MixOpCode.INCA, 0, 0, 2, 5).pack(),	// ENTA 5
+			second.pack(),
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()});
+		return vm;
+	}
+
+	private static void assertFault(MixFault.Code code, MixInst second)	{
+		MixFault fault = faulting(second).tryRun(3000);
+		if (fault == null)	{
+			System.err.println("ERROR: Expected " + code + " from " + second);
+			return;
+		}
+		if (fault.getCode() != code)	{
+			System.err.println("ERROR: Expected " + code + " but got " + fault);
+		}
+		assertEquals(3001, fault.getLocation());
+		assertEquals(second.pack(), fault.getInstruction());
+		assertEquals(5, fault.getRegister(0));
+	}
+
+	public static void testFaults() throws Exception	{
+		assertFault(MixFault.Code.FIELD_ERROR, new MixInst(MixOpCode.LDA, 0, 1, 0, 1000));
+		assertFault(MixFault.Code.ILLEGAL_INSTRUCTION, new MixInst(MixOpCode.SLA, 0, 0, 0, -1));
+		assertFault(MixFault.Code.MEMORY_LOCATION, new MixInst(MixOpCode.MOVE, 0, 2, 4, 3990));
+		assertFault(MixFault.Code.DEVICE_ERROR, new MixInst(MixOpCode.OUT, 0, 2, 2, 1000));
+		assertFault(MixFault.Code.MEMORY_LOCATION, new MixInst(MixOpCode.LDA, 0, 0, 5, 4000));
+		assertFault(MixFault.Code.MEMORY_LOCATION, new MixInst(MixOpCode.STA, 0, 0, 5, -1));
+		assertFault(MixFault.Code.MEMORY_LOCATION, new MixInst(MixOpCode.CMPA, 1, 0, 5, -1));
+
+		// Running off the end of memory
+		MixFault fault = faulting(new MixInst(MixOpCode.JMP, 0, 0, 0, 3999)).tryRun(3000);
+		assertEquals(4000, (fault == null) ? 0 : fault.getLocation());
+
+		if (faulting(new MixInst(MixOpCode.NOP, 0, 0, 0, 0)).tryRun(3000) != null)	{
+			System.err.println("ERROR: A program that halts reported a fault");
+		}
+
+		// Thrown the same way by run(), without a stack trace
+		try	{
+			faulting(new MixInst(MixOpCode.SLA, 0, 0, 0, -1)).run(3000);
+			System.err.println("ERROR: SLA -1 didn't fault");
+		} catch (IllegalInstruction e)	{
+			assertEquals(3001, e.getLocation());
+			assertEquals(0, e.getStackTrace().length);
+		}
+	}
+
+	/**
+	 * An instruction that's been decoded once has to be decoded again once the program
+	 * stores something else over it.
+	 */
+	public static void testSelfModifying() throws Exception	{
+		MixVM vm = new MixVM();
+		vm.loadMemory(3000, new int[] {
+			new MixInst(MixOpCode.INC1, 0, 0, 2, 2).pack(),		// ENT1 2
+			new MixInst(MixOpCode.INCA, 0, 0, 0, 1).pack(),		// INCA 1
+			new MixInst(MixOpCode.LDX, 0, 0, 5, 3010).pack(),		// LDX  3010
+			new MixInst(MixOpCode.STX, 0, 0, 5, 3001).pack(),		// STX  3001
+			new MixInst(MixOpCode.INC1, 0, 0, 1, 1).pack(),		// DEC1 1
+			new MixInst(MixOpCode.J1P, 0, 0, 2, 3001).pack(),		// J1P  3001
+			new MixInst(MixOpCode.HLT, 0, 0, 2, 0).pack()});
+		vm.loadMemory(3010, new int[] {new MixInst(MixOpCode.INCA, 0, 0, 0, 100).pack()});
+		vm.run(3000);
+		assertEquals(101, vm.getRegister(0));
 	}
 
 	public static void main(String[] args) throws Exception	{
 		testLoading();
 		testStoring();
+		testComparing();
+		testAdd();
+		testArithmetic();
+		testShifting();
+		testConversions();
+		testFaults();
+		testSelfModifying();
 	}
 }
@@ -0,0 +1,511 @@
+package com.jdavies.mix;
+
+import java.util.Arrays;
+
+/**
+ * Compiles MIXAL expressions and W-values (rules 4, 5 and 9, p. 153-155) from the
+ * scanner's buffer into a compact postfix code, one long per operand or operator, which
+ * is then run against the symbol table.  Each operand is a number (with * already
+ * replaced by the location counter) or a packed symbol; since operations are carried
+ * out left to right, the code for A+B*C is simply A B + C *.
+ *
+ * A W-value E1(F1),...,En(Fn) compiles to E1 F1 STORE ... En Fn STORE, starting from a
+ * word of zeros; the A-part of an instruction compiles to E ADDRESS, starting from the
+ * rest of the instruction.  Code that refers only to defined symbols is run at once;
+ * code with a future reference can be kept and run when the symbol is defined.  Given
+ * {@link #LOCATION} for the value of *, the code keeps * itself, to be supplied when it's
+ * run, so that it still holds if the line moves.
+ *
+ * In a relocatable module, * and every label are relative to wherever the linker puts
+ * the module.  Run by {@link #evaluate}, the code keeps count of how many times the
+ * module's origin is in each value: once, and the value is relocatable; not at all, and
+ * it's absolute; anything else can't be linked.  A relocatable value can be added to or
+ * subtracted from, and stored in one field of the word, which the linker then adjusts.
+ */
+final class MixalExpression	{
+	// The operation is in the top four bits of each code, the operand below
+	private static final int TAG_SHIFT = 60;
+	private static final long OPERAND = (1L << TAG_SHIFT) - 1;
+	private static final long NUMBER = 1L << TAG_SHIFT;
+	private static final long SYMBOL = 2L << TAG_SHIFT;
+	private static final long NEGATE = 3L << TAG_SHIFT;
+	private static final long ADD = 4L << TAG_SHIFT;
+	private static final long SUBTRACT = 5L << TAG_SHIFT;
+	private static final long MULTIPLY = 6L << TAG_SHIFT;
+	private static final long DIVIDE = 7L << TAG_SHIFT;
+	private static final long FRACTION = 8L << TAG_SHIFT;	// //
+	private static final long FIELD = 9L << TAG_SHIFT;		// :
+	private static final long STORE = 10L << TAG_SHIFT;
+	private static final long ADDRESS = 11L << TAG_SHIFT;
+	private static final long BYTE = 12L << TAG_SHIFT;
+	private static final long STAR = 13L << TAG_SHIFT;
+	// Keep the value of an expression while its F-part is worked out
+	private static final long HOLD = 14L << TAG_SHIFT;
+	private static final long STORE_HELD = 15L << TAG_SHIFT;
+
+	/**
+	 * Compile * as itself, rather than as the location it stands for.
+	 */
+	static final int LOCATION = -1;
+
+	// Five bytes
+	private static final long MAGNITUDE = (1L << 30) - 1;
+	private static final int SIGN = 1 << 31;
+	private static final int MAX_ADDRESS = 4095;
+
+	private long code[] = new long[32];
+	private int length;
+	// The first symbol that wasn't defined when it was compiled, 0 if there's none
+	private long future;
+	// The relocatable symbols, in a module; null otherwise
+	private LongIntMap relocatable;
+	// The field of the last word evaluated that the linker has to adjust, or -1
+	private int relocated = -1;
+
+	/**
+	 * Start compiling a new expression.
+	 */
+	void clear()	{
+		length = 0;
+		future = 0;
+		relocated = -1;
+	}
+
+	long[] code()	{
+		return code;
+	}
+
+	int length()	{
+		return length;
+	}
+
+	/**
+	 * Evaluate code for a relocatable module, in which {@param relocatable} are the
+	 * symbols relative to its origin, along with *; null for an absolute program.
+	 */
+	void setRelocatable(LongIntMap relocatable)	{
+		this.relocatable = relocatable;
+	}
+
+	/**
+	 * The field of the word last evaluated that holds a relocatable value, or -1 if
+	 * there's none.
+	 */
+	int relocated()	{
+		return relocated;
+	}
+
+	/**
+	 * The first future reference compiled since {@link #clear()}, or 0 if there was none.
+	 */
+	long future()	{
+		return future;
+	}
+
+	/**
+	 * The symbol, if the code is nothing but a future reference in the A-part of an
+	 * instruction; 0 otherwise.
+	 */
+	long loneFutureAddress()	{
+		return (length == 2 && (code[0] & ~OPERAND) == SYMBOL && code[1] == ADDRESS) ?
+			(code[0] & OPERAND) : 0;
+	}
+
+	private void emit(long c)	{
+		if (length == code.length)	{
+			code = Arrays.copyOf(code, length * 2);
+		}
+		code[length++] = c;
+	}
+
+	/**
+	 * Store the last value into the (0:2) field of the word.
+	 */
+	void emitAddress()	{
+		emit(ADDRESS);
+	}
+
+	/**
+	 * Store the last value, which has to fit in a byte, into byte {@param position} of
+	 * the word: 3 for the index of an instruction, 4 for its field.
+	 */
+	void emitByte(int position)	{
+		emit(BYTE | position);
+	}
+
+	/**
+	 * Store the last value into field {@param f} of the word.
+	 */
+	void emitStore(int f)	{
+		emit(STORE | f);
+	}
+
+	/**
+	 * Compile the expression from {@param start} to {@param end} of the scanner's line;
+	 * {@param star} is the value of *.
+	 */
+	void compile(MixalScanner scan, int start, int end, LongIntMap symbols, int star)
+			throws SyntaxException	{
+		if (start == end)	{
+			throw new SyntaxException("Missing expression");
+		}
+		int p = start;
+		long unary = 0;
+		if (scan.at(p) == '+' || scan.at(p) == '-')	{
+			unary = (scan.at(p) == '-') ? NEGATE : 0;
+			p++;
+		}
+		p = atom(scan, p, end, symbols, star);
+		if (unary != 0)	{
+			emit(unary);
+		}
+		while (p < end)	{
+			long operator;
+			switch (scan.at(p))	{
+				case '+': operator = ADD; break;
+				case '-': operator = SUBTRACT; break;
+				case '*': operator = MULTIPLY; break;
+				case ':': operator = FIELD; break;
+				case '/':
+					if (p + 1 < end && scan.at(p + 1) == '/')	{
+						operator = FRACTION;
+						p++;
+					} else	{
+						operator = DIVIDE;
+					}
+					break;
+				default:
+					throw new SyntaxException("Unexpected '" + (char) (scan.at(p) & 0xFF) +
+						"' in '" + scan.text(start, end) + "'");
+			}
+			p = atom(scan, p + 1, end, symbols, star);
+			emit(operator);
+		}
+	}
+
+	/**
+	 * Compile the number, symbol or * at {@param p}; the position after it.
+	 */
+	private int atom(MixalScanner scan, int p, int end, LongIntMap symbols, int star)
+			throws SyntaxException	{
+		if (p < end && scan.at(p) == '*')	{
+			emit((star == LOCATION) ? STAR : (NUMBER | (star & 0xFFFFFFFFL)));
+			return p + 1;
+		}
+		int first = p;
+		boolean letter = false;
+		while (p < end && isAlphanumeric(scan.at(p)))	{
+			letter |= (scan.at(p) >= 'A');
+			p++;
+		}
+		if (p == first)	{
+			throw new SyntaxException("Expected a number, symbol or * in '" +
+				scan.text(first, end) + "'");
+		}
+		if (letter)	{
+			long symbol = MixSymbol.pack(scan, first, p);
+			if (symbol == 0)	{
+				throw new SyntaxException("Invalid symbol '" + scan.text(first, p) + "'");
+			}
+			if (future == 0 && !symbols.containsKey(symbol))	{
+				future = symbol;
+			}
+			emit(SYMBOL | symbol);
+		} else	{
+			long value = 0;
+			for (int d = first; d < p; d++)	{
+				value = value * 10 + (scan.at(d) - '0');
+				if (value > MAGNITUDE)	{
+					throw new SyntaxException("The number '" + scan.text(first, p) +
+						"' is too large");
+				}
+			}
+			emit(NUMBER | value);
+		}
+		return p;
+	}
+
+	/**
+	 * Compile the W-value from {@param start} to {@param end}: expressions, each with an
+	 * optional F-part, separated by commas.
+	 */
+	void compileWValue(MixalScanner scan, int start, int end, LongIntMap symbols, int star)
+			throws SyntaxException	{
+		int p = start;
+		for (;;)	{
+			int comma = p;
+			while (comma < end && scan.at(comma) != ',')	{
+				comma++;
+			}
+			int field = p;
+			while (field < comma && scan.at(field) != '(')	{
+				field++;
+			}
+			compile(scan, p, field, symbols, star);
+			if (field < comma)	{
+				if (scan.at(comma - 1) != ')')	{
+					throw new SyntaxException("Expected ')' at the end of '" +
+						scan.text(p, comma) + "'");
+				}
+				emit(HOLD);
+				compile(scan, field + 1, comma - 1, symbols, star);
+				emit(STORE_HELD);
+			} else	{
+				emitStore(5);
+			}
+			if (comma == end)	{
+				return;
+			}
+			p = comma + 1;
+		}
+	}
+
+	/**
+	 * The value of the expression from {@param start} to {@param end}, which is the
+	 * {@param part} of the address and can't depend on a future reference.  The code
+	 * compiled so far is kept.
+	 */
+	int constant(MixalScanner scan, int start, int end, LongIntMap symbols, int star,
+			String part) throws SyntaxException	{
+		int mark = length;
+		long outer = future;
+		future = 0;
+		compile(scan, start, end, symbols, (relocatable != null) ? LOCATION : star);
+		if (future != 0)	{
+			throw new SyntaxException("Future reference '" + MixSymbol.toString(future) +
+				"' is not allowed in the " + part);
+		}
+		emitStore(5);
+		int value = toInt(evaluate(code, mark, length, symbols, star, 0));
+		if (relocated >= 0)	{
+			throw new SyntaxException("The " + part + " can't be relocatable");
+		}
+		length = mark;
+		future = outer;
+		return value;
+	}
+
+	/**
+	 * Run the code from {@param from} to {@param to} against {@param word}, and return
+	 * the word as it's left.  Every symbol has to be defined by now.
+	 */
+	static int run(long code[], int from, int to, LongIntMap symbols, int word)
+			throws SyntaxException	{
+		return run(code, from, to, symbols, LOCATION, word);
+	}
+
+	/**
+	 * Run the code with {@param star} as the value of *.
+	 */
+	static int run(long code[], int from, int to, LongIntMap symbols, int star, int word)
+			throws SyntaxException	{
+		return execute(code, from, to, symbols, star, word, null);
+	}
+
+	/**
+	 * Run the code as {@link #run} does, keeping track of which field of the word, if
+	 * any, is relocatable: see {@link #relocated}.
+	 */
+	int evaluate(long code[], int from, int to, LongIntMap symbols, int star, int word)
+			throws SyntaxException	{
+		relocated = -1;
+		return execute(code, from, to, symbols, star, word, this);
+	}
+
+	private static int execute(long code[], int from, int to, LongIntMap symbols, int star,
+			int word, MixalExpression relocating) throws SyntaxException	{
+		LongIntMap relocatable = (relocating == null) ? null : relocating.relocatable;
+		// Left to right, so there are never more than two values waiting, and one more
+		// held for its F-part; each with the number of times the origin is in it
+		long a = 0;
+		long b = 0;
+		long held = 0;
+		int ra = 0;
+		int rb = 0;
+		int rheld = 0;
+		int depth = 0;
+		for (int k = from; k < to; k++)	{
+			long c = code[k];
+			long tag = c & ~OPERAND;
+			long value;
+			int r = 0;
+			if (tag == NUMBER)	{
+				value = (int) c;
+			} else if (tag == SYMBOL)	{
+				long symbol = c & OPERAND;
+				if (!symbols.containsKey(symbol))	{
+					throw new SyntaxException("Undefined symbol '" + MixSymbol.toString(symbol) + "'");
+				}
+				value = symbols.get(symbol, 0);
+				r = (relocatable != null && relocatable.containsKey(symbol)) ? 1 : 0;
+			} else if (tag == STAR)	{
+				if (star == LOCATION)	{
+					throw new SyntaxException("The value of * isn't known here");
+				}
+				value = star;
+				r = (relocatable != null) ? 1 : 0;
+			} else if (tag == HOLD)	{
+				held = a;
+				rheld = ra;
+				depth = 0;
+				continue;
+			} else if (tag == STORE_HELD)	{
+				FieldSpec field = FieldSpec.of((int) a);
+				if (a < 0 || field == null || ra != 0)	{
+					throw new SyntaxException("Invalid field " + a);
+				}
+				word = field.insert(word, toWord(held));
+				relocate(relocating, rheld, (int) a);
+				depth = 0;
+				continue;
+			} else if (tag == NEGATE)	{
+				a = -a;
+				ra = -ra;
+				continue;
+			} else if (tag == STORE)	{
+				FieldSpec field = FieldSpec.of((int) (c & OPERAND));
+				if (field == null)	{
+					throw new SyntaxException("Invalid field " + (c & OPERAND));
+				}
+				word = field.insert(word, toWord(a));
+				relocate(relocating, ra, (int) (c & OPERAND));
+				depth = 0;
+				continue;
+			} else if (tag == BYTE)	{
+				int position = (int) (c & OPERAND);
+				if (a < 0 || a > 63)	{
+					throw new SyntaxException("The " + ((position == 3) ? "index " : "field ") + a +
+						" is out of range");
+				}
+				if (ra != 0)	{
+					throw new SyntaxException("The " + ((position == 3) ? "index" : "field") +
+						" can't be relocatable");
+				}
+				word = FieldSpec.of(8 * position + position).insert(word, (int) a);
+				depth = 0;
+				continue;
+			} else if (tag == ADDRESS)	{
+				if (Math.abs(a) > MAX_ADDRESS)	{
+					throw new SyntaxException("The address " + a + " is too large");
+				}
+				word = (word & ~(SIGN | (MAX_ADDRESS << 18))) | ((a < 0) ? SIGN : 0) |
+					((int) Math.abs(a) << 18);
+				relocate(relocating, ra, 2);
+				depth = 0;
+				continue;
+			} else	{
+				a = apply(tag, a, b);
+				if (tag == ADD)	{
+					ra += rb;
+				} else if (tag == SUBTRACT)	{
+					ra -= rb;
+				} else if (ra != 0 || rb != 0)	{
+					throw new SyntaxException("A relocatable value can only be added to or subtracted from");
+				}
+				depth = 1;
+				continue;
+			}
+			if (depth == 0)	{
+				a = value;
+				ra = r;
+			} else	{
+				b = value;
+				rb = r;
+			}
+			depth++;
+		}
+		return word;
+	}
+
+	/**
+	 * Note that {@param field} holds a value with the origin in it {@param count} times.
+	 */
+	private static void relocate(MixalExpression relocating, int count, int field)
+			throws SyntaxException	{
+		if (count == 0)	{
+			return;
+		}
+		if (count != 1)	{
+			throw new SyntaxException("A value with the origin in it " + count +
+				" times can't be relocated");
+		}
+		if (relocating.relocated >= 0 && relocating.relocated != field)	{
+			throw new SyntaxException("Only one field of a word can be relocatable");
+		}
+		relocating.relocated = field;
+	}
+
+	/**
+	 * The symbol that {@param c} refers to, or 0 if it isn't a symbol.
+	 */
+	static long symbolIn(long c)	{
+		return ((c & ~OPERAND) == SYMBOL) ? (c & OPERAND) : 0;
+	}
+
+	/**
+	 * Put each symbol in the code from {@param from} to {@param to} that isn't in
+	 * {@param symbols} into {@param future}, with the value -1, unless it's there already.
+	 */
+	static void addFutureReferences(long code[], int from, int to, LongIntMap symbols,
+			LongIntMap future)	{
+		for (int k = from; k < to; k++)	{
+			long symbol = code[k] & OPERAND;
+			if ((code[k] & ~OPERAND) == SYMBOL && !symbols.containsKey(symbol) &&
+					!future.containsKey(symbol))	{
+				future.put(symbol, -1);
+			}
+		}
+	}
+
+	/**
+	 * A op B, as the MIX program for it in rule 5 would leave it.
+	 */
+	private static long apply(long operator, long a, long b) throws SyntaxException	{
+		if (operator == ADD)	{
+			return truncate(a + b);
+		} else if (operator == SUBTRACT)	{
+			return truncate(a - b);
+		} else if (operator == MULTIPLY)	{
+			// STX: the lower half of the product
+			return truncate(a * b);
+		} else if (operator == FIELD)	{
+			return truncate(truncate(8 * a) + b);
+		}
+		if (b == 0)	{
+			throw new SyntaxException("Division by zero");
+		}
+		long sign = ((a < 0) != (b < 0)) ? -1 : 1;
+		if (operator == DIVIDE)	{
+			// SRAX 5 leaves A in rX, so the dividend is just |A|
+			return sign * (Math.abs(a) / Math.abs(b));
+		}
+		// ENTX 0: the dividend is |A| * 64^5, and the quotient has to fit in rA
+		if (Math.abs(a) >= Math.abs(b))	{
+			throw new SyntaxException("Overflow in " + a + "//" + b);
+		}
+		return sign * ((Math.abs(a) << 30) / Math.abs(b));
+	}
+
+	/**
+	 * {@param value} reduced to five bytes, keeping its sign.
+	 */
+	private static long truncate(long value)	{
+		return (value < 0) ? -(-value & MAGNITUDE) : (value & MAGNITUDE);
+	}
+
+	private static int toWord(long value)	{
+		return ((value < 0) ? SIGN : 0) | (int) (Math.abs(value) & MAGNITUDE);
+	}
+
+	/**
+	 * The signed value of a MIX word.
+	 */
+	static int toInt(int word)	{
+		int magnitude = word & (int) MAGNITUDE;
+		return ((word & SIGN) != 0) ? -magnitude : magnitude;
+	}
+
+	private static boolean isAlphanumeric(byte b)	{
+		return (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9');
+	}
+}
@@ -0,0 +1,129 @@
+package com.jdavies.mix;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits MIXAL source into lines, and each line into its LOC, OP and ADDRESS fields, in a
+ * single pass over the bytes.  Nothing is copied: the fields are given as positions in the
+ * buffer, which may be a memory-mapped file, and the scanner allocates nothing per line.
+ *
+ * From a terminal (p. 153), the LOC field ends with the first blank space, while the OP
+ * and ADDRESS fields (if present) begin with a nonblank character and continue to the next
+ * blank; anything after that is a remark.  A line with * in column 1 is a comment.
+ */
+final class MixalScanner	{
+	private final ByteBuffer source;
+	private final int limit;
+	private int next;
+
+	// The current line, without its line terminator
+	int lineStart;
+	int lineEnd;
+	private boolean empty;
+	// The fields of the current line; start == end if the field is empty
+	int locStart, locEnd;
+	int opStart, opEnd;
+	int addressStart, addressEnd;
+
+	MixalScanner(ByteBuffer source)	{
+		this.source = source;
+		this.next = source.position();
+		this.limit = source.limit();
+	}
+
+	/**
+	 * Move on to the next line; false at the end of the source.
+	 */
+	boolean nextLine()	{
+		if (next >= limit)	{
+			return false;
+		}
+		lineStart = next;
+		int p = next;
+		while (p < limit && source.get(p) != '\n')	{
+			p++;
+		}
+		next = p + 1;
+		if (p > lineStart && source.get(p - 1) == '\r')	{
+			p--;
+		}
+		lineEnd = p;
+
+		locStart = locEnd = opStart = opEnd = addressStart = addressEnd = lineStart;
+		empty = blankOrComment();
+		if (empty)	{
+			return true;
+		}
+		p = lineStart;
+		if (!isBlank(source.get(p)))	{
+			locStart = p;
+			p = skipField(p);
+			locEnd = p;
+		}
+		p = skipBlanks(p);
+		opStart = p;
+		p = skipField(p);
+		opEnd = p;
+		p = skipBlanks(p);
+		addressStart = p;
+		addressEnd = skipField(p);
+		return true;
+	}
+
+	/**
+	 * A line with nothing on it, or a comment.
+	 */
+	boolean isBlankOrComment()	{
+		return empty;
+	}
+
+	private boolean blankOrComment()	{
+		if (lineStart < lineEnd && source.get(lineStart) == '*')	{
+			return true;
+		}
+		for (int p = lineStart; p < lineEnd; p++)	{
+			if (!isBlank(source.get(p)))	{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	byte at(int p)	{
+		return source.get(p);
+	}
+
+	/**
+	 * The text from {@param start} to {@param end}, for symbols and messages.
+	 */
+	String text(int start, int end)	{
+		byte bytes[] = new byte[end - start];
+		for (int p = start; p < end; p++)	{
+			bytes[p - start] = source.get(p);
+		}
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	String line()	{
+		return text(lineStart, lineEnd);
+	}
+
+	private int skipField(int p)	{
+		while (p < lineEnd && !isBlank(source.get(p)))	{
+			p++;
+		}
+		return p;
+	}
+
+	private int skipBlanks(int p)	{
+		while (p < lineEnd && isBlank(source.get(p)))	{
+			p++;
+		}
+		return p;
+	}
+
+	private static boolean isBlank(byte b)	{
+		return b == ' ' || b == '\t';
+	}
+}
@@ -0,0 +1,89 @@
+package com.jdavies.mix;
+
+import java.util.Random;
+
+/**
+ * MOVE against the word-at-a-time loop of p. 135, for random sources, destinations
+ * and counts, concentrating on moves whose ends are close together.
+ */
+public class MoveTest	{
+	private static final int TRIALS = 200000;
+
+	private static Random random = new Random(135);
+
+	/**
+	 * The definition: one word at a time, starting at the left.
+	 */
+	private static void slowMove(int mem[], int from, int to, int f)	{
+		for (int k = 0; k < f; k++)	{
+			mem[to + k] = mem[from + k];
+		}
+	}
+
+	public static void testRandomMoves() throws Exception	{
+		int mem[] = new int[4000];
+		for (int loc = 0; loc < mem.length; loc++)	{
+			mem[loc] = random.nextInt();
+		}
+		MixVM vm = new MixVM(mem);
+		int failures = 0;
+
+		for (int t = 0; t < TRIALS && failures < 10; t++)	{
+			int f = random.nextInt(64);
+			int from = random.nextInt(mem.length - f + 1);
+			int to = random.nextBoolean() ?
+				Math.max(0, Math.min(mem.length - f, from + random.nextInt(2 * f + 3) - f - 1)) :
+				random.nextInt(mem.length - f + 1);
+			int before = random.nextBoolean() ? 0 : random.nextInt(10);
+
+			slowMove(mem, from, to, f);
+			// Index the source with rI2 half of the time
+			vm.putRegister(1, to);
+			vm.putRegister(2, before);
+			vm.moveWords(from - before, 2, f);
+
+			boolean same = MixVMTest.assertEquals((f == 0) ? to : to + f, vm.getRegister(1));
+			for (int loc = 0; loc < mem.length && same; loc++)	{
+				same = MixVMTest.assertEquals(mem[loc], vm.getMemory(loc));
+			}
+			if (!same)	{
+				System.err.println("MOVE " + from + "(" + f + ") to " + to);
+				failures++;
+				// Start over from the same memory
+				for (int loc = 0; loc < mem.length; loc++)	{
+					mem[loc] = vm.getMemory(loc);
+				}
+			}
+		}
+	}
+
+	/**
+	 * p. 135: with rI1 = M + 1, CONTENTS(M) is copied into F places.
+	 */
+	public static void testReplicate() throws Exception	{
+		MixVM vm = new MixVM();
+		vm.loadMemory(1000, new int[] {42, 1, 2, 3});
+		vm.putRegister(1, 1001);
+		vm.moveWords(1000, 0, 3);
+		MixVMTest.assertEquals(1004, vm.getRegister(1));
+		for (int loc = 1000; loc < 1004; loc++)	{
+			MixVMTest.assertEquals(42, vm.getMemory(loc));
+		}
+
+		boolean thrown = false;
+		try	{
+			vm.putRegister(1, 3990);
+			vm.moveWords(0, 0, 20);
+		} catch (MemoryLocationError e)	{
+			thrown = true;
+		}
+		if (!thrown)	{
+			System.err.println("ERROR: MOVE past the end of memory was allowed");
+		}
+	}
+
+	public static void main(String[] args) throws Exception	{
+		testRandomMoves();
+		testReplicate();
+	}
+}
@@ -0,0 +1,99 @@
+package com.jdavies.mix;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * A perfect hash of the MIXAL operation codes, so that the assembler can look an OP field
+ * up straight from the source bytes.  Every mnemonic is one to five letters and digits,
+ * which pack six bits apiece into a nonzero int key; a multiplier is then searched for
+ * (once, when the table is built) that sends every key to a different slot.  A lookup is
+ * a multiply, a shift and one comparison.
+ */
+final class OpcodeHash	{
+	private final int shift;
+	private final int multiplier;
+	private final int keys[];
+	private final MixInstSpec specs[];
+
+	OpcodeHash(Map<String, MixInstSpec> opcodes)	{
+		SplittableRandom random = new SplittableRandom(1968);
+		int bits;
+		int m = 0;
+		search:
+		for (bits = 8; bits <= 16; bits++)	{
+			for (int attempt = 0; attempt < 1000; attempt++)	{
+				m = random.nextInt() | 1;
+				if (isPerfect(opcodes.keySet(), m, bits))	{
+					break search;
+				}
+			}
+		}
+		if (bits > 16)	{
+			throw new IllegalStateException("No perfect hash for " + opcodes.size() + " opcodes");
+		}
+
+		this.shift = 32 - bits;
+		this.multiplier = m;
+		this.keys = new int[1 << bits];
+		this.specs = new MixInstSpec[1 << bits];
+		for (Map.Entry<String, MixInstSpec> op : opcodes.entrySet())	{
+			int key = key(op.getKey());
+			keys[(key * m) >>> shift] = key;
+			specs[(key * m) >>> shift] = op.getValue();
+		}
+	}
+
+	private static boolean isPerfect(Set<String> mnemonics, int m, int bits)	{
+		boolean used[] = new boolean[1 << bits];
+		for (String mnemonic : mnemonics)	{
+			int slot = (key(mnemonic) * m) >>> (32 - bits);
+			if (used[slot])	{
+				return false;
+			}
+			used[slot] = true;
+		}
+		return true;
+	}
+
+	/**
+	 * The specification for the mnemonic at {@param start} to {@param end} of the
+	 * scanner's current line, or null if there's no such operation.
+	 */
+	MixInstSpec get(MixalScanner scan, int start, int end)	{
+		if (end - start < 1 || end - start > 5)	{
+			return null;
+		}
+		int key = 0;
+		for (int p = start; p < end; p++)	{
+			int code = code(scan.at(p));
+			if (code == 0)	{
+				return null;
+			}
+			key = (key << 6) | code;
+		}
+		int slot = (key * multiplier) >>> shift;
+		return (keys[slot] == key) ? specs[slot] : null;
+	}
+
+	private static int key(String mnemonic)	{
+		int key = 0;
+		for (int k = 0; k < mnemonic.length(); k++)	{
+			key = (key << 6) | code(mnemonic.charAt(k));
+		}
+		return key;
+	}
+
+	/**
+	 * 1-26 for A-Z, 27-36 for 0-9, 0 for anything else.
+	 */
+	private static int code(int ch)	{
+		if (ch >= 'A' && ch <= 'Z')	{
+			return ch - 'A' + 1;
+		} else if (ch >= '0' && ch <= '9')	{
+			return ch - '0' + 27;
+		}
+		return 0;
+	}
+}
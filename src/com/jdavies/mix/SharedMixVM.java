@@ -0,0 +1,52 @@
+package com.jdavies.mix;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * One CPU of a multi-processor MIX: its own registers, pc, rJ, overflow toggle and
+ * comparison indicator, over a memory that other CPUs are using at the same time.
+ * Word accesses go through a VarHandle in the configured {@link MemoryOrder}.
+ *
+ * Only single-word accesses are ordered.  A store into a partial field reads the word
+ * and writes it back, so two CPUs storing into different fields of the same word at the
+ * same time can lose one of the stores; MOVE and I/O copy blocks with no ordering at all.
+ */
+public class SharedMixVM extends MixVM	{
+	private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(int[].class);
+
+	private int mem[];
+	private MemoryOrder order;
+
+	public SharedMixVM(int[] mem, MemoryOrder order)	{
+		share(mem);
+		this.mem = mem;
+		this.order = order;
+	}
+
+	public MemoryOrder getOrder()	{
+		return order;
+	}
+
+	int fetch(int loc)	{
+		switch (order)	{
+			case PLAIN: return (int) WORDS.get(mem, loc);
+			case OPAQUE: return (int) WORDS.getOpaque(mem, loc);
+			case ACQUIRE_RELEASE: return (int) WORDS.getAcquire(mem, loc);
+			default: return (int) WORDS.getVolatile(mem, loc);
+		}
+	}
+
+	void write(int loc, int word)	{
+		switch (order)	{
+			case PLAIN: WORDS.set(mem, loc, word); break;
+			case OPAQUE: WORDS.setOpaque(mem, loc, word); break;
+			case ACQUIRE_RELEASE: WORDS.setRelease(mem, loc, word); break;
+			default: WORDS.setVolatile(mem, loc, word); break;
+		}
+	}
+
+	int compareAndExchange(int loc, int expect, int update)	{
+		return (int) WORDS.compareAndExchange(mem, loc, expect, update);
+	}
+}